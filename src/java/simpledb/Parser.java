@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -13,18 +15,92 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.*;
+import simpledb.optimizer.ExplainAnalyze;
 import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
+import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.StringField;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.VarcharField;
 import simpledb.transaction.Transaction;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class Parser {
     static boolean explain = false;
 
+    /**
+     * ZQL does not understand LIMIT, so a trailing "LIMIT n" is stripped from
+     * the statement text before parsing and applied to the logical plan.
+     */
+    private static final Pattern LIMIT_PATTERN = Pattern.compile(
+            "(?is)^(.*\\S)\\s+LIMIT\\s+(\\d{1,9})\\s*;?\\s*$");
+
+    /** The LIMIT of the statement being processed, or -1 if it has none. */
+    private int curLimit = -1;
+
+    /**
+     * A statement prefixed with "EXPLAIN ANALYZE" is run with its operators
+     * instrumented, and the plan is printed with what each operator did
+     * instead of the rows.
+     */
+    private static final Pattern EXPLAIN_ANALYZE_PATTERN = Pattern.compile(
+            "(?is)^\\s*EXPLAIN\\s+ANALYZE\\s+(.*)$");
+
+    /** Whether the statement being processed is an EXPLAIN ANALYZE. */
+    private boolean curAnalyze;
+
+    /** The parameters met so far in the statement being planned. */
+    private int curParam;
+
+    /** The templates of the statements run last, shared by every parser. */
+    private static volatile StatementCache statementCache = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+
+    /**
+     * Replaces the statement cache by an empty one.
+     *
+     * @param capacity the most statements to keep; 0 disables the cache
+     */
+    public static void setStatementCacheSize(int capacity) {
+        statementCache = new StatementCache(capacity);
+    }
+
+    public static StatementCache getStatementCache() {
+        return statementCache;
+    }
+
+    /**
+     * Removes a trailing LIMIT clause from the specified statement and
+     * remembers its value for the plan built from that statement.
+     *
+     * @param s the text of the statement
+     * @return the statement without its LIMIT clause
+     */
+    String extractLimit(String s) {
+        Matcher m = LIMIT_PATTERN.matcher(s);
+        if (!m.matches()) {
+            curLimit = -1;
+            return s;
+        }
+        curLimit = Integer.parseInt(m.group(2));
+        return m.group(1) + ";";
+    }
+
+    /**
+     * Removes a leading EXPLAIN ANALYZE from the specified statement and
+     * remembers whether it was there.
+     *
+     * @param s the text of the statement
+     * @return the statement without EXPLAIN ANALYZE
+     */
+    String extractExplainAnalyze(String s) {
+        Matcher m = EXPLAIN_ANALYZE_PATTERN.matcher(s);
+        curAnalyze = m.matches();
+        return curAnalyze ? m.group(1) : s;
+    }
+
     public static Predicate.Op getOp(String s) throws simpledb.ParsingException {
         if (s.equals("="))
             return Predicate.Op.EQUALS;
@@ -48,6 +124,25 @@ public class Parser {
         throw new simpledb.ParsingException("Unknown predicate " + s);
     }
 
+    /** @return whether e is a '?' parameter */
+    static boolean isParameter(ZExp e) {
+        return e instanceof ZExpression && ((ZExpression) e).getOperator().equals("?")
+                && ((ZExpression) e).nbOperands() == 0;
+    }
+
+    /** @return whether an expression holds a subquery */
+    static boolean hasSubquery(ZExp e) {
+        if (e instanceof ZQuery)
+            return true;
+        if (e instanceof ZExpression) {
+            for (int i = 0; i < ((ZExpression) e).nbOperands(); i++) {
+                if (hasSubquery(((ZExpression) e).getOperand(i)))
+                    return true;
+            }
+        }
+        return false;
+    }
+
     void processExpression(TransactionId tid, ZExpression wx, LogicalPlan lp)
             throws simpledb.ParsingException, IOException, ParseException {
         if (wx.getOperator().equals("AND")) {
@@ -63,6 +158,14 @@ public class Parser {
         } else if (wx.getOperator().equals("OR")) {
             throw new simpledb.ParsingException(
                     "OR expressions currently unsupported.");
+        } else if (wx.getOperator().equals("NOT")) {
+            if (!(wx.getOperand(0) instanceof ZExpression)
+                    || !isSubqueryTest((ZExpression) wx.getOperand(0)))
+                throw new simpledb.ParsingException(
+                        "NOT is only supported before IN and EXISTS subqueries.");
+            processSubqueryTest(tid, (ZExpression) wx.getOperand(0), lp, true);
+        } else if (isSubqueryTest(wx)) {
+            processSubqueryTest(tid, wx, lp, false);
         } else {
             // this is a binary expression comparing two constants
             @SuppressWarnings("unchecked")
@@ -75,6 +178,16 @@ public class Parser {
             boolean isJoin = false;
             Predicate.Op op = getOp(wx.getOperator());
 
+            if (isParameter(ops.get(0)) || isParameter(ops.get(1))) {
+                ZExp field = isParameter(ops.get(0)) ? ops.get(1) : ops.get(0);
+                if (!(field instanceof ZConstant)
+                        || ((ZConstant) field).getType() != ZConstant.COLUMNNAME)
+                    throw new simpledb.ParsingException(
+                            "A parameter can only be compared with a field: " + wx);
+                lp.addParameterFilter(((ZConstant) field).getValue(), op, curParam++);
+                return;
+            }
+
             boolean op1const = ops.get(0) instanceof ZConstant; // otherwise
                                                                       // is a
                                                                       // Query
@@ -107,11 +220,9 @@ public class Parser {
                 }
 
                 if (!op2const) { // right op is a nested query
-                    LogicalPlan sublp = parseQueryLogicalPlan(tid,
-                            (ZQuery) ops.get(1));
-                    OpIterator pp = sublp.physicalPlan(tid,
-                            TableStats.getStatsMap(), explain);
-                    lp.addJoin(tab1field, pp, op);
+                    // field op (SELECT ...) holds if the field satisfies op
+                    // with some row of the subquery: a semi-join
+                    addSubqueryJoin(tid, tab1field, (ZQuery) ops.get(1), op, false, lp);
                 } else {
                     tab2field = ((ZConstant) ops.get(1)).getValue();
                     lp.addJoin(tab1field, tab2field, op);
@@ -137,6 +248,168 @@ public class Parser {
 
     }
 
+    /** @return whether e is an IN, NOT IN or EXISTS test of a subquery */
+    static boolean isSubqueryTest(ZExpression e) {
+        String op = e.getOperator();
+        return (op.equals("IN") || op.equals("NOT IN") || op.equals("EXISTS"))
+                && e.getOperand(e.nbOperands() - 1) instanceof ZQuery;
+    }
+
+    /**
+     * Adds a subquery test to the plan as a semi-join with the subquery, or
+     * an anti-join if the test is negated: <tt>field IN (SELECT ...)</tt>
+     * joins the field with the first field of the subquery, and
+     * <tt>EXISTS (SELECT ...)</tt> is decorrelated first.
+     *
+     * @param negated true if the test is under a NOT
+     */
+    void processSubqueryTest(TransactionId tid, ZExpression wx, LogicalPlan lp, boolean negated)
+            throws simpledb.ParsingException, IOException, ParseException {
+        if (wx.getOperator().equals("EXISTS")) {
+            addExists(tid, (ZQuery) wx.getOperand(0), lp, negated);
+            return;
+        }
+        ZExp field = wx.getOperand(0);
+        if (wx.nbOperands() != 2 || !(field instanceof ZConstant)
+                || ((ZConstant) field).getType() != ZConstant.COLUMNNAME)
+            throw new simpledb.ParsingException(
+                    "Only IN subqueries of the form field IN (SELECT ...) are supported: " + wx);
+        boolean anti = negated != wx.getOperator().equals("NOT IN");
+        addSubqueryJoin(tid, ((ZConstant) field).getValue(), (ZQuery) wx.getOperand(1),
+                Predicate.Op.EQUALS, anti, lp);
+    }
+
+    /** Plans a subquery, and joins a field of the outer query with it. */
+    private void addSubqueryJoin(TransactionId tid, String field, ZQuery q, Predicate.Op op,
+                                 boolean anti, LogicalPlan lp)
+            throws simpledb.ParsingException, IOException, ParseException {
+        LogicalPlan sublp = parseQueryLogicalPlan(tid, q);
+        OpIterator pp = sublp.physicalPlan(tid, TableStats.getStatsMap(), explain);
+        lp.addJoin(field, pp, op, anti);
+    }
+
+    /**
+     * Decorrelates an EXISTS subquery: the comparison in its WHERE clause
+     * between one of its fields and a field of the outer query becomes the
+     * predicate of a semi-join (or anti-join) with the subquery selecting
+     * that field, without the comparison. So
+     * <tt>EXISTS (SELECT * FROM u WHERE u.b = t.a AND u.c &gt; 1)</tt>
+     * runs as <tt>t.a IN (SELECT u.b FROM u WHERE u.c &gt; 1)</tt>.
+     *
+     * @throws simpledb.ParsingException unless the subquery is correlated
+     *         by exactly one such comparison
+     */
+    private void addExists(TransactionId tid, ZQuery q, LogicalPlan lp, boolean anti)
+            throws simpledb.ParsingException, IOException, ParseException {
+        @SuppressWarnings("unchecked")
+        List<ZSelectItem> select = q.getSelect();
+        for (ZSelectItem si : select) {
+            if (si.getAggregate() != null)
+                throw new simpledb.ParsingException("Aggregates in EXISTS subqueries are not supported.");
+        }
+        Set<String> inner = new HashSet<>();
+        @SuppressWarnings("unchecked")
+        List<ZFromItem> from = q.getFrom();
+        for (ZFromItem f : from)
+            inner.add(f.getAlias() != null ? f.getAlias() : f.getTable());
+
+        List<ZExp> conjuncts = new ArrayList<>();
+        if (q.getWhere() != null)
+            addConjuncts(q.getWhere(), conjuncts);
+        ZExpression correlation = null;
+        int outerSide = -1;
+        List<ZExp> rest = new ArrayList<>();
+        for (ZExp c : conjuncts) {
+            int side = outerColumn(c, inner);
+            if (side < 0) {
+                rest.add(c);
+                continue;
+            }
+            if (correlation != null)
+                throw new simpledb.ParsingException(
+                        "EXISTS subqueries correlated by more than one comparison are not supported.");
+            correlation = (ZExpression) c;
+            outerSide = side;
+        }
+        if (correlation == null)
+            throw new simpledb.ParsingException(
+                    "EXISTS subqueries must compare a field with a field of the outer query.");
+
+        String outerField = ((ZConstant) correlation.getOperand(outerSide)).getValue();
+        String innerField = ((ZConstant) correlation.getOperand(1 - outerSide)).getValue();
+        Predicate.Op op = getOp(correlation.getOperator());
+        if (outerSide == 1)
+            op = reverse(op);
+
+        ZQuery sub = new ZQuery();
+        Vector<ZSelectItem> items = new Vector<>();
+        items.add(new ZSelectItem(innerField));
+        sub.addSelect(items);
+        sub.addFrom(q.getFrom());
+        if (rest.size() == 1) {
+            sub.addWhere(rest.get(0));
+        } else if (rest.size() > 1) {
+            ZExpression and = new ZExpression("AND");
+            for (ZExp c : rest)
+                and.addOperand(c);
+            sub.addWhere(and);
+        }
+        addSubqueryJoin(tid, outerField, sub, op, anti, lp);
+    }
+
+    /** @return the operator of <tt>b op' a</tt> equivalent to <tt>a op b</tt> */
+    private static Predicate.Op reverse(Predicate.Op op) throws simpledb.ParsingException {
+        switch (op) {
+            case LESS_THAN:
+                return Predicate.Op.GREATER_THAN;
+            case LESS_THAN_OR_EQ:
+                return Predicate.Op.GREATER_THAN_OR_EQ;
+            case GREATER_THAN:
+                return Predicate.Op.LESS_THAN;
+            case GREATER_THAN_OR_EQ:
+                return Predicate.Op.LESS_THAN_OR_EQ;
+            case LIKE:
+                throw new simpledb.ParsingException("A LIKE pattern must be on the right of LIKE.");
+            default:
+                return op;
+        }
+    }
+
+    /** Adds the operands of nested ANDs to a list. */
+    private static void addConjuncts(ZExp e, List<ZExp> conjuncts) {
+        if (e instanceof ZExpression && ((ZExpression) e).getOperator().equals("AND")) {
+            for (int i = 0; i < ((ZExpression) e).nbOperands(); i++)
+                addConjuncts(((ZExpression) e).getOperand(i), conjuncts);
+        } else {
+            conjuncts.add(e);
+        }
+    }
+
+    /**
+     * @param inner the aliases of the tables of a subquery
+     * @return the operand of a comparison of two fields that is a field of
+     *         the outer query, 0 or 1, or -1 if e is not such a comparison
+     */
+    private static int outerColumn(ZExp e, Set<String> inner) {
+        if (!(e instanceof ZExpression) || ((ZExpression) e).nbOperands() != 2)
+            return -1;
+        ZExpression x = (ZExpression) e;
+        int outer = -1;
+        for (int i = 0; i < 2; i++) {
+            if (!(x.getOperand(i) instanceof ZConstant)
+                    || ((ZConstant) x.getOperand(i)).getType() != ZConstant.COLUMNNAME)
+                return -1;
+            String name = ((ZConstant) x.getOperand(i)).getValue();
+            // an unqualified name refers to the subquery
+            if (name.contains(".") && !inner.contains(name.substring(0, name.indexOf('.')))) {
+                if (outer >= 0)
+                    return -1;
+                outer = i;
+            }
+        }
+        return outer;
+    }
+
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
@@ -281,9 +554,18 @@ public class Parser {
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
-        Query query = new Query(tId);
-
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        if (curLimit >= 0)
+            lp.addLimit(curLimit);
+        return planQuery(lp, tId);
+    }
+
+    /**
+     * Builds the physical plan of a SELECT, and prints it.
+     */
+    private Query planQuery(LogicalPlan lp, TransactionId tId)
+            throws simpledb.ParsingException {
+        Query query = new Query(tId);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -351,28 +633,7 @@ public class Parser {
                 if (!(e instanceof ZConstant))
                     throw new simpledb.ParsingException(
                             "Complex expressions not allowed in INSERT statements.");
-                ZConstant zc = (ZConstant) e;
-                if (zc.getType() == ZConstant.NUMBER) {
-                    if (td.getFieldType(i) != Type.INT_TYPE) {
-                        throw new simpledb.ParsingException("Value "
-                                + zc.getValue()
-                                + " is not an integer, expected a string.");
-                    }
-                    IntField f = new IntField(new Integer(zc.getValue()));
-                    t.setField(i, f);
-                } else if (zc.getType() == ZConstant.STRING) {
-                    if (td.getFieldType(i) != Type.STRING_TYPE) {
-                        throw new simpledb.ParsingException("Value "
-                                + zc.getValue()
-                                + " is a string, expected an integer.");
-                    }
-                    StringField f = new StringField(zc.getValue(),
-                            Type.STRING_LEN);
-                    t.setField(i, f);
-                } else {
-                    throw new simpledb.ParsingException(
-                            "Only string or int fields are supported.");
-                }
+                t.setField(i, toField(td, i, (ZConstant) e));
 
                 i++;
             }
@@ -383,6 +644,8 @@ public class Parser {
         } else {
             ZQuery zq = s.getQuery();
             LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            if (curLimit >= 0)
+                lp.addLimit(curLimit);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -390,9 +653,45 @@ public class Parser {
         return insertQ;
     }
 
-    public Query handleDeleteStatement(ZDelete s, TransactionId tid)
-            throws
-            simpledb.ParsingException, IOException, ParseException {
+    /**
+     * Converts a value of an INSERT to the type of field i of td.
+     */
+    private static Field toField(TupleDesc td, int i, ZConstant zc)
+            throws simpledb.ParsingException {
+        if (zc.getType() != ZConstant.NUMBER && zc.getType() != ZConstant.STRING)
+            throw new simpledb.ParsingException(
+                    "Only string or int fields are supported.");
+        return toField(td, i, zc.getType() == ZConstant.NUMBER, zc.getValue());
+    }
+
+    /**
+     * Converts a value of an INSERT to the type of field i of td.
+     *
+     * @param number whether the value is a number, rather than a string
+     */
+    private static Field toField(TupleDesc td, int i, boolean number, String value)
+            throws simpledb.ParsingException {
+        if (number) {
+            if (td.getFieldType(i) != Type.INT_TYPE) {
+                throw new simpledb.ParsingException("Value " + value
+                        + " is not an integer, expected a string.");
+            }
+            return new IntField(new Integer(value));
+        }
+        if (td.getFieldType(i) == Type.INT_TYPE) {
+            throw new simpledb.ParsingException("Value " + value
+                    + " is a string, expected an integer.");
+        }
+        return td.getFieldType(i) == Type.VARCHAR_TYPE
+                ? new VarcharField(value, Type.STRING_LEN)
+                : new StringField(value, Type.STRING_LEN);
+    }
+
+    /**
+     * @return the plan of the tuples a DELETE removes
+     */
+    private LogicalPlan deletePlan(ZDelete s, TransactionId tid)
+            throws simpledb.ParsingException, IOException, ParseException {
         int id;
         try {
             id = Database.getCatalog().getTableId(s.getTable()); // will fall
@@ -405,7 +704,6 @@ public class Parser {
                     + s.getTable());
         }
         String name = s.getTable();
-        Query sdbq = new Query(tid);
 
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(s.toString());
@@ -414,6 +712,14 @@ public class Parser {
         if (s.getWhere() != null)
             processExpression(tid, (ZExpression) s.getWhere(), lp);
         lp.addProjectField("null.*", null);
+        return lp;
+    }
+
+    public Query handleDeleteStatement(ZDelete s, TransactionId tid)
+            throws
+            simpledb.ParsingException, IOException, ParseException {
+        Query sdbq = new Query(tid);
+        LogicalPlan lp = deletePlan(s, tid);
 
         OpIterator op = new Delete(tid, lp.physicalPlan(tid,
                 TableStats.getStatsMap(), false));
@@ -465,12 +771,15 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(extractLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                if (curLimit >= 0)
+                    lp.addLimit(curLimit);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -495,65 +804,18 @@ public class Parser {
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
-            ZStatement s = p.readStatement();
-
-            Query query = null;
-            if (s instanceof ZTransactStmt)
-                handleTransactStatement((ZTransactStmt) s);
-            else {
-                if (!this.inUserTrans) {
-                    curtrans = new Transaction();
-                    curtrans.start();
-                    System.out.println("Started a new transaction tid = "
-                            + curtrans.getId().getId());
-                }
-                try {
-                    if (s instanceof ZInsert)
-                        query = handleInsertStatement((ZInsert) s,
-                                curtrans.getId());
-                    else if (s instanceof ZDelete)
-                        query = handleDeleteStatement((ZDelete) s,
-                                curtrans.getId());
-                    else if (s instanceof ZQuery)
-                        query = handleQueryStatement((ZQuery) s,
-                                curtrans.getId());
-                    else {
-                        System.out
-                                .println("Can't parse "
-                                        + s
-                                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
-                    }
-                    if (query != null)
-                        query.execute();
-
-                    if (!inUserTrans && curtrans != null) {
-                        curtrans.commit();
-                        System.out.println("Transaction "
-                                + curtrans.getId().getId() + " committed.");
-                    }
-                } catch (Throwable a) {
-                    // Whenever error happens, abort the current transaction
-                    if (curtrans != null) {
-                        curtrans.abort();
-                        System.out.println("Transaction "
-                                + curtrans.getId().getId()
-                                + " aborted because of unhandled error");
-                    }
-                    this.inUserTrans = false;
-
-                    if (a instanceof simpledb.ParsingException
-                            || a instanceof Zql.ParseException)
-                        throw new ParsingException((Exception) a);
-                    if (a instanceof Zql.TokenMgrError)
-                        throw (Zql.TokenMgrError) a;
-                    throw new DbException(a.getMessage());
-                } finally {
-                    if (!inUserTrans)
-                        curtrans = null;
-                }
-            }
-
+            ByteArrayOutputStream stmt = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            for (int n; (n = is.read(buf)) != -1; )
+                stmt.write(buf, 0, n);
+            String text = extractLimit(extractExplainAnalyze(
+                    new String(stmt.toByteArray(), StandardCharsets.UTF_8)));
+            List<Object> values = new ArrayList<>();
+            String sql = StatementCache.normalize(text, values);
+            if (values.contains(null))
+                throw new simpledb.ParsingException(
+                        "Statements with parameters must be run through prepare()");
+            run(sql, curLimit, values, text, curAnalyze);
         } catch (IOException | DbException e) {
             e.printStackTrace();
         } catch (simpledb.ParsingException e) {
@@ -564,10 +826,288 @@ public class Parser {
         }
     }
 
+    /**
+     * Prepares a statement to be run many times. Each '?' of its text is a
+     * parameter, given a value by {@link PreparedStatement#execute}; the
+     * literals of the text are parameters too, with their value already
+     * given, so that statements differing only by their literals share the
+     * template of the {@link StatementCache}.
+     *
+     * @param sql the text of a SELECT, INSERT or DELETE
+     * @return the prepared statement
+     * @throws ParsingException if the statement is invalid, or has
+     *         parameters where they are not supported
+     */
+    public PreparedStatement prepare(String sql)
+            throws simpledb.ParsingException, IOException, ParseException {
+        String text = extractLimit(sql);
+        List<Object> literals = new ArrayList<>();
+        String normalized = StatementCache.normalize(text, literals);
+        StatementCache.Template t = template(normalized,
+                !literals.isEmpty() && !literals.contains(null));
+        if (!t.bindable && literals.contains(null))
+            throw new simpledb.ParsingException(
+                    "Parameters are only supported in SELECT, INSERT and DELETE statements without subqueries");
+        return new PreparedStatement(this, normalized, curLimit, literals, text);
+    }
+
+    void execute(PreparedStatement ps, List<Object> values)
+            throws IOException, DbException, simpledb.ParsingException, ParseException {
+        run(ps.getSql(), ps.getLimit(), values, ps.getText(), false);
+    }
+
+    Query query(PreparedStatement ps, List<Object> values, TransactionId tid)
+            throws IOException, DbException, simpledb.ParsingException, ParseException {
+        curLimit = ps.getLimit();
+        StatementCache.Template t = template(ps.getSql(), false);
+        if (t.bindable)
+            return instantiate(t, values, curLimit, tid);
+        Query query = handleStatement(readStatement(ps.getText()), tid);
+        if (query == null)
+            throw new simpledb.ParsingException("Cannot build a query for " + ps);
+        return query;
+    }
+
+    private static ZStatement readStatement(String text) throws ParseException {
+        return new ZqlParser(new ByteArrayInputStream(
+                text.getBytes(StandardCharsets.UTF_8))).readStatement();
+    }
+
+    /**
+     * Finds the template of a statement in the cache, or else parses and
+     * plans the statement and adds its template to the cache. The LIMIT of
+     * a statement is not part of its normalized text, so it is left out of
+     * the template and added to the plan of each run.
+     *
+     * @param sql      the normalized text of the statement
+     * @param literals whether the parameters of sql are literals of the
+     *                 statement's text, which can be parsed instead if sql
+     *                 cannot
+     * @return the template
+     */
+    private StatementCache.Template template(String sql, boolean literals)
+            throws IOException, simpledb.ParsingException, ParseException {
+        StatementCache cache = statementCache;
+        StatementCache.Template t = cache.get(sql);
+        if (t != null)
+            return t;
+        try {
+            t = buildTemplate(readStatement(sql));
+        } catch (simpledb.ParsingException | ParseException | TokenMgrError e) {
+            if (!literals)
+                throw e;
+            // e.g. a literal in the SELECT list; runs parse the literals each time
+            t = StatementCache.Template.unbindable(null);
+        }
+        cache.put(sql, t);
+        return t;
+    }
+
+    /**
+     * Builds the logical plan of a SELECT or DELETE, or of the SELECT of an
+     * INSERT, with a slot for each parameter.
+     */
+    private StatementCache.Template buildTemplate(ZStatement s)
+            throws IOException, simpledb.ParsingException, ParseException {
+        curParam = 0;
+        if (s instanceof ZQuery && !hasSubquery(((ZQuery) s).getWhere())) {
+            LogicalPlan lp = parseQueryLogicalPlan(null, (ZQuery) s);
+            return new StatementCache.Template(s, lp, -1, curParam);
+        }
+        if (s instanceof ZDelete && !hasSubquery(((ZDelete) s).getWhere()))
+            return new StatementCache.Template(s, deletePlan((ZDelete) s, null), -1, curParam);
+        if (s instanceof ZInsert) {
+            ZInsert ins = (ZInsert) s;
+            int tableId;
+            try {
+                tableId = Database.getCatalog().getTableId(ins.getTable());
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException("Unknown table : "
+                        + ins.getTable());
+            }
+            if (ins.getValues() != null) {
+                @SuppressWarnings("unchecked")
+                List<ZExp> values = ins.getValues();
+                if (Database.getCatalog().getTupleDesc(tableId).numFields() != values.size()) {
+                    throw new simpledb.ParsingException(
+                            "INSERT statement does not contain same number of fields as table "
+                                    + ins.getTable());
+                }
+                for (ZExp e : values) {
+                    if (isParameter(e))
+                        curParam++;
+                    else if (!(e instanceof ZConstant))
+                        throw new simpledb.ParsingException(
+                                "Complex expressions not allowed in INSERT statements.");
+                }
+                return new StatementCache.Template(s, null, tableId, curParam);
+            }
+            if (!hasSubquery(ins.getQuery().getWhere())) {
+                LogicalPlan lp = parseQueryLogicalPlan(null, ins.getQuery());
+                return new StatementCache.Template(s, lp, tableId, curParam);
+            }
+        }
+        return StatementCache.Template.unbindable(s);
+    }
+
+    /**
+     * Builds the physical plan of a statement from its template.
+     *
+     * @param values the values of the parameters, Integers or Strings
+     * @param limit  the LIMIT of the statement, or -1
+     */
+    private Query instantiate(StatementCache.Template t, List<Object> values, int limit, TransactionId tid)
+            throws DbException, simpledb.ParsingException {
+        if (values.size() != t.parameters)
+            throw new simpledb.ParsingException("Statement expects " + t.parameters
+                    + " parameters, got " + values.size());
+        List<String> strings = new ArrayList<>(values.size());
+        for (Object v : values) {
+            if (!(v instanceof Integer || v instanceof String))
+                throw new simpledb.ParsingException(
+                        "Parameters must be integers or strings: " + v);
+            strings.add(v.toString());
+        }
+        Query query;
+        if (t.plan == null) {
+            // an INSERT of VALUES
+            TupleDesc td = Database.getCatalog().getTupleDesc(t.tableId);
+            Tuple tup = new Tuple(td);
+            @SuppressWarnings("unchecked")
+            List<ZExp> exps = ((ZInsert) t.statement).getValues();
+            int p = 0;
+            for (int i = 0; i < exps.size(); i++) {
+                ZExp e = exps.get(i);
+                if (isParameter(e)) {
+                    tup.setField(i, toField(td, i, values.get(p) instanceof Integer, strings.get(p)));
+                    p++;
+                } else {
+                    tup.setField(i, toField(td, i, (ZConstant) e));
+                }
+            }
+            query = new Query(tid);
+            query.setPhysicalPlan(new Insert(tid,
+                    new TupleArrayIterator(Collections.singletonList(tup)), t.tableId));
+            return query;
+        }
+        LogicalPlan lp = t.plan.bind(strings);
+        if (limit >= 0)
+            lp.addLimit(limit);
+        if (t.statement instanceof ZQuery) {
+            query = planQuery(lp, tid);
+        } else if (t.statement instanceof ZDelete) {
+            query = new Query(tid);
+            query.setPhysicalPlan(new Delete(tid, lp.physicalPlan(tid,
+                    TableStats.getStatsMap(), false)));
+        } else {
+            query = new Query(tid);
+            query.setPhysicalPlan(new Insert(tid, lp.physicalPlan(tid,
+                    TableStats.getStatsMap(), explain), t.tableId));
+        }
+        t.planned(lp, strings);
+        return query;
+    }
+
+    /**
+     * Builds the physical plan of a parsed INSERT, DELETE or SELECT.
+     *
+     * @return the query, or null if the statement is of another kind
+     */
+    private Query handleStatement(ZStatement s, TransactionId tid)
+            throws DbException, IOException, simpledb.ParsingException, ParseException {
+        if (s instanceof ZInsert)
+            return handleInsertStatement((ZInsert) s, tid);
+        if (s instanceof ZDelete)
+            return handleDeleteStatement((ZDelete) s, tid);
+        if (s instanceof ZQuery)
+            return handleQueryStatement((ZQuery) s, tid);
+        System.out
+                .println("Can't parse "
+                        + s
+                        + "\n -- parser only handles SQL transactions, insert, delete, and select statements");
+        return null;
+    }
+
+    /**
+     * Runs a statement in the current transaction, or else in one of its own,
+     * from its template in the {@link StatementCache}.
+     *
+     * @param sql     the normalized text of the statement
+     * @param limit   the LIMIT of the statement, or -1
+     * @param values  the values of the parameters of sql
+     * @param text    the text of the statement, parsed instead when its
+     *                template cannot bind the parameters
+     * @param analyze whether to print what each operator did instead of the
+     *                rows, as EXPLAIN ANALYZE
+     */
+    private void run(String sql, int limit, List<Object> values, String text, boolean analyze)
+            throws IOException, DbException, simpledb.ParsingException, ParseException {
+        curLimit = limit;
+        StatementCache.Template t = template(sql, !values.isEmpty());
+        ZStatement s = null;
+        if (!t.bindable)
+            s = t.statement != null && values.isEmpty() ? t.statement : readStatement(text);
+
+        Query query = null;
+        if (s instanceof ZTransactStmt)
+            handleTransactStatement((ZTransactStmt) s);
+        else {
+            if (!this.inUserTrans) {
+                curtrans = new Transaction();
+                curtrans.start();
+                System.out.println("Started a new transaction tid = "
+                        + curtrans.getId().getId());
+            }
+            try {
+                query = t.bindable ? instantiate(t, values, limit, curtrans.getId())
+                        : handleStatement(s, curtrans.getId());
+                if (query != null && analyze)
+                    explainAnalyze(query);
+                else if (query != null)
+                    query.execute();
+
+                if (!inUserTrans && curtrans != null) {
+                    curtrans.commit();
+                    System.out.println("Transaction "
+                            + curtrans.getId().getId() + " committed.");
+                }
+            } catch (Throwable a) {
+                // Whenever error happens, abort the current transaction
+                if (curtrans != null) {
+                    curtrans.abort();
+                    System.out.println("Transaction "
+                            + curtrans.getId().getId()
+                            + " aborted because of unhandled error");
+                }
+                this.inUserTrans = false;
+
+                if (a instanceof simpledb.ParsingException
+                        || a instanceof Zql.ParseException)
+                    throw new ParsingException((Exception) a);
+                if (a instanceof Zql.TokenMgrError)
+                    throw (Zql.TokenMgrError) a;
+                throw new DbException(a.getMessage());
+            } finally {
+                if (!inUserTrans)
+                    curtrans = null;
+            }
+        }
+    }
+
+    /**
+     * Runs a query with its operators instrumented, and prints its plan with
+     * the estimated and actual rows, the time, the pages and the memory of
+     * each operator.
+     */
+    private void explainAnalyze(Query query) throws DbException, TransactionAbortedException {
+        System.out.println("EXPLAIN ANALYZE:");
+        System.out.print(ExplainAnalyze.analyze(query.getPhysicalPlan(), TableStats.getStatsMap()));
+    }
+
     // Basic SQL completions
     public static final String[] SQL_COMMANDS = { "select", "from", "where",
-            "group by", "max(", "min(", "avg(", "count", "rollback", "commit",
-            "insert", "delete", "values", "into" };
+            "group by", "max(", "min(", "avg(", "count", "limit", "rollback", "commit",
+            "insert", "delete", "values", "into", "explain analyze" };
 
     public static void main(String[] argv) throws IOException {
 
@@ -585,6 +1125,11 @@ public class Parser {
     static final int SLEEP_TIME = 1000;
 
     protected void shutdown() {
+        try {
+            TableStats.saveStatistics();
+        } catch (IOException e) {
+            System.out.println("Cannot save statistics: " + e);
+        }
         System.out.println("Bye");
     }
 
@@ -593,7 +1138,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        // statistics saved by the last run are kept next to the catalog
+        TableStats.loadStatistics(new File(argv[0] + ".stats"));
 
         String queryFile = null;
 
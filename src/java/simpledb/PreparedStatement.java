@@ -0,0 +1,108 @@
+package simpledb;
+
+import simpledb.common.DbException;
+import simpledb.execution.Query;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A statement prepared by {@link Parser#prepare}, to be run many times with
+ * different values for its parameters. The parameters are the '?' of the
+ * statement's text, numbered from left to right; a parameter can stand for
+ * the constant of a WHERE predicate, or for a value of an INSERT. Its value
+ * is an Integer or a String.
+ * <p>
+ * The statement is parsed and its joins ordered once, and the plan kept in
+ * the parser's {@link StatementCache}; a run finds it there, unless the
+ * catalog or the statistics changed since, in which case it is planned again.
+ */
+public class PreparedStatement {
+    private final Parser parser;
+    /** The normalized text, the key of the statement in the cache. */
+    private final String sql;
+    private final int limit;
+    /** The value of each '?' of sql: a literal of the text, or null for a parameter. */
+    private final List<Object> literals;
+    /** The text of the statement without its LIMIT. */
+    private final String text;
+    private final int parameters;
+
+    PreparedStatement(Parser parser, String sql, int limit, List<Object> literals, String text) {
+        this.parser = parser;
+        this.sql = sql;
+        this.limit = limit;
+        this.literals = literals;
+        this.text = text;
+        int n = 0;
+        for (Object v : literals) {
+            if (v == null)
+                n++;
+        }
+        this.parameters = n;
+    }
+
+    /** @return the number of '?' parameters the statement expects */
+    public int getParameterCount() {
+        return parameters;
+    }
+
+    /** @return the normalized text of the statement */
+    public String getSql() {
+        return sql;
+    }
+
+    String getText() {
+        return text;
+    }
+
+    int getLimit() {
+        return limit;
+    }
+
+    /**
+     * @return the values of the literals and parameters of the statement, in
+     *         the order of the text
+     * @throws ParsingException if the number of parameters is wrong
+     */
+    List<Object> bind(Object... params) throws ParsingException {
+        if (params.length != parameters)
+            throw new ParsingException("Statement expects " + parameters + " parameters, got "
+                    + params.length + ": " + Arrays.toString(params));
+        List<Object> values = new ArrayList<>(literals.size());
+        int p = 0;
+        for (Object v : literals)
+            values.add(v == null ? params[p++] : v);
+        return values;
+    }
+
+    /**
+     * Runs the statement as {@link Parser#processNextStatement} would: in
+     * the parser's current transaction, or else in one of its own.
+     *
+     * @param params the value of each parameter
+     */
+    public void execute(Object... params)
+            throws ParsingException, DbException, IOException, Zql.ParseException {
+        parser.execute(this, bind(params));
+    }
+
+    /**
+     * Builds the physical plan of the statement, to be run by the caller.
+     *
+     * @param tid    the transaction the plan runs in
+     * @param params the value of each parameter
+     * @return the query, not started
+     */
+    public Query query(TransactionId tid, Object... params)
+            throws ParsingException, DbException, IOException, Zql.ParseException {
+        return parser.query(this, bind(params), tid);
+    }
+
+    public String toString() {
+        return sql;
+    }
+}
@@ -15,7 +15,7 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
-                    if (args.length < 3 || args.length > 5) {
+                    if (args.length < 3 || args.length > 6) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
                     }
@@ -41,17 +41,31 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
+                            else if (s.equalsIgnoreCase("varchar"))
+                                ts[index++] = Type.VARCHAR_TYPE;
                             else {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
                         }
-                        if (args.length == 5)
+                        if (args.length >= 5)
                             fieldSeparator = args[4].charAt(0);
                     }
+                    // an optional last argument "pax" writes column-wise pages,
+                    // and "compressed" compressed pages with a page index
+                    boolean pax = args.length == 6 && args[5].equalsIgnoreCase("pax");
+                    boolean compressed = args.length == 6 && args[5].equalsIgnoreCase("compressed");
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    if (compressed) {
+                        File rowFile = File.createTempFile("convert", ".dat");
+                        rowFile.deleteOnExit();
+                        HeapFileEncoder.convert(sourceTxtFile, rowFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                        CompressedFile.compress(rowFile, targetDatFile, new TupleDesc(ts));
+                    } else {
+                        HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                                BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator, pax);
+                    }
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
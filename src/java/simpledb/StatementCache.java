@@ -0,0 +1,247 @@
+package simpledb;
+
+import Zql.ZStatement;
+import simpledb.common.Database;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * StatementCache keeps the templates of the statements the {@link Parser}
+ * ran last, so that a statement of the same shape is neither parsed nor
+ * optimized again. The shape of a statement is its text with each integer
+ * or string literal replaced by a '?' parameter, and each run of white space
+ * by a single space: <code>SELECT * FROM t WHERE t.a = 5;</code> and
+ * <code>SELECT * FROM t WHERE t.a = 6;</code> share the template of
+ * <code>SELECT * FROM t WHERE t.a = ?;</code>.
+ * <p>
+ * A template holds the logical plan of the statement, and once it has run,
+ * the join order the optimizer chose for it. Physical plans belong to the
+ * transaction that runs them, so each run builds its own from the template,
+ * with the parameters bound, and only chooses the access paths again.
+ * <p>
+ * A template is dropped once a table is added to or removed from the
+ * catalog, or the statistics of a table are replaced, and the least recently
+ * used one once the cache is full.
+ *
+ * 语句缓存：按规范化的SQL文本缓存优化过的计划模板，目录或统计数据变化时失效。
+ */
+public class StatementCache {
+
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** What the cache keeps of a statement. */
+    static final class Template {
+        /**
+         * The statement parsed from the normalized text, or null if the
+         * normalized text cannot be parsed.
+         */
+        final ZStatement statement;
+        /**
+         * The plan of a SELECT, a DELETE or the SELECT of an INSERT, with
+         * the join order of its first run once it has run.
+         */
+        volatile LogicalPlan plan;
+        /** The table an INSERT writes to, or -1. */
+        final int tableId;
+        /** The number of parameters of the statement. */
+        final int parameters;
+        /**
+         * Whether the statement is run from this template with its
+         * parameters bound. Transactions, statements with subqueries and
+         * those whose literals cannot be parameters are parsed again from
+         * their text each time.
+         */
+        final boolean bindable;
+        private final long catalogVersion, statsVersion;
+
+        Template(ZStatement statement, LogicalPlan plan, int tableId, int parameters) {
+            this(statement, plan, tableId, parameters, true);
+        }
+
+        private Template(ZStatement statement, LogicalPlan plan, int tableId, int parameters,
+                         boolean bindable) {
+            this.statement = statement;
+            this.plan = plan;
+            this.tableId = tableId;
+            this.parameters = parameters;
+            this.bindable = bindable;
+            this.catalogVersion = Database.getCatalog().getVersion();
+            this.statsVersion = TableStats.getVersion();
+        }
+
+        /**
+         * @param statement the parsed statement, or null if it cannot be parsed
+         *                  with parameters in place of its literals
+         * @return the template of a statement that is not bindable
+         */
+        static Template unbindable(ZStatement statement) {
+            return new Template(statement, null, -1, 0, false);
+        }
+
+        /**
+         * Keeps the join order of a plan bound from this template, so that
+         * the next runs do not search for it again.
+         */
+        void planned(LogicalPlan bound, List<String> values) throws ParsingException {
+            if (!plan.isJoinOrderFixed() && bound.isJoinOrderFixed()) {
+                // the LIMIT is that of the run, not of the statement
+                LogicalPlan p = bound.bind(values);
+                p.removeLimit();
+                plan = p;
+            }
+        }
+
+        /**
+         * @return whether the catalog and the statistics are those the
+         *         template was built with
+         */
+        boolean isCurrent() {
+            return catalogVersion == Database.getCatalog().getVersion()
+                    && statsVersion == TableStats.getVersion();
+        }
+    }
+
+    private final int capacity;
+    private final LinkedHashMap<String, Template> templates;
+    private long hits, misses;
+
+    /**
+     * @param capacity the most templates to keep; 0 disables the cache
+     */
+    public StatementCache(int capacity) {
+        this.capacity = Math.max(0, capacity);
+        this.templates = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                return size() > StatementCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @param sql the normalized text of a statement
+     * @return the template of the statement, or null if it is not cached or
+     *         was built against another catalog or other statistics
+     */
+    synchronized Template get(String sql) {
+        Template t = templates.get(sql);
+        if (t != null && !t.isCurrent()) {
+            templates.remove(sql);
+            t = null;
+        }
+        if (t == null)
+            misses++;
+        else
+            hits++;
+        return t;
+    }
+
+    synchronized void put(String sql, Template t) {
+        if (capacity > 0)
+            templates.put(sql, t);
+    }
+
+    /** Drops every template. */
+    public synchronized void clear() {
+        templates.clear();
+    }
+
+    /** @return the number of templates in the cache */
+    public synchronized int size() {
+        return templates.size();
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of statements found in the cache */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of statements that had to be parsed and planned */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    /**
+     * Normalizes the text of a statement into the key of its template.
+     * Integer literals become Integers and string literals Strings, each
+     * replaced by a '?'; a '?' already in the text adds a null. Literals
+     * ZQL would read differently once replaced are left in the text:
+     * decimals, integers out of range, and strings with a quote in them.
+     *
+     * @param text     the text of the statement, without its LIMIT
+     * @param literals receives the value of each '?' of the result
+     * @return the normalized text
+     */
+    static String normalize(String text, List<Object> literals) {
+        StringBuilder sb = new StringBuilder(text.length());
+        int n = text.length();
+        int i = 0;
+        while (i < n) {
+            char c = text.charAt(i);
+            if (Character.isWhitespace(c)) {
+                while (i < n && Character.isWhitespace(text.charAt(i)))
+                    i++;
+                if (sb.length() > 0 && i < n)
+                    sb.append(' ');
+            } else if (c == '\'' || c == '"') {
+                // a doubled quote stands for a quote inside the string
+                int end = i;
+                boolean doubled = false;
+                while (true) {
+                    end = text.indexOf(c, end + 1);
+                    if (end < 0 || end + 1 >= n || text.charAt(end + 1) != c)
+                        break;
+                    doubled = true;
+                    end++;
+                }
+                if (end < 0) {
+                    sb.append(text, i, n);
+                    break;
+                }
+                if (c == '\'' && !doubled) {
+                    sb.append('?');
+                    literals.add(text.substring(i + 1, end));
+                } else {
+                    sb.append(text, i, end + 1);
+                }
+                i = end + 1;
+            } else if (c == '?') {
+                sb.append('?');
+                literals.add(null);
+                i++;
+            } else if (Character.isLetterOrDigit(c) || c == '_') {
+                int end = i;
+                boolean digits = true;
+                while (end < n) {
+                    char d = text.charAt(end);
+                    if (!(Character.isLetterOrDigit(d) || d == '_' || d == '.'))
+                        break;
+                    digits &= d >= '0' && d <= '9';
+                    end++;
+                }
+                long v = digits && end - i <= 10 ? Long.parseLong(text.substring(i, end)) : -1;
+                if (v >= 0 && v <= Integer.MAX_VALUE) {
+                    sb.append('?');
+                    literals.add((int) v);
+                } else {
+                    sb.append(text, i, end);
+                }
+                i = end;
+            } else {
+                sb.append(c);
+                i++;
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -1,8 +1,11 @@
 package simpledb.common;
 
 import simpledb.common.Type;
+import simpledb.storage.CompressedFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PaxFile;
+import simpledb.storage.SlottedFile;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -11,6 +14,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -42,6 +46,9 @@ public class Catalog {
     }
 
     private HashMap<Integer, TableInfo> map;
+    /** Versions come from one counter, so that a new catalog never has the version of an old one. */
+    private static final AtomicLong versions = new AtomicLong();
+    private volatile long version = versions.incrementAndGet();
     /**
      * Constructor.
      * Creates a new, empty catalog.
@@ -64,6 +71,7 @@ public class Catalog {
         // some code goes here
         map.entrySet().removeIf(e->e.getValue().name.equals(name));
         map.put(file.getId(), new TableInfo(file, name, pkeyField, file.getTupleDesc()));
+        version = versions.incrementAndGet();
     }
 
     public void addTable(DbFile file, String name) {
@@ -152,10 +160,25 @@ public class Catalog {
     public void clear() {
         // some code goes here
         map.clear();
+        version = versions.incrementAndGet();
+    }
+
+    /**
+     * @return a number that changes whenever a table is added to or removed
+     *         from the catalog, so that plans built against an older catalog
+     *         can be told apart
+     */
+    public long getVersion() {
+        return version;
     }
     
     /**
      * Reads the schema from a file and creates the appropriate tables in the database.
+     * Each line describes a table as <code>name (field type [pk], ...) [layout]</code>,
+     * where type is <code>int</code>, <code>string</code> or <code>varchar</code>;
+     * tables marked <code>pax</code> are stored column-wise in a {@link PaxFile},
+     * tables marked <code>compressed</code> in a {@link CompressedFile}, and other
+     * tables with a varchar field in a {@link SlottedFile}.
      * @param catalogFile
      */
     public void loadSchema(String catalogFile) {
@@ -180,6 +203,8 @@ public class Catalog {
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
+                    else if (els2[1].trim().equalsIgnoreCase("varchar"))
+                        types.add(Type.VARCHAR_TYPE);
                     else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
@@ -196,7 +221,29 @@ public class Catalog {
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
                 TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder+"/"+name + ".dat"), t);
+                // an optional page layout follows the field list
+                String layout = line.substring(line.indexOf(")") + 1).trim();
+                File tableFile = new File(baseFolder+"/"+name + ".dat");
+                boolean variableLength = false;
+                for (Type type : typeAr)
+                    variableLength |= type.isVariableLength();
+                HeapFile tabHf;
+                if (layout.isEmpty())
+                    tabHf = variableLength ? new SlottedFile(tableFile, t) : new HeapFile(tableFile, t);
+                else if (layout.equalsIgnoreCase("pax") && !variableLength)
+                    tabHf = new PaxFile(tableFile, t);
+                else if (layout.equalsIgnoreCase("compressed") && !variableLength)
+                    tabHf = new CompressedFile(tableFile, t);
+                else if (layout.equalsIgnoreCase("pax") || layout.equalsIgnoreCase("compressed")) {
+                    System.out.println(layout + " pages cannot store varchar fields of table " + name);
+                    System.exit(0);
+                    return;
+                }
+                else {
+                    System.out.println("Unknown page layout " + layout);
+                    System.exit(0);
+                    return;
+                }
                 addTable(tabHf,name,primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
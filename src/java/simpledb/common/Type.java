@@ -3,6 +3,7 @@ package simpledb.common;
 import simpledb.storage.StringField;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
+import simpledb.storage.VarcharField;
 
 import java.text.ParseException;
 import java.io.*;
@@ -22,7 +23,7 @@ public enum Type implements Serializable {
         @Override
         public Field parse(DataInputStream dis) throws ParseException {
             try {
-                return new IntField(dis.readInt());
+                return IntField.valueOf(dis.readInt());
             }  catch (IOException e) {
                 throw new ParseException("couldn't parse", 0);
             }
@@ -46,6 +47,35 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+    }, VARCHAR_TYPE() {
+        /**
+         * The most bytes a VARCHAR can take: a 2-byte length and up to
+         * STRING_LEN bytes. Pages with fixed-size slots pad every value to
+         * this length; {@link simpledb.storage.SlottedPage}s store only the
+         * length and the bytes of the string.
+         */
+        @Override
+        public int getLen() {
+            return STRING_LEN + 2;
+        }
+
+        @Override
+        public boolean isVariableLength() {
+            return true;
+        }
+
+        @Override
+        public Field parse(DataInputStream dis) throws ParseException {
+            try {
+                int strLen = dis.readUnsignedShort();
+                byte[] bs = new byte[strLen];
+                dis.readFully(bs);
+                dis.skipBytes(STRING_LEN-strLen);
+                return new VarcharField(new String(bs), STRING_LEN);
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        }
     };
     
     public static final int STRING_LEN = 128;
@@ -55,6 +85,15 @@ public enum Type implements Serializable {
    */
     public abstract int getLen();
 
+  /**
+   * @return true if values of this type can be stored in fewer than
+   *   {@link #getLen()} bytes, in which case tables with such a field are
+   *   stored in {@link simpledb.storage.SlottedPage}s.
+   */
+    public boolean isVariableLength() {
+        return false;
+    }
+
   /**
    * @return a Field object of the same type as this object that has contents
    *   read from the specified DataInputStream.
@@ -0,0 +1,91 @@
+package simpledb.execution;
+
+/**
+ * AccessPath describes how a {@link SeqScan} reads its table: either the
+ * whole table, or the range of a B+ tree file between bounds on the key
+ * field. Bounds are predicates pushed into the scan with
+ * {@link SeqScan#addFilter}; the other predicates are checked on each tuple
+ * of the range.
+ *
+ * @see simpledb.optimizer.AccessPathOptimizer
+ */
+public class AccessPath {
+
+    public enum Kind {
+        /** Reads every page of the table. */
+        TABLE_SCAN("scan"),
+        /** Descends a B+ tree to the first key in range, and reads leaves up to the last. */
+        INDEX_RANGE_SCAN("index range scan"),
+        /** A range scan of a query that reads only the key field of the tree. */
+        INDEX_ONLY_SCAN("index-only scan");
+
+        private final String name;
+
+        Kind(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    private final Kind kind;
+    private final Predicate lower;
+    private final Predicate upper;
+    private final double cost;
+
+    /**
+     * @param kind  how the table is read
+     * @param lower the predicate on the key field where the range starts, or
+     *              null to start at the first key
+     * @param upper the predicate on the key field where the range ends, or
+     *              null to end at the last key; it may be lower, for an
+     *              EQUALS predicate
+     * @param cost  the estimated cost of reading the table this way
+     */
+    public AccessPath(Kind kind, Predicate lower, Predicate upper, double cost) {
+        this.kind = kind;
+        this.lower = lower;
+        this.upper = upper;
+        this.cost = cost;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    /**
+     * @return the predicate where the range starts, or null
+     */
+    public Predicate getLower() {
+        return lower;
+    }
+
+    /**
+     * @return the predicate where the range ends, or null
+     */
+    public Predicate getUpper() {
+        return upper;
+    }
+
+    /**
+     * @return true if the path reads a range of a B+ tree
+     */
+    public boolean isIndexScan() {
+        return kind != Kind.TABLE_SCAN;
+    }
+
+    public double getCost() {
+        return cost;
+    }
+
+    public String toString() {
+        StringBuilder sb = new StringBuilder(kind.toString());
+        if (lower != null)
+            sb.append(" from ").append(lower.getOp()).append(lower.getOperand());
+        if (upper != null && upper != lower)
+            sb.append(" to ").append(upper.getOp()).append(upper.getOperand());
+        return sb.append(" cost ").append(cost).toString();
+    }
+}
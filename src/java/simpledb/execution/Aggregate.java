@@ -3,10 +3,17 @@ package simpledb.execution;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -21,9 +28,18 @@ import java.util.NoSuchElementException;
 public class  Aggregate extends Operator {
 
     private static final long serialVersionUID = 1L;
+
+    /**
+     * In parallel mode, each worker thread scans at least this many pages;
+     * smaller tables are aggregated on the calling thread.
+     */
+    public static final int MIN_PAGES_PER_WORKER = Exchange.MIN_PAGES_PER_PART;
+
     private OpIterator child;
     private int afield, gfield;
     private Aggregator.Op aop;
+    private int parallelism = 1;
+    private boolean childOpen = false;
 
     private Aggregator aggregator;
     private OpIterator iterator;
@@ -50,16 +66,56 @@ public class  Aggregate extends Operator {
         this.afield = afield;
         this.gfield = gfield;
         this.aop = aop;
+        this.aggregator = createAggregator(Aggregator.DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Creates an empty aggregator for the aggregate field type. Groups beyond
+     * maxGroups are spilled to disk, so the input does not have to fit in
+     * memory.
+     */
+    private Aggregator createAggregator(int maxGroups) {
         Type type = null;
         if (this.gfield != Aggregator.NO_GROUPING) {
             type = this.child.getTupleDesc().getFieldType(this.gfield);
         }
-        if (this.child.getTupleDesc().getFieldType(this.afield) == Type.STRING_TYPE) {
-            this.aggregator = new StringAggregator(this.gfield, type, this.afield, aop);
+        if (this.child.getTupleDesc().getFieldType(this.afield) != Type.INT_TYPE) {
+            return new StringAggregator(this.gfield, type, this.afield, aop, maxGroups);
         } else {
-            this.aggregator = new IntegerAggregator(this.gfield, type, this.afield, aop);
+            return new IntegerAggregator(this.gfield, type, this.afield, aop, maxGroups);
         }
+    }
+
+    /**
+     * Sets the number of threads used to compute the aggregate. With more than
+     * one thread, a child that is a sequential scan of a heap file, possibly
+     * under a chain of filters, is split into page ranges that are aggregated
+     * concurrently; the partial aggregates are merged when all of them finish.
+     * Other children, and tables with fewer than
+     * {@link #MIN_PAGES_PER_WORKER} pages per thread, are aggregated serially.
+     *
+     * @param parallelism the maximum number of threads to use
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+    }
 
+    /**
+     * @return the maximum number of threads used to compute the aggregate
+     */
+    public int getParallelism() {
+        return this.parallelism;
+    }
+
+    /**
+     * @return true if {@link #open} will split the child into parallel
+     *         pipelines, which needs more than one thread and a child that
+     *         {@link Exchange#splitByPages} can split
+     */
+    public boolean runsInParallel() {
+        return this.parallelism > 1 && Exchange.splitByPages(this.child, this.parallelism) != null;
     }
 
     /**
@@ -118,12 +174,65 @@ public class  Aggregate extends Operator {
             TransactionAbortedException {
         // some code goes here
         super.open();
-        this.child.open();
-        while (this.child.hasNext()) {
-            this.aggregator.mergeTupleIntoGroup(this.child.next());
+        List<OpIterator> parts = this.parallelism > 1 ? Exchange.splitByPages(this.child, this.parallelism) : null;
+        if (parts == null) {
+            this.aggregator = createAggregator(Aggregator.DEFAULT_MAX_GROUPS);
+            this.child.open();
+            this.childOpen = true;
+            TupleBatch batch;
+            while ((batch = this.child.nextBatch(TupleBatch.DEFAULT_CAPACITY)) != null) {
+                this.aggregator.mergeBatchIntoGroup(batch);
+            }
+        } else {
+            this.aggregator = aggregateInParallel(parts);
         }
         this.iterator = this.aggregator.iterator();
         this.iterator.open();
+        reportMemory((long) this.aggregator.peakGroups() * getTupleDesc().getSize());
+    }
+
+    /**
+     * Aggregates each pipeline into its own aggregator on a separate thread and
+     * merges the partial results. AVG is merged correctly because partial
+     * aggregates keep the running sum and count of each group.
+     */
+    private Aggregator aggregateInParallel(List<OpIterator> parts)
+            throws DbException, TransactionAbortedException {
+        int maxGroups = Math.max(1, Aggregator.DEFAULT_MAX_GROUPS / parts.size());
+        ExecutorService pool = Executors.newFixedThreadPool(parts.size());
+        try {
+            List<Future<Aggregator>> partials = new ArrayList<>(parts.size());
+            for (OpIterator part : parts) {
+                partials.add(pool.submit(() -> {
+                    Aggregator partial = createAggregator(maxGroups);
+                    part.open();
+                    try {
+                        TupleBatch batch;
+                        while ((batch = part.nextBatch(TupleBatch.DEFAULT_CAPACITY)) != null)
+                            partial.mergeBatchIntoGroup(batch);
+                    } finally {
+                        part.close();
+                    }
+                    return partial;
+                }));
+            }
+            Aggregator result = createAggregator(Aggregator.DEFAULT_MAX_GROUPS);
+            for (Future<Aggregator> partial : partials)
+                result.mergeAggregator(partial.get());
+            return result;
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof TransactionAbortedException)
+                throw (TransactionAbortedException) cause;
+            if (cause instanceof DbException)
+                throw (DbException) cause;
+            throw new DbException("parallel aggregation failed: " + cause);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new DbException("interrupted during parallel aggregation");
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
     /**
@@ -146,7 +255,6 @@ public class  Aggregate extends Operator {
 
     public void rewind() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.child.rewind();
         this.iterator.rewind();
     }
 
@@ -180,17 +288,22 @@ public class  Aggregate extends Operator {
         // some code goes
         super.close();
         this.iterator.close();
+        if (this.childOpen) {
+            this.child.close();
+            this.childOpen = false;
+        }
     }
 
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
@@ -1,6 +1,8 @@
 package simpledb.execution;
 
+import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleIterator;
 
@@ -13,6 +15,12 @@ import java.io.Serializable;
 public interface Aggregator extends Serializable {
     int NO_GROUPING = -1;
 
+    /**
+     * Default number of groups an aggregator keeps in memory before it
+     * spills partial aggregates to disk.
+     */
+    int DEFAULT_MAX_GROUPS = 100000;
+
     /**
      * SUM_COUNT and SC_AVG will
      * only be used in lab7, you are not required
@@ -80,6 +88,36 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every selected row of a batch into the aggregate. The default
+     * implementation merges the rows one tuple at a time.
+     *
+     * @param batch rows with the aggregate field and the group-by field
+     */
+    default void mergeBatchIntoGroup(TupleBatch batch) {
+        for (int i = 0; i < batch.size(); i++)
+            mergeTupleIntoGroup(batch.getTuple(i));
+    }
+
+    /**
+     * @return the most groups this aggregator has held in memory at once, or
+     *         0 if it does not keep count
+     */
+    default int peakGroups() {
+        return 0;
+    }
+
+    /**
+     * Merge the partial group aggregates of another aggregator into this one.
+     * Both aggregators must have been created with the same group-by field,
+     * aggregate field and operator; this lets several threads aggregate
+     * disjoint parts of the input and combine their results afterwards.
+     *
+     * @param other an aggregator of the same class and configuration
+     * @throws IllegalArgumentException if other is not compatible
+     */
+    void mergeAggregator(Aggregator other) throws DbException;
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -0,0 +1,25 @@
+package simpledb.execution;
+
+/**
+ * AntiJoin returns the tuples of its left input that match no tuple of its
+ * right input, with the fields of the left input only. It runs
+ * <tt>NOT IN</tt> and <tt>NOT EXISTS</tt> subqueries. See {@link SemiJoin}.
+ *
+ * 反连接：返回在右输入中没有匹配的左输入元组。
+ */
+public class AntiJoin extends SemiJoin {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Constructor.
+     *
+     * @param p      the predicate a left tuple must not satisfy with any
+     *               right tuple
+     * @param child1 the left input, whose tuples are returned
+     * @param child2 the right input
+     */
+    public AntiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        super(p, child1, child2, true);
+    }
+}
@@ -0,0 +1,36 @@
+package simpledb.execution;
+
+/**
+ * Broadcast is an exchange that sends every tuple of its input to each of
+ * several consumers. It is used to give every parallel instance of a hash
+ * join the full build side while the probe side is split between them.
+ */
+public class Broadcast extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private Broadcast(Hub hub, int index) {
+        super(hub, index);
+    }
+
+    /**
+     * Creates the output streams of a broadcast. Every stream returns every
+     * tuple of the child; the child runs once, on its own thread.
+     *
+     * @param child     the input of the broadcast
+     * @param consumers the number of output streams
+     * @return one stream per consumer
+     */
+    public static Broadcast[] create(OpIterator child, int consumers) {
+        Hub hub = new Hub(new OpIterator[] { child }, -1, consumers);
+        Broadcast[] streams = new Broadcast[consumers];
+        for (int i = 0; i < consumers; i++)
+            streams[i] = new Broadcast(hub, i);
+        return streams;
+    }
+
+    public String getName() {
+        return "broadcast(" + getIndex() + "/" + getConsumers() + ")";
+    }
+
+}
@@ -98,6 +98,7 @@ public class Delete extends Operator {
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
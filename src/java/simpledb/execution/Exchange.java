@@ -0,0 +1,103 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Exchange is the base class of the operators that move tuples between
+ * threads: {@link Gather} merges the output of several subtrees that run in
+ * parallel, while {@link Broadcast} and {@link HashRepartition} fan the output
+ * of their input subtrees out to several consumers. Tuples always travel
+ * through bounded queues of {@link #QUEUE_CAPACITY} tuples, so a fast producer
+ * blocks instead of buffering its whole output.
+ */
+public abstract class Exchange extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of tuples an exchange queue holds before producers block. */
+    public static final int QUEUE_CAPACITY = 1024;
+
+    /**
+     * When a scan is split into parallel parts, each part covers at least this
+     * many pages.
+     */
+    public static final int MIN_PAGES_PER_PART = 16;
+
+    /** Marks the end of one producer's output in a queue. */
+    static final Tuple END = new Tuple(new TupleDesc(new Type[] { Type.INT_TYPE }));
+
+    /**
+     * @return the name of this exchange, as shown in query plans
+     */
+    public abstract String getName();
+
+    /**
+     * Rebuilds a plan as one pipeline per page range of its heap file. Only
+     * plans that are a whole-table {@link SeqScan} of a heap file, optionally
+     * under a chain of {@link Filter}s, can be split. The parts keep the
+     * predicates and columns pushed into the scan.
+     *
+     * @param plan     the plan to split
+     * @param maxParts the maximum number of pipelines to build
+     * @return the pipelines, or null if the plan cannot be split or the table
+     *         is too small to give at least two parts of
+     *         {@link #MIN_PAGES_PER_PART} pages
+     */
+    public static List<OpIterator> splitByPages(OpIterator plan, int maxParts) {
+        List<Predicate> preds = new ArrayList<>();
+        OpIterator op = plan;
+        while (op instanceof Filter) {
+            preds.add(((Filter) op).getPredicate());
+            op = ((Filter) op).getChildren()[0];
+        }
+        if (!(op instanceof SeqScan) || !((SeqScan) op).scansWholeTable())
+            return null;
+        SeqScan scan = (SeqScan) op;
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof HeapFile))
+            return null;
+        int pages = ((HeapFile) file).numPages();
+        int parts = Math.min(maxParts, pages / MIN_PAGES_PER_PART);
+        if (parts < 2)
+            return null;
+
+        List<OpIterator> result = new ArrayList<>(parts);
+        for (int p = 0; p < parts; p++) {
+            int start = (int) ((long) pages * p / parts);
+            int end = (int) ((long) pages * (p + 1) / parts);
+            SeqScan partScan = new SeqScan(scan.getTransactionId(), scan.getTableId(),
+                    scan.getAlias(), start, end);
+            for (Predicate pred : scan.getFilters())
+                partScan.addFilter(pred);
+            partScan.setColumns(scan.getColumns());
+            OpIterator part = partScan;
+            for (int i = preds.size() - 1; i >= 0; i--)
+                part = new Filter(preds.get(i), part);
+            result.add(part);
+        }
+        return result;
+    }
+
+    /**
+     * Rethrows a failure recorded by a producer thread on the consumer's
+     * thread.
+     */
+    static void rethrow(Exception failure, String what)
+            throws DbException, TransactionAbortedException {
+        if (failure instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) failure;
+        if (failure instanceof DbException)
+            throw (DbException) failure;
+        throw new DbException(what + " failed: " + failure);
+    }
+}
@@ -0,0 +1,240 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * One output stream of an exchange that fans tuples out to several consumers.
+ * All the streams of an exchange share a {@link Hub}, which runs every input
+ * subtree on its own thread and routes each tuple into the bounded queues of
+ * one or all of the streams.
+ * <p>
+ * The streams of a hub are meant to be read concurrently, typically by the
+ * children of a {@link Gather}: a consumer that stops reading eventually
+ * blocks the producers, and with them every other consumer. The producers are
+ * started when the first stream is opened and stopped once every stream has
+ * been closed; after that the streams may be opened again. Streams are
+ * forward-only and cannot be rewound on their own.
+ */
+abstract class ExchangeConsumer extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Hub hub;
+    private final int index;
+
+    ExchangeConsumer(Hub hub, int index) {
+        this.hub = hub;
+        this.index = index;
+    }
+
+    /**
+     * @return the index of this stream among the streams of its exchange
+     */
+    public int getIndex() {
+        return index;
+    }
+
+    /**
+     * @return the number of streams of this exchange
+     */
+    public int getConsumers() {
+        return hub.consumers;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return hub.td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        hub.open(index);
+        super.open();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        return hub.take(index);
+    }
+
+    public void rewind() throws DbException {
+        throw new DbException(getName() + " streams cannot be rewound");
+    }
+
+    public void close() {
+        super.close();
+        hub.close(index);
+    }
+
+    /**
+     * Returns the input subtrees of the exchange. They are shared by all of
+     * its streams.
+     */
+    @Override
+    public OpIterator[] getChildren() {
+        return hub.producers;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        throw new UnsupportedOperationException("the inputs of an exchange are shared by its streams");
+    }
+
+    /**
+     * The producer side of a fan-out exchange.
+     */
+    static final class Hub {
+
+        private final OpIterator[] producers;
+        /** The field tuples are hashed on, or -1 to send every tuple to every consumer. */
+        private final int keyField;
+        private final int consumers;
+        private final TupleDesc td;
+
+        private ExecutorService pool;
+        private BlockingQueue<Tuple>[] queues;
+        private AtomicIntegerArray closed;
+        private boolean[] opened;
+        private int[] remaining;
+        private int closedCount;
+        private boolean active;
+        private volatile Exception failure;
+
+        /**
+         * @param producers the input subtrees; they must all have the same
+         *                  TupleDesc
+         * @param keyField  the field to hash tuples on, or -1 to broadcast
+         * @param consumers the number of output streams
+         */
+        Hub(OpIterator[] producers, int keyField, int consumers) {
+            if (producers.length == 0)
+                throw new IllegalArgumentException("an exchange needs at least one input");
+            if (consumers < 1)
+                throw new IllegalArgumentException("an exchange needs at least one consumer");
+            this.producers = producers;
+            this.keyField = keyField;
+            this.consumers = consumers;
+            this.td = producers[0].getTupleDesc();
+            for (OpIterator p : producers) {
+                if (!p.getTupleDesc().equals(td))
+                    throw new IllegalArgumentException("exchange inputs must have the same TupleDesc");
+            }
+        }
+
+        /** Starts a new round in which every stream is opened and closed once. */
+        @SuppressWarnings("unchecked")
+        private void begin() {
+            queues = new BlockingQueue[consumers];
+            for (int i = 0; i < consumers; i++)
+                queues[i] = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+            closed = new AtomicIntegerArray(consumers);
+            opened = new boolean[consumers];
+            remaining = new int[consumers];
+            closedCount = 0;
+            failure = null;
+            active = true;
+        }
+
+        synchronized void open(int i) throws DbException {
+            if (!active)
+                begin();
+            if (opened[i] || closed.get(i) != 0)
+                throw new DbException("exchange stream " + i + " reopened before the other streams were closed");
+            opened[i] = true;
+            remaining[i] = producers.length;
+            if (pool == null)
+                startProducers();
+        }
+
+        synchronized void close(int i) {
+            if (!active)
+                begin();
+            if (closed.getAndSet(i, 1) != 0)
+                return;
+            // unblocks a producer waiting for room in this queue; later
+            // tuples for a closed stream are dropped
+            queues[i].clear();
+            if (++closedCount == consumers) {
+                stopProducers();
+                active = false;
+            }
+        }
+
+        Tuple take(int i) throws DbException, TransactionAbortedException {
+            BlockingQueue<Tuple> queue = queues[i];
+            while (remaining[i] > 0) {
+                Tuple t;
+                try {
+                    t = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new DbException("interrupted while reading an exchange");
+                }
+                if (t != END)
+                    return t;
+                remaining[i]--;
+                if (failure != null)
+                    rethrow(failure, "exchange input");
+            }
+            return null;
+        }
+
+        private void startProducers() {
+            final BlockingQueue<Tuple>[] qs = queues;
+            final AtomicIntegerArray cl = closed;
+            pool = Executors.newFixedThreadPool(producers.length);
+            for (OpIterator producer : producers) {
+                pool.execute(() -> {
+                    try {
+                        producer.open();
+                        while (producer.hasNext()) {
+                            Tuple t = producer.next();
+                            if (keyField < 0) {
+                                for (int i = 0; i < consumers; i++)
+                                    send(qs, cl, i, t);
+                            } else {
+                                send(qs, cl, Math.floorMod(t.getField(keyField).hashCode(), consumers), t);
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        return;
+                    } catch (Exception e) {
+                        failure = e;
+                    } finally {
+                        producer.close();
+                    }
+                    try {
+                        for (int i = 0; i < consumers; i++)
+                            send(qs, cl, i, END);
+                    } catch (InterruptedException ignored) {
+                    }
+                });
+            }
+        }
+
+        private static void send(BlockingQueue<Tuple>[] qs, AtomicIntegerArray cl, int i, Tuple t)
+                throws InterruptedException {
+            if (cl.get(i) == 0)
+                qs[i].put(t);
+        }
+
+        private void stopProducers() {
+            if (pool == null)
+                return;
+            pool.shutdownNow();
+            try {
+                pool.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            pool = null;
+        }
+    }
+}
@@ -2,7 +2,10 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -15,6 +18,8 @@ public class Filter extends Operator {
     private static final long serialVersionUID = 1L;
     private Predicate p;
     private OpIterator child;
+    private transient int[] selected;
+
     /**
      * Constructor accepts a predicate to apply and a child operator to read
      * tuples to filter from.
@@ -69,6 +74,13 @@ public class Filter extends Operator {
      *         more tuples
      * @see Predicate#filter
      */
+    /**
+     * Filter returns its child's tuples, so the hint is passed on.
+     */
+    public void setTupleReuse(boolean reuse) {
+        this.child.setTupleReuse(reuse);
+    }
+
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
@@ -81,15 +93,104 @@ public class Filter extends Operator {
         return null;
     }
 
+    /**
+     * Narrows the selection vector of each batch of the child to the rows
+     * that pass the predicate, skipping batches in which no row passes.
+     * Comparisons of an INT column with an INT constant run directly on the
+     * column's int array.
+     */
+    public TupleBatch nextBatch(int maxRows) throws TransactionAbortedException, DbException {
+        TupleBatch b;
+        while ((b = this.child.nextBatch(maxRows)) != null) {
+            if (this.selected == null || this.selected.length < b.capacity())
+                this.selected = new int[b.capacity()];
+            int n;
+            int f = this.p.getField();
+            if (b.getTupleDesc().getFieldType(f) == Type.INT_TYPE && this.p.getOperand() instanceof IntField) {
+                n = selectInts(b.intColumn(f), b.selection(), b.size(), this.p.getOp(),
+                        ((IntField) this.p.getOperand()).getValue(), this.selected);
+            } else {
+                n = 0;
+                for (int i = 0; i < b.size(); i++) {
+                    int row = b.rowAt(i);
+                    if (b.getField(f, row).compare(this.p.getOp(), this.p.getOperand()))
+                        this.selected[n++] = row;
+                }
+            }
+            if (n > 0) {
+                b.setSelection(this.selected, n);
+                return countRows(b);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Writes the rows of col, among the n rows listed in sel (or rows 0 to
+     * n - 1 if sel is null), for which "col[row] op v" holds into out.
+     *
+     * @return the number of rows written
+     */
+    private static int selectInts(int[] col, int[] sel, int n, Predicate.Op op, int v, int[] out) {
+        int k = 0;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                for (int i = 0; i < n; i++) {
+                    int row = sel == null ? i : sel[i];
+                    out[k] = row;
+                    k += col[row] == v ? 1 : 0;
+                }
+                break;
+            case NOT_EQUALS:
+                for (int i = 0; i < n; i++) {
+                    int row = sel == null ? i : sel[i];
+                    out[k] = row;
+                    k += col[row] != v ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = sel == null ? i : sel[i];
+                    out[k] = row;
+                    k += col[row] > v ? 1 : 0;
+                }
+                break;
+            case GREATER_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = sel == null ? i : sel[i];
+                    out[k] = row;
+                    k += col[row] >= v ? 1 : 0;
+                }
+                break;
+            case LESS_THAN:
+                for (int i = 0; i < n; i++) {
+                    int row = sel == null ? i : sel[i];
+                    out[k] = row;
+                    k += col[row] < v ? 1 : 0;
+                }
+                break;
+            case LESS_THAN_OR_EQ:
+                for (int i = 0; i < n; i++) {
+                    int row = sel == null ? i : sel[i];
+                    out[k] = row;
+                    k += col[row] <= v ? 1 : 0;
+                }
+                break;
+        }
+        return k;
+    }
+
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[]{this.child};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child = children[0];
     }
 
 }
@@ -0,0 +1,154 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gather runs each of its children on its own thread and returns the union of
+ * their outputs, in no particular order. The children are opened, drained and
+ * closed by those threads, so a child may block on another exchange (e.g. a
+ * {@link Broadcast}) without stalling its siblings.
+ */
+public class Gather extends Exchange {
+
+    private static final long serialVersionUID = 1L;
+
+    private OpIterator[] children;
+    private final TupleDesc td;
+
+    private transient ExecutorService pool;
+    private transient BlockingQueue<Tuple> queue;
+    private transient volatile Exception failure;
+    private int running;
+
+    /**
+     * Constructor.
+     *
+     * @param children the subtrees to run in parallel; they must all have the
+     *                 same TupleDesc
+     */
+    public Gather(OpIterator... children) {
+        if (children.length == 0)
+            throw new IllegalArgumentException("gather needs at least one child");
+        this.children = children;
+        this.td = children[0].getTupleDesc();
+        for (OpIterator child : children) {
+            if (!child.getTupleDesc().equals(td))
+                throw new IllegalArgumentException("gathered children must have the same TupleDesc");
+        }
+    }
+
+    public String getName() {
+        return "gather(" + children.length + ")";
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        startWorkers();
+    }
+
+    private void startWorkers() {
+        queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        failure = null;
+        running = children.length;
+        pool = Executors.newFixedThreadPool(children.length);
+        for (OpIterator child : children) {
+            pool.execute(() -> {
+                try {
+                    child.open();
+                    while (child.hasNext())
+                        queue.put(child.next());
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    failure = e;
+                } finally {
+                    child.close();
+                }
+                try {
+                    queue.put(END);
+                } catch (InterruptedException ignored) {
+                }
+            });
+        }
+    }
+
+    /**
+     * Interrupts the worker threads and waits for them to close their
+     * children, so that the children can safely be reopened.
+     */
+    private void stopWorkers() {
+        if (pool == null)
+            return;
+        pool.shutdownNow();
+        try {
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        pool = null;
+        queue = null;
+        running = 0;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple produced by
+     * any child, blocking until one is available.
+     *
+     * @return the next tuple, or null once every child is exhausted
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (running > 0) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted during gather");
+            }
+            if (t != END)
+                return t;
+            running--;
+            if (failure != null) {
+                Exception e = failure;
+                stopWorkers();
+                rethrow(e, "gather");
+            }
+        }
+        stopWorkers();
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopWorkers();
+        startWorkers();
+    }
+
+    public void close() {
+        super.close();
+        stopWorkers();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return children;
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.children = children;
+    }
+
+}
@@ -0,0 +1,307 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.*;
+import java.text.ParseException;
+import java.util.*;
+
+/**
+ * GroupTable is the hash table of partial aggregates behind
+ * {@link IntegerAggregator} and {@link StringAggregator}. Each group holds a
+ * running count and a running value.
+ * <p>
+ * The table holds at most maxGroups groups in memory. When a new group would
+ * exceed that budget, every in-memory partial aggregate is appended to one of
+ * {@link #NUM_PARTITIONS} temporary spill files, chosen by a hash of the group
+ * value, and the table is cleared. {@link #iterator} then merges the spill
+ * files one partition at a time; a partition that still has too many groups
+ * is re-partitioned the same way with a different hash.
+ */
+class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of spill files a full table is partitioned into. */
+    static final int NUM_PARTITIONS = 16;
+
+    /**
+     * Re-partitioning stops at this depth; groups that still collide (e.g.
+     * because their hash codes are equal) are then merged in memory.
+     */
+    private static final int MAX_LEVEL = 4;
+
+    /** Combines two running values of the same group. */
+    interface Combiner extends Serializable {
+        int combine(int acc, int value);
+    }
+
+    /** Computes the output value of a group from its count and running value. */
+    interface Finisher extends Serializable {
+        int finish(int count, int value);
+    }
+
+    private final Type gbfieldType;
+    private final Combiner combiner;
+    private final int maxGroups;
+    private final int level;
+    private final Map<Field, int[]> groups = new HashMap<>();
+    private int peakGroups;
+
+    private File[] spillFiles;
+    private DataOutputStream[] spillOuts;
+
+    /**
+     * @param gbfieldType the type of the group by field, or null if there is
+     *                    no grouping
+     * @param combiner    how the running values of a group are merged
+     * @param maxGroups   the maximum number of groups kept in memory
+     */
+    GroupTable(Type gbfieldType, Combiner combiner, int maxGroups) {
+        this(gbfieldType, combiner, maxGroups, 0);
+    }
+
+    private GroupTable(Type gbfieldType, Combiner combiner, int maxGroups, int level) {
+        if (maxGroups < 1)
+            throw new IllegalArgumentException("maxGroups must be positive");
+        this.gbfieldType = gbfieldType;
+        this.combiner = combiner;
+        this.maxGroups = maxGroups;
+        this.level = level;
+    }
+
+    /**
+     * Merges a partial aggregate into its group.
+     *
+     * @param group the group value, or null if there is no grouping
+     * @param count the number of tuples the partial aggregate covers
+     * @param value the running value of the partial aggregate
+     */
+    void merge(Field group, int count, int value) {
+        int[] acc = groups.get(group);
+        if (acc == null) {
+            if (groups.size() >= maxGroups && group != null && level < MAX_LEVEL)
+                spill();
+            groups.put(group, new int[] { count, value });
+            peakGroups = Math.max(peakGroups, groups.size());
+        } else {
+            acc[0] += count;
+            acc[1] = combiner.combine(acc[1], value);
+        }
+    }
+
+    /** @return the most groups this table has held in memory at once */
+    int peakGroups() {
+        return peakGroups;
+    }
+
+    /**
+     * Merges every partial aggregate of another table, including any it has
+     * spilled, into this one. Used to combine tables that were filled
+     * independently, e.g. by different threads.
+     */
+    void mergeAll(GroupTable other) throws DbException {
+        for (Map.Entry<Field, int[]> e : other.groups.entrySet())
+            merge(e.getKey(), e.getValue()[0], e.getValue()[1]);
+        if (other.spillFiles == null)
+            return;
+        try {
+            for (DataOutputStream out : other.spillOuts)
+                out.flush();
+        } catch (IOException e) {
+            throw new DbException("could not spill aggregate groups: " + e.getMessage());
+        }
+        for (int p = 0; p < NUM_PARTITIONS; p++)
+            other.readPartition(p, this);
+        // the groups now live in this table
+        other.discard();
+    }
+
+    /** Merges the partial aggregates of spill partition p into target. */
+    private void readPartition(int p, GroupTable target) throws DbException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new FileInputStream(spillFiles[p])))) {
+            while (in.available() > 0) {
+                Field group = gbfieldType.parse(in);
+                int count = in.readInt();
+                int value = in.readInt();
+                target.merge(group, count, value);
+            }
+        } catch (IOException | ParseException e) {
+            throw new DbException("could not read aggregate spill file: " + e.getMessage());
+        }
+    }
+
+    private int partitionOf(Field group) {
+        int h = group.hashCode() ^ (level * 0x9E3779B9);
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return Math.floorMod(h, NUM_PARTITIONS);
+    }
+
+    private void spill() {
+        try {
+            if (spillFiles == null) {
+                spillFiles = new File[NUM_PARTITIONS];
+                spillOuts = new DataOutputStream[NUM_PARTITIONS];
+                for (int i = 0; i < NUM_PARTITIONS; i++) {
+                    spillFiles[i] = File.createTempFile("agg", ".spill");
+                    spillFiles[i].deleteOnExit();
+                    spillOuts[i] = new DataOutputStream(new BufferedOutputStream(
+                            new FileOutputStream(spillFiles[i])));
+                }
+            }
+            for (Map.Entry<Field, int[]> e : groups.entrySet()) {
+                DataOutputStream out = spillOuts[partitionOf(e.getKey())];
+                e.getKey().serialize(out);
+                out.writeInt(e.getValue()[0]);
+                out.writeInt(e.getValue()[1]);
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate groups", e);
+        }
+        groups.clear();
+    }
+
+    /**
+     * Returns the aggregate results. If the table has spilled, the remaining
+     * in-memory groups are spilled too and the result is streamed one
+     * partition at a time; closing the result deletes the spill files.
+     *
+     * @param td       the TupleDesc of the result tuples: (group, value) or
+     *                 (value) when there is no grouping
+     * @param finisher computes the output value of each group
+     */
+    OpIterator iterator(TupleDesc td, Finisher finisher) {
+        if (spillFiles == null) {
+            List<Tuple> tuples = new ArrayList<>(groups.size());
+            for (Map.Entry<Field, int[]> e : groups.entrySet())
+                tuples.add(toTuple(td, finisher, e.getKey(), e.getValue()));
+            return new TupleIterator(td, tuples);
+        }
+        spill();
+        try {
+            for (DataOutputStream out : spillOuts)
+                out.flush();
+        } catch (IOException e) {
+            throw new RuntimeException("could not spill aggregate groups", e);
+        }
+        return new SpilledIterator(td, finisher);
+    }
+
+    /** Deletes the spill files of this table, if any. */
+    void discard() {
+        if (spillFiles == null)
+            return;
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            try {
+                spillOuts[i].close();
+            } catch (IOException ignored) {
+            }
+            spillFiles[i].delete();
+        }
+        spillFiles = null;
+        spillOuts = null;
+    }
+
+    private static Tuple toTuple(TupleDesc td, Finisher finisher, Field group, int[] acc) {
+        Tuple tp = new Tuple(td);
+        if (td.numFields() == 2) {
+            tp.setField(0, group);
+            tp.setField(1, IntField.valueOf(finisher.finish(acc[0], acc[1])));
+        } else {
+            tp.setField(0, IntField.valueOf(finisher.finish(acc[0], acc[1])));
+        }
+        return tp;
+    }
+
+    /**
+     * Reads a spill partition back into a fresh table one level down and
+     * iterates over its groups before moving on to the next partition.
+     */
+    private class SpilledIterator implements OpIterator {
+
+        private static final long serialVersionUID = 1L;
+        private final TupleDesc td;
+        private final Finisher finisher;
+        private int partition;
+        private GroupTable current;
+        private OpIterator it;
+
+        SpilledIterator(TupleDesc td, Finisher finisher) {
+            this.td = td;
+            this.finisher = finisher;
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            if (spillFiles == null)
+                throw new DbException("the spill files of a closed aggregate were deleted");
+            partition = -1;
+            it = null;
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            while (it == null || !it.hasNext()) {
+                if (current != null) {
+                    it.close();
+                    current.discard();
+                    current = null;
+                }
+                if (++partition >= NUM_PARTITIONS)
+                    return false;
+                current = load(partition);
+                it = current.iterator(td, finisher);
+                it.open();
+            }
+            return true;
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            closePartition();
+            open();
+        }
+
+        public TupleDesc getTupleDesc() {
+            return td;
+        }
+
+        /**
+         * Deletes the spill files of the table, which cannot be read again
+         * afterwards.
+         */
+        public void close() {
+            closePartition();
+            discard();
+        }
+
+        private void closePartition() {
+            if (current != null) {
+                it.close();
+                current.discard();
+                current = null;
+            }
+            it = null;
+            partition = NUM_PARTITIONS;
+        }
+
+        private GroupTable load(int p) throws DbException {
+            GroupTable t = new GroupTable(gbfieldType, combiner, maxGroups, level + 1);
+            readPartition(p, t);
+            return t;
+        }
+    }
+}
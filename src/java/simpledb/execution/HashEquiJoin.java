@@ -2,13 +2,24 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DictionaryField;
+import simpledb.storage.Field;
+import simpledb.storage.JoinedTuple;
+import simpledb.storage.StringDictionary;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * The hash table is built on child1. When child1 does not fit in one table,
+ * the join reads ahead in child2, and if child2 fits, builds the table on
+ * child2 instead and probes it with child1: a single pass over each input
+ * instead of a pass over child2 per table of child1. See {@link #setAdaptive}.
  */
 public class HashEquiJoin extends Operator {
 
@@ -18,6 +29,8 @@ public class HashEquiJoin extends Operator {
     private final TupleDesc comboTD;
     transient private Tuple t1 = null;
     transient private Tuple t2 = null;
+    private boolean reuseTuples;
+    transient private JoinedTuple joined;
 
     /**
      * Constructor. Accepts to children to join and the predicate to join them
@@ -30,6 +43,18 @@ public class HashEquiJoin extends Operator {
      * @param child2
      *            Iterator for the right(inner) relation to join
      */
+    private static volatile boolean adaptive = true;
+
+    /**
+     * Sets whether a join may build its hash table on child2 once it sees
+     * that child1 is larger than one table and child2 is not.
+     *
+     * @param enabled true to switch the sides of such joins (the default)
+     */
+    public static void setAdaptive(boolean enabled) {
+        adaptive = enabled;
+    }
+
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
         this.pred = p;
         this.child1 = child1;
@@ -58,16 +83,108 @@ public class HashEquiJoin extends Operator {
     final Map<Object, List<Tuple>> map = new HashMap<>();
     public final static int MAP_SIZE = 20000;
 
+    // when every key in the map comes from one dictionary, probe keys of
+    // another dictionary are translated into it once per code, so that the
+    // map compares keys by identity. translated[probe code] is 0 if not
+    // translated yet, -1 if the build dictionary lacks the value, and the
+    // build code + 1 otherwise
+    transient private StringDictionary buildDictionary;
+    transient private boolean mixedKeys;
+    transient private StringDictionary probeDictionary;
+    transient private int[] translated;
+
+    // state of a join that switched sides: the table maps keys of child2,
+    // and is probed by the child1 tuples read before the switch, then by the
+    // rest of child1. Otherwise the child2 tuples read ahead are probed
+    // before the rest of child2
+    transient private boolean swapped;
+    transient private Iterator<Tuple> pending;
+    transient private Iterator<Tuple> readAhead;
+
+    /**
+     * @return true if the join built its hash table on child2, after seeing
+     *         that child1 does not fit in one table
+     */
+    public boolean isSidesSwapped() {
+        return swapped;
+    }
+
+    /**
+     * Called when the first hash table is full and child1 has more tuples:
+     * reads child2 up to the size of a table, and builds the table on it if
+     * it ends there.
+     */
+    private void trySwap() throws DbException, TransactionAbortedException {
+        List<Tuple> inner = new ArrayList<>();
+        // the tuples read ahead are kept, so they must not be reused
+        child2.setTupleReuse(false);
+        while (inner.size() <= MAP_SIZE && child2.hasNext())
+            inner.add(child2.next());
+        child2.setTupleReuse(reuseTuples);
+        // the full table of child1 and the tuples read ahead are both held
+        reportMemory((long) (MAP_SIZE + 1) * child1.getTupleDesc().getSize()
+                + (long) inner.size() * child2.getTupleDesc().getSize());
+        if (inner.size() > MAP_SIZE || child2.hasNext()) {
+            readAhead = inner.iterator();
+            return;
+        }
+        List<Tuple> outer = new ArrayList<>();
+        for (List<Tuple> l : map.values())
+            outer.addAll(l);
+        map.clear();
+        buildDictionary = null;
+        for (Tuple t : inner)
+            map.computeIfAbsent(t.getField(pred.getField2()), k -> new ArrayList<>()).add(t);
+        pending = outer.iterator();
+        swapped = true;
+    }
+
+    /** Probes the hash table of child2 tuples with child1. */
+    private Tuple fetchSwapped() throws DbException, TransactionAbortedException {
+        while (listIt == null || !listIt.hasNext()) {
+            if (pending.hasNext())
+                t1 = pending.next();
+            else if (child1.hasNext())
+                t1 = child1.next();
+            else
+                return null;
+            List<Tuple> l = map.get(t1.getField(pred.getField1()));
+            listIt = l == null ? null : l.iterator();
+        }
+        t2 = listIt.next();
+        return joinedTuple();
+    }
+
+    private void resetSwap() {
+        swapped = false;
+        pending = null;
+        readAhead = null;
+        child2.setTupleReuse(reuseTuples);
+    }
+
     private boolean loadMap() throws DbException, TransactionAbortedException {
         int cnt = 0;
         map.clear();
+        buildDictionary = null;
+        mixedKeys = false;
+        probeDictionary = null;
+        translated = null;
         while (child1.hasNext()) {
             t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
+            Field key = t1.getField(pred.getField1());
+            if (key instanceof DictionaryField && !mixedKeys
+                    && (buildDictionary == null || buildDictionary == ((DictionaryField) key).getDictionary()))
+                buildDictionary = ((DictionaryField) key).getDictionary();
+            else {
+                mixedKeys = true;
+                buildDictionary = null;
+            }
+            List<Tuple> list = map.computeIfAbsent(key, k -> new ArrayList<>());
             list.add(t1);
             if (cnt++ == MAP_SIZE)
-                return true;
+                break;
         }
+        reportMemory((long) cnt * child1.getTupleDesc().getSize());
         return cnt > 0;
 
     }
@@ -76,10 +193,22 @@ public class HashEquiJoin extends Operator {
             TransactionAbortedException {
         child1.open();
         child2.open();
-        loadMap();
+        // the first map is loaded by fetchNext, so that callers that use
+        // nextBatch() instead see all of child1
+        mapLoaded = false;
         super.open();
     }
 
+    /**
+     * The tuples of child1 are kept in the hash table, but those of child2
+     * are only referenced by the joined tuples, so the hint is passed to
+     * child2.
+     */
+    public void setTupleReuse(boolean reuse) {
+        this.reuseTuples = reuse;
+        this.child2.setTupleReuse(reuse);
+    }
+
     public void close() {
         super.close();
         child2.close();
@@ -88,14 +217,21 @@ public class HashEquiJoin extends Operator {
         this.t2=null;
         this.listIt=null;
         this.map.clear();
+        resetSwap();
+        resetBatchState();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
         child1.rewind();
         child2.rewind();
+        this.listIt = null;
+        this.mapLoaded = false;
+        resetSwap();
+        resetBatchState();
     }
 
     transient Iterator<Tuple> listIt = null;
+    transient private boolean mapLoaded = false;
 
     /**
      * Returns the next tuple generated by the join, or null if there are no
@@ -117,32 +253,64 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() {
         t1 = listIt.next();
+        return joinedTuple();
+    }
 
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
+    private Tuple joinedTuple() {
+        // the combined tuple refers to both tuples instead of copying them
+        if (!reuseTuples || joined == null) {
+            joined = new JoinedTuple(comboTD, t1, t2);
+            return joined;
+        }
+        joined.set(t1, t2);
+        return joined;
 
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+    }
 
+    /**
+     * @return the key to look up a probe field with, or null if no key in the
+     *         map can match it
+     */
+    private Field probeKey(Field f) {
+        if (buildDictionary == null || !(f instanceof DictionaryField))
+            return f;
+        DictionaryField d = (DictionaryField) f;
+        if (d.getDictionary() == buildDictionary)
+            return f;
+        if (d.getDictionary() != probeDictionary) {
+            probeDictionary = d.getDictionary();
+            translated = new int[Math.max(16, probeDictionary.size())];
+        }
+        if (d.getCode() >= translated.length)
+            translated = Arrays.copyOf(translated, Math.max(2 * translated.length, d.getCode() + 1));
+        if (translated[d.getCode()] == 0) {
+            DictionaryField match = buildDictionary.lookup(d);
+            translated[d.getCode()] = match == null ? -1 : match.getCode() + 1;
+        }
+        int code = translated[d.getCode()];
+        return code < 0 ? null : buildDictionary.field(code - 1);
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        if (!mapLoaded) {
+            mapLoaded = true;
+            if (loadMap() && adaptive && child1.hasNext())
+                trySwap();
+        }
+        if (swapped)
+            return fetchSwapped();
         if (listIt != null && listIt.hasNext()) {
             return processList();
         }
 
         // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
+        while ((readAhead != null && readAhead.hasNext()) || child2.hasNext()) {
+            t2 = readAhead != null && readAhead.hasNext() ? readAhead.next() : child2.next();
 
             // if match, create a combined tuple and fill it with the values
             // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
+            Field key = probeKey(t2.getField(pred.getField2()));
+            List<Tuple> l = key == null ? null : map.get(key);
             if (l == null)
                 continue;
             listIt = l.iterator();
@@ -151,15 +319,232 @@ public class HashEquiJoin extends Operator {
 
         }
 
-        // child2 is done: advance child1
-        child2.rewind();
+        // child2 is done: advance child1, and only rescan child2 if child1
+        // had more tuples, so that joins whose build side fits in one map
+        // never rewind child2 (it may be a forward-only exchange stream)
         if (loadMap()) {
+            readAhead = null;
+            child2.rewind();
             return fetchNext();
         }
 
         return null;
     }
 
+    // state of the batch path: a chunk of the build side of up to MAP_SIZE
+    // rows, stored in full batches, and a chained hash table over its rows;
+    // row id = batch * capacity + row. The batch of child1 the chunk stopped
+    // in is kept for the next chunk. The batches read ahead by a side switch
+    // are probed before the rest of the probe side
+    private static final int BUILD_CAPACITY = TupleBatch.DEFAULT_CAPACITY;
+    transient private List<TupleBatch> buildRows;
+    transient private int[] buildHead, buildNext;
+    transient private TupleBatch buildLeft;
+    transient private int buildLeftIdx;
+    transient private boolean buildDone;
+    transient private Deque<TupleBatch> probeQueue;
+    transient private TupleBatch probe, out;
+    transient private int probeIdx, probeKey, chain;
+
+    private void resetBatchState() {
+        buildRows = null;
+        buildHead = buildNext = null;
+        buildLeft = null;
+        buildDone = false;
+        probeQueue = null;
+        probe = out = null;
+    }
+
+    private static int bucket(int key, int mask) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /** @return true if child1 has rows not yet in a chunk */
+    private boolean buildHasMore() throws DbException, TransactionAbortedException {
+        while (buildLeft == null || buildLeftIdx >= buildLeft.size()) {
+            buildLeft = buildDone ? null : child1.nextBatch(BUILD_CAPACITY);
+            buildLeftIdx = 0;
+            if (buildLeft == null) {
+                buildDone = true;
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Copies the selected rows of a batch, from the i-th on, to the end of
+     * a list of full batches.
+     *
+     * @return the number of rows copied
+     */
+    private static int copyRows(List<TupleBatch> rows, TupleDesc td, TupleBatch b, int from) {
+        for (int i = from; i < b.size(); i++) {
+            TupleBatch cur = rows.isEmpty() ? null : rows.get(rows.size() - 1);
+            if (cur == null || cur.isFull()) {
+                cur = new TupleBatch(td, BUILD_CAPACITY);
+                rows.add(cur);
+            }
+            cur.appendRow(b, b.rowAt(i));
+        }
+        return b.size() - from;
+    }
+
+    /** Builds the hash table over n rows on one of their fields. */
+    private void hashRows(List<TupleBatch> rows, int n, int field) {
+        int size = Integer.highestOneBit(Math.max(n, 1)) << 1;
+        buildRows = rows;
+        buildHead = new int[size];
+        Arrays.fill(buildHead, -1);
+        buildNext = new int[n];
+        for (int id = 0; id < n; id++) {
+            int key = rows.get(id / BUILD_CAPACITY).intColumn(field)[id % BUILD_CAPACITY];
+            int h = bucket(key, size - 1);
+            buildNext[id] = buildHead[h];
+            buildHead[h] = id;
+        }
+        probe = null;
+        chain = -1;
+    }
+
+    /**
+     * Reads the next chunk of child1, up to MAP_SIZE rows, into the hash
+     * table.
+     *
+     * @return the number of rows read, 0 once child1 is done
+     */
+    private int buildHashTable() throws DbException, TransactionAbortedException {
+        List<TupleBatch> rows = new ArrayList<>();
+        TupleBatch cur = null;
+        int n = 0;
+        while (n < MAP_SIZE && buildHasMore()) {
+            if (cur == null || cur.isFull()) {
+                cur = new TupleBatch(child1.getTupleDesc(), BUILD_CAPACITY);
+                rows.add(cur);
+            }
+            cur.appendRow(buildLeft, buildLeft.rowAt(buildLeftIdx++));
+            n++;
+        }
+        hashRows(rows, n, pred.getField1());
+        reportMemory(hashMemory(n, child1.getTupleDesc()));
+        return n;
+    }
+
+    /** @return the bytes held by a hash table over n rows */
+    private static long hashMemory(int n, TupleDesc td) {
+        int size = Integer.highestOneBit(Math.max(n, 1)) << 1;
+        return (long) n * td.getSize() + 4L * (size + n);
+    }
+
+    /**
+     * The batch counterpart of {@link #trySwap}: called when the first chunk
+     * of child1 is full and child1 has more rows, reads child2 up to the size
+     * of a chunk, and builds the table on it if it ends there. The rows of
+     * child1 read so far are then probed before the rest of child1.
+     */
+    private void trySwapBatches() throws DbException, TransactionAbortedException {
+        List<TupleBatch> inner = new ArrayList<>();
+        int m = 0;
+        boolean fits = false;
+        while (m <= MAP_SIZE) {
+            TupleBatch b = child2.nextBatch(BUILD_CAPACITY);
+            if (b == null) {
+                fits = true;
+                break;
+            }
+            m += copyRows(inner, child2.getTupleDesc(), b, 0);
+        }
+        // the full chunk of child1 and the rows read ahead are both held
+        reportMemory(hashMemory(MAP_SIZE, child1.getTupleDesc())
+                + (long) m * child2.getTupleDesc().getSize());
+        probeQueue = new ArrayDeque<>();
+        if (!fits) {
+            probeQueue.addAll(inner);
+            return;
+        }
+        probeQueue.addAll(buildRows);
+        List<TupleBatch> rest = new ArrayList<>();
+        copyRows(rest, child1.getTupleDesc(), buildLeft, buildLeftIdx);
+        probeQueue.addAll(rest);
+        buildLeft = null;
+        hashRows(inner, m, pred.getField2());
+        swapped = true;
+    }
+
+    /**
+     * @return the next batch to probe the hash table with, or null at the
+     *         end of the join
+     */
+    private TupleBatch nextProbe() throws DbException, TransactionAbortedException {
+        if (probeQueue != null && !probeQueue.isEmpty())
+            return probeQueue.poll();
+        if (swapped) {
+            // the table holds all of child2: probe it with the rest of child1
+            TupleBatch b = buildDone ? null : child1.nextBatch(TupleBatch.DEFAULT_CAPACITY);
+            buildDone = b == null;
+            return b;
+        }
+        TupleBatch b = child2.nextBatch(TupleBatch.DEFAULT_CAPACITY);
+        if (b != null)
+            return b;
+        // child2 is done: load the next chunk of child1, and only rescan
+        // child2 if there is one, as the tuple path does
+        if (buildHashTable() == 0)
+            return null;
+        child2.rewind();
+        return child2.nextBatch(TupleBatch.DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Batch implementation of the join for INT join fields. Like the tuple
+     * path, it reads child1 in chunks of up to MAP_SIZE rows and scans
+     * child2 once per chunk, or builds the table on child2 when child1 does
+     * not fit in one chunk and child2 does, but probes the table with
+     * batches without creating Tuples. Other field types fall back to the
+     * tuple path.
+     */
+    public TupleBatch nextBatch(int maxRows) throws DbException, TransactionAbortedException {
+        if (child1.getTupleDesc().getFieldType(pred.getField1()) != Type.INT_TYPE
+                || child2.getTupleDesc().getFieldType(pred.getField2()) != Type.INT_TYPE)
+            return TupleBatch.fill(this, maxRows);
+        if (buildRows == null && buildHashTable() == MAP_SIZE && adaptive && buildHasMore())
+            trySwapBatches();
+        if (out == null || out.capacity() != maxRows)
+            out = new TupleBatch(comboTD, maxRows);
+        else
+            out.clear();
+        // once swapped, the table holds child2 and child1 probes it
+        int buildField = swapped ? pred.getField2() : pred.getField1();
+        int probeField = swapped ? pred.getField1() : pred.getField2();
+        while (!out.isFull()) {
+            if (chain >= 0) {
+                int id = chain;
+                chain = buildNext[id];
+                TupleBatch build = buildRows.get(id / BUILD_CAPACITY);
+                int row = id % BUILD_CAPACITY;
+                if (build.intColumn(buildField)[row] != probeKey)
+                    continue;
+                // the fields of child1 always come first
+                if (swapped)
+                    out.appendJoined(probe, probe.rowAt(probeIdx), build, row);
+                else
+                    out.appendJoined(build, row, probe, probe.rowAt(probeIdx));
+                continue;
+            }
+            if (probe == null || ++probeIdx >= probe.size()) {
+                probe = nextProbe();
+                probeIdx = -1;
+                if (probe == null)
+                    break;
+                continue;
+            }
+            probeKey = probe.intColumn(probeField)[probe.rowAt(probeIdx)];
+            chain = buildHead[bucket(probeKey, buildHead.length - 1)];
+        }
+        return countRows(out.physicalSize() == 0 ? null : out);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child1, this.child2};
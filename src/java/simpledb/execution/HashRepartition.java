@@ -0,0 +1,52 @@
+package simpledb.execution;
+
+/**
+ * HashRepartition is an exchange that redistributes the tuples of its inputs
+ * among several consumers by a hash of one field, so that all tuples with the
+ * same value of that field reach the same consumer. It is used to run one
+ * instance of a grouped aggregate, or of a hash join, per partition.
+ */
+public class HashRepartition extends ExchangeConsumer {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int keyField;
+
+    private HashRepartition(Hub hub, int index, int keyField) {
+        super(hub, index);
+        this.keyField = keyField;
+    }
+
+    /**
+     * Creates the output streams of a repartition. Each input runs on its own
+     * thread.
+     *
+     * @param inputs    the inputs to repartition; they must all have the same
+     *                  TupleDesc
+     * @param keyField  the index of the field to hash on
+     * @param consumers the number of output streams
+     * @return one stream per partition
+     */
+    public static HashRepartition[] create(OpIterator[] inputs, int keyField, int consumers) {
+        if (keyField < 0 || keyField >= inputs[0].getTupleDesc().numFields())
+            throw new IllegalArgumentException("invalid repartition field " + keyField);
+        Hub hub = new Hub(inputs, keyField, consumers);
+        HashRepartition[] streams = new HashRepartition[consumers];
+        for (int i = 0; i < consumers; i++)
+            streams[i] = new HashRepartition(hub, i, keyField);
+        return streams;
+    }
+
+    /**
+     * @return the index of the field tuples are partitioned on
+     */
+    public int getKeyField() {
+        return keyField;
+    }
+
+    public String getName() {
+        return "repartition(" + getTupleDesc().getFieldName(keyField) + ", "
+                + getIndex() + "/" + getConsumers() + ")";
+    }
+
+}
@@ -0,0 +1,123 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.JoinedTuple;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexNestedLoopJoin joins an input to a table stored in a B+ tree file
+ * keyed on the join field, by looking the key of each outer tuple up in the
+ * tree. The inner table is never scanned: the predicates and columns of its
+ * {@link SeqScan} are applied to the tuples of each lookup.
+ *
+ * 索引嵌套循环连接：对每个外层元组，在内表的B+树中按连接键查找匹配的元组。
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1;
+    private SeqScan child2;
+    private final BTreeFile file;
+    private final TupleDesc comboTD;
+
+    transient private Tuple outer;
+    transient private DbFileIterator lookup;
+
+    /**
+     * Constructor.
+     *
+     * @param p      the EQUALS predicate to join the children on
+     * @param child1 the left (outer) input
+     * @param child2 the scan of the inner table, a B+ tree file keyed on
+     *               the join field
+     * @throws IllegalArgumentException if the inner table cannot be looked
+     *                                  up by the join field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, SeqScan child2) {
+        if (!canProbe(p, child2))
+            throw new IllegalArgumentException("index nested-loop joins need an EQUALS predicate on the key of a B+ tree file");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.file = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * @return true if a join on p can look the tuples of the scan up by key
+     */
+    public static boolean canProbe(JoinPredicate p, SeqScan inner) {
+        return p.getOperator() == Predicate.Op.EQUALS && inner.isOrderedBy(p.getField2());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        outer = null;
+        lookup = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (lookup != null)
+            lookup.close();
+        lookup = null;
+        outer = null;
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        if (lookup != null)
+            lookup.close();
+        lookup = null;
+        outer = null;
+        child1.rewind();
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (lookup != null && lookup.hasNext())
+                return new JoinedTuple(comboTD, outer, lookup.next());
+            if (lookup != null)
+                lookup.close();
+            lookup = null;
+            if (!child1.hasNext())
+                return null;
+            outer = child1.next();
+            Predicate key = new Predicate(file.keyField(), Predicate.Op.EQUALS, outer.getField(pred.getField1()));
+            List<Predicate> filters = new ArrayList<>(child2.getFilters());
+            filters.add(key);
+            lookup = file.iterator(child2.getTransactionId(), key, key, filters, child2.getColumns());
+            lookup.open();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = (SeqScan) children[1];
+    }
+}
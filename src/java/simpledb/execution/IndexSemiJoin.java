@@ -0,0 +1,119 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * IndexSemiJoin is a {@link SemiJoin} (or {@link AntiJoin}) whose right input
+ * is a table stored in a B+ tree file keyed on the join field. The key of
+ * each left tuple is looked up in the tree, with the predicates of the
+ * table's {@link SeqScan}, and the lookup stops at the first tuple found.
+ * The right table is never scanned.
+ *
+ * 索引半连接：对每个左元组在B+树中按键查找，找到第一个匹配即停止。
+ */
+public class IndexSemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final boolean anti;
+    private OpIterator child1;
+    private SeqScan child2;
+    private final BTreeFile file;
+
+    /**
+     * Constructor.
+     *
+     * @param p      the EQUALS predicate to join the children on
+     * @param child1 the left input, whose tuples are returned
+     * @param child2 the scan of the right table, a B+ tree file keyed on the
+     *               join field
+     * @param anti   true to return the left tuples without a match instead
+     * @throws IllegalArgumentException if the right table cannot be looked
+     *                                  up by the join field
+     */
+    public IndexSemiJoin(JoinPredicate p, OpIterator child1, SeqScan child2, boolean anti) {
+        if (!IndexNestedLoopJoin.canProbe(p, child2))
+            throw new IllegalArgumentException("index semi-joins need an EQUALS predicate on the key of a B+ tree file");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+        this.file = (BTreeFile) Database.getCatalog().getDatabaseFile(child2.getTableId());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** @return true if the join returns the left tuples without a match */
+    public boolean isAnti() {
+        return anti;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        super.open();
+    }
+
+    /** The left tuples are returned as they are read, so the hint is passed to child1. */
+    public void setTupleReuse(boolean reuse) {
+        child1.setTupleReuse(reuse);
+    }
+
+    public void close() {
+        super.close();
+        child1.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+    }
+
+    /** @return true if the right table holds a tuple matching the left tuple */
+    private boolean matches(Tuple t) throws DbException, TransactionAbortedException {
+        Predicate key = new Predicate(file.keyField(), Predicate.Op.EQUALS, t.getField(pred.getField1()));
+        List<Predicate> filters = new ArrayList<>(child2.getFilters());
+        filters.add(key);
+        DbFileIterator lookup = file.iterator(child2.getTransactionId(), key, key, filters, child2.getColumns());
+        lookup.open();
+        try {
+            return lookup.hasNext();
+        } finally {
+            lookup.close();
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (matches(t) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = (SeqScan) children[1];
+    }
+}
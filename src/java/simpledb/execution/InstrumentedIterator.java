@@ -0,0 +1,214 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.BufferPool;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * InstrumentedIterator wraps an operator of a plan to measure it while the
+ * plan runs, for EXPLAIN ANALYZE: the rows it returns, the time spent in its
+ * calls, and the pages it requests from the {@link BufferPool} and how many
+ * of them had to be read from disk. Time and pages are counted both
+ * including and excluding the instrumented children of the operator.
+ * <p>
+ * {@link #instrument} wraps every operator of a plan, except the inputs of
+ * an {@link Exchange}, which run on other threads, the inputs of a parallel
+ * {@link Aggregate}, which it splits into pipelines of its own, and the
+ * table looked up by an index join, which is never iterated.
+ *
+ * 插桩迭代器：记录算子返回的行数、耗时以及请求和读取的页数。
+ */
+public class InstrumentedIterator implements OpIterator {
+
+    private static final long serialVersionUID = 1L;
+    private final OpIterator op;
+    private final List<InstrumentedIterator> children;
+
+    private long rows;
+    private long nanos;
+    private long pagesRequested;
+    private long pagesRead;
+
+    private InstrumentedIterator(OpIterator op, List<InstrumentedIterator> children) {
+        this.op = op;
+        this.children = children;
+    }
+
+    /**
+     * Wraps every operator of a plan, replacing the children of each
+     * operator by their wrappers.
+     *
+     * @param plan the root of the plan
+     * @return the wrapper of the root, to run instead of it
+     */
+    public static InstrumentedIterator instrument(OpIterator plan) {
+        List<InstrumentedIterator> children = new ArrayList<>();
+        if (plan instanceof Operator && descends((Operator) plan)) {
+            Operator o = (Operator) plan;
+            OpIterator[] inputs = o.getChildren();
+            boolean index = o instanceof IndexNestedLoopJoin || o instanceof IndexSemiJoin;
+            for (int i = 0; i < inputs.length; i++) {
+                if (inputs[i] == null || (index && i == 1))
+                    continue;
+                InstrumentedIterator child = instrument(inputs[i]);
+                children.add(child);
+                inputs[i] = child;
+            }
+            o.setChildren(inputs);
+        }
+        return new InstrumentedIterator(plan, children);
+    }
+
+    /** @return true if the children of o run on the calling thread */
+    private static boolean descends(Operator o) {
+        if (o instanceof Exchange)
+            return false;
+        return !(o instanceof Aggregate) || !((Aggregate) o).runsInParallel();
+    }
+
+    /** @return the operator measured */
+    public OpIterator getIterator() {
+        return op;
+    }
+
+    /** @return the wrappers of the children of the operator */
+    public List<InstrumentedIterator> getChildren() {
+        return children;
+    }
+
+    /** @return the number of rows the operator has returned */
+    public long getRows() {
+        return rows;
+    }
+
+    /** @return the time spent in the operator and its children, in nanoseconds */
+    public long getTime() {
+        return nanos;
+    }
+
+    /** @return the time spent in the operator itself, in nanoseconds */
+    public long getSelfTime() {
+        long self = nanos;
+        for (InstrumentedIterator c : children)
+            self -= c.nanos;
+        return self;
+    }
+
+    /** @return the pages requested by the operator and its children */
+    public long getPagesRequested() {
+        return pagesRequested;
+    }
+
+    /** @return the pages requested by the operator itself */
+    public long getSelfPagesRequested() {
+        long self = pagesRequested;
+        for (InstrumentedIterator c : children)
+            self -= c.pagesRequested;
+        return self;
+    }
+
+    /** @return the pages read from disk for the operator and its children */
+    public long getPagesRead() {
+        return pagesRead;
+    }
+
+    /** @return the pages read from disk for the operator itself */
+    public long getSelfPagesRead() {
+        long self = pagesRead;
+        for (InstrumentedIterator c : children)
+            self -= c.pagesRead;
+        return self;
+    }
+
+    /**
+     * @return the most memory the operator has held, in bytes
+     * @see Operator#getPeakMemory()
+     */
+    public long getPeakMemory() {
+        return op instanceof Operator ? ((Operator) op).getPeakMemory() : 0;
+    }
+
+    // each call is measured from the counters at its start
+    private long startNanos, startRequested, startRead;
+
+    private void start() {
+        startRequested = BufferPool.pagesRequested();
+        startRead = BufferPool.pagesRead();
+        startNanos = System.nanoTime();
+    }
+
+    private void stop() {
+        nanos += System.nanoTime() - startNanos;
+        pagesRequested += BufferPool.pagesRequested() - startRequested;
+        pagesRead += BufferPool.pagesRead() - startRead;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        start();
+        try {
+            op.open();
+        } finally {
+            stop();
+        }
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        start();
+        try {
+            return op.hasNext();
+        } finally {
+            stop();
+        }
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        start();
+        try {
+            Tuple t = op.next();
+            rows++;
+            return t;
+        } finally {
+            stop();
+        }
+    }
+
+    public TupleBatch nextBatch(int maxRows) throws DbException, TransactionAbortedException {
+        start();
+        try {
+            TupleBatch b = op.nextBatch(maxRows);
+            if (b != null)
+                rows += b.size();
+            return b;
+        } finally {
+            stop();
+        }
+    }
+
+    public void setTupleReuse(boolean reuse) {
+        op.setTupleReuse(reuse);
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        start();
+        try {
+            op.rewind();
+        } finally {
+            stop();
+        }
+    }
+
+    public TupleDesc getTupleDesc() {
+        return op.getTupleDesc();
+    }
+
+    public void close() {
+        op.close();
+    }
+}
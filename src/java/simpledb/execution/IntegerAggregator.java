@@ -1,13 +1,9 @@
 package simpledb.execution;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
-
 /**
  * Knows how to compute some aggregate over a set of IntFields.
  *
@@ -20,67 +16,15 @@ public class IntegerAggregator implements Aggregator {
     private int gbfield, afield;
     private Type gbfieldType;
     private Op what;
-    private HashMap<Field, Result> map;
+    private GroupTable.Combiner combiner;
+    private GroupTable table;
 
-    private TupleDesc td;
+    // open-addressing table used by mergeBatchIntoGroup to combine the rows
+    // of one batch per INT group; a slot is in use if its stamp is current
+    private transient int[] slotKeys, slotCounts, slotValues, slotStamps, usedSlots;
+    private transient int stamp;
 
-    private class Result {
-        private int count;
-        private int ans;
-        Result() {
-            count = ans = 0;
-        }
-        public void merge(int value) {
-            switch (what) {
-                case MIN:
-                {
-                    if (count == 0) ans = value;
-                    else ans = Math.min(ans, value);
-                }
-                break;
-                case MAX:
-                {
-                    if (count == 0) ans = value;
-                    else ans = Math.max(ans, value);
-                }
-                break;
-                case AVG:
-                    ans += value;
-                    break;
-                case SUM:
-                    ans += value;
-                    break;
-                case COUNT:
-                    break;
-                case SC_AVG:
-                    ans += value;
-                    break;
-                case SUM_COUNT:
-                    ans += value;
-                    break;
-            }
-            count++;
-        }
-        public int get() {
-            switch (what) {
-                case MIN:
-                return ans;
-                case MAX:
-                return ans;
-                case AVG:
-                return ans / count;
-                case SUM:
-                return ans;
-                case COUNT:
-                return count;
-                case SC_AVG:
-                return ans / count;
-                case SUM_COUNT:
-                return ans;
-            }
-            return ans;
-        }
-    }
+    private TupleDesc td;
 
     /**
      * Aggregate constructor
@@ -98,12 +42,25 @@ public class IntegerAggregator implements Aggregator {
      */
 
     public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Aggregate constructor with an explicit memory budget
+     *
+     * @param maxGroups
+     *            the maximum number of groups held in memory; beyond that,
+     *            partial aggregates are spilled to disk by group hash
+     * @see #IntegerAggregator(int, Type, int, Op)
+     */
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups) {
         // some code goes here
         this.afield = afield;
         this.gbfield = gbfield;
         this.gbfieldType = gbfieldtype;
         this.what = what;
-        map = new HashMap<>();
+        this.combiner = combiner(what);
+        table = new GroupTable(gbfieldtype, this.combiner, maxGroups);
         if(gbfield != Aggregator.NO_GROUPING){
             this.td = new TupleDesc(new Type[]{gbfieldType, Type.INT_TYPE,});
         }else{
@@ -111,6 +68,31 @@ public class IntegerAggregator implements Aggregator {
         }
     }
 
+    private static GroupTable.Combiner combiner(Op what) {
+        switch (what) {
+            case MIN:
+                return Math::min;
+            case MAX:
+                return Math::max;
+            case COUNT:
+                return (acc, value) -> acc;
+            default:
+                return (acc, value) -> acc + value;
+        }
+    }
+
+    private static GroupTable.Finisher finisher(Op what) {
+        switch (what) {
+            case AVG:
+            case SC_AVG:
+                return (count, value) -> value / count;
+            case COUNT:
+                return (count, value) -> count;
+            default:
+                return (count, value) -> value;
+        }
+    }
+
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
@@ -122,13 +104,83 @@ public class IntegerAggregator implements Aggregator {
         // some code goes here
         int value = ((IntField)tup.getField(this.afield)).getValue();
         if (this.gbfield != Aggregator.NO_GROUPING) {
-            map.computeIfAbsent(tup.getField(this.gbfield), k -> new Result()).merge(value);
-//            map.get(tup.getField(this.gbfield)).merge(value);
+            table.merge(tup.getField(this.gbfield), 1, value);
         } else {
-            map.computeIfAbsent(null, k -> new Result()).merge(value);
+            table.merge(null, 1, value);
         }
     }
 
+    /**
+     * Merges the selected rows of a batch without creating a Tuple per row.
+     * Rows are first combined per group within the batch, so each group is
+     * looked up in the group table at most once per batch.
+     */
+    public void mergeBatchIntoGroup(TupleBatch batch) {
+        int n = batch.size();
+        if (n == 0)
+            return;
+        int[] values = batch.intColumn(this.afield);
+        if (this.gbfield == Aggregator.NO_GROUPING) {
+            int acc = values[batch.rowAt(0)];
+            for (int i = 1; i < n; i++)
+                acc = combiner.combine(acc, values[batch.rowAt(i)]);
+            table.merge(null, n, acc);
+            return;
+        }
+        if (this.gbfieldType != Type.INT_TYPE) {
+            for (int i = 0; i < n; i++) {
+                int row = batch.rowAt(i);
+                table.merge(batch.getField(this.gbfield, row), 1, values[row]);
+            }
+            return;
+        }
+
+        int[] groups = batch.intColumn(this.gbfield);
+        int size = Integer.highestOneBit(n) << 2;
+        if (slotKeys == null || slotKeys.length < size) {
+            slotKeys = new int[size];
+            slotCounts = new int[size];
+            slotValues = new int[size];
+            slotStamps = new int[size];
+            usedSlots = new int[size];
+            stamp = 0;
+        }
+        int mask = size - 1;
+        int cur = ++stamp;
+        int used = 0;
+        for (int i = 0; i < n; i++) {
+            int row = batch.rowAt(i);
+            int key = groups[row];
+            int h = key * 0x9E3779B9;
+            h = (h ^ (h >>> 16)) & mask;
+            while (slotStamps[h] == cur && slotKeys[h] != key)
+                h = (h + 1) & mask;
+            if (slotStamps[h] != cur) {
+                slotStamps[h] = cur;
+                slotKeys[h] = key;
+                slotCounts[h] = 1;
+                slotValues[h] = values[row];
+                usedSlots[used++] = h;
+            } else {
+                slotCounts[h]++;
+                slotValues[h] = combiner.combine(slotValues[h], values[row]);
+            }
+        }
+        for (int j = 0; j < used; j++) {
+            int h = usedSlots[j];
+            table.merge(IntField.valueOf(slotKeys[h]), slotCounts[h], slotValues[h]);
+        }
+    }
+
+    public void mergeAggregator(Aggregator other) throws DbException {
+        if (!(other instanceof IntegerAggregator))
+            throw new IllegalArgumentException("cannot merge " + other.getClass().getSimpleName());
+        IntegerAggregator o = (IntegerAggregator) other;
+        if (o.gbfield != gbfield || o.afield != afield || o.what != what)
+            throw new IllegalArgumentException("cannot merge aggregators over different fields");
+        table.mergeAll(o.table);
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * 
@@ -139,18 +191,12 @@ public class IntegerAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        List<Tuple> tuples = new ArrayList<>(map.size());
-        for (Map.Entry<Field, Result> entry : map.entrySet()) {
-            Tuple tp = new Tuple(td);
-            if(gbfield != Aggregator.NO_GROUPING){
-                tp.setField(0, entry.getKey());
-                tp.setField(1, new IntField(entry.getValue().get()));
-            }else{
-                tp.setField(0, new IntField(entry.getValue().get()));
-            }
-            tuples.add(tp);
-        }
-        return new TupleIterator(td, tuples);
+        return table.iterator(td, finisher(what));
+    }
+
+    @Override
+    public int peakGroups() {
+        return table.peakGroups();
     }
 
     @Override
@@ -20,6 +20,9 @@ public class Join extends Operator {
     private Tuple temp1, temp2;
     private ArrayList<Tuple> arrayList;
     private int id, cacheSize;
+    private boolean reuseTuples;
+    transient private TupleDesc comboTD;
+    transient private JoinedTuple out;
 
     /**
      * Constructor. Accepts two children to join and the predicate to join them
@@ -80,6 +83,30 @@ public class Join extends Operator {
         this.child2.open();
     }
 
+    /**
+     * The tuples of child1 are kept in memory, but those of child2 are
+     * only referenced by the joined tuples, so the hint is passed to child2.
+     */
+    public void setTupleReuse(boolean reuse) {
+        this.reuseTuples = reuse;
+        this.child2.setTupleReuse(reuse);
+    }
+
+    /**
+     * Returns the concatenation of two matching tuples, as a view of them
+     * rather than a copy of their fields.
+     */
+    private Tuple joined(Tuple t1, Tuple t2) {
+        if (comboTD == null)
+            comboTD = getTupleDesc();
+        if (!reuseTuples || out == null) {
+            out = new JoinedTuple(comboTD, t1, t2);
+            return out;
+        }
+        out.set(t1, t2);
+        return out;
+    }
+
     public void close() {
         // some code goes here
         super.close();
@@ -138,17 +165,8 @@ public class Join extends Operator {
                 for (; id < this.arrayList.size(); id++) {
                     this.temp1 = this.arrayList.get(id);
                     if (this.p.filter(this.temp1, this.temp2)) {
-                        TupleDesc tupleDesc = this.getTupleDesc();
-                        int i = 0;
-                        Tuple ans = new Tuple(tupleDesc);
-                        for (Iterator<Field> it = this.temp1.fields(); it.hasNext(); ) {
-                            ans.setField(i++, it.next());
-                        }
-                        for (Iterator<Field> it = this.temp2.fields(); it.hasNext(); ) {
-                            ans.setField(i++, it.next());
-                        }
                         id++;
-                        return ans;
+                        return joined(this.temp1, this.temp2);
                     }
                 }
                 temp2 = null;
@@ -161,12 +179,14 @@ public class Join extends Operator {
     @Override
     public OpIterator[] getChildren() {
         // some code goes here
-        return null;
+        return new OpIterator[] { this.child1, this.child2 };
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
         // some code goes here
+        this.child1 = children[0];
+        this.child2 = children[1];
     }
 
 
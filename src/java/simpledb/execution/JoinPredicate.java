@@ -18,6 +18,8 @@ public class JoinPredicate implements Serializable {
     private static final long serialVersionUID = 1L;
     private int field1, field2;
     private Predicate.Op op;
+    /** This predicate compiled for the types of the first tuples it sees. */
+    private transient volatile JoinPredicateEvaluator evaluator;
     /**
      * Constructor -- create a new predicate over two fields of two tuples.
      * 
@@ -40,14 +42,20 @@ public class JoinPredicate implements Serializable {
     }
 
     /**
-     * Apply the predicate to the two specified tuples. The comparison can be
-     * made through Field's compare method.
+     * Apply the predicate to the two specified tuples. The predicate is
+     * compiled into a {@link JoinPredicateEvaluator} the first time it is
+     * used.
      * 
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
         // some code goes here
-        return t1.getField(this.field1).compare(this.op, t2.getField(this.field2));
+        JoinPredicateEvaluator e = this.evaluator;
+        if (e == null) {
+            e = JoinPredicateEvaluator.compile(this, t1.getField(this.field1));
+            this.evaluator = e;
+        }
+        return e.test(t1, t2);
     }
     
     public int getField1()
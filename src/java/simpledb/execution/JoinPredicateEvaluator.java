@@ -0,0 +1,166 @@
+package simpledb.execution;
+
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+
+/**
+ * JoinPredicateEvaluator is a {@link JoinPredicate} compiled for the types
+ * of the fields it compares, with one class per field type and operator, as
+ * {@link PredicateEvaluator} does for predicates over one tuple.
+ */
+public abstract class JoinPredicateEvaluator {
+
+    /**
+     * @return true if the two tuples satisfy the predicate
+     */
+    public abstract boolean test(Tuple t1, Tuple t2);
+
+    /**
+     * Compiles a join predicate.
+     *
+     * @param p    the predicate
+     * @param type an example of the fields it compares, which decides the
+     *             class of the evaluator
+     * @return an evaluator of p
+     */
+    public static JoinPredicateEvaluator compile(JoinPredicate p, Field type) {
+        int f1 = p.getField1(), f2 = p.getField2();
+        if (type instanceof IntField) {
+            switch (p.getOperator()) {
+                case EQUALS:
+                case LIKE:
+                    return new IntEquals(f1, f2);
+                case NOT_EQUALS:
+                    return new IntNotEquals(f1, f2);
+                case LESS_THAN:
+                    return new IntLessThan(f1, f2);
+                case LESS_THAN_OR_EQ:
+                    return new IntLessThanOrEq(f1, f2);
+                case GREATER_THAN:
+                    return new IntGreaterThan(f1, f2);
+                case GREATER_THAN_OR_EQ:
+                    return new IntGreaterThanOrEq(f1, f2);
+            }
+        } else if (type instanceof StringField && p.getOperator() == Predicate.Op.EQUALS) {
+            return new StringEquals(f1, f2);
+        }
+        return new FieldCompare(p);
+    }
+
+    private static int intOf(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private static final class IntEquals extends JoinPredicateEvaluator {
+        private final int f1, f2;
+
+        IntEquals(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return intOf(t1, f1) == intOf(t2, f2);
+        }
+    }
+
+    private static final class IntNotEquals extends JoinPredicateEvaluator {
+        private final int f1, f2;
+
+        IntNotEquals(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return intOf(t1, f1) != intOf(t2, f2);
+        }
+    }
+
+    private static final class IntLessThan extends JoinPredicateEvaluator {
+        private final int f1, f2;
+
+        IntLessThan(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return intOf(t1, f1) < intOf(t2, f2);
+        }
+    }
+
+    private static final class IntLessThanOrEq extends JoinPredicateEvaluator {
+        private final int f1, f2;
+
+        IntLessThanOrEq(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return intOf(t1, f1) <= intOf(t2, f2);
+        }
+    }
+
+    private static final class IntGreaterThan extends JoinPredicateEvaluator {
+        private final int f1, f2;
+
+        IntGreaterThan(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return intOf(t1, f1) > intOf(t2, f2);
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends JoinPredicateEvaluator {
+        private final int f1, f2;
+
+        IntGreaterThanOrEq(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return intOf(t1, f1) >= intOf(t2, f2);
+        }
+    }
+
+    /**
+     * Equality of strings; fields of the same dictionary compare by
+     * identity, see {@link simpledb.storage.DictionaryField#equals}.
+     */
+    private static final class StringEquals extends JoinPredicateEvaluator {
+        private final int f1, f2;
+
+        StringEquals(int f1, int f2) {
+            this.f1 = f1;
+            this.f2 = f2;
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return t1.getField(f1).equals(t2.getField(f2));
+        }
+    }
+
+    /** Any other predicate, checked with Field.compare. */
+    private static final class FieldCompare extends JoinPredicateEvaluator {
+        private final int f1, f2;
+        private final Predicate.Op op;
+
+        FieldCompare(JoinPredicate p) {
+            this.f1 = p.getField1();
+            this.f2 = p.getField2();
+            this.op = p.getOperator();
+        }
+
+        public boolean test(Tuple t1, Tuple t2) {
+            return t1.getField(f1).compare(op, t2.getField(f2));
+        }
+    }
+}
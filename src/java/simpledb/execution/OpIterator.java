@@ -2,6 +2,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.io.Serializable;
@@ -39,6 +40,35 @@ public interface OpIterator extends Serializable{
    */
   Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException;
 
+  /**
+   * Returns up to maxRows of the next tuples as a batch, or null if there are
+   * no more tuples; a returned batch is never empty. Operators that can work a
+   * batch at a time override this, and the default implementation bridges to
+   * {@link #next()}.
+   * <p>
+   * The returned batch is only valid until the next call on this iterator,
+   * and the caller may narrow its selection vector. Callers should not mix
+   * next() and nextBatch() on the same iterator between open() and rewind().
+   *
+   * @param maxRows the maximum number of rows to return
+   * @throws IllegalStateException If the iterator has not been opened
+   */
+  default TupleBatch nextBatch(int maxRows) throws DbException, TransactionAbortedException {
+    return TupleBatch.fill(this, maxRows);
+  }
+
+  /**
+   * Tells the iterator whether its caller keeps the tuples it returns. A
+   * caller that passes true promises not to use a tuple once it calls
+   * hasNext() or next() again, and the iterator may then return the same
+   * Tuple object each time, updated in place. Operators that return their
+   * child's tuples forward the hint to the child. The default ignores it.
+   *
+   * @param reuse true if returned tuples may be reused
+   */
+  default void setTupleReuse(boolean reuse) {
+  }
+
   /**
    * Resets the iterator to the start.
    * @throws DbException when rewind is unsupported.
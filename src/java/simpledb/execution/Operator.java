@@ -3,6 +3,7 @@ package simpledb.execution;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.NoSuchElementException;
@@ -35,6 +36,7 @@ public abstract class Operator implements OpIterator {
 
         Tuple result = next;
         next = null;
+        actualRows++;
         return result;
     }
 
@@ -62,9 +64,12 @@ public abstract class Operator implements OpIterator {
     private Tuple next = null;
     private boolean open = false;
     private int estimatedCardinality = 0;
+    private long actualRows = 0;
+    private long peakMemory = 0;
 
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
+        this.actualRows = 0;
     }
 
     /**
@@ -109,4 +114,45 @@ public abstract class Operator implements OpIterator {
         this.estimatedCardinality = card;
     }
 
+    /**
+     * @return the number of tuples this operator has returned since it was
+     *         opened, over every pass if it was rewound
+     */
+    public long getActualCardinality() {
+        return this.actualRows;
+    }
+
+    /**
+     * Counts the rows of a batch returned by an operator that overrides
+     * {@link #nextBatch} instead of going through {@link #next}.
+     *
+     * @param b the batch returned, or null
+     * @return b
+     */
+    protected TupleBatch countRows(TupleBatch b) {
+        if (b != null)
+            this.actualRows += b.size();
+        return b;
+    }
+
+    /**
+     * Records the memory a blocking operator holds for the rows it has read,
+     * such as a hash table or a sorted run. Only the largest amount reported
+     * is kept.
+     *
+     * @param bytes the memory held, estimated from the sizes of the rows
+     */
+    protected void reportMemory(long bytes) {
+        if (bytes > this.peakMemory)
+            this.peakMemory = bytes;
+    }
+
+    /**
+     * @return the most memory this operator has reported holding, in bytes,
+     *         or 0 if it does not keep rows in memory
+     */
+    public long getPeakMemory() {
+        return this.peakMemory;
+    }
+
 }
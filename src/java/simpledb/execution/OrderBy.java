@@ -66,6 +66,7 @@ public class OrderBy extends Operator {
         while (child.hasNext())
             childTups.add(child.next());
         childTups.sort(new TupleComparator(orderByField, asc));
+        reportMemory((long) childTups.size() * getTupleDesc().getSize());
         it = childTups.iterator();
         super.open();
     }
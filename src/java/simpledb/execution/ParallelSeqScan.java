@@ -0,0 +1,235 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.Serializable;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ParallelSeqScan is a morsel-driven parallel sequential scan of a heap file.
+ * Worker threads repeatedly claim a morsel of {@link #MORSEL_PAGES}
+ * consecutive pages from a shared counter, run a pipeline (for example a
+ * {@link Filter} and a {@link Project}) over a scan of that morsel, and put the
+ * resulting tuples into a bounded queue that this operator's consumer reads.
+ * Workers that finish their morsel early simply claim the next one, so the
+ * load stays balanced even when filters are selective on only part of the
+ * table.
+ * <p>
+ * Tuples are returned in no particular order.
+ */
+public class ParallelSeqScan extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of consecutive pages a worker claims at a time. */
+    public static final int MORSEL_PAGES = 8;
+
+    /** Number of tuples the exchange queue holds before workers block. */
+    public static final int QUEUE_CAPACITY = 1024;
+
+    /** Marks the end of one worker's output in the queue. */
+    private static final Tuple END = new Tuple(new TupleDesc(new Type[] { Type.INT_TYPE }));
+
+    /**
+     * Builds the per-worker operator pipeline on top of a scan of one morsel.
+     */
+    public interface Pipeline extends Serializable {
+        OpIterator build(OpIterator morselScan);
+    }
+
+    private final TransactionId tid;
+    private final int tableId;
+    private final String tableAlias;
+    private final Pipeline pipeline;
+    private final int workers;
+    private final TupleDesc td;
+
+    private transient ExecutorService pool;
+    private transient volatile BlockingQueue<Tuple> queue;
+    private transient AtomicInteger nextPage;
+    private transient volatile Exception failure;
+    private int running;
+
+    /**
+     * Creates a parallel scan that returns the tuples of every page.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; it must be stored in a
+     *                   {@link HeapFile}.
+     * @param tableAlias the alias of this table
+     * @param workers    the number of worker threads
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias, int workers) {
+        this(tid, tableid, tableAlias, scan -> scan, workers);
+    }
+
+    /**
+     * Creates a parallel scan that runs a pipeline over every morsel.
+     *
+     * @param tid        The transaction this scan is running as a part of.
+     * @param tableid    the table to scan; it must be stored in a
+     *                   {@link HeapFile}.
+     * @param tableAlias the alias of this table
+     * @param pipeline   builds the operators each worker runs over a morsel;
+     *                   it is called once per morsel and must not share
+     *                   operator instances between calls
+     * @param workers    the number of worker threads
+     */
+    public ParallelSeqScan(TransactionId tid, int tableid, String tableAlias,
+                           Pipeline pipeline, int workers) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile))
+            throw new IllegalArgumentException("parallel scans need a HeapFile");
+        if (workers < 1)
+            throw new IllegalArgumentException("workers must be positive");
+        this.tid = tid;
+        this.tableId = tableid;
+        this.tableAlias = tableAlias;
+        this.pipeline = pipeline;
+        this.workers = workers;
+        this.td = pipeline.build(new SeqScan(tid, tableid, tableAlias)).getTupleDesc();
+    }
+
+    /**
+     * @return the actual name of the table in the catalog of the database
+     */
+    public String getTableName() {
+        return Database.getCatalog().getTableName(this.tableId);
+    }
+
+    /**
+     * @return the alias of the table this operator scans
+     */
+    public String getAlias() {
+        return this.tableAlias;
+    }
+
+    /**
+     * @return the number of worker threads
+     */
+    public int getWorkers() {
+        return this.workers;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        super.open();
+        startWorkers();
+    }
+
+    private void startWorkers() {
+        final int numPages = ((HeapFile) Database.getCatalog().getDatabaseFile(tableId)).numPages();
+        // workers keep their own references, so ones left over from before a
+        // rewind cannot feed or claim pages of the new run
+        final BlockingQueue<Tuple> out = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+        final AtomicInteger pages = new AtomicInteger(0);
+        queue = out;
+        nextPage = pages;
+        failure = null;
+        running = workers;
+        pool = Executors.newFixedThreadPool(workers);
+        for (int w = 0; w < workers; w++) {
+            pool.execute(() -> {
+                try {
+                    int start;
+                    while ((start = pages.getAndAdd(MORSEL_PAGES)) < numPages) {
+                        OpIterator morsel = pipeline.build(new SeqScan(tid, tableId, tableAlias,
+                                start, Math.min(start + MORSEL_PAGES, numPages)));
+                        morsel.open();
+                        try {
+                            while (morsel.hasNext())
+                                out.put(morsel.next());
+                        } finally {
+                            morsel.close();
+                        }
+                    }
+                } catch (InterruptedException e) {
+                    return;
+                } catch (Exception e) {
+                    if (queue == out)
+                        failure = e;
+                }
+                try {
+                    out.put(END);
+                } catch (InterruptedException ignored) {
+                }
+            });
+        }
+    }
+
+    private void stopWorkers() {
+        if (pool != null) {
+            pool.shutdownNow();
+            pool = null;
+        }
+        queue = null;
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the next tuple produced by
+     * any worker, blocking until one is available.
+     *
+     * @return the next tuple, or null once every worker has finished
+     */
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (running > 0) {
+            Tuple t;
+            try {
+                t = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new DbException("interrupted during parallel scan");
+            }
+            if (t != END)
+                return t;
+            running--;
+            if (failure != null) {
+                stopWorkers();
+                running = 0;
+                if (failure instanceof TransactionAbortedException)
+                    throw (TransactionAbortedException) failure;
+                if (failure instanceof DbException)
+                    throw (DbException) failure;
+                throw new DbException("parallel scan failed: " + failure);
+            }
+        }
+        stopWorkers();
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stopWorkers();
+        startWorkers();
+    }
+
+    public void close() {
+        super.close();
+        stopWorkers();
+        running = 0;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[0];
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+    }
+
+}
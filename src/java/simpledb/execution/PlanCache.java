@@ -1,53 +1,147 @@
 package simpledb.execution;
+import simpledb.optimizer.CostModel;
 import simpledb.optimizer.LogicalJoinNode;
 
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
-import java.util.Set;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.
+ * <p>
+ * A set of tables is a bitmask, bit i standing for the i-th table of the
+ * query, and the cache is an open-addressing hash table over these masks.
+ * For each set it keeps the cost and cardinality of its best plan, the
+ * subset of tables on the left of the plan's last join, that join and the
+ * operator it runs as; the plan of a set is rebuilt from those of its two
+ * halves. */
 public class PlanCache {
-    final Map<Set<LogicalJoinNode>,List<LogicalJoinNode>> bestOrders= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<>();
-    
+    private long[] keys = new long[64];
+    private double[] costs = new double[64];
+    private int[] cards = new int[64];
+    private boolean[] pkeys = new boolean[64];
+    private long[] lefts = new long[64];
+    private LogicalJoinNode[] joins = new LogicalJoinNode[64];
+    private CostModel.JoinMethod[] methods = new CostModel.JoinMethod[64];
+    private int size;
+
+    private int slot(long s) {
+        int mask = keys.length - 1;
+        int i = (int) ((s * 0x9E3779B97F4A7C15L) >>> 40) & mask;
+        while (keys[i] != 0 && keys[i] != s)
+            i = (i + 1) & mask;
+        return i;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        double[] oldCosts = costs;
+        int[] oldCards = cards;
+        boolean[] oldPkeys = pkeys;
+        long[] oldLefts = lefts;
+        LogicalJoinNode[] oldJoins = joins;
+        CostModel.JoinMethod[] oldMethods = methods;
+        int n = oldKeys.length * 2;
+        keys = new long[n];
+        costs = new double[n];
+        cards = new int[n];
+        pkeys = new boolean[n];
+        lefts = new long[n];
+        joins = new LogicalJoinNode[n];
+        methods = new CostModel.JoinMethod[n];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] == 0)
+                continue;
+            int j = slot(oldKeys[i]);
+            keys[j] = oldKeys[i];
+            costs[j] = oldCosts[i];
+            cards[j] = oldCards[i];
+            pkeys[j] = oldPkeys[i];
+            lefts[j] = oldLefts[i];
+            joins[j] = oldJoins[i];
+            methods[j] = oldMethods[i];
+        }
+    }
+
     /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
         specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        @param s the set of tables for which a new plan is being added, as a bitmask
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
-        @param order the ordering of the joins in the plan
+        @param pkey whether a join of the plan is on a primary key
+        @param left the tables on the left of the last join of the plan, or 0 for a single table
+        @param join the last join of the plan, or null for a single table
+        @param method the operator the last join runs as, or null
     */
-    public void addPlan(Set<LogicalJoinNode> s, double cost, int card, List<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
-    }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+    public void addPlan(long s, double cost, int card, boolean pkey, long left, LogicalJoinNode join,
+                        CostModel.JoinMethod method) {
+        if (2 * (size + 1) > keys.length)
+            grow();
+        int i = slot(s);
+        if (keys[i] == 0) {
+            keys[i] = s;
+            size++;
+        }
+        costs[i] = cost;
+        cards[i] = card;
+        pkeys[i] = pkey;
+        lefts[i] = left;
+        joins[i] = join;
+        methods[i] = method;
+    }
+
+    /** @return whether the cache holds a plan for the set of tables s */
+    public boolean contains(long s) {
+        return keys[slot(s)] == s;
+    }
+
+    /** Find the best join order in the cache for the specified plan
+        @param s the set of tables to look up the best order for
+        @return the joins of the best plan of s, each after the joins of its
+                inputs and with the operator of the plan set as its
+                {@link LogicalJoinNode#method}, or null if s is not in the cache
     */
-    public List<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    public List<LogicalJoinNode> getOrder(long s) {
+        if (!contains(s))
+            return null;
+        List<LogicalJoinNode> order = new ArrayList<>();
+        addOrder(s, order);
+        return order;
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
+
+    private void addOrder(long s, List<LogicalJoinNode> order) {
+        int i = slot(s);
+        if (lefts[i] == 0)
+            return;
+        addOrder(lefts[i], order);
+        addOrder(s & ~lefts[i], order);
+        joins[i].method = methods[i];
+        order.add(joins[i]);
+    }
+
+    /** Find the cost of the best join order in the cache for the specified plan
+        @param s the set of tables to look up the best cost for
         @return the cost of the best order for s in the cache
     */
-    public double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    public double getCost(long s) {
+        return costs[slot(s)];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
+
+    /** Find the cardinality of the best join order in the cache for the specified plan
+        @param s the set of tables to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    public int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    public int getCard(long s) {
+        return cards[slot(s)];
+    }
+
+    /** @return whether a join of the best plan of s is on a primary key */
+    public boolean hasPkey(long s) {
+        return pkeys[slot(s)];
+    }
+
+    /** @return the number of sets of tables in the cache */
+    public int size() {
+        return size;
     }
 }
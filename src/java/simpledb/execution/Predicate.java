@@ -53,6 +53,8 @@ public class Predicate implements Serializable {
     private int fieId;
     private Op op;
     private Field operand;
+    /** This predicate compiled, on first use. */
+    private transient volatile PredicateEvaluator evaluator;
 
     /**
      * Constructor.
@@ -101,8 +103,8 @@ public class Predicate implements Serializable {
     /**
      * Compares the field number of t specified in the constructor to the
      * operand field specified in the constructor using the operator specific in
-     * the constructor. The comparison can be made through Field's compare
-     * method.
+     * the constructor. The predicate is compiled into a
+     * {@link PredicateEvaluator} the first time it is used.
      * 
      * @param t
      *            The tuple to compare against
@@ -110,7 +112,12 @@ public class Predicate implements Serializable {
      */
     public boolean filter(Tuple t) {
         // some code goes here
-        return t.getField(this.fieId).compare(this.op, this.operand);
+        PredicateEvaluator e = this.evaluator;
+        if (e == null) {
+            e = PredicateEvaluator.compile(this);
+            this.evaluator = e;
+        }
+        return e.test(t);
     }
 
     /**
@@ -0,0 +1,435 @@
+package simpledb.execution;
+
+import simpledb.storage.DictionaryField;
+import simpledb.storage.Field;
+import simpledb.storage.HeapPage;
+import simpledb.storage.IntField;
+import simpledb.storage.StringDictionary;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+
+import java.util.List;
+
+/**
+ * PredicateEvaluator is a {@link Predicate}, or a conjunction of them,
+ * compiled for evaluation on many tuples. {@link #compile} picks one class per
+ * field type and operator, with the operand unboxed into a field of that
+ * class, so evaluating a predicate takes no switch over the operator and no
+ * call through {@link Field#compare}, and the JIT can inline the comparison
+ * into the operator that runs it.
+ * <p>
+ * Evaluators check tuples, and also the slots of heap pages, which scans
+ * check before they decode a tuple.
+ */
+public abstract class PredicateEvaluator {
+
+    /**
+     * @return true if the tuple satisfies the predicate
+     */
+    public abstract boolean test(Tuple t);
+
+    /**
+     * @return true if a used slot of a page satisfies the predicate; only the
+     *         fields the predicate reads are decoded
+     */
+    public abstract boolean test(HeapPage page, int slot);
+
+    /**
+     * Compiles a predicate.
+     *
+     * @param p the predicate
+     * @return an evaluator of p
+     */
+    public static PredicateEvaluator compile(Predicate p) {
+        int f = p.getField();
+        Field operand = p.getOperand();
+        if (operand instanceof IntField) {
+            int v = ((IntField) operand).getValue();
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    return new IntEquals(f, v);
+                case NOT_EQUALS:
+                    return new IntNotEquals(f, v);
+                case LESS_THAN:
+                    return new IntLessThan(f, v);
+                case LESS_THAN_OR_EQ:
+                    return new IntLessThanOrEq(f, v);
+                case GREATER_THAN:
+                    return new IntGreaterThan(f, v);
+                case GREATER_THAN_OR_EQ:
+                    return new IntGreaterThanOrEq(f, v);
+            }
+        } else if (operand instanceof StringField) {
+            StringField s = (StringField) operand;
+            switch (p.getOp()) {
+                case EQUALS:
+                    return new StringEquals(f, s);
+                case NOT_EQUALS:
+                    return new StringNotEquals(f, s);
+                case LESS_THAN:
+                    return new StringLessThan(f, s.getValue());
+                case LESS_THAN_OR_EQ:
+                    return new StringLessThanOrEq(f, s.getValue());
+                case GREATER_THAN:
+                    return new StringGreaterThan(f, s.getValue());
+                case GREATER_THAN_OR_EQ:
+                    return new StringGreaterThanOrEq(f, s.getValue());
+                case LIKE:
+                    return new StringLike(f, s.getValue());
+            }
+        }
+        return new FieldCompare(p);
+    }
+
+    /**
+     * Compiles a conjunction of predicates into a single evaluator.
+     *
+     * @param ps the predicates, all of which must hold
+     * @return an evaluator of the conjunction, or null if ps is empty
+     */
+    public static PredicateEvaluator compile(List<Predicate> ps) {
+        if (ps == null || ps.isEmpty())
+            return null;
+        if (ps.size() == 1)
+            return compile(ps.get(0));
+        PredicateEvaluator[] es = new PredicateEvaluator[ps.size()];
+        for (int i = 0; i < es.length; i++)
+            es[i] = compile(ps.get(i));
+        if (es.length == 2)
+            return new And2(es[0], es[1]);
+        return new AndN(es);
+    }
+
+    private static int intOf(Tuple t, int field) {
+        return ((IntField) t.getField(field)).getValue();
+    }
+
+    private static String stringOf(Field f) {
+        return ((StringField) f).getValue();
+    }
+
+    private static final class IntEquals extends PredicateEvaluator {
+        private final int field, v;
+
+        IntEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intOf(t, field) == v;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return page.getInt(slot, field) == v;
+        }
+    }
+
+    private static final class IntNotEquals extends PredicateEvaluator {
+        private final int field, v;
+
+        IntNotEquals(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intOf(t, field) != v;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return page.getInt(slot, field) != v;
+        }
+    }
+
+    private static final class IntLessThan extends PredicateEvaluator {
+        private final int field, v;
+
+        IntLessThan(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intOf(t, field) < v;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return page.getInt(slot, field) < v;
+        }
+    }
+
+    private static final class IntLessThanOrEq extends PredicateEvaluator {
+        private final int field, v;
+
+        IntLessThanOrEq(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intOf(t, field) <= v;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return page.getInt(slot, field) <= v;
+        }
+    }
+
+    private static final class IntGreaterThan extends PredicateEvaluator {
+        private final int field, v;
+
+        IntGreaterThan(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intOf(t, field) > v;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return page.getInt(slot, field) > v;
+        }
+    }
+
+    private static final class IntGreaterThanOrEq extends PredicateEvaluator {
+        private final int field, v;
+
+        IntGreaterThanOrEq(int field, int v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return intOf(t, field) >= v;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return page.getInt(slot, field) >= v;
+        }
+    }
+
+    /**
+     * Equality of strings. Fields of a {@link StringDictionary} are compared
+     * by identity with the operand's field in the same dictionary, which is
+     * looked up once per dictionary.
+     */
+    private abstract static class StringEquality extends PredicateEvaluator {
+        final int field;
+        private final StringField operand;
+        private volatile Encoded encoded;
+
+        /** The operand in the dictionary of the last field compared. */
+        private static final class Encoded {
+            final StringDictionary dictionary;
+            /** null if the dictionary does not hold the operand's value */
+            final DictionaryField field;
+            /** the size of the dictionary before the operand was looked up */
+            final int size;
+
+            Encoded(StringDictionary dictionary, DictionaryField field, int size) {
+                this.dictionary = dictionary;
+                this.field = field;
+                this.size = size;
+            }
+        }
+
+        StringEquality(int field, StringField operand) {
+            this.field = field;
+            this.operand = operand;
+        }
+
+        final boolean equal(Field f) {
+            if (!(f instanceof DictionaryField))
+                return stringOf(f).equals(operand.getValue());
+            StringDictionary d = ((DictionaryField) f).getDictionary();
+            Encoded e = encoded;
+            // a value missing from the dictionary may have been added since,
+            // but only if the dictionary has grown
+            if (e == null || e.dictionary != d || (e.field == null && d.size() != e.size)) {
+                int size = d.size();
+                e = new Encoded(d, d.lookup(operand), size);
+                encoded = e;
+            }
+            return e.field == f;
+        }
+    }
+
+    private static final class StringEquals extends StringEquality {
+        StringEquals(int field, StringField operand) {
+            super(field, operand);
+        }
+
+        public boolean test(Tuple t) {
+            return equal(t.getField(field));
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return equal(page.getField(slot, field));
+        }
+    }
+
+    private static final class StringNotEquals extends StringEquality {
+        StringNotEquals(int field, StringField operand) {
+            super(field, operand);
+        }
+
+        public boolean test(Tuple t) {
+            return !equal(t.getField(field));
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return !equal(page.getField(slot, field));
+        }
+    }
+
+    private static final class StringLessThan extends PredicateEvaluator {
+        private final int field;
+        private final String v;
+
+        StringLessThan(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringOf(t.getField(field)).compareTo(v) < 0;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return stringOf(page.getField(slot, field)).compareTo(v) < 0;
+        }
+    }
+
+    private static final class StringLessThanOrEq extends PredicateEvaluator {
+        private final int field;
+        private final String v;
+
+        StringLessThanOrEq(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringOf(t.getField(field)).compareTo(v) <= 0;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return stringOf(page.getField(slot, field)).compareTo(v) <= 0;
+        }
+    }
+
+    private static final class StringGreaterThan extends PredicateEvaluator {
+        private final int field;
+        private final String v;
+
+        StringGreaterThan(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringOf(t.getField(field)).compareTo(v) > 0;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return stringOf(page.getField(slot, field)).compareTo(v) > 0;
+        }
+    }
+
+    private static final class StringGreaterThanOrEq extends PredicateEvaluator {
+        private final int field;
+        private final String v;
+
+        StringGreaterThanOrEq(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringOf(t.getField(field)).compareTo(v) >= 0;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return stringOf(page.getField(slot, field)).compareTo(v) >= 0;
+        }
+    }
+
+    private static final class StringLike extends PredicateEvaluator {
+        private final int field;
+        private final String v;
+
+        StringLike(int field, String v) {
+            this.field = field;
+            this.v = v;
+        }
+
+        public boolean test(Tuple t) {
+            return stringOf(t.getField(field)).contains(v);
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return stringOf(page.getField(slot, field)).contains(v);
+        }
+    }
+
+    /** Any other predicate, checked with Field.compare. */
+    private static final class FieldCompare extends PredicateEvaluator {
+        private final Predicate p;
+
+        FieldCompare(Predicate p) {
+            this.p = p;
+        }
+
+        public boolean test(Tuple t) {
+            return t.getField(p.getField()).compare(p.getOp(), p.getOperand());
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return page.getField(slot, p.getField()).compare(p.getOp(), p.getOperand());
+        }
+    }
+
+    private static final class And2 extends PredicateEvaluator {
+        private final PredicateEvaluator a, b;
+
+        And2(PredicateEvaluator a, PredicateEvaluator b) {
+            this.a = a;
+            this.b = b;
+        }
+
+        public boolean test(Tuple t) {
+            return a.test(t) && b.test(t);
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            return a.test(page, slot) && b.test(page, slot);
+        }
+    }
+
+    private static final class AndN extends PredicateEvaluator {
+        private final PredicateEvaluator[] es;
+
+        AndN(PredicateEvaluator[] es) {
+            this.es = es;
+        }
+
+        public boolean test(Tuple t) {
+            for (PredicateEvaluator e : es) {
+                if (!e.test(t))
+                    return false;
+            }
+            return true;
+        }
+
+        public boolean test(HeapPage page, int slot) {
+            for (PredicateEvaluator e : es) {
+                if (!e.test(page, slot))
+                    return false;
+            }
+            return true;
+        }
+    }
+}
@@ -4,6 +4,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -17,6 +18,8 @@ public class Project extends Operator {
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    private boolean reuseTuples;
+    transient private Tuple out;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -50,10 +53,16 @@ public class Project extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        // the fields of each child tuple are copied into a new tuple
+        child.setTupleReuse(true);
         child.open();
         super.open();
     }
 
+    public void setTupleReuse(boolean reuse) {
+        this.reuseTuples = reuse;
+    }
+
     public void close() {
         super.close();
         child.close();
@@ -73,7 +82,9 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
         Tuple t = child.next();
-        Tuple newTuple = new Tuple(td);
+        if (!reuseTuples || out == null)
+            out = new Tuple(td);
+        Tuple newTuple = out;
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
             newTuple.setField(i, t.getField(outFieldIds.get(i)));
@@ -81,6 +92,20 @@ public class Project extends Operator {
         return newTuple;
     }
 
+    /**
+     * Returns each batch of the child with only the projected columns. The
+     * columns are shared with the child's batch rather than copied.
+     */
+    public TupleBatch nextBatch(int maxRows) throws TransactionAbortedException, DbException {
+        TupleBatch b = child.nextBatch(maxRows);
+        if (b == null)
+            return null;
+        int[] cols = new int[outFieldIds.size()];
+        for (int i = 0; i < cols.length; i++)
+            cols[i] = outFieldIds.get(i);
+        return countRows(b.project(cols, td));
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
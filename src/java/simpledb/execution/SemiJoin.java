@@ -0,0 +1,143 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * SemiJoin returns the tuples of its left input that match at least one
+ * tuple of its right input, each once, with the fields of the left input
+ * only. It runs <tt>IN</tt> and <tt>EXISTS</tt> subqueries.
+ * <p>
+ * The join fields of the right input are read once into memory: a hash set
+ * for an EQUALS predicate, a list otherwise. Each left tuple is looked up in
+ * the set, or compared with the list up to its first match.
+ *
+ * 半连接：返回在右输入中至少有一个匹配的左输入元组，每个元组只返回一次。
+ */
+public class SemiJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private final boolean anti;
+    private OpIterator child1, child2;
+
+    transient private Set<Field> keys;
+    transient private List<Field> values;
+
+    /**
+     * Constructor.
+     *
+     * @param p      the predicate a left tuple must satisfy with a right tuple
+     * @param child1 the left input, whose tuples are returned
+     * @param child2 the right input
+     */
+    public SemiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, false);
+    }
+
+    /**
+     * @param anti true to return the left tuples without a match instead
+     */
+    SemiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, boolean anti) {
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.anti = anti;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    /** @return true if the join returns the left tuples without a match */
+    public boolean isAnti() {
+        return anti;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child1.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        super.open();
+    }
+
+    /** The left tuples are returned as they are read, so the hint is passed to child1. */
+    public void setTupleReuse(boolean reuse) {
+        child1.setTupleReuse(reuse);
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        keys = null;
+        values = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        // the right input is kept in memory
+        child1.rewind();
+    }
+
+    private void load() throws DbException, TransactionAbortedException {
+        if (pred.getOperator() == Predicate.Op.EQUALS)
+            keys = new HashSet<>();
+        else
+            values = new ArrayList<>();
+        while (child2.hasNext()) {
+            Field f = child2.next().getField(pred.getField2());
+            if (keys != null)
+                keys.add(f);
+            else
+                values.add(f);
+        }
+        int n = keys != null ? keys.size() : values.size();
+        reportMemory((long) n * child2.getTupleDesc().getFieldType(pred.getField2()).getLen());
+    }
+
+    /** @return true if the left tuple matches a right tuple */
+    private boolean matches(Tuple t) {
+        Field f = t.getField(pred.getField1());
+        if (keys != null)
+            return keys.contains(f);
+        for (Field v : values) {
+            if (f.compare(pred.getOperator(), v))
+                return true;
+        }
+        return false;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (keys == null && values == null)
+            load();
+        while (child1.hasNext()) {
+            Tuple t = child1.next();
+            if (matches(t) != anti)
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
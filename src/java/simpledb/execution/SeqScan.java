@@ -1,13 +1,17 @@
 package simpledb.execution;
 
 import simpledb.common.Database;
+import simpledb.index.BTreeFile;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 import simpledb.common.Type;
 import simpledb.common.DbException;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -27,7 +31,16 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String aliasName;
     private DbFileIterator iterator;
+    private transient TupleBatch batch;
     private DbFile dbFile;
+    private int startPage = 0;
+    private int endPage = -1;
+    private List<Predicate> filters = new ArrayList<>();
+    private int[] columns = null;
+    private AccessPath accessPath = null;
+    private boolean reuseTuples;
+    /** The tuples returned since the scan was opened, and in the current pass. */
+    private long rows, passRows;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -94,16 +107,171 @@ public class SeqScan implements OpIterator {
         // some code goes here
         this.tableId = tableid;
         this.aliasName = tableAlias;
+        this.dbFile = Database.getCatalog().getDatabaseFile(tableid);
+        this.filters = new ArrayList<>();
+        this.columns = null;
+        this.accessPath = null;
     }
 
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Creates a sequential scan over a range of pages of a heap file. Scans
+     * over disjoint page ranges of one table can run on different threads.
+     *
+     * @param tid
+     *            The transaction this scan is running as a part of.
+     * @param tableid
+     *            the table to scan; it must be stored in a {@link HeapFile}.
+     * @param tableAlias
+     *            the alias of this table
+     * @param startPage
+     *            the first page to scan
+     * @param endPage
+     *            the page after the last page to scan
+     */
+    public SeqScan(TransactionId tid, int tableid, String tableAlias, int startPage, int endPage) {
+        this(tid, tableid, tableAlias);
+        if (!(this.dbFile instanceof HeapFile))
+            throw new IllegalArgumentException("page range scans need a HeapFile");
+        if (startPage < 0 || endPage < startPage)
+            throw new IllegalArgumentException("invalid page range " + startPage + "-" + endPage);
+        this.startPage = startPage;
+        this.endPage = endPage;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.transactionId;
+    }
+
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * Pushes a predicate into the scan, so that the file checks it before
+     * building tuples. Tuples that do not satisfy it are never returned.
+     *
+     * @param p a predicate whose field number refers to the TupleDesc of the
+     *          table (without the projection of {@link #setColumns})
+     */
+    public void addFilter(Predicate p) {
+        this.filters.add(p);
+    }
+
+    /**
+     * @return the predicates pushed into this scan
+     */
+    public List<Predicate> getFilters() {
+        return this.filters;
+    }
+
+    /**
+     * Restricts the tuples returned by the scan to some fields of the table.
+     *
+     * @param columns the fields of the table to return, in order, or null to
+     *                return every field
+     */
+    public void setColumns(int[] columns) {
+        this.columns = columns;
+    }
+
+    /**
+     * @return the fields of the table this scan returns, or null if it
+     *         returns every field
+     */
+    public int[] getColumns() {
+        return this.columns;
+    }
+
+    /**
+     * Sets how the scan reads its table. An index range scan needs a table
+     * stored in a {@link BTreeFile}, and bounds among the predicates of
+     * {@link #addFilter}. Without an access path, a scan of a B+ tree file
+     * uses the first predicate on the key it can.
+     *
+     * @param accessPath the access path chosen by the optimizer
+     */
+    public void setAccessPath(AccessPath accessPath) {
+        if (accessPath.isIndexScan() && !(this.dbFile instanceof BTreeFile))
+            throw new IllegalArgumentException("index scans need a BTreeFile");
+        this.accessPath = accessPath;
+    }
+
+    /**
+     * @return the access path set by the optimizer, or null
+     */
+    public AccessPath getAccessPath() {
+        return this.accessPath;
+    }
+
+    /**
+     * @return true unless this scan is restricted to a range of pages
+     */
+    boolean scansWholeTable() {
+        return this.endPage < 0;
+    }
+
+    /**
+     * @param field the index of a field of {@link #getTupleDesc}
+     * @return true if the scan returns its tuples in the order of the field:
+     *         the key of a B+ tree file, which every access path reads in
+     *         key order
+     */
+    public boolean isOrderedBy(int field) {
+        if (!(this.dbFile instanceof BTreeFile) || !scansWholeTable())
+            return false;
+        int f = this.columns == null ? field : this.columns[field];
+        return f == ((BTreeFile) this.dbFile).keyField();
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        this.iterator = this.dbFile.iterator(this.transactionId);
+        if (this.endPage >= 0)
+            this.iterator = ((HeapFile) this.dbFile).iterator(this.transactionId, this.startPage, this.endPage,
+                    this.filters, this.columns);
+        else if (this.accessPath != null && this.dbFile instanceof BTreeFile)
+            this.iterator = ((BTreeFile) this.dbFile).iterator(this.transactionId, this.accessPath.getLower(),
+                    this.accessPath.getUpper(), this.filters, this.columns);
+        else if (this.filters.isEmpty() && this.columns == null)
+            this.iterator = this.dbFile.iterator(this.transactionId);
+        else
+            this.iterator = this.dbFile.iterator(this.transactionId, this.filters, this.columns);
+        this.iterator.setTupleReuse(this.reuseTuples);
         this.iterator.open();
+        this.rows = 0;
+        this.passRows = 0;
+    }
+
+    /**
+     * @return the number of tuples the scan returned since it was opened,
+     *         over every pass if it was rewound
+     */
+    public long getActualCardinality() {
+        return this.rows;
+    }
+
+    /**
+     * Reports the tuples of a pass over the whole table to the table's
+     * statistics, which keep the selectivity of a predicate it observes.
+     */
+    private void observed() {
+        if (scansWholeTable())
+            TableStats.observeScan(this.tableId, this.filters, this.passRows);
+    }
+
+    public void setTupleReuse(boolean reuse) {
+        this.reuseTuples = reuse;
+        if (this.iterator != null)
+            this.iterator.setTupleReuse(reuse);
     }
 
     /**
@@ -126,6 +294,8 @@ public class SeqScan implements OpIterator {
     public TupleDesc getTupleDesc() {
         // some code goes here
         TupleDesc tupleDesc = this.dbFile.getTupleDesc();
+        if (this.columns != null)
+            tupleDesc = tupleDesc.project(this.columns);
         Type[] types = new Type[tupleDesc.numFields()];
         String[] names = new String[tupleDesc.numFields()];
         for (int i = 0; i < tupleDesc.numFields(); i++) {
@@ -137,13 +307,38 @@ public class SeqScan implements OpIterator {
 
     public boolean hasNext() throws TransactionAbortedException, DbException {
         // some code goes here
-        return this.iterator.hasNext();
+        if (this.iterator.hasNext())
+            return true;
+        observed();
+        return false;
     }
 
     public Tuple next() throws NoSuchElementException,
             TransactionAbortedException, DbException {
         // some code goes here
-        return this.iterator.next();
+        Tuple t = this.iterator.next();
+        this.rows++;
+        this.passRows++;
+        return t;
+    }
+
+    /**
+     * Fills a batch with the next tuples of the table. The same batch is
+     * reused by every call.
+     */
+    public TupleBatch nextBatch(int maxRows) throws TransactionAbortedException, DbException {
+        if (this.batch == null || this.batch.capacity() != maxRows)
+            this.batch = new TupleBatch(getTupleDesc(), maxRows);
+        else
+            this.batch.clear();
+        this.iterator.fillBatch(this.batch);
+        if (this.batch.physicalSize() == 0) {
+            observed();
+            return null;
+        }
+        this.rows += this.batch.size();
+        this.passRows += this.batch.size();
+        return this.batch;
     }
 
     public void close() {
@@ -155,5 +350,6 @@ public class SeqScan implements OpIterator {
             TransactionAbortedException {
         // some code goes here
         this.iterator.rewind();
+        this.passRows = 0;
     }
 }
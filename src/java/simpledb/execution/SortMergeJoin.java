@@ -0,0 +1,195 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Field;
+import simpledb.storage.JoinedTuple;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * SortMergeJoin joins two inputs on the equality of a field of each, by
+ * reading both in the order of their join field and merging them. An input
+ * already read in that order, such as a scan of a B+ tree file keyed on the
+ * field, is streamed; the other one is loaded in memory and sorted first.
+ * <p>
+ * The inner tuples sharing the key of the current outer tuple are kept, so
+ * that the outer tuples with that key join all of them.
+ *
+ * 排序归并连接：按连接字段有序读取两个输入并归并，无序的输入先在内存中排序。
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final boolean sorted1, sorted2;
+    private final TupleDesc comboTD;
+
+    transient private Input left, right;
+    /** The inner tuples whose key is that of the current outer tuple. */
+    transient private List<Tuple> group;
+    transient private int groupPos;
+    transient private Tuple outer;
+
+    /**
+     * One side of the join, read in the order of its join field.
+     */
+    private static final class Input {
+        private final OpIterator child;
+        /** The tuples of the child, sorted, or null if the child is read in order. */
+        private final List<Tuple> sorted;
+        private int pos;
+        private Tuple peeked;
+
+        Input(OpIterator child, int field, boolean ordered) throws DbException, TransactionAbortedException {
+            this.child = child;
+            if (ordered) {
+                this.sorted = null;
+                return;
+            }
+            this.sorted = new ArrayList<>();
+            while (child.hasNext())
+                sorted.add(child.next());
+            sorted.sort(new TupleComparator(field, true));
+        }
+
+        /** @return the bytes held by the sorted tuples, 0 if read in order */
+        long memory() {
+            return sorted == null ? 0 : (long) sorted.size() * child.getTupleDesc().getSize();
+        }
+
+        /** @return the next tuple, without consuming it, or null at the end */
+        Tuple peek() throws DbException, TransactionAbortedException {
+            if (sorted != null)
+                return pos < sorted.size() ? sorted.get(pos) : null;
+            if (peeked == null && child.hasNext())
+                peeked = child.next();
+            return peeked;
+        }
+
+        /** @return the next tuple, or null at the end */
+        Tuple next() throws DbException, TransactionAbortedException {
+            Tuple t = peek();
+            if (sorted != null)
+                pos++;
+            else
+                peeked = null;
+            return t;
+        }
+
+        void rewind() throws DbException, TransactionAbortedException {
+            if (sorted != null) {
+                pos = 0;
+            } else {
+                child.rewind();
+                peeked = null;
+            }
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p       the EQUALS predicate to join the children on
+     * @param child1  the left (outer) input
+     * @param child2  the right (inner) input
+     * @param sorted1 whether child1 returns its tuples in the order of its
+     *                join field
+     * @param sorted2 whether child2 returns its tuples in the order of its
+     *                join field
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2,
+                         boolean sorted1, boolean sorted2) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("sort-merge joins need an EQUALS predicate");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.sorted1 = sorted1;
+        this.sorted2 = sorted2;
+        this.comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    /** @return the order of two keys */
+    private static int compare(Field a, Field b) {
+        if (a.compare(Predicate.Op.EQUALS, b))
+            return 0;
+        return a.compare(Predicate.Op.LESS_THAN, b) ? -1 : 1;
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        child1.open();
+        child2.open();
+        left = new Input(child1, pred.getField1(), sorted1);
+        right = new Input(child2, pred.getField2(), sorted2);
+        reportMemory(left.memory() + right.memory());
+        group = new ArrayList<>();
+        groupPos = 0;
+        outer = null;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child2.close();
+        child1.close();
+        left = right = null;
+        group = null;
+        outer = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        group.clear();
+        groupPos = 0;
+        outer = null;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        while (true) {
+            if (outer != null && groupPos < group.size())
+                return new JoinedTuple(comboTD, outer, group.get(groupPos++));
+            outer = left.next();
+            if (outer == null)
+                return null;
+            Field key = outer.getField(pred.getField1());
+            groupPos = 0;
+            // an outer tuple with the key of the last one joins the same group
+            if (!group.isEmpty() && compare(key, group.get(0).getField(pred.getField2())) == 0)
+                continue;
+            group.clear();
+            Tuple t;
+            while ((t = right.peek()) != null && compare(key, t.getField(pred.getField2())) > 0)
+                right.next();
+            if (t == null)
+                return null;
+            while ((t = right.peek()) != null && compare(key, t.getField(pred.getField2())) == 0)
+                group.add(right.next());
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child1, child2 };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        child1 = children[0];
+        child2 = children[1];
+    }
+}
@@ -1,12 +1,10 @@
 package simpledb.execution;
 
+import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.storage.*;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
-import java.util.Map;
+import java.util.Arrays;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -17,7 +15,11 @@ public class StringAggregator implements Aggregator {
     private int gbfield, afield;
     private Type gbfieldType;
     private Op what;
-    private HashMap<Field, Integer> map;
+    private GroupTable table;
+    // counts of the groups whose values come from one dictionary, by code;
+    // moved into the table before it is read
+    private transient StringDictionary dictionary;
+    private transient int[] counts;
 
     private TupleDesc td;
     /**
@@ -30,12 +32,21 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield, gbfieldtype, afield, what, DEFAULT_MAX_GROUPS);
+    }
+
+    /**
+     * Aggregate constructor with an explicit memory budget
+     * @param maxGroups the maximum number of groups held in memory; beyond that, partial counts are spilled to disk by group hash
+     * @see #StringAggregator(int, Type, int, Op)
+     */
+    public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what, int maxGroups) {
         // some code goes here
         this.gbfield = gbfield;
         this.gbfieldType = gbfieldtype;
         this.afield = afield;
         this.what = what;
-        map = new HashMap<>();
+        table = new GroupTable(gbfieldtype, (acc, value) -> acc, maxGroups);
         if(gbfield != Aggregator.NO_GROUPING){
             this.td = new TupleDesc(new Type[]{gbfieldType, Type.INT_TYPE,});
         }else{
@@ -52,14 +63,36 @@ public class StringAggregator implements Aggregator {
      */
     public void mergeTupleIntoGroup(Tuple tup) {
         // some code goes here
-        int temp;
         if (this.gbfield != Aggregator.NO_GROUPING) {
-            temp = map.computeIfAbsent(tup.getField(this.gbfield), k -> new Integer(0));
-            //            map.get(tup.getField(this.gbfield)).merge(value);
+            Field group = tup.getField(this.gbfield);
+            if (group instanceof DictionaryField) {
+                DictionaryField d = (DictionaryField) group;
+                if (dictionary == null) {
+                    dictionary = d.getDictionary();
+                    counts = new int[Math.max(16, dictionary.size())];
+                }
+                if (d.getDictionary() == dictionary) {
+                    if (d.getCode() >= counts.length)
+                        counts = Arrays.copyOf(counts, Math.max(2 * counts.length, d.getCode() + 1));
+                    counts[d.getCode()]++;
+                    return;
+                }
+            }
+            table.merge(group, 1, 0);
         } else {
-            temp = map.computeIfAbsent(null, k -> new Integer(0));
+            table.merge(null, 1, 0);
         }
-        map.put(tup.getField(this.gbfield), temp + 1);
+    }
+
+    public void mergeAggregator(Aggregator other) throws DbException {
+        if (!(other instanceof StringAggregator))
+            throw new IllegalArgumentException("cannot merge " + other.getClass().getSimpleName());
+        StringAggregator o = (StringAggregator) other;
+        if (o.gbfield != gbfield || o.afield != afield || o.what != what)
+            throw new IllegalArgumentException("cannot merge aggregators over different fields");
+        flushCounts();
+        o.flushCounts();
+        table.mergeAll(o.table);
     }
 
     /**
@@ -72,18 +105,25 @@ public class StringAggregator implements Aggregator {
      */
     public OpIterator iterator() {
         // some code goes here
-        List<Tuple> tuples = new ArrayList<>(map.size());
-        for (Map.Entry<Field, Integer> entry : map.entrySet()) {
-            Tuple tp = new Tuple(td);
-            if(gbfield != Aggregator.NO_GROUPING){
-                tp.setField(0, entry.getKey());
-                tp.setField(1, new IntField(entry.getValue()));
-            }else{
-                tp.setField(0, new IntField(entry.getValue()));
-            }
-            tuples.add(tp);
+        flushCounts();
+        return table.iterator(td, (count, value) -> count);
+    }
+
+    /** Moves the counts kept by code into the group table. */
+    private void flushCounts() {
+        if (dictionary == null)
+            return;
+        for (int code = 0; code < counts.length; code++) {
+            if (counts[code] > 0)
+                table.merge(dictionary.field(code), counts[code], 0);
         }
-        return new TupleIterator(td, tuples);
+        dictionary = null;
+        counts = null;
+    }
+
+    @Override
+    public int peakGroups() {
+        return table.peakGroups();
     }
 
     @Override
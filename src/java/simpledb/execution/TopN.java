@@ -0,0 +1,147 @@
+package simpledb.execution;
+
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.*;
+
+/**
+ * TopN is an operator that implements a relational ORDER BY ... LIMIT n.
+ * Unlike {@link OrderBy}, it never holds more than n tuples from its child:
+ * a bounded heap keeps the n best tuples seen so far, so the cost is
+ * O(|child| log n) time and O(n) memory.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final TupleDesc td;
+    private final List<Tuple> topTups = new ArrayList<>();
+    private final int orderByField;
+    private final String orderByFieldName;
+    private final boolean asc;
+    private final int limit;
+    private Iterator<Tuple> it;
+
+    /**
+     * Creates a new TopN node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param limit
+     *            the maximum number of tuples to return.
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int limit, OpIterator child) {
+        if (limit < 0)
+            throw new IllegalArgumentException("negative limit " + limit);
+        this.child = child;
+        td = child.getTupleDesc();
+        this.orderByField = orderbyField;
+        this.orderByFieldName = td.getFieldName(orderbyField);
+        this.asc = asc;
+        this.limit = limit;
+    }
+
+    public boolean isASC() {
+        return this.asc;
+    }
+
+    public int getOrderByField() {
+        return this.orderByField;
+    }
+
+    public String getOrderFieldName() {
+        return this.orderByFieldName;
+    }
+
+    public int getLimit() {
+        return this.limit;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        topTups.clear();
+        if (limit > 0) {
+            // the head of the heap is the worst tuple kept so far; ties are
+            // broken by arrival order so the result matches a stable OrderBy
+            final Comparator<Tuple> cmp = new TupleComparator(orderByField, asc);
+            Comparator<Ranked> worstFirst = (r1, r2) -> {
+                int c = cmp.compare(r2.tup, r1.tup);
+                return c != 0 ? c : Long.compare(r2.seq, r1.seq);
+            };
+            PriorityQueue<Ranked> heap = new PriorityQueue<>(limit, worstFirst);
+            long seq = 0;
+            while (child.hasNext()) {
+                Ranked r = new Ranked(child.next(), seq++);
+                if (heap.size() < limit) {
+                    heap.add(r);
+                } else if (cmp.compare(r.tup, heap.peek().tup) < 0) {
+                    heap.poll();
+                    heap.add(r);
+                }
+            }
+            Ranked[] sorted = heap.toArray(new Ranked[0]);
+            Arrays.sort(sorted, worstFirst.reversed());
+            for (Ranked r : sorted)
+                topTups.add(r.tup);
+        }
+        reportMemory((long) topTups.size() * td.getSize());
+        it = topTups.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+        it = null;
+    }
+
+    public void rewind() {
+        it = topTups.iterator();
+    }
+
+    /**
+     * Operator.fetchNext implementation. Returns the retained tuples in order
+     *
+     * @return The next tuple in the ordering, or null if there are no more
+     *         tuples
+     */
+    protected Tuple fetchNext() throws NoSuchElementException {
+        if (it != null && it.hasNext()) {
+            return it.next();
+        } else
+            return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+
+    private static class Ranked {
+        final Tuple tup;
+        final long seq;
+
+        Ranked(Tuple tup, long seq) {
+            this.tup = tup;
+            this.seq = seq;
+        }
+    }
+
+}
@@ -5,6 +5,7 @@ import java.util.*;
 
 import simpledb.common.*;
 import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.storage.*;
 import simpledb.transaction.TransactionAbortedException;
@@ -1263,6 +1264,93 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Get an iterator for the tuples that satisfy every predicate in filters,
+	 * made of the given columns. If one of the predicates is a range or
+	 * equality predicate on the key field, the scan starts and stops at the
+	 * matching leaf pages like {@link #indexIterator}; the other predicates are
+	 * checked on each tuple of those pages.
+	 *
+	 * @param tid - the transaction id
+	 * @param filters - the predicates to filter on
+	 * @param columns - the fields to return, or null for all of them
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator iterator(TransactionId tid, List<Predicate> filters, int[] columns) {
+		Predicate bound = null;
+		for (Predicate p : filters) {
+			if (p.getField() == keyField && p.getOp() != Op.NOT_EQUALS && p.getOp() != Op.LIKE) {
+				bound = p;
+				break;
+			}
+		}
+		if (bound == null)
+			return iterator(tid, null, null, filters, columns);
+		boolean lower = bound.getOp() == Op.EQUALS || bound.getOp() == Op.GREATER_THAN
+				|| bound.getOp() == Op.GREATER_THAN_OR_EQ;
+		boolean upper = bound.getOp() == Op.EQUALS || !lower;
+		return iterator(tid, lower ? bound : null, upper ? bound : null, filters, columns);
+	}
+
+	/**
+	 * Get an iterator for the tuples whose key lies between two bounds and
+	 * that satisfy every predicate in filters, made of the given columns. The
+	 * scan starts at the leaf page of the lower bound and stops at the first
+	 * key past the upper bound.
+	 *
+	 * @param tid - the transaction id
+	 * @param lower - an EQUALS, GREATER_THAN or GREATER_THAN_OR_EQ predicate on the key
+	 *            field of filters, or null to start at the first key
+	 * @param upper - an EQUALS, LESS_THAN or LESS_THAN_OR_EQ predicate on the key
+	 *            field of filters, or null to stop at the last key
+	 * @param filters - the predicates to filter on
+	 * @param columns - the fields to return, or null for all of them
+	 * @return an iterator for the filtered tuples
+	 */
+	public DbFileIterator iterator(TransactionId tid, Predicate lower, Predicate upper,
+			List<Predicate> filters, int[] columns) {
+		List<Predicate> rest = new ArrayList<>(filters);
+		DbFileIterator it;
+		if (lower != null) {
+			it = indexIterator(tid, new IndexPredicate(lower.getOp(), lower.getOperand()));
+			rest.remove(lower);
+			if (upper != null && upper != lower)
+				it = new BTreeRangeIterator(it, keyField, upper);
+		} else if (upper != null) {
+			it = indexIterator(tid, new IndexPredicate(upper.getOp(), upper.getOperand()));
+		} else {
+			it = iterator(tid);
+		}
+		if (upper != null)
+			rest.remove(upper);
+		if (rest.isEmpty() && columns == null)
+			return it;
+		return new FilteredDbFileIterator(it, rest, columns, td);
+	}
+
+	/**
+	 * Get the number of levels of this tree, from the root page to the leaf
+	 * pages. A tree whose root is a leaf has height 1.
+	 *
+	 * @param tid - the transaction id
+	 * @return the height of the tree
+	 */
+	public int height(TransactionId tid) throws DbException, TransactionAbortedException {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(tableid), Permissions.READ_ONLY);
+		BTreePageId pid = rootPtr.getRootId();
+		if (pid == null)
+			return 1;
+		int height = 1;
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid, pid,
+					Permissions.READ_ONLY);
+			pid = page.iterator().next().getLeftChild();
+			height++;
+		}
+		return height;
+	}
+
 }
 
 /**
@@ -1448,3 +1536,54 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		it = null;
 	}
 }
+
+/**
+ * Helper class that ends an iterator over tuples in key order at the first
+ * tuple whose key does not satisfy an upper bound
+ */
+class BTreeRangeIterator extends AbstractDbFileIterator {
+
+	final DbFileIterator child;
+	final int keyField;
+	final Predicate upper;
+	boolean done = false;
+
+	/**
+	 * Constructor for this iterator
+	 * @param child - an iterator over tuples in key order
+	 * @param keyField - the index of the key field
+	 * @param upper - the LESS_THAN, LESS_THAN_OR_EQ or EQUALS predicate on the key
+	 */
+	public BTreeRangeIterator(DbFileIterator child, int keyField, Predicate upper) {
+		this.child = child;
+		this.keyField = keyField;
+		this.upper = upper;
+	}
+
+	public void open() throws DbException, TransactionAbortedException {
+		child.open();
+		done = false;
+	}
+
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		if (done || !child.hasNext())
+			return null;
+		Tuple t = child.next();
+		if (!t.getField(keyField).compare(upper.getOp(), upper.getOperand())) {
+			done = true;
+			return null;
+		}
+		return t;
+	}
+
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	public void close() {
+		super.close();
+		child.close();
+	}
+}
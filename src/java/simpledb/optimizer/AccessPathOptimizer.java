@@ -0,0 +1,117 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.execution.AccessPath;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * AccessPathOptimizer chooses how each scan of a query reads its table. A
+ * heap file can only be scanned whole (skipping the pages its zone map rules
+ * out). A B+ tree file can also be read by range: the scan descends the tree
+ * to the first key that satisfies the predicates on the key field, and reads
+ * leaf pages until the last one. Each access path is costed with the
+ * selectivity of its predicates from {@link TableStats} and the height of
+ * the tree, and the cheapest one is chosen.
+ * <p>
+ * A B+ tree file stores the whole tuples in its leaves, so an index scan
+ * never reads another file; a range scan of a query that needs only the key
+ * field is reported as an index-only scan.
+ */
+public class AccessPathOptimizer {
+
+    /**
+     * Lists the ways a scan can read its table, given the predicates pushed
+     * into it and its columns.
+     *
+     * @param scan  the scan, with its filters and columns already set
+     * @param stats the statistics of the scan's table
+     * @return the access paths, the sequential scan first
+     */
+    public static List<AccessPath> accessPaths(SeqScan scan, TableStats stats) {
+        List<AccessPath> paths = new ArrayList<>();
+        DbFile file = Database.getCatalog().getDatabaseFile(scan.getTableId());
+        if (!(file instanceof BTreeFile)) {
+            double pages = 1.0;
+            for (Predicate p : scan.getFilters())
+                pages = Math.min(pages, stats.estimatePageFraction(p.getField(), p.getOp(), p.getOperand()));
+            paths.add(new AccessPath(AccessPath.Kind.TABLE_SCAN, null, null, stats.estimateScanCost() * pages));
+            return paths;
+        }
+        paths.add(new AccessPath(AccessPath.Kind.TABLE_SCAN, null, null, stats.estimateIndexScanCost(1.0)));
+
+        int key = ((BTreeFile) file).keyField();
+        int[] columns = scan.getColumns();
+        AccessPath.Kind kind = columns != null && columns.length == 1 && columns[0] == key
+                ? AccessPath.Kind.INDEX_ONLY_SCAN : AccessPath.Kind.INDEX_RANGE_SCAN;
+        // the most selective bound on each side of the range
+        Predicate lower = null, upper = null;
+        double lowerSel = 1.0, upperSel = 1.0;
+        for (Predicate p : scan.getFilters()) {
+            if (p.getField() != key)
+                continue;
+            double sel = stats.estimateSelectivity(key, p.getOp(), p.getOperand());
+            switch (p.getOp()) {
+                case EQUALS:
+                    paths.add(new AccessPath(kind, p, p, stats.estimateIndexScanCost(sel)));
+                    break;
+                case GREATER_THAN:
+                case GREATER_THAN_OR_EQ:
+                    if (lower == null || sel < lowerSel) {
+                        lower = p;
+                        lowerSel = sel;
+                    }
+                    break;
+                case LESS_THAN:
+                case LESS_THAN_OR_EQ:
+                    if (upper == null || sel < upperSel) {
+                        upper = p;
+                        upperSel = sel;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (lower != null)
+            paths.add(new AccessPath(kind, lower, null, stats.estimateIndexScanCost(lowerSel)));
+        if (upper != null)
+            paths.add(new AccessPath(kind, null, upper, stats.estimateIndexScanCost(upperSel)));
+        if (lower != null && upper != null) {
+            // the keys above the lower bound and below the upper one
+            double sel = Math.max(0.0, lowerSel + upperSel - 1.0);
+            paths.add(new AccessPath(kind, lower, upper, stats.estimateIndexScanCost(sel)));
+        }
+        return paths;
+    }
+
+    /**
+     * Chooses the cheapest access path of a scan, and sets it on the scan.
+     *
+     * @param scan    the scan, with its filters and columns already set
+     * @param stats   the statistics of the scan's table
+     * @param explain flag indicating whether the access paths considered
+     *                should be printed
+     * @return the chosen access path
+     */
+    public static AccessPath chooseAccessPath(SeqScan scan, TableStats stats, boolean explain) {
+        List<AccessPath> paths = accessPaths(scan, stats);
+        AccessPath best = paths.get(0);
+        for (AccessPath path : paths) {
+            if (path.getCost() < best.getCost())
+                best = path;
+        }
+        if (explain) {
+            System.out.println("Access paths of " + scan.getAlias() + ":");
+            for (AccessPath path : paths)
+                System.out.println((path == best ? "  * " : "    ") + path);
+        }
+        scan.setAccessPath(best);
+        return best;
+    }
+}
@@ -0,0 +1,286 @@
+package simpledb.optimizer;
+
+import simpledb.execution.Predicate;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The statistics of one column of a table: the most common values of the
+ * sample with their counts, an equi-depth histogram of the other sampled
+ * values, and a {@link HyperLogLog} sketch of the distinct values of every
+ * row. Equality is estimated from the common values, or else as the share of
+ * one of the remaining distinct values; ranges from the common values below
+ * the constant plus the histogram.
+ * <p>
+ * STRING and VARCHAR values are placed in the histogram by their first
+ * {@link #KEY_CHARS} characters; the common values and the distinct count
+ * use the whole string.
+ */
+public class ColumnStats implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The most common values kept per column. */
+    static final int MCV_SIZE = 20;
+    /** A value is common if it is this many times more frequent than the average one. */
+    static final double MCV_FACTOR = 1.25;
+    /** The characters of a string that order it in the histogram. */
+    static final int KEY_CHARS = 6;
+    /** The selectivity of LIKE over the values of the histogram. */
+    static final double LIKE_SELECTIVITY = 0.1;
+
+    /** The common values (Integer or String), and their counts in the sample. */
+    private final HashMap<Object, Integer> mcvs;
+    private final EquiDepthHistogram histogram;
+    private final HyperLogLog distinct;
+    /** The estimate of the sketch, until the next value is added. */
+    private transient double estimate;
+    private transient volatile boolean estimated;
+    /** The rows of the sample, common or not. */
+    private int rows;
+    private double minKey, maxKey;
+
+    private ColumnStats(List<?> sample, double[] keys, HyperLogLog distinct, int buckets) {
+        Map<Object, Integer> counts = new HashMap<>();
+        for (Object v : sample)
+            counts.merge(v, 1, Integer::sum);
+        List<Map.Entry<Object, Integer>> entries = new ArrayList<>(counts.entrySet());
+        entries.sort((a, b) -> b.getValue() - a.getValue());
+        double threshold = MCV_FACTOR * sample.size() / Math.max(1, counts.size());
+        this.mcvs = new HashMap<>();
+        for (Map.Entry<Object, Integer> e : entries) {
+            if (mcvs.size() == MCV_SIZE || e.getValue() < 2 || e.getValue() <= threshold)
+                break;
+            mcvs.put(e.getKey(), e.getValue());
+        }
+        // the histogram holds the values that are not common
+        int n = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (!mcvs.containsKey(sample.get(i)))
+                keys[n++] = keys[i];
+        }
+        Arrays.sort(keys, 0, n);
+        this.histogram = new EquiDepthHistogram(keys, n, buckets);
+        this.distinct = distinct;
+        this.rows = sample.size();
+        this.minKey = Double.MAX_VALUE;
+        this.maxKey = -Double.MAX_VALUE;
+    }
+
+    /**
+     * Create the statistics of an INT column.
+     *
+     * @param sample   the sampled values of the column
+     * @param min      the least value of the whole column
+     * @param max      the greatest value of the whole column
+     * @param distinct a sketch of the values of the whole column
+     * @param buckets  the number of buckets of the histogram
+     */
+    static ColumnStats ofInts(int[] sample, int min, int max, HyperLogLog distinct, int buckets) {
+        List<Integer> values = new ArrayList<>(sample.length);
+        double[] keys = new double[sample.length];
+        for (int i = 0; i < sample.length; i++) {
+            values.add(sample[i]);
+            keys[i] = sample[i];
+        }
+        ColumnStats stats = new ColumnStats(values, keys, distinct, buckets);
+        if (sample.length > 0) {
+            stats.minKey = min;
+            stats.maxKey = max;
+        }
+        return stats;
+    }
+
+    /**
+     * Create the statistics of a STRING or VARCHAR column.
+     *
+     * @param sample   the sampled values of the column
+     * @param distinct a sketch of the values of the whole column
+     * @param buckets  the number of buckets of the histogram
+     */
+    static ColumnStats ofStrings(List<String> sample, HyperLogLog distinct, int buckets) {
+        double[] keys = new double[sample.size()];
+        for (int i = 0; i < keys.length; i++)
+            keys[i] = key(sample.get(i));
+        ColumnStats stats = new ColumnStats(sample, keys, distinct, buckets);
+        for (double k : keys) {
+            stats.minKey = Math.min(stats.minKey, k);
+            stats.maxKey = Math.max(stats.maxKey, k);
+        }
+        return stats;
+    }
+
+    /**
+     * Convert a string to a double, such that key(s1) < key(s2) implies
+     * s1 < s2. Characters past the 7-bit range order as the last one.
+     */
+    static double key(String s) {
+        long v = 0;
+        for (int i = 0; i < KEY_CHARS; i++)
+            v = (v << 7) | (i < s.length() ? Math.min(s.charAt(i), 127) : 0);
+        return v;
+    }
+
+    private static Object value(Field f) {
+        return f instanceof IntField ? (Object) ((IntField) f).getValue() : ((StringField) f).getValue();
+    }
+
+    private static double key(Object v) {
+        return v instanceof Integer ? (Integer) v : key((String) v);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Object a, Object b) {
+        return ((Comparable<Object>) a).compareTo(b);
+    }
+
+    /**
+     * Count a value of an inserted tuple.
+     *
+     * @param f       the value
+     * @param sampled whether the sample counts the tuple
+     */
+    void addValue(Field f, boolean sampled) {
+        Object v = value(f);
+        if (v instanceof Integer)
+            distinct.add((Integer) v);
+        else
+            distinct.add((String) v);
+        estimated = false;
+        double k = key(v);
+        minKey = Math.min(minKey, k);
+        maxKey = Math.max(maxKey, k);
+        if (!sampled)
+            return;
+        rows++;
+        if (mcvs.containsKey(v))
+            mcvs.merge(v, 1, Integer::sum);
+        else
+            histogram.addValue(k);
+    }
+
+    /**
+     * Uncount a value of a deleted tuple. The distinct count does not
+     * change until the table is analyzed again.
+     *
+     * @param f       the value
+     * @param sampled whether the sample counted the tuple
+     */
+    void removeValue(Field f, boolean sampled) {
+        if (!sampled || rows == 0)
+            return;
+        Object v = value(f);
+        rows--;
+        Integer count = mcvs.get(v);
+        if (count != null)
+            mcvs.put(v, Math.max(0, count - 1));
+        else
+            histogram.removeValue(key(v));
+    }
+
+    /**
+     * @param tuples the rows of the table
+     * @return the estimated number of distinct values of the column, at
+     *         least 1 unless the table is empty
+     */
+    public int numDistinct(int tuples) {
+        if (!estimated) {
+            estimate = distinct.estimate();
+            estimated = true;
+        }
+        double ndv = Math.max(estimate, mcvs.size());
+        return (int) Math.max(Math.min(1, tuples), Math.min(Math.round(ndv), tuples));
+    }
+
+    /**
+     * @return the fraction of the rows holding one given value, on average
+     */
+    public double avgSelectivity(int tuples) {
+        return 1.0 / Math.max(1, numDistinct(tuples));
+    }
+
+    /** @return the fraction of the rows equal to v */
+    private double equal(Object v, int tuples) {
+        Integer count = mcvs.get(v);
+        if (count != null)
+            return (double) count / rows;
+        double k = key(v);
+        if (k < minKey || k > maxKey)
+            return 0.0;
+        double rest = (double) histogram.total() / rows;
+        return rest / Math.max(1, numDistinct(tuples) - mcvs.size());
+    }
+
+    /** @return the fraction of the rows less than v */
+    private double lessThan(Object v) {
+        double below = 0;
+        for (Map.Entry<Object, Integer> e : mcvs.entrySet()) {
+            if (compare(e.getKey(), v) < 0)
+                below += e.getValue();
+        }
+        return (below + histogram.total() * histogram.lessThan(key(v))) / rows;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on this
+     * column.
+     *
+     * @param op       the operator
+     * @param constant the value
+     * @param tuples   the rows of the table
+     * @return the estimated fraction of the rows that satisfy the predicate
+     */
+    public double estimateSelectivity(Predicate.Op op, Field constant, int tuples) {
+        if (rows == 0)
+            return op == Predicate.Op.NOT_EQUALS ? 1.0 : 0.0;
+        Object v = value(constant);
+        double sel;
+        switch (op) {
+            case EQUALS:
+                sel = equal(v, tuples);
+                break;
+            case NOT_EQUALS:
+                sel = 1.0 - equal(v, tuples);
+                break;
+            case LESS_THAN:
+                sel = lessThan(v);
+                break;
+            case LESS_THAN_OR_EQ:
+                sel = lessThan(v) + equal(v, tuples);
+                break;
+            case GREATER_THAN:
+                sel = 1.0 - lessThan(v) - equal(v, tuples);
+                break;
+            case GREATER_THAN_OR_EQ:
+                sel = 1.0 - lessThan(v);
+                break;
+            case LIKE:
+                if (v instanceof Integer) {
+                    sel = equal(v, tuples);
+                    break;
+                }
+                double common = 0;
+                for (Map.Entry<Object, Integer> e : mcvs.entrySet()) {
+                    if (((String) e.getKey()).contains((String) v))
+                        common += e.getValue();
+                }
+                sel = (common + LIKE_SELECTIVITY * histogram.total()) / rows;
+                break;
+            default:
+                sel = 1.0;
+        }
+        return Math.max(0.0, Math.min(1.0, sel));
+    }
+
+    public String toString() {
+        return "mcvs " + mcvs + " " + histogram + " distinct " + Math.round(distinct.estimate());
+    }
+}
@@ -4,7 +4,7 @@ import simpledb.optimizer.LogicalJoinNode;
 
 import java.util.List;
 
-/** Class returned by {@link JoinOptimizer#computeCostAndCardOfSubplan} specifying the
+/** Class returned by {@link JoinOptimizer} when costing a join, specifying the
     cost and cardinality of the optimal plan represented by plan.
 */
 public class CostCard {
@@ -14,4 +14,8 @@ public class CostCard {
     public int card;
     /** The optimal subplan */
     public List<LogicalJoinNode> plan;
+    /** The last join of the optimal subplan, with the outer table first */
+    public LogicalJoinNode join;
+    /** The operator of the last join */
+    public CostModel.JoinMethod method;
 }
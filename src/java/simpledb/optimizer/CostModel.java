@@ -0,0 +1,245 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+
+/**
+ * CostModel estimates the cost of each physical operator a join can run as,
+ * in the units of {@link TableStats#estimateScanCost}: reading a page from
+ * disk costs the I/O cost of its table, and handling a tuple about 1.
+ * <p>
+ * Pages already in the {@link BufferPool} cost a small fraction of a disk
+ * read, so a table that is mostly resident is cheap to scan and to rescan.
+ * An input that fits in the buffer pool stays there once read, and the
+ * passes over it after the first one are memory reads; a larger one is
+ * flushed by its own scan (the pool is LRU), and every pass reads it again.
+ * <ul>
+ * <li>A nested-loop join ({@link simpledb.execution.Join}) keeps blocks of
+ * outer tuples the size of the buffer pool, and scans the inner input once
+ * per block.</li>
+ * <li>A hash join ({@link HashEquiJoin}) builds a table of at most
+ * {@link HashEquiJoin#MAP_SIZE} outer tuples at a time, and probes it with
+ * a pass over the inner input; a larger outer input spills into more passes.</li>
+ * <li>A sort-merge join ({@link simpledb.execution.SortMergeJoin}) sorts the
+ * inputs that are not read in the order of the join field, and merges them.</li>
+ * <li>An index nested-loop join ({@link simpledb.execution.IndexNestedLoopJoin})
+ * looks each outer tuple up in the B+ tree of the inner table.</li>
+ * </ul>
+ *
+ * 代价模型：按物理算子估计连接的代价，并考虑缓冲池中已驻留的页面。
+ */
+public class CostModel {
+
+    /** The cost of reading a page held in the buffer pool, as a fraction of a disk read. */
+    public static final double RESIDENT_PAGE_COST = 0.01;
+    /** The cost of adding a tuple to a hash table. */
+    static final double HASH_BUILD_COST = 1.0;
+    /** The cost of looking a tuple up in a hash table. */
+    static final double HASH_PROBE_COST = 1.0;
+    /** The cost of comparing two tuples while sorting. */
+    static final double COMPARE_COST = 1.0;
+    /** The cost of a step of a merge, which compares the next key to the last one. */
+    static final double MERGE_COST = 0.5;
+    /** The size of a tuple of an input whose fields are unknown. */
+    static final int DEFAULT_TUPLE_SIZE = 64;
+
+    /** The physical operators a join can run as. */
+    public enum JoinMethod {
+        NESTED_LOOP("nested loop"),
+        HASH("hash"),
+        SORT_MERGE("sort-merge"),
+        INDEX_NESTED_LOOP("index nested loop");
+
+        private final String name;
+
+        JoinMethod(String name) {
+            this.name = name;
+        }
+
+        public String toString() {
+            return name;
+        }
+    }
+
+    /** An input of a join, as the optimizer sees it. */
+    public static final class Input {
+        final int card;
+        final double cost;
+        final int tupleSize;
+        /** The statistics of the table if the input scans a single table, or null. */
+        final TableStats table;
+        /**
+         * Whether the input scans a B+ tree file keyed on the join field: it
+         * is read in the order of the field, and can be probed by key.
+         */
+        final boolean keyed;
+
+        /**
+         * @param card      the estimated rows of the input
+         * @param cost      the estimated cost of reading the input once
+         * @param tupleSize the bytes of a tuple of the input
+         * @param table     the statistics of the table if the input scans
+         *                  a single table, or null
+         * @param keyed     whether the input scans a B+ tree file keyed on
+         *                  the join field
+         */
+        public Input(int card, double cost, int tupleSize, TableStats table, boolean keyed) {
+            this.card = card;
+            this.cost = cost;
+            this.tupleSize = Math.max(1, tupleSize);
+            this.table = table;
+            this.keyed = keyed && table != null && table.indexHeight() > 0;
+        }
+
+        /** An intermediate input, of which only the rows and cost are known. */
+        public Input(int card, double cost) {
+            this(card, cost, DEFAULT_TUPLE_SIZE, null, false);
+        }
+    }
+
+    /** The cost of a join run as one operator. */
+    public static final class Choice {
+        public final JoinMethod method;
+        public final double cost;
+
+        Choice(JoinMethod method, double cost) {
+            this.method = method;
+            this.cost = cost;
+        }
+
+        public String toString() {
+            return method + " " + cost;
+        }
+    }
+
+    /** @return the number of pages the buffer pool holds */
+    private static int poolPages() {
+        return Database.getBufferPool().getMaxPageNum();
+    }
+
+    /**
+     * @param fraction the fraction of the pages held in the buffer pool
+     * @return the cost of reading a page, as a fraction of a disk read
+     */
+    private static double pageFactor(double fraction) {
+        return (1.0 - fraction) + fraction * RESIDENT_PAGE_COST;
+    }
+
+    /**
+     * Estimates the cost of a sequential scan of a table, reading the pages
+     * of the table held in the buffer pool from memory.
+     *
+     * @param stats the statistics of the table
+     * @return the estimated cost of the scan
+     */
+    public static double scanCost(TableStats stats) {
+        return stats.estimateScanCost() * pageFactor(stats.residentFraction());
+    }
+
+    /**
+     * @return the cost of each pass over an input after the first: a table
+     *         that fits in the buffer pool is then resident
+     */
+    private static double rescanCost(Input in) {
+        if (in.table != null && in.table.numPages() <= poolPages())
+            return in.table.estimateScanCost() * RESIDENT_PAGE_COST;
+        return in.cost;
+    }
+
+    /**
+     * Estimates a block nested-loop join: a pass over the inner input per
+     * block of outer tuples, and the predicate applied to every pair.
+     */
+    public static double nestedLoopCost(Input outer, Input inner) {
+        int perPage = (int) Math.floor((BufferPool.getPageSize() * 8.0) / (outer.tupleSize * 8.0 + 1.0));
+        double perBlock = Math.max(1.0, (double) perPage * Math.max(1, poolPages() - 2));
+        double blocks = Math.max(1.0, Math.ceil(outer.card / perBlock));
+        return outer.cost + inner.cost + (blocks - 1) * rescanCost(inner) + (double) outer.card * inner.card;
+    }
+
+    /**
+     * Estimates a hash join building on the outer input: a pass over the
+     * inner input per hash table of outer tuples.
+     */
+    public static double hashCost(Input build, Input probe) {
+        double passes = Math.max(1.0, Math.ceil(build.card / (HashEquiJoin.MAP_SIZE + 1.0)));
+        return build.cost + build.card * HASH_BUILD_COST
+                + probe.cost + (passes - 1) * rescanCost(probe) + passes * probe.card * HASH_PROBE_COST;
+    }
+
+    /** @return the cost of sorting an input, or 0 if it is read in order */
+    private static double sortCost(Input in) {
+        if (in.keyed || in.card < 2)
+            return 0;
+        return in.card * (Math.log(in.card) / Math.log(2)) * COMPARE_COST;
+    }
+
+    /**
+     * Estimates a sort-merge join: the inputs not read in the order of the
+     * join field are sorted, then both are merged.
+     */
+    public static double sortMergeCost(Input left, Input right) {
+        return left.cost + right.cost + sortCost(left) + sortCost(right)
+                + ((double) left.card + right.card) * MERGE_COST;
+    }
+
+    /**
+     * Estimates an index nested-loop join: a descent of the inner table's
+     * B+ tree per outer tuple, to the leaf pages of the matching keys. The
+     * internal pages stay in the buffer pool after the first probes; so do
+     * the leaf pages of a tree that fits in it.
+     *
+     * @param outer       the outer input
+     * @param inner       the inner input, a B+ tree file keyed on the join field
+     * @param selectivity the fraction of the inner table matching one key
+     * @return the estimated cost, or infinity if the inner input cannot be probed
+     */
+    public static double indexNestedLoopCost(Input outer, Input inner, double selectivity) {
+        if (!inner.keyed)
+            return Double.POSITIVE_INFINITY;
+        TableStats s = inner.table;
+        double io = s.ioCostPerPage();
+        double matches = s.totalTuples() * Math.min(1.0, selectivity);
+        double leaves = Math.max(1.0, Math.ceil(Math.min(1.0, selectivity) * s.leafPages()));
+        double reads = outer.card * leaves;
+        double resident = s.residentFraction();
+        double leafCost;
+        if (s.numPages() <= poolPages()) {
+            // each leaf page missing from the pool is read from disk once
+            double cold = Math.min(reads, s.leafPages() * (1.0 - resident));
+            leafCost = cold * io + (reads - cold) * io * RESIDENT_PAGE_COST;
+        } else {
+            leafCost = reads * io * pageFactor(resident);
+        }
+        double internal = (s.indexHeight() - 1) * io;
+        return outer.cost + internal + outer.card * (internal * RESIDENT_PAGE_COST + 1 + matches) + leafCost;
+    }
+
+    /**
+     * Chooses the cheapest operator for a join of two inputs.
+     *
+     * @param op          the operator of the join predicate
+     * @param outer       the input on the left of the join
+     * @param inner       the input on the right of the join
+     * @param selectivity the fraction of the inner table matching one key,
+     *                    for an index nested-loop join
+     * @return the cheapest operator and its cost
+     */
+    public static Choice chooseJoin(Predicate.Op op, Input outer, Input inner, double selectivity) {
+        Choice best = new Choice(JoinMethod.NESTED_LOOP, nestedLoopCost(outer, inner));
+        if (op != Predicate.Op.EQUALS)
+            return best;
+        double cost = hashCost(outer, inner);
+        if (cost < best.cost)
+            best = new Choice(JoinMethod.HASH, cost);
+        cost = sortMergeCost(outer, inner);
+        if (cost < best.cost)
+            best = new Choice(JoinMethod.SORT_MERGE, cost);
+        cost = indexNestedLoopCost(outer, inner, selectivity);
+        if (cost < best.cost)
+            best = new Choice(JoinMethod.INDEX_NESTED_LOOP, cost);
+        return best;
+    }
+}
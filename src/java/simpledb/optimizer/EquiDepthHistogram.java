@@ -0,0 +1,106 @@
+package simpledb.optimizer;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * A histogram whose buckets each hold about the same number of values, so
+ * that dense ranges of a skewed column get narrow buckets. Values are
+ * doubles; within a bucket they are taken to be spread evenly between its
+ * bounds.
+ */
+public class EquiDepthHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** bounds[i] and bounds[i + 1] delimit bucket i. */
+    private final double[] bounds;
+    private final int[] counts;
+    private int total;
+
+    /**
+     * Create a histogram of some values.
+     *
+     * @param sorted  the values, in ascending order
+     * @param n       the number of values in sorted to use
+     * @param buckets the most buckets to split the values into
+     */
+    public EquiDepthHistogram(double[] sorted, int n, int buckets) {
+        int b = Math.max(1, Math.min(buckets, n));
+        this.bounds = new double[b + 1];
+        this.counts = new int[b];
+        for (int i = 0; i < b; i++) {
+            int first = (int) ((long) i * n / b);
+            int next = (int) ((long) (i + 1) * n / b);
+            bounds[i] = sorted[first];
+            counts[i] = next - first;
+        }
+        bounds[b] = n > 0 ? sorted[n - 1] : 0;
+        this.total = n;
+    }
+
+    private int bucketOf(double v) {
+        int i = Arrays.binarySearch(bounds, v);
+        if (i < 0)
+            i = -i - 2;
+        return Math.max(0, Math.min(i, counts.length - 1));
+    }
+
+    /**
+     * Add a value to the histogram, widening the first or last bucket if
+     * the value is out of their bounds.
+     */
+    public void addValue(double v) {
+        if (total == 0 && counts.length == 1)
+            bounds[0] = bounds[1] = v;
+        if (v < bounds[0])
+            bounds[0] = v;
+        if (v > bounds[counts.length])
+            bounds[counts.length] = v;
+        counts[bucketOf(v)]++;
+        total++;
+    }
+
+    /**
+     * Remove a value added before from the histogram.
+     */
+    public void removeValue(double v) {
+        if (v < bounds[0] || v > bounds[counts.length])
+            return;
+        int i = bucketOf(v);
+        if (counts[i] > 0) {
+            counts[i]--;
+            total--;
+        }
+    }
+
+    /**
+     * @return the number of values in the histogram
+     */
+    public int total() {
+        return total;
+    }
+
+    /**
+     * @return the fraction of the values of the histogram below v
+     */
+    public double lessThan(double v) {
+        if (total == 0 || v <= bounds[0])
+            return 0.0;
+        if (v >= bounds[counts.length])
+            return 1.0;
+        double below = 0;
+        // buckets of a single repeated value lie wholly on one side of v
+        for (int i = 0; i < counts.length && bounds[i] < v; i++) {
+            if (bounds[i + 1] < v)
+                below += counts[i];
+            else
+                below += counts[i] * (v - bounds[i]) / (bounds[i + 1] - bounds[i]);
+        }
+        return Math.min(1.0, below / total);
+    }
+
+    public String toString() {
+        return "bounds " + Arrays.toString(bounds) + " counts " + Arrays.toString(counts);
+    }
+}
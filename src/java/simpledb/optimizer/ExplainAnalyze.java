@@ -0,0 +1,165 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.*;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Map;
+
+/**
+ * Runs a plan with every operator instrumented by an
+ * {@link InstrumentedIterator}, and prints the plan tree with, for each
+ * operator, the cardinality estimated by the optimizer next to the rows it
+ * actually returned, the time spent in it, including and excluding its
+ * children, the pages it requested from the buffer pool, split into hits
+ * and pages read from disk, and the memory held by blocking operators.
+ * <p>
+ * The estimates are those set on the operators by
+ * {@link OperatorCardinality#updateOperatorCardinality}, which should be
+ * called on the plan first.
+ *
+ * 执行计划并打印每个算子的估计行数与实际行数、耗时、页面访问和内存。
+ */
+public class ExplainAnalyze {
+
+    /**
+     * Runs a plan to its end, discarding its rows, and describes how each of
+     * its operators did.
+     *
+     * @param plan       the plan to run, which must not be open
+     * @param tableStats the statistics the plan was optimized with, to show
+     *                   the estimates of the scans
+     * @return the plan tree with the measures of each operator
+     */
+    public static String analyze(OpIterator plan, Map<String, TableStats> tableStats)
+            throws DbException, TransactionAbortedException {
+        InstrumentedIterator root = InstrumentedIterator.instrument(plan);
+        root.open();
+        try {
+            // read as Query does, so the operators run as they would
+            while (root.hasNext())
+                root.next();
+        } finally {
+            root.close();
+        }
+        return report(root, tableStats);
+    }
+
+    /**
+     * Describes how each operator of an instrumented plan did.
+     *
+     * @param root       the root of the plan, which has been run
+     * @param tableStats the statistics the plan was optimized with
+     * @return the plan tree, one operator per line
+     */
+    public static String report(InstrumentedIterator root, Map<String, TableStats> tableStats) {
+        StringBuilder out = new StringBuilder();
+        out.append(String.format("%d rows in %.3f ms%n", root.getRows(), root.getTime() / 1e6));
+        append(out, root, tableStats, "");
+        return out.toString();
+    }
+
+    private static void append(StringBuilder out, InstrumentedIterator node,
+                               Map<String, TableStats> tableStats, String indent) {
+        OpIterator op = node.getIterator();
+        long requested = node.getSelfPagesRequested();
+        long read = node.getSelfPagesRead();
+        out.append(indent).append(describe(op));
+        out.append(String.format("  (est=%s rows=%d time=%.3f/%.3f ms pages=%d hits=%d misses=%d",
+                estimate(op, tableStats), node.getRows(), node.getTime() / 1e6,
+                node.getSelfTime() / 1e6, requested, requested - read, read));
+        if (node.getPeakMemory() > 0)
+            out.append(String.format(" memory=%.1f KB", node.getPeakMemory() / 1024.0));
+        out.append(")").append(System.lineSeparator());
+        for (InstrumentedIterator child : node.getChildren())
+            append(out, child, tableStats, indent + QueryPlanVisualizer.SPACE);
+    }
+
+    /** @return the estimated cardinality of an operator, or "?" if unknown */
+    private static String estimate(OpIterator op, Map<String, TableStats> tableStats) {
+        if (op instanceof Operator)
+            return Integer.toString(((Operator) op).getEstimatedCardinality());
+        if (op instanceof SeqScan && tableStats.get(((SeqScan) op).getTableName()) != null)
+            return Integer.toString(OperatorCardinality.scanCardinality((SeqScan) op, tableStats));
+        return "?";
+    }
+
+    /** @return the name of an operator, with its predicate or fields */
+    private static String describe(OpIterator op) {
+        if (op instanceof SeqScan) {
+            SeqScan s = (SeqScan) op;
+            String scan = QueryPlanVisualizer.SCAN;
+            if (s.getAccessPath() != null && s.getAccessPath().isIndexScan())
+                scan = s.getAccessPath().getKind().toString();
+            String alias = s.getTableName().equals(s.getAlias()) ? "" : " " + s.getAlias();
+            StringBuilder text = new StringBuilder(scan + "(" + s.getTableName() + alias + ")");
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(s.getTableId());
+            for (Predicate p : s.getFilters())
+                text.append(",").append(QueryPlanVisualizer.SELECT).append("(").append(s.getAlias())
+                        .append(".").append(tableTd.getFieldName(p.getField())).append(p.getOp())
+                        .append(p.getOperand()).append(")");
+            return text.toString();
+        }
+        if (!(op instanceof Operator))
+            return op.getClass().getSimpleName();
+        Operator o = (Operator) op;
+        OpIterator[] children = o.getChildren();
+        if (o instanceof Join)
+            return join(QueryPlanVisualizer.JOIN, ((Join) o).getJoinPredicate(), children);
+        if (o instanceof HashEquiJoin)
+            return join(QueryPlanVisualizer.HASH_JOIN, ((HashEquiJoin) o).getJoinPredicate(), children);
+        if (o instanceof SortMergeJoin)
+            return join(QueryPlanVisualizer.JOIN + "(merge)", ((SortMergeJoin) o).getJoinPredicate(), children);
+        if (o instanceof IndexNestedLoopJoin)
+            return join(QueryPlanVisualizer.JOIN + "(index)", ((IndexNestedLoopJoin) o).getJoinPredicate(), children);
+        if (o instanceof SemiJoin) {
+            SemiJoin j = (SemiJoin) o;
+            return join(j.isAnti() ? QueryPlanVisualizer.ANTI_JOIN : QueryPlanVisualizer.SEMI_JOIN,
+                    j.getJoinPredicate(), children);
+        }
+        if (o instanceof IndexSemiJoin) {
+            IndexSemiJoin j = (IndexSemiJoin) o;
+            return join((j.isAnti() ? QueryPlanVisualizer.ANTI_JOIN : QueryPlanVisualizer.SEMI_JOIN) + "(index)",
+                    j.getJoinPredicate(), children);
+        }
+        if (o instanceof Filter) {
+            Predicate p = ((Filter) o).getPredicate();
+            return QueryPlanVisualizer.SELECT + "(" + children[0].getTupleDesc().getFieldName(p.getField())
+                    + p.getOp() + p.getOperand() + ")";
+        }
+        if (o instanceof Aggregate) {
+            Aggregate a = (Aggregate) o;
+            String agg = a.aggregateOp() + "(" + a.aggregateFieldName() + ")";
+            if (a.groupField() == Aggregator.NO_GROUPING)
+                return agg;
+            return QueryPlanVisualizer.GROUPBY + "(" + a.groupFieldName() + ")," + agg;
+        }
+        if (o instanceof TopN) {
+            TopN t = (TopN) o;
+            return QueryPlanVisualizer.ORDERBY + "(" + children[0].getTupleDesc().getFieldName(t.getOrderByField())
+                    + ")," + QueryPlanVisualizer.LIMIT + " " + t.getLimit();
+        }
+        if (o instanceof OrderBy)
+            return QueryPlanVisualizer.ORDERBY + "("
+                    + children[0].getTupleDesc().getFieldName(((OrderBy) o).getOrderByField()) + ")";
+        if (o instanceof Limit)
+            return QueryPlanVisualizer.LIMIT + "(" + ((Limit) o).getLimit() + ")";
+        if (o instanceof Project) {
+            StringBuilder fields = new StringBuilder();
+            TupleDesc td = o.getTupleDesc();
+            for (int i = 0; i < td.numFields(); i++)
+                fields.append(i == 0 ? "" : ",").append(td.getFieldName(i));
+            return QueryPlanVisualizer.PROJECT + "(" + fields + ")";
+        }
+        if (o instanceof Exchange)
+            return ((Exchange) o).getName();
+        return o.getClass().getSimpleName();
+    }
+
+    private static String join(String name, JoinPredicate p, OpIterator[] children) {
+        return name + "(" + children[0].getTupleDesc().getFieldName(p.getField1()) + p.getOperator()
+                + children[1].getTupleDesc().getFieldName(p.getField2()) + ")";
+    }
+}
@@ -0,0 +1,84 @@
+package simpledb.optimizer;
+
+import java.io.Serializable;
+
+/**
+ * HyperLogLog estimates the number of distinct values of a column in a
+ * fixed 4 KB, whatever the number of rows. Each value is hashed to 64 bits;
+ * the first {@link #PRECISION} bits pick a register, which keeps the longest
+ * run of leading zeros seen in the other bits. The estimate has a standard
+ * error of about 1.6%. Sketches of parts of a table merge into the sketch of
+ * the whole table.
+ */
+public class HyperLogLog implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    static final int PRECISION = 12;
+    private static final int REGISTERS = 1 << PRECISION;
+
+    private final byte[] registers = new byte[REGISTERS];
+
+    /** The 64-bit finalizer of SplitMix64, so that close keys spread out. */
+    static long mix(long z) {
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+
+    /** A 64-bit hash of a string (FNV-1a over its chars). */
+    static long hash(String s) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        return mix(h);
+    }
+
+    /** Adds a value by its 64-bit hash. */
+    public void addHash(long hash) {
+        int register = (int) (hash >>> (64 - PRECISION));
+        // the sentinel bit bounds the run for a hash of all zeros
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[register])
+            registers[register] = (byte) rank;
+    }
+
+    public void add(int v) {
+        addHash(mix(v));
+    }
+
+    public void add(String s) {
+        addHash(hash(s));
+    }
+
+    /**
+     * Adds the values of another sketch to this one.
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < REGISTERS; i++) {
+            if (other.registers[i] > registers[i])
+                registers[i] = other.registers[i];
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added
+     */
+    public double estimate() {
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double alpha = 0.7213 / (1 + 1.079 / REGISTERS);
+        double estimate = alpha * REGISTERS * REGISTERS / sum;
+        // few values leave registers empty; count those instead
+        if (estimate <= 2.5 * REGISTERS && zeros > 0)
+            return REGISTERS * Math.log((double) REGISTERS / zeros);
+        return estimate;
+    }
+}
@@ -3,13 +3,15 @@ package simpledb.optimizer;
 import simpledb.execution.Predicate;
 
 import javax.xml.bind.annotation.XmlInlineBinaryData;
+import java.io.Serializable;
 import java.util.Arrays;
 
 /** A class to represent a fixed-width histogram over a single integer-based field.
  * 一个用于表示基于单一整数字段的固定宽度直方图的类。
  */
-public class IntHistogram {
+public class IntHistogram implements Serializable {
 
+    private static final long serialVersionUID = 1L;
 
     private int bucketNum, min, max, size, sum, lasSize;
     private int[] bucket;
@@ -70,6 +72,20 @@ public class IntHistogram {
         }
     }
 
+    /**
+     * Remove a value added before from the histogram.
+     * @param v Value to remove
+     */
+    public void removeValue(int v) {
+        if (v >= this.min && v <= this.max) {
+            int id = Math.min((v - this.min) / this.size, this.bucketNum - 1);
+            if (this.bucket[id] > 0) {
+                this.bucket[id]--;
+                this.sum--;
+            }
+        }
+    }
+
     public int getSize(int id) {
         return (id == this.bucketNum - 1 ? this.lasSize : this.size);
     }
@@ -3,6 +3,8 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -18,11 +20,35 @@ import javax.swing.tree.*;
  * JoinOptimizer类负责对一系列的连接进行排序
  * 并为一个给定的逻辑计划选择连接的最佳实例。
  *
+ * <p>
+ * Joins are ordered over the join graph, whose vertices are the tables and
+ * whose edges are the joins. Up to {@link #getDpTableLimit()} tables, the
+ * optimal plan is found by dynamic programming over the connected subgraphs
+ * (DPccp): every pair of disjoint connected sets of tables joined by an edge
+ * is costed once, so no plan has a cross product, and plans may be bushy.
+ * Sets of tables are bitmasks, and their best plans are kept in a
+ * {@link PlanCache} keyed by these masks. Larger queries are ordered
+ * greedily.
  */
 public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
+    /** Queries joining more tables than this are ordered greedily. */
+    private static int dpTableLimit = 12;
+
+    /**
+     * Set the most tables a query can join for its join order to be found by
+     * dynamic programming; larger queries are ordered greedily.
+     */
+    public static void setDpTableLimit(int tables) {
+        dpTableLimit = Math.max(2, tables);
+    }
+
+    public static int getDpTableLimit() {
+        return dpTableLimit;
+    }
+
     /**
      * Constructor
      * 
@@ -48,6 +74,16 @@ public class JoinOptimizer {
      * 注意，这里没有足够的信息来确定哪个计划应该是内部/外部计划--
      * 因为OpIterator不提供任何cardinality估计，而stats只有关于基本表的信息。
      * 出于这个原因 原因，plan1
+     * <p>
+     * A join ordered by {@link #orderJoins} runs as the operator it was
+     * costed as ({@link LogicalJoinNode#method}); an index nested-loop join
+     * whose inner plan is no longer a scan of the keyed table runs as a hash
+     * join. Other joins run as a hash join on an equality, and as a nested-loop
+     * join otherwise.
+     * <p>
+     * A join with a subquery runs as a {@link SemiJoin} or {@link AntiJoin},
+     * which return each row of plan1 at most once; as an {@link IndexSemiJoin}
+     * if it was costed as index lookups in the subquery's table.
      *
      * @param lj
      *            The join being considered
@@ -82,6 +118,37 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
+        if (lj instanceof LogicalSubplanJoinNode) {
+            LogicalSubplanJoinNode sj = (LogicalSubplanJoinNode) lj;
+            SeqScan scan = sj.subplanScan();
+            if (lj.method == CostModel.JoinMethod.INDEX_NESTED_LOOP && scan != null) {
+                JoinPredicate sp = new JoinPredicate(t1id, lj.p,
+                        scan.getTupleDesc().fieldNameToIndex(plan2.getTupleDesc().getFieldName(0)));
+                if (IndexNestedLoopJoin.canProbe(sp, scan))
+                    return new IndexSemiJoin(sp, plan1, scan, sj.anti);
+            }
+            return sj.anti ? new AntiJoin(p, plan1, plan2) : new SemiJoin(p, plan1, plan2);
+        }
+
+        // the operator the optimizer costed the join as, when it still
+        // applies to the subplans
+        if (lj.method != null) {
+            switch (lj.method) {
+                case NESTED_LOOP:
+                    return new Join(p, plan1, plan2);
+                case SORT_MERGE:
+                    return new SortMergeJoin(p, plan1, plan2, isOrderedBy(plan1, t1id), isOrderedBy(plan2, t2id));
+                case INDEX_NESTED_LOOP:
+                    if (plan2 instanceof SeqScan && IndexNestedLoopJoin.canProbe(p, (SeqScan) plan2))
+                        return new IndexNestedLoopJoin(p, plan1, (SeqScan) plan2);
+                    return new HashEquiJoin(p, plan1, plan2);
+                case HASH:
+                    return new HashEquiJoin(p, plan1, plan2);
+                default:
+                    break;
+            }
+        }
+
         if (lj.p == Predicate.Op.EQUALS) {
 
             try {
@@ -102,18 +169,21 @@ public class JoinOptimizer {
 
     }
 
+    /** @return true if the plan returns its tuples in the order of a field */
+    private static boolean isOrderedBy(OpIterator plan, int field) {
+        return plan instanceof SeqScan && ((SeqScan) plan).isOrderedBy(field);
+    }
+
     /**
      * Estimate the cost of a join.
-     * 
-     * The cost of the join should be calculated based on the join algorithm (or
-     * algorithms) that you implemented for Lab 2. It should be a function of
-     * the amount of data that must be read over the course of the query, as
-     * well as the number of CPU opertions performed by your join. Assume that
-     * the cost of a single predicate application is roughly 1.
      *
-     * 估计加入的成本。连接的成本应该根据你为实验室2实现的连接算法（或算法）来计算。
-     * 它应该是在查询过程中必须读取的数据量的函数，也是你的连接所执行的CPU操作的数量。
-     * 假设 单个谓词应用的成本大约是1。
+     * The cost is that of the cheapest physical operator for the join under
+     * the {@link CostModel}: a block nested-loop join for any predicate, and
+     * a hash or sort-merge join for an equality. The inputs are costed as
+     * subplans, neither ordered on the join field nor resident in the
+     * buffer pool beyond what cost1 and cost2 account for.
+     *
+     * 估计加入的成本：在代价模型下，取最便宜的物理连接算子的代价。
      * 
      * @param j
      *            A LogicalJoinNode representing the join operation being
@@ -133,19 +203,61 @@ public class JoinOptimizer {
      */
     public double estimateJoinCost(LogicalJoinNode j, int card1, int card2,
             double cost1, double cost2) {
-        if (j instanceof LogicalSubplanJoinNode) {
-            // A LogicalSubplanJoinNode represents a subquery.
-            // You do not need to implement proper support for these for Lab 3.
-            return card1 + cost1 + cost2;
-        } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            // 你可能需要使用变量 "j"，如果你实现了 一个比基本嵌套循环连接更复杂的连接算法。
+        return chooseJoin(j, new CostModel.Input(card1, cost1), new CostModel.Input(card2, cost2)).cost;
+    }
 
-            return cost1 + card1 * cost2 + card1 * card2;
+    /**
+     * Chooses the cheapest operator for a join of two inputs.
+     *
+     * @param j   the join, with its first table on the side of in1
+     * @param in1 the left (outer) input
+     * @param in2 the right (inner) input
+     * @return the operator and its cost; a subquery has no operator to choose
+     */
+    private CostModel.Choice chooseJoin(LogicalJoinNode j, CostModel.Input in1, CostModel.Input in2) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return chooseSemiJoin((LogicalSubplanJoinNode) j, in1, in2);
+        double sel = 1.0;
+        if (in2.keyed) {
+            int field = Database.getCatalog().getTupleDesc(p.getTableId(j.t2Alias)).fieldNameToIndex(j.f2PureName);
+            sel = in2.table.avgSelectivity(field, j.p);
         }
+        return CostModel.chooseJoin(j.p, in1, in2, sel);
+    }
+
+    /**
+     * Chooses how to run a join with a subquery: the subquery is read once
+     * into a hash set (a list for predicates other than EQUALS), or, when it
+     * scans a B+ tree file keyed on its field, each outer row may be looked
+     * up in the tree instead.
+     *
+     * @param j   the join with the subquery
+     * @param in1 the outer input
+     * @param in2 the subquery, as the optimizer sees it
+     * @return the operator and its cost
+     */
+    private CostModel.Choice chooseSemiJoin(LogicalSubplanJoinNode j, CostModel.Input in1, CostModel.Input in2) {
+        CostModel.JoinMethod method = j.p == Predicate.Op.EQUALS
+                ? CostModel.JoinMethod.HASH : CostModel.JoinMethod.NESTED_LOOP;
+        CostModel.Choice best = new CostModel.Choice(method, in1.card + in1.cost + in2.cost);
+        SeqScan scan = j.subplanScan();
+        if (scan == null || j.p != Predicate.Op.EQUALS)
+            return best;
+        TableStats s = TableStats.getTableStats(scan.getTableName());
+        int field = scan.getTupleDesc().fieldNameToIndex(j.subPlan.getTupleDesc().getFieldName(0));
+        if (s == null || !scan.isOrderedBy(field))
+            return best;
+        double rows = s.totalTuples();
+        for (Predicate f : scan.getFilters())
+            rows *= s.estimateSelectivity(f.getField(), f.getOp(), f.getOperand());
+        CostModel.Input inner = new CostModel.Input((int) Math.ceil(rows), CostModel.scanCost(s),
+                scan.getTupleDesc().getSize(), s, true);
+        int key = ((BTreeFile) Database.getCatalog().getDatabaseFile(scan.getTableId())).keyField();
+        double hash = CostModel.hashCost(inner, in1);
+        double index = CostModel.indexNestedLoopCost(in1, inner, s.avgSelectivity(key, Predicate.Op.EQUALS));
+        if (index < hash)
+            return new CostModel.Choice(CostModel.JoinMethod.INDEX_NESTED_LOOP, index);
+        return new CostModel.Choice(CostModel.JoinMethod.HASH, hash);
     }
 
     /**
@@ -186,13 +298,19 @@ public class JoinOptimizer {
     /**
      * Estimate the join cardinality of two tables.
      * 估算两个表的连接cardinality。
+     * <p>
+     * A join on a primary key matches each row of the other table at most
+     * once. Otherwise an equality join matches the rows of both tables
+     * sharing a value: card1 * card2 / max(ndv1, ndv2), with the number of
+     * distinct values of each field from its {@link TableStats}, capped at
+     * the rows left of its table.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
-        int card = 1;
+        double card;
         // some code goes here
         switch (joinOp){
             case EQUALS:
@@ -203,22 +321,61 @@ public class JoinOptimizer {
                 else if(t1pkey && t2pkey)
                     card = Math.min(card1, card2);
                 else
-                    card = card1 + card2;
+                    card = equalityJoinCardinality(table1Alias, table2Alias, field1PureName,
+                            field2PureName, card1, card2, stats, tableAliasToId);
                 break;
             case NOT_EQUALS:
                 if(t1pkey && !t2pkey)
-                    card = card1 * card2 - card2;
+                    card = (double) card1 * card2 - card2;
                 else if(!t1pkey && t2pkey)
-                    card = card1 * card2 - card1;
+                    card = (double) card1 * card2 - card1;
                 else if(t1pkey && t2pkey)
-                    card = card1 * card2 - Math.min(card1, card2);
+                    card = (double) card1 * card2 - Math.min(card1, card2);
                 else
-                    card = card1 * card2 - Math.max(card1, card2);
+                    card = (double) card1 * card2 - equalityJoinCardinality(table1Alias, table2Alias,
+                            field1PureName, field2PureName, card1, card2, stats, tableAliasToId);
                 break;
             default:
-                card = card1 * card2 / 3;
+                card = (double) card1 * card2 / 3;
+        }
+        return card < 1 ? 1 : (int) Math.min(card, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Estimate the rows of an equality join on two fields that are not
+     * primary keys, or card1 + card2 if the statistics of a table are
+     * missing.
+     */
+    private static double equalityJoinCardinality(String table1Alias, String table2Alias,
+                                                  String field1PureName, String field2PureName,
+                                                  int card1, int card2, Map<String, TableStats> stats,
+                                                  Map<String, Integer> tableAliasToId) {
+        int ndv1 = numDistinct(table1Alias, field1PureName, stats, tableAliasToId);
+        int ndv2 = numDistinct(table2Alias, field2PureName, stats, tableAliasToId);
+        if (ndv1 <= 0 || ndv2 <= 0)
+            return (double) card1 + card2;
+        // a filtered table keeps at most as many values as rows
+        double ndv = Math.max(Math.min(ndv1, card1), Math.min(ndv2, card2));
+        return (double) card1 * card2 / Math.max(1.0, ndv);
+    }
+
+    /**
+     * @return the number of distinct values of a field of a table of the
+     *         query, or 0 if it is unknown
+     */
+    private static int numDistinct(String tableAlias, String fieldPureName,
+                                   Map<String, TableStats> stats, Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAliasToId == null ? null : tableAliasToId.get(tableAlias);
+        if (tableId == null || stats == null)
+            return 0;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return 0;
+        try {
+            return s.numDistinct(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldPureName));
+        } catch (NoSuchElementException e) {
+            return 0;
         }
-        return card <= 0 ? 1 : card;
     }
 
     /**
@@ -279,10 +436,11 @@ public class JoinOptimizer {
      *            simply execute it
      *            表示你的代码是否应该解释其查询计划或简单地执行它
      *
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in
+     *         which they should be executed, each after the joins of the
+     *         subplans it joins.
      *
-     *         一个List<LogicalJoinNode>，它按照左深右浅的顺序存储连接，这些连接应该被执行。
+     *         一个List<LogicalJoinNode>，它按照应该被执行的顺序存储连接。
      *
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
@@ -297,201 +455,344 @@ public class JoinOptimizer {
             throws ParsingException {
 
         // some code goes here
-        //Replace the following
-        final PlanCache pc = new PlanCache();
-        CostCard costCard = null;
-        for (int i = 1; i <= this.joins.size(); i++) {
-            // 生成 size = i 的子集, 可以利用回溯算法来做
-            final Set<Set<LogicalJoinNode>> subsets = enumerateSubsets(this.joins, i);
-            for (final Set<LogicalJoinNode> subPlan : subsets) {
-                double bestCost = Double.MAX_VALUE;
-                for (final LogicalJoinNode removeNode : subPlan) {
-
-                    // 尝试将这个子集中的一个 node 从该子集中去除, 然后子集中剩下的 joinNode 进行 join, 估算代价
-                    // 比如, node1 join node2 join node3
-                    // 我们去除了  node1 ,
-                    // 然后估算 (node2 join node3) join node1 和 node1 join (node2 join node3), 这两种哪个代价比较小, 而 (node2 join node3) 我们已经在之前的遍历中计算好了
-                    final CostCard cc = computeCostAndCardOfSubplan(stats, filterSelectivities, removeNode, subPlan,
-                            bestCost, pc);
-                    if (cc != null && cc.cost < bestCost) {
-                        bestCost = cc.cost;
-                        costCard = cc;
-                    }
-                }
-                // 保存该子集的最优执行计划
-                if (bestCost != Double.MAX_VALUE) {
-                    pc.addPlan(subPlan, bestCost, costCard.card, costCard.plan);
-                }
+        if (this.joins.isEmpty())
+            return this.joins;
+        JoinGraph g = new JoinGraph(stats, filterSelectivities);
+        List<LogicalJoinNode> order;
+        String method;
+        if (g.size() <= dpTableLimit && g.size() <= Long.SIZE) {
+            PlanCache pc = new PlanCache();
+            for (int v = 0; v < g.size(); v++)
+                pc.addPlan(1L << v, g.cost[v], g.card[v], false, 0, null, null);
+            // DPccp: for each vertex from the last, the connected sets whose
+            // least vertex it is, and their connected complements
+            for (int v = g.size() - 1; v >= 0; v--) {
+                emitCsg(g, pc, 1L << v);
+                enumerateCsgRec(g, pc, 1L << v, lowerVertices(v));
             }
-        }
-        if (costCard != null) {
-            return costCard.plan;
+            long all = g.size() == Long.SIZE ? -1L : (1L << g.size()) - 1;
+            order = pc.getOrder(all);
+            method = "DPccp over " + pc.size() + " connected sets";
         } else {
-            return joins;
+            order = greedyOrder(g);
+            method = "greedy ordering";
         }
+        if (order == null) {
+            // the tables are not all joined; the planner reports it
+            return this.joins;
+        }
+        // joins between tables already joined by another join
+        Set<LogicalJoinNode> ordered = Collections.newSetFromMap(new IdentityHashMap<>());
+        ordered.addAll(order);
+        for (LogicalJoinNode j : this.joins) {
+            if (!ordered.contains(j) && !ordered.contains(g.swapped.get(j))) {
+                j.method = null;
+                order.add(j);
+            }
+        }
+        if (explain)
+            System.out.println("Join order of " + g.size() + " tables by " + method + ": " + describe(order));
+        return order;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
-     * 
-     * @param stats
-     *            table stats for all of the tables, referenced by table names
-     *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
-     * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     * The tables of a query as the vertices of a graph, with the joins as its
+     * edges. A subquery joined to a table is a vertex of its own. Each
+     * vertex has the cost and filtered cardinality of scanning its table,
+     * with the pages of the table in the buffer pool read from memory.
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
-            Map<String, TableStats> stats,
-            Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
+    private final class JoinGraph {
+        final Map<String, TableStats> stats;
+        /** Each join with its inner and outer tables swapped. */
+        final Map<LogicalJoinNode, LogicalJoinNode> swapped = new IdentityHashMap<>();
+        final List<String> aliases = new ArrayList<>();
+        final Map<String, Integer> vertices = new HashMap<>();
+        /** The vertices of the two sides of each join. */
+        final int[] left, right;
+        /** The vertices joined to each vertex, as a bitmask. */
+        long[] neighbours;
+        final double[] cost;
+        final int[] card;
+        /** The bytes of a tuple of each table. */
+        final int[] width;
+        /** The statistics of each table, or null for a subquery. */
+        final TableStats[] tables;
+
+        JoinGraph(Map<String, TableStats> stats, Map<String, Double> filterSelectivities)
+                throws ParsingException {
+            this.stats = stats;
+            left = new int[joins.size()];
+            right = new int[joins.size()];
+            for (int i = 0; i < joins.size(); i++) {
+                LogicalJoinNode j = joins.get(i);
+                left[i] = vertex(j.t1Alias);
+                right[i] = j instanceof LogicalSubplanJoinNode ? vertex(null) : vertex(j.t2Alias);
+                swapped.put(j, j.swapInnerOuter());
+            }
+            int n = aliases.size();
+            cost = new double[n];
+            card = new int[n];
+            width = new int[n];
+            tables = new TableStats[n];
+            for (int v = 0; v < n; v++) {
+                String alias = aliases.get(v);
+                width[v] = CostModel.DEFAULT_TUPLE_SIZE;
+                if (alias == null)
+                    continue;
+                TableStats s = stats.get(Database.getCatalog().getTableName(p.getTableId(alias)));
+                tables[v] = s;
+                width[v] = Database.getCatalog().getTupleDesc(p.getTableId(alias)).getSize();
+                cost[v] = CostModel.scanCost(s);
+                card[v] = s.estimateTableCardinality(filterSelectivities.get(alias));
+            }
+            if (n <= Long.SIZE) {
+                neighbours = new long[n];
+                for (int i = 0; i < left.length; i++) {
+                    neighbours[left[i]] |= 1L << right[i];
+                    neighbours[right[i]] |= 1L << left[i];
+                }
+            }
+        }
 
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
+        private int vertex(String alias) throws ParsingException {
+            if (alias != null) {
+                Integer v = vertices.get(alias);
+                if (v != null)
+                    return v;
+                if (p.getTableId(alias) == null)
+                    throw new ParsingException("Unknown table " + alias);
+                vertices.put(alias, aliases.size());
             }
+            aliases.add(alias);
+            return aliases.size() - 1;
+        }
 
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
+        int size() {
+            return aliases.size();
+        }
 
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
-            }
+        /**
+         * @param v     the vertex of the input if it is a single table, or -1
+         * @param width the bytes of a tuple of the input
+         * @param field the join field on the side of the input
+         * @return the input of a join, with the cost and rows of its plan
+         */
+        CostModel.Input input(int v, int width, int card, double cost, String field) {
+            if (v < 0 || tables[v] == null)
+                return new CostModel.Input(card, cost, width, null, false);
+            return new CostModel.Input(card, cost, width, tables[v], isIndexKey(aliases.get(v), field));
         }
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
-
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+        /** @return the input of a join made of the best plan of the tables s */
+        CostModel.Input input(long s, PlanCache pc, String field) {
+            int w = 0;
+            for (long rest = s; rest != 0; rest &= rest - 1)
+                w += width[Long.numberOfTrailingZeros(rest)];
+            int v = Long.bitCount(s) == 1 ? Long.numberOfTrailingZeros(s) : -1;
+            return input(v, w, pc.getCard(s), pc.getCost(s), field);
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
 
-        CostCard cc = new CostCard();
+        /** @return the vertices joined to some vertex of s, outside s */
+        long neighbours(long s) {
+            long n = 0;
+            for (long rest = s; rest != 0; rest &= rest - 1)
+                n |= neighbours[Long.numberOfTrailingZeros(rest)];
+            return n & ~s;
+        }
+    }
+
+    /** @return the vertices up to v, as a bitmask */
+    private static long lowerVertices(int v) {
+        return v == Long.SIZE - 1 ? -1L : (1L << (v + 1)) - 1;
+    }
+
+    /**
+     * Emits the pairs of a connected set s1 with the connected sets of
+     * greater vertices joined to it.
+     */
+    private void emitCsg(JoinGraph g, PlanCache pc, long s1) {
+        long x = s1 | lowerVertices(Long.numberOfTrailingZeros(s1));
+        long n = g.neighbours(s1) & ~x;
+        for (int v = Long.SIZE - 1 - Long.numberOfLeadingZeros(n); v >= 0; v--) {
+            if ((n & (1L << v)) == 0)
+                continue;
+            emitCsgCmp(g, pc, s1, 1L << v);
+            enumerateCmpRec(g, pc, s1, 1L << v, x | (lowerVertices(v) & n));
+        }
+    }
+
+    /**
+     * Grows the connected set s1 by the subsets of its neighbours outside x,
+     * smaller subsets first, so that the best plan of a set is known before
+     * it is joined to another.
+     */
+    private void enumerateCsgRec(JoinGraph g, PlanCache pc, long s1, long x) {
+        long n = g.neighbours(s1) & ~x;
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            emitCsg(g, pc, s1 | sub);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCsgRec(g, pc, s1 | sub, x | n);
+    }
+
+    /**
+     * Grows the complement s2 of s1 by the subsets of its neighbours outside x.
+     */
+    private void enumerateCmpRec(JoinGraph g, PlanCache pc, long s1, long s2, long x) {
+        long n = g.neighbours(s2) & ~x;
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            emitCsgCmp(g, pc, s1, s2 | sub);
+        for (long sub = n & -n; sub != 0; sub = (sub - n) & n)
+            enumerateCmpRec(g, pc, s1, s2 | sub, x | n);
+    }
+
+    /**
+     * Costs the joins of the best plans of s1 and s2 on each join between
+     * them, and keeps the cheapest if it beats the best plan of s1 | s2.
+     */
+    private void emitCsgCmp(JoinGraph g, PlanCache pc, long s1, long s2) {
+        long s = s1 | s2;
+        CostCard best = null;
+        boolean pkey = false;
+        for (int i = 0; i < g.left.length; i++) {
+            long l = 1L << g.left[i], r = 1L << g.right[i];
+            boolean forward = (s1 & l) != 0 && (s2 & r) != 0;
+            if (!forward && !((s2 & l) != 0 && (s1 & r) != 0))
+                continue;
+            // the sides holding the join's first and second table
+            long t1 = forward ? s1 : s2, t2 = forward ? s2 : s1;
+            LogicalJoinNode j = joins.get(i);
+            CostCard cc = costJoin(j, g.swapped.get(j), g.input(t1, pc, j.f1PureName),
+                    t1 == l ? isPkey(j.t1Alias, j.f1PureName) : pc.hasPkey(t1),
+                    g.input(t2, pc, j.f2PureName),
+                    t2 == r ? j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName) : pc.hasPkey(t2),
+                    g.stats);
+            if (best == null || cc.cost < best.cost) {
+                best = cc;
+                pkey = pc.hasPkey(s1) || pc.hasPkey(s2) || isPkey(j.t1Alias, j.f1PureName)
+                        || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName));
+            }
+        }
+        if (best == null || (pc.contains(s) && pc.getCost(s) <= best.cost))
+            return;
+        // the plan of the join's outer table comes first
+        long first = (s1 & (1L << g.vertices.get(best.join.t1Alias))) != 0 ? s1 : s2;
+        pc.addPlan(s, best.cost, best.card, pkey, first, best.join, best.method);
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
+    /**
+     * Estimates the cost and cardinality of a join of two subplans, with
+     * the side and the operator that make it cheapest.
+     *
+     * @param j   the join, with its first table on the side of in1
+     * @param j2  the join with its tables swapped
+     * @param in1 the subplan of the first table of j
+     * @param in2 the subplan of the second table of j
+     * @return the cost, the cardinality, the oriented join and its operator
+     */
+    private CostCard costJoin(LogicalJoinNode j, LogicalJoinNode j2, CostModel.Input in1, boolean pkey1,
+                              CostModel.Input in2, boolean pkey2, Map<String, TableStats> stats) {
+        CostCard cc = new CostCard();
+        CostModel.Choice c = chooseJoin(j, in1, in2);
+        cc.join = j;
+        cc.cost = c.cost;
+        cc.method = c.method;
+        if (!(j instanceof LogicalSubplanJoinNode)) {
+            c = chooseJoin(j2, in2, in1);
+            if (c.cost < cc.cost) {
+                cc.join = j2;
+                cc.cost = c.cost;
+                cc.method = c.method;
+            }
+        }
+        cc.card = estimateJoinCardinality(j, in1.card, in2.card, pkey1, pkey2, stats);
         return cc;
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * Orders the joins of a query with too many tables to enumerate: starts
+     * from the cheapest join of two tables, and repeatedly joins the table
+     * whose join with the plan so far is cheapest. Merging any two subplans
+     * instead (greedy operator ordering) builds bushy plans that rescan a
+     * joined inner per outer row under the nested-loops cost model.
+     *
+     * @return the joins in order, or null if the tables are not all joined
+     */
+    private List<LogicalJoinNode> greedyOrder(JoinGraph g) {
+        boolean[] joined = new boolean[g.size()];
+        List<LogicalJoinNode> plan = new ArrayList<>();
+        double cost = 0;
+        int card = 0, width = 0;
+        boolean pkey = false;
+        for (int tables = 0; tables < g.size(); ) {
+            CostCard best = null;
+            int bestJoin = -1;
+            for (int i = 0; i < joins.size(); i++) {
+                int l = g.left[i], r = g.right[i];
+                // the first join is of two tables, then one side is the plan
+                if (!plan.isEmpty() && joined[l] == joined[r])
+                    continue;
+                LogicalJoinNode j = joins.get(i);
+                boolean planLeft = joined[l];
+                CostCard cc = costJoin(j, g.swapped.get(j),
+                        planLeft ? g.input(-1, width, card, cost, j.f1PureName)
+                                : g.input(l, g.width[l], g.card[l], g.cost[l], j.f1PureName),
+                        planLeft ? pkey : isPkey(j.t1Alias, j.f1PureName),
+                        joined[r] ? g.input(-1, width, card, cost, j.f2PureName)
+                                : g.input(r, g.width[r], g.card[r], g.cost[r], j.f2PureName),
+                        joined[r] ? pkey : j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName),
+                        g.stats);
+                if (best == null || cc.cost < best.cost) {
+                    best = cc;
+                    bestJoin = i;
+                }
+            }
+            if (best == null)
+                return null;
+            LogicalJoinNode j = joins.get(bestJoin);
+            tables += plan.isEmpty() ? 2 : 1;
+            for (int v : new int[] { g.left[bestJoin], g.right[bestJoin] }) {
+                if (!joined[v])
+                    width += g.width[v];
+                joined[v] = true;
+            }
+            best.join.method = best.method;
+            plan.add(best.join);
+            cost = best.cost;
+            card = best.card;
+            pkey |= isPkey(j.t1Alias, j.f1PureName) || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName));
+        }
+        return plan;
+    }
+
+    /** @return the joins of a plan in order, each with its operator */
+    static String describe(List<LogicalJoinNode> order) {
+        StringBuilder sb = new StringBuilder("[");
+        for (LogicalJoinNode j : order) {
+            if (sb.length() > 1)
+                sb.append(", ");
+            sb.append(j);
+            if (j.method != null)
+                sb.append(" (").append(j.method).append(')');
+        }
+        return sb.append(']').toString();
+    }
+
+    /**
+     * @return true if the table is a B+ tree file keyed on the field, which
+     *         it is read in the order of and can be looked up by
      */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private boolean isIndexKey(String tableAlias, String field) {
+        int tableId = p.getTableId(tableAlias);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (!(file instanceof BTreeFile))
+            return false;
+        try {
+            return file.getTupleDesc().fieldNameToIndex(field) == ((BTreeFile) file).keyField();
+        } catch (NoSuchElementException e) {
+            return false;
         }
-        return false;
     }
 
     /**
@@ -510,20 +811,6 @@ public class JoinOptimizer {
         return pkey1.equals(field);
     }
 
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(List<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
-    }
-
     /**
      * Helper function to display a Swing window with a tree representation of
      * the specified list of joins. See {@link #orderJoins}, which may want to
@@ -533,6 +820,8 @@ public class JoinOptimizer {
      *            the join plan to visualize
      * @param pc
      *            the PlanCache accumulated whild building the optimal plan
+     * @param vertices
+     *            the bit of each table alias in the sets of the PlanCache
      * @param stats
      *            table statistics for base tables
      * @param selectivities
@@ -541,7 +830,7 @@ public class JoinOptimizer {
      *            alias is given)
      */
     private void printJoins(List<LogicalJoinNode> js, PlanCache pc,
-            Map<String, TableStats> stats,
+            Map<String, Integer> vertices, Map<String, TableStats> stats,
             Map<String, Double> selectivities) {
 
         JFrame f = new JFrame("Join Plan for " + p.getQuery());
@@ -560,20 +849,26 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
+        // the tables joined so far to each table
+        Map<String, Long> joined = new HashMap<>();
         boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+            long pathSoFar = joined.getOrDefault(j.t1Alias, 1L << vertices.get(j.t1Alias));
+            if (j.t2Alias != null)
+                pathSoFar |= joined.getOrDefault(j.t2Alias, 1L << vertices.get(j.t2Alias));
+            for (Map.Entry<String, Integer> v : vertices.entrySet()) {
+                if ((pathSoFar & (1L << v.getValue())) != 0)
+                    joined.put(v.getKey(), pathSoFar);
+            }
+            System.out.println("PATH SO FAR = " + Long.toBinaryString(pathSoFar));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
             String table2Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t2Alias));
 
-            // Double c = pc.getCost(pathSoFar);
             neither = true;
 
             root = new DefaultMutableTreeNode("Join " + j + " (Cost ="
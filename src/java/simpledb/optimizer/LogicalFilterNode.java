@@ -6,7 +6,9 @@ import simpledb.execution.Predicate;
     <p>
     Filter is of the form t.f p c
     <p>
-    Where t is a table, f is a field in t, p is a predicate, and c is a constant
+    Where t is a table, f is a field in t, p is a predicate, and c is a constant,
+    or a parameter of a prepared statement that is bound to a constant before
+    the plan is run
 */
 public class LogicalFilterNode {
     /** The alias of a table (or the name if no alias) over which the filter ranges */
@@ -22,11 +24,23 @@ public class LogicalFilterNode {
     public final String fieldPureName;
     
     public final String fieldQuantifiedName;
+
+    /** The index of the parameter c is bound to, or -1 if c is a constant of the query */
+    public final int param;
     
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
+        this(table, field, pred, constant, -1);
+    }
+
+    /**
+     * @param constant the value bound to the parameter, or null if it is not bound yet
+     * @param param    the index of the parameter, or -1 if constant is not a parameter
+     */
+    public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant, int param) {
         tableAlias = table;
         p = pred;
         c = constant;
+        this.param = param;
         String[] tmps = field.split("[.]");
         if (tmps.length>1)
             fieldPureName = tmps[tmps.length-1];
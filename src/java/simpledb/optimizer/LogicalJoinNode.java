@@ -25,6 +25,9 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The operator the optimizer chose for the join, or null if it has not been ordered */
+    public CostModel.JoinMethod method;
+
     public LogicalJoinNode() {
     }
 
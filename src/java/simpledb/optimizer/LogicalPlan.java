@@ -23,8 +23,20 @@ import java.io.File;
  * the {@link #physicalPlan} method, which uses the
  * {@link JoinOptimizer} to order joins optimally and to select the
  * best implementations for joins.
+ * <p>
+ * The filters of a plan may compare a field with a parameter instead of a
+ * constant. Such a plan is a template for a prepared statement: each run
+ * {@link #bind}s the parameters into a copy of it, and the copies share the
+ * join order that the first of them was optimized with.
  */
 public class LogicalPlan {
+    /**
+     * Hash joins and aggregations are run in parallel through exchanges when
+     * TableStats estimate that the table they scan has at least this many
+     * tuples.
+     */
+    public static final int PARALLEL_MIN_TUPLES = 20000;
+
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
@@ -38,7 +50,11 @@ public class LogicalPlan {
     private String aggField;
     private boolean oByAsc, hasOrderBy = false;
     private String oByField;
+    private int limit = -1;
+    private int parallelism = Runtime.getRuntime().availableProcessors();
     private String query;
+    /** Whether the joins are already in the order the JoinOptimizer chose. */
+    private boolean joinsOrdered;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -53,6 +69,27 @@ public class LogicalPlan {
         this.query = "";
     }
 
+    /** Copy the nodes of another plan, but none of the physical plan built from it. */
+    private LogicalPlan(LogicalPlan other) {
+        joins = new ArrayList<>(other.joins);
+        filters = new ArrayList<>(other.filters);
+        tables = new ArrayList<>(other.tables);
+        subplanMap = new HashMap<>();
+        tableMap = new HashMap<>(other.tableMap);
+        selectList = new ArrayList<>(other.selectList);
+        groupByField = other.groupByField;
+        hasAgg = other.hasAgg;
+        aggOp = other.aggOp;
+        aggField = other.aggField;
+        oByAsc = other.oByAsc;
+        hasOrderBy = other.hasOrderBy;
+        oByField = other.oByField;
+        limit = other.limit;
+        parallelism = other.parallelism;
+        query = other.query;
+        joinsOrdered = other.joinsOrdered;
+    }
+
     /** Set the text of the query representing this logical plan.  Does NOT parse the
         specified query -- this method is just used so that the object can print the
         SQL it represents.
@@ -108,6 +145,61 @@ public class LogicalPlan {
         filters.add(lf);
     }
 
+    /** Add a new filter comparing a field with a parameter, whose value is
+     *  given to {@link #bind}.
+     *   @param field The name of the field over which the filter applies,
+     *   as for {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @param param the index of the parameter among those of the statement
+     *   @throws ParsingException if field is not in one of the tables, or
+     *   is ambiguous
+     */
+    public void addParameterFilter(String field, Predicate.Op p, int param) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        filters.add(new LogicalFilterNode(table, field.split("[.]")[1], p, null, param));
+    }
+
+    /** Make a copy of this plan whose parameters are bound to the given
+     *  values. The copy keeps the join order of this plan, if it has been
+     *  optimized already, so that it is not searched for again.
+     *  @param values the value of each parameter: a number or a string, as
+     *  the constant of a filter
+     *  @return the plan to run
+     *  @throws ParsingException if a parameter has no value
+     */
+    public LogicalPlan bind(List<String> values) throws ParsingException {
+        LogicalPlan lp = new LogicalPlan(this);
+        for (int i = 0; i < lp.filters.size(); i++) {
+            LogicalFilterNode lf = lp.filters.get(i);
+            if (lf.param < 0)
+                continue;
+            if (lf.param >= values.size())
+                throw new ParsingException("No value for parameter " + (lf.param + 1));
+            lp.filters.set(i, new LogicalFilterNode(lf.tableAlias, lf.fieldQuantifiedName, lf.p,
+                    values.get(lf.param), lf.param));
+        }
+        return lp;
+    }
+
+    /** @return whether the joins of the plan have been ordered by the JoinOptimizer */
+    public boolean isJoinOrderFixed() {
+        return joinsOrdered;
+    }
+
+    /** @return whether the plan can be bound and run more than once; a plan
+     *  joining with a subquery cannot, as the subquery's physical plan
+     *  belongs to the transaction that parsed it
+     */
+    public boolean isReusable() {
+        for (LogicalJoinNode lj : joins) {
+            if (lj instanceof LogicalSubplanJoinNode)
+                return false;
+        }
+        return true;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -149,12 +241,28 @@ public class LogicalPlan {
      *      or is not in one of the tables added via {@link #addScan}
      */
     public void addJoin(String joinField1, OpIterator joinField2, Predicate.Op pred) throws ParsingException {
+        addJoin(joinField1, joinField2, pred, false);
+    }
+
+    /** Add a semi-join or anti-join between a field and a subquery: the
+     *  rows of the field's table are kept, each once, if some row of the
+     *  subquery satisfies the predicate -- or, for an anti-join, if none does.
+     *  @param joinField1 The name of the first join field
+     *  @param joinField2 the subquery to join with -- the join field
+     *    of the subquery is the first field in the result set of the query
+     *  @param pred The join predicate.
+     *  @param anti true to keep the rows without a match
+     *  @throws ParsingException if the field is ambiguous, or is not in one
+     *      of the tables added via {@link #addScan}
+     */
+    public void addJoin(String joinField1, OpIterator joinField2, Predicate.Op pred, boolean anti)
+            throws ParsingException {
         joinField1 = disambiguateName(joinField1);
 
         String table1 = joinField1.split("[.]")[0];
         String pureField = joinField1.split("[.]")[1];
 
-        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred);
+        LogicalSubplanJoinNode lj = new LogicalSubplanJoinNode(table1,pureField, joinField2, pred, anti);
         System.out.println("Added subplan join on " + joinField1);
         joins.add(lj);
     }
@@ -219,6 +327,33 @@ public class LogicalPlan {
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT clause to the query, restricting its output to at most n tuples.
+        If the query also has an ORDER BY, the sort is computed with a {@link TopN}
+        operator that only keeps the first n tuples.
+        @param n the maximum number of tuples to output
+     * @throws ParsingException if n is negative
+    */
+    public void addLimit(int n) throws ParsingException {
+        if (n < 0)
+            throw new ParsingException("LIMIT must not be negative: " + n);
+        limit = n;
+    }
+
+    /** Remove the LIMIT clause of the query, if it has one. */
+    public void removeLimit() {
+        limit = -1;
+    }
+
+    /** Set the number of threads that parallel parts of the physical plan
+        may use. 1 disables parallel plans.
+        @param parallelism the maximum number of parallel pipelines
+    */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1)
+            throw new IllegalArgumentException("parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -315,6 +450,8 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lf.tableAlias);
             }
 
+            if (lf.c == null)
+                throw new ParsingException("No value for parameter " + (lf.param + 1));
             Field f;
             Type ftyp;
             TupleDesc td = subplanMap.get(lf.tableAlias).getTupleDesc();
@@ -326,6 +463,8 @@ public class LogicalPlan {
             }
             if (ftyp == Type.INT_TYPE)
                 f = new IntField(new Integer(lf.c));
+            else if (ftyp == Type.VARCHAR_TYPE)
+                f = new VarcharField(lf.c, Type.STRING_LEN);
             else
                 f = new StringField(lf.c, Type.STRING_LEN);
 
@@ -335,7 +474,12 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // the scan checks the predicate against the page bytes, so
+            // tuples it rejects are never built
+            if (subplan instanceof SeqScan)
+                ((SeqScan) subplan).addFilter(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -344,10 +488,25 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
-        
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
+        pushProjections();
+
+        for (OpIterator plan : subplanMap.values()) {
+            if (!(plan instanceof SeqScan))
+                continue;
+            SeqScan ss = (SeqScan) plan;
+            TableStats s = statsMap.get(ss.getTableName());
+            if (s != null)
+                AccessPathOptimizer.chooseAccessPath(ss, s, explain);
+        }
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        if (!joinsOrdered) {
+            JoinOptimizer jo = new JoinOptimizer(this,joins);
+
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            joinsOrdered = true;
+        } else if (explain && !joins.isEmpty()) {
+            System.out.println("Join order of the prepared plan: " + JoinOptimizer.describe(joins));
+        }
 
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
@@ -382,6 +541,8 @@ public class LogicalPlan {
 
             OpIterator j;
             j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            if (j instanceof HashEquiJoin && !isSubqueryJoin)
+                j = parallelHashJoin((HashEquiJoin) j, plan1, plan2, statsMap);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -459,25 +620,141 @@ public class LogicalPlan {
 
         if (hasAgg) {
             TupleDesc td = node.getTupleDesc();
-            Aggregate aggNode;
+            int afield, gfield;
             try {
-                aggNode = new Aggregate(node,
-                                        td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
-                                getAggOp(aggOp));
-            } catch (NoSuchElementException | IllegalArgumentException e) {
+                afield = td.fieldNameToIndex(aggField);
+                gfield = groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField);
+            } catch (NoSuchElementException e) {
+                throw new simpledb.ParsingException(e);
+            }
+            OpIterator[] inputs = gfield == Aggregator.NO_GROUPING ? null : parallelInputs(node, statsMap);
+            try {
+                if (inputs != null) {
+                    // one aggregate per group partition; partitions never
+                    // share a group, so their results can simply be gathered
+                    HashRepartition[] parts = HashRepartition.create(inputs, gfield, parallelism);
+                    OpIterator[] aggs = new OpIterator[parts.length];
+                    for (int i = 0; i < parts.length; i++)
+                        aggs[i] = new Aggregate(parts[i], afield, gfield, getAggOp(aggOp));
+                    node = new Gather(aggs);
+                } else {
+                    Aggregate aggNode = new Aggregate(node, afield, gfield, getAggOp(aggOp));
+                    // only takes effect when the input is a large enough heap file scan
+                    aggNode.setParallelism(parallelism);
+                    node = aggNode;
+                }
+            } catch (IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
             }
-            node = aggNode;
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int oByIdx = node.getTupleDesc().fieldNameToIndex(oByField);
+            if (limit >= 0)
+                node = new TopN(oByIdx, oByAsc, limit, node);
+            else
+                node = new OrderBy(oByIdx, oByAsc, node);
+        } else if (limit >= 0) {
+            node = new Limit(limit, node);
         }
 
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Restricts each table scan to the fields the rest of the plan reads: the
+     * select list, join, aggregate, GROUP BY and ORDER BY fields. Filter
+     * fields are not needed since filters are checked inside the scans.
+     * Queries that select * keep every field.
+     */
+    private void pushProjections() {
+        Set<String> needed = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return;
+            needed.add(si.fname);
+        }
+        if (hasAgg) {
+            needed.add(aggField);
+            if (groupByField != null)
+                needed.add(groupByField);
+        }
+        if (hasOrderBy)
+            needed.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            needed.add(lj.f1QuantifiedName);
+            if (!(lj instanceof LogicalSubplanJoinNode))
+                needed.add(lj.f2QuantifiedName);
+        }
+
+        for (OpIterator plan : subplanMap.values()) {
+            if (!(plan instanceof SeqScan))
+                continue;
+            SeqScan ss = (SeqScan) plan;
+            TupleDesc td = ss.getTupleDesc();
+            List<Integer> cols = new ArrayList<>();
+            for (int i = 0; i < td.numFields(); i++) {
+                if (needed.contains(td.getFieldName(i)))
+                    cols.add(i);
+            }
+            // a table none of whose fields are named is left alone, so that
+            // errors are still reported by name below
+            if (!cols.isEmpty() && cols.size() < td.numFields())
+                ss.setColumns(cols.stream().mapToInt(Integer::intValue).toArray());
+        }
+    }
+
+    /**
+     * Splits a scan of a large table into page ranges, according to the
+     * table's TableStats.
+     *
+     * @return the parallel parts of plan, or null if it should stay serial
+     */
+    private List<OpIterator> splitIfLarge(OpIterator plan, Map<String,TableStats> statsMap) {
+        if (parallelism < 2)
+            return null;
+        OpIterator op = plan;
+        while (op instanceof Filter)
+            op = ((Filter) op).getChildren()[0];
+        if (!(op instanceof SeqScan))
+            return null;
+        TableStats s = statsMap.get(((SeqScan) op).getTableName());
+        if (s == null || s.estimateTableCardinality(1.0) < PARALLEL_MIN_TUPLES)
+            return null;
+        return Exchange.splitByPages(plan, parallelism);
+    }
+
+    /**
+     * Runs a hash join as one join per page range of a large probe side, each
+     * receiving the whole build side through a {@link Broadcast}.
+     *
+     * @return the parallel join, or j itself if plan2 is not a large scan
+     */
+    private OpIterator parallelHashJoin(HashEquiJoin j, OpIterator plan1, OpIterator plan2,
+                                        Map<String,TableStats> statsMap) {
+        List<OpIterator> parts = splitIfLarge(plan2, statsMap);
+        if (parts == null)
+            return j;
+        Broadcast[] build = Broadcast.create(plan1, parts.size());
+        OpIterator[] joins = new OpIterator[parts.size()];
+        for (int i = 0; i < joins.length; i++)
+            joins[i] = new HashEquiJoin(j.getJoinPredicate(), build[i], parts.get(i));
+        return new Gather(joins);
+    }
+
+    /**
+     * @return the pipelines a parallel aggregation over node can read from, or
+     *         null if node should be aggregated serially
+     */
+    private OpIterator[] parallelInputs(OpIterator node, Map<String,TableStats> statsMap) {
+        if (parallelism < 2)
+            return null;
+        if (node instanceof Gather)
+            return ((Gather) node).getChildren();
+        List<OpIterator> parts = splitIfLarge(node, statsMap);
+        return parts == null ? null : parts.toArray(new OpIterator[0]);
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{ Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE };
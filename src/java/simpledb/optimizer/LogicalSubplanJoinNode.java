@@ -2,17 +2,32 @@ package simpledb.optimizer;
 
 import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+
+import java.util.NoSuchElementException;
 
 /** A LogicalSubplanJoinNode represens the state needed of a join of a
  * table to a subplan in a LogicalQueryPlan -- inherits state from
  * {@link LogicalJoinNode}; t2 and f2 should always be null
+ * <p>
+ * The join is a semi-join: it keeps the rows of the table matching some row
+ * of the subplan, each once, as <tt>IN</tt> and <tt>EXISTS</tt> do; or an
+ * anti-join, keeping the rows matching none, for <tt>NOT IN</tt> and
+ * <tt>NOT EXISTS</tt>.
  */
 public class LogicalSubplanJoinNode extends LogicalJoinNode {
     
     /** The subplan (used on the inner) of the join */
     final OpIterator subPlan;
-    
+    /** Whether the join keeps the rows without a match */
+    final boolean anti;
+
     public LogicalSubplanJoinNode(String table1, String joinField1, OpIterator sp, Predicate.Op pred) {
+        this(table1, joinField1, sp, pred, false);
+    }
+
+    public LogicalSubplanJoinNode(String table1, String joinField1, OpIterator sp, Predicate.Op pred, boolean anti) {
         t1Alias = table1;
         String[] tmps = joinField1.split("[.]");
         if (tmps.length>1)
@@ -22,6 +37,25 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
         f1QuantifiedName=t1Alias+"."+f1PureName;
         subPlan = sp;
         p = pred;
+        this.anti = anti;
+    }
+
+    /**
+     * @return the scan of the subplan if the subplan reads its join field
+     *         (its first field) from a single table, or null
+     */
+    SeqScan subplanScan() {
+        OpIterator plan = subPlan;
+        if (plan instanceof Project)
+            plan = ((Project) plan).getChildren()[0];
+        if (!(plan instanceof SeqScan))
+            return null;
+        try {
+            plan.getTupleDesc().fieldNameToIndex(subPlan.getTupleDesc().getFieldName(0));
+        } catch (NoSuchElementException e) {
+            return null;
+        }
+        return (SeqScan) plan;
     }
     
     @Override public int hashCode() {
@@ -37,7 +71,7 @@ public class LogicalSubplanJoinNode extends LogicalJoinNode {
     }
     
     public LogicalSubplanJoinNode swapInnerOuter() {
-        return new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p);
+        return new LogicalSubplanJoinNode(t1Alias,f1PureName,subPlan, p, anti);
     }
 
 }
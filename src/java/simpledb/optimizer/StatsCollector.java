@@ -0,0 +1,275 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * StatsCollector reads a table for its {@link TableStats} in a single pass.
+ * A heap file is read in ranges of {@link #RANGE_PAGES} pages, which can be
+ * read by different threads, and which can belong to different tables. Each
+ * range counts its tuples and the min and max of each INT field, sketches the
+ * distinct values of each field with a {@link HyperLogLog}, and keeps a
+ * Bernoulli sample of the rows, from which the histograms are built.
+ */
+class StatsCollector {
+
+    /** The pages of a heap file read by one task. */
+    static final int RANGE_PAGES = 64;
+    /** Tables are sampled at a rate high enough to expect this many rows. */
+    static final int MIN_SAMPLE_ROWS = 20000;
+
+    final int tableid;
+    final DbFile file;
+    final TupleDesc td;
+    /** The probability that a row is added to the sample. */
+    final double rate;
+    private final List<Range> ranges = new ArrayList<>();
+
+    /** What one task learned from a range of pages. */
+    private final class Range implements Callable<Void> {
+        final int start, end;
+        int tuples;
+        final int[] min = new int[td.numFields()];
+        final int[] max = new int[td.numFields()];
+        final int[][] ints = new int[td.numFields()][];
+        final List<List<String>> strings = new ArrayList<>();
+        final HyperLogLog[] distinct = new HyperLogLog[td.numFields()];
+        int sampled, capacity = 64;
+        final Set<PageId> leaves = new HashSet<>();
+        int height;
+
+        Range(int start, int end) {
+            this.start = start;
+            this.end = end;
+            Arrays.fill(min, Integer.MAX_VALUE);
+            Arrays.fill(max, Integer.MIN_VALUE);
+            for (int i = 0; i < td.numFields(); i++) {
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    ints[i] = new int[capacity];
+                strings.add(td.getFieldType(i) == Type.INT_TYPE ? null : new ArrayList<>());
+                distinct[i] = new HyperLogLog();
+            }
+        }
+
+        public Void call() throws DbException, TransactionAbortedException {
+            TransactionId tid = new TransactionId();
+            SeqScan scan = end < 0 ? new SeqScan(tid, tableid)
+                    : new SeqScan(tid, tableid, Database.getCatalog().getTableName(tableid), start, end);
+            // the fields are read before the next tuple
+            scan.setTupleReuse(true);
+            Random random = new Random(31L * tableid + start);
+            try {
+                scan.open();
+                while (scan.hasNext()) {
+                    Tuple t = scan.next();
+                    tuples++;
+                    if (file instanceof BTreeFile)
+                        leaves.add(t.getRecordId().getPageId());
+                    boolean sample = rate >= 1.0 || random.nextDouble() < rate;
+                    if (sample && sampled == capacity)
+                        grow();
+                    for (int i = 0; i < min.length; i++) {
+                        if (ints[i] == null) {
+                            String s = ((StringField) t.getField(i)).getValue();
+                            distinct[i].add(s);
+                            if (sample)
+                                strings.get(i).add(s);
+                            continue;
+                        }
+                        int v = ((IntField) t.getField(i)).getValue();
+                        distinct[i].add(v);
+                        if (v < min[i])
+                            min[i] = v;
+                        if (v > max[i])
+                            max[i] = v;
+                        if (sample)
+                            ints[i][sampled] = v;
+                    }
+                    if (sample)
+                        sampled++;
+                }
+                scan.close();
+                if (file instanceof BTreeFile)
+                    height = ((BTreeFile) file).height(tid);
+            } finally {
+                // release the read locks, so the table can be updated afterwards
+                Database.getBufferPool().transactionComplete(tid);
+            }
+            return null;
+        }
+
+        private void grow() {
+            capacity *= 2;
+            for (int i = 0; i < ints.length; i++) {
+                if (ints[i] != null)
+                    ints[i] = Arrays.copyOf(ints[i], capacity);
+            }
+        }
+    }
+
+    /**
+     * @param tableid    the table to read
+     * @param sampleRate the fraction of the rows of a large table to build
+     *                   histograms from
+     */
+    StatsCollector(int tableid, double sampleRate) {
+        this.tableid = tableid;
+        this.file = Database.getCatalog().getDatabaseFile(tableid);
+        this.td = file.getTupleDesc();
+        if (file instanceof HeapFile) {
+            int pages = ((HeapFile) file).numPages();
+            for (int start = 0; start < pages; start += RANGE_PAGES)
+                ranges.add(new Range(start, Math.min(start + RANGE_PAGES, pages)));
+            // at most this many tuples fit in the file
+            long capacity = (long) pages * BufferPool.getPageSize() * 8 / (td.getSize() * 8 + 1);
+            this.rate = Math.min(1.0, Math.max(sampleRate, (double) MIN_SAMPLE_ROWS / Math.max(1, capacity)));
+        } else {
+            // B+ tree files are read in key order by a single task
+            ranges.add(new Range(0, -1));
+            this.rate = 1.0;
+        }
+    }
+
+    /**
+     * Reads the tables of some collectors.
+     *
+     * @param collectors the collectors of the tables
+     * @param threads    the number of threads reading ranges at once
+     * @return collectors
+     */
+    static List<StatsCollector> run(List<StatsCollector> collectors, int threads) {
+        List<Range> tasks = new ArrayList<>();
+        for (StatsCollector c : collectors)
+            tasks.addAll(c.ranges);
+        try {
+            if (threads <= 1 || tasks.size() <= 1) {
+                for (Range r : tasks)
+                    r.call();
+                return collectors;
+            }
+            ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, tasks.size()));
+            try {
+                for (Future<Void> f : pool.invokeAll(tasks))
+                    f.get();
+            } finally {
+                pool.shutdownNow();
+            }
+        } catch (ExecutionException e) {
+            throw new RuntimeException(e.getCause());
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+        return collectors;
+    }
+
+    /**
+     * @return the number of tuples in the table
+     */
+    int tuples() {
+        int n = 0;
+        for (Range r : ranges)
+            n += r.tuples;
+        return n;
+    }
+
+    /**
+     * @return the least value of an INT field, or 0 if the table is empty
+     */
+    int min(int field) {
+        int min = Integer.MAX_VALUE;
+        for (Range r : ranges)
+            min = Math.min(min, r.min[field]);
+        return tuples() == 0 ? 0 : min;
+    }
+
+    /**
+     * @return the greatest value of an INT field, or 0 if the table is empty
+     */
+    int max(int field) {
+        int max = Integer.MIN_VALUE;
+        for (Range r : ranges)
+            max = Math.max(max, r.max[field]);
+        return tuples() == 0 ? 0 : max;
+    }
+
+    /**
+     * @return the sampled values of an INT field
+     */
+    int[] intSample(int field) {
+        int n = 0;
+        for (Range r : ranges)
+            n += r.sampled;
+        int[] values = new int[n];
+        n = 0;
+        for (Range r : ranges) {
+            System.arraycopy(r.ints[field], 0, values, n, r.sampled);
+            n += r.sampled;
+        }
+        return values;
+    }
+
+    /**
+     * @return the sampled values of a STRING or VARCHAR field
+     */
+    List<String> stringSample(int field) {
+        List<String> values = new ArrayList<>();
+        for (Range r : ranges)
+            values.addAll(r.strings.get(field));
+        return values;
+    }
+
+    /**
+     * @return a sketch of the distinct values of a field over all the rows
+     */
+    HyperLogLog distinct(int field) {
+        HyperLogLog sketch = new HyperLogLog();
+        for (Range r : ranges)
+            sketch.merge(r.distinct[field]);
+        return sketch;
+    }
+
+    /**
+     * @return the number of leaf pages of a B+ tree file that hold tuples
+     */
+    int leafPages() {
+        int n = 0;
+        for (Range r : ranges)
+            n += r.leaves.size();
+        return n;
+    }
+
+    /**
+     * @return the height of a B+ tree file, or 0 for other files
+     */
+    int indexHeight() {
+        int height = 0;
+        for (Range r : ranges)
+            height = Math.max(height, r.height);
+        return height;
+    }
+}
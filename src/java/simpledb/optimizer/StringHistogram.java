@@ -2,11 +2,16 @@ package simpledb.optimizer;
 
 import simpledb.execution.Predicate;
 
+import java.io.Serializable;
+
 /**
  * A class to represent a fixed-width histogram over a single String-based
  * field.
  */
-public class StringHistogram {
+public class StringHistogram implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
     final IntHistogram hist;
 
     /**
@@ -67,6 +72,11 @@ public class StringHistogram {
         hist.addValue(val);
     }
 
+    /** Remove a value added before from the histogram */
+    public void removeValue(String s) {
+        hist.removeValue(stringToInt(s));
+    }
+
     /**
      * Estimate the selectivity (as a double between 0 and 1) of the specified
      * predicate over the specified string
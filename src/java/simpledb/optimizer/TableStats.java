@@ -4,15 +4,20 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
 import simpledb.storage.*;
 import simpledb.transaction.Transaction;
 import simpledb.transaction.TransactionAbortedException;
-import simpledb.transaction.TransactionId;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
@@ -22,18 +27,36 @@ import java.util.concurrent.ConcurrentMap;
  *
  * This class is not needed in implementing lab1 and lab2.
  */
-public class TableStats {
+public class TableStats implements Serializable {
+
+    private static final long serialVersionUID = 3L;
 
     private static final ConcurrentMap<String, TableStats> statsMap = new ConcurrentHashMap<>();
 
     static final int IOCOSTPERPAGE = 1000;
 
+    /**
+     * Changes whenever the statistics of a table are replaced. Tuples
+     * counted by {@link #tupleInserted} and {@link #tupleDeleted} do not
+     * change it until the table is re-analyzed.
+     */
+    private static final AtomicLong version = new AtomicLong();
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        version.incrementAndGet();
+    }
+
+    /**
+     * @return the version of the statistics, which a plan optimized with
+     *         them can compare to find out whether they were replaced since
+     */
+    public static long getVersion() {
+        return version.get();
     }
     
     public static void setStatsMap(Map<String,TableStats> s)
@@ -42,6 +65,7 @@ public class TableStats {
             java.lang.reflect.Field statsMapF = TableStats.class.getDeclaredField("statsMap");
             statsMapF.setAccessible(true);
             statsMapF.set(null, s);
+            version.incrementAndGet();
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
@@ -52,16 +76,229 @@ public class TableStats {
         return statsMap;
     }
 
+    /**
+     * Computes the statistics of every table in the catalog. The pages of
+     * all the tables are read at once, by {@link #setParallelism} threads.
+     */
     public static void computeStatistics() {
         Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
 
         System.out.println("Computing table stats.");
+        List<StatsCollector> collectors = new ArrayList<>();
+        while (tableIt.hasNext())
+            collectors.add(new StatsCollector(tableIt.next(), sampleRate));
+        for (StatsCollector c : StatsCollector.run(collectors, parallelism)) {
+            TableStats s = new TableStats(c, IOCOSTPERPAGE);
+            setTableStats(Database.getCatalog().getTableName(c.tableid), s);
+        }
+        System.out.println("Done.");
+    }
+
+    /**
+     * Loads the statistics saved in a file by {@link #saveStatistics}, and
+     * computes those of the tables missing from it, or whose file changed
+     * since. The statistics are then saved back to the file, as they are
+     * after each background re-analyze.
+     *
+     * @param file the statistics file; it need not exist
+     */
+    public static void loadStatistics(File file) {
+        Map<String, TableStats> saved = new HashMap<>();
+        if (file.exists()) {
+            try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                @SuppressWarnings("unchecked")
+                Map<String, TableStats> read = (Map<String, TableStats>) in.readObject();
+                saved = read;
+            } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                System.out.println("Ignoring unreadable statistics file " + file + ": " + e);
+            }
+        }
+        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        List<StatsCollector> collectors = new ArrayList<>();
+        int loaded = 0;
         while (tableIt.hasNext()) {
             int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+            String name = Database.getCatalog().getTableName(tableid);
+            TableStats s = saved.get(name);
+            if (s != null && s.attach(tableid)) {
+                setTableStats(name, s);
+                loaded++;
+            } else {
+                collectors.add(new StatsCollector(tableid, sampleRate));
+            }
         }
-        System.out.println("Done.");
+        System.out.println("Loaded stats of " + loaded + " tables, computing " + collectors.size() + ".");
+        for (StatsCollector c : StatsCollector.run(collectors, parallelism))
+            setTableStats(Database.getCatalog().getTableName(c.tableid), new TableStats(c, IOCOSTPERPAGE));
+        statsFile = file;
+        try {
+            saveStatistics(file);
+        } catch (IOException e) {
+            System.out.println("Cannot save statistics to " + file + ": " + e);
+        }
+    }
+
+    /**
+     * Saves the statistics to the file of the last {@link #loadStatistics},
+     * if any.
+     */
+    public static void saveStatistics() throws IOException {
+        File file = statsFile;
+        if (file != null)
+            saveStatistics(file);
+    }
+
+    /**
+     * Saves the statistics of every table, along with the length and time of
+     * last change of its file, which tell {@link #loadStatistics} whether
+     * they still hold.
+     *
+     * @param file the statistics file
+     */
+    public static synchronized void saveStatistics(File file) throws IOException {
+        HashMap<String, TableStats> copy = new HashMap<>();
+        for (Map.Entry<String, TableStats> e : statsMap.entrySet()) {
+            TableStats s = e.getValue();
+            synchronized (s) {
+                // tables dropped from the catalog are not saved
+                File dataFile = s.dataFile();
+                if (dataFile == null)
+                    continue;
+                s.fileLength = dataFile.length();
+                s.fileModified = dataFile.lastModified();
+            }
+            copy.put(e.getKey(), s);
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeObject(copy);
+        }
+        // a reader never sees a half written file
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /**
+     * Counts a tuple inserted into a table in the table's statistics. Called
+     * by {@link BufferPool#insertTuple}.
+     */
+    public static void tupleInserted(int tableid, Tuple t) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        if (s != null)
+            s.update(t, 1);
+    }
+
+    /**
+     * Counts a tuple deleted from a table in the table's statistics. Called
+     * by {@link BufferPool#deleteTuple}.
+     */
+    public static void tupleDeleted(int tableid, Tuple t) {
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        if (s != null)
+            s.update(t, -1);
+    }
+
+    /**
+     * Records the rows a scan of a whole table returned, as the selectivity
+     * of the predicate pushed into it. {@link #estimateSelectivity} returns
+     * the recorded value for the same predicate on later queries. Called by
+     * {@link simpledb.execution.SeqScan} as it finishes a pass over a table;
+     * scans with more than one predicate are not recorded, as the rows do not
+     * tell the selectivity of each.
+     *
+     * @param tableid the table scanned
+     * @param filters the predicates pushed into the scan
+     * @param rows    the rows the scan returned
+     */
+    public static void observeScan(int tableid, List<Predicate> filters, long rows) {
+        if (filters.size() != 1)
+            return;
+        TableStats s = statsMap.get(Database.getCatalog().getTableName(tableid));
+        if (s == null || s.tableid != tableid || s.tupleNum == 0)
+            return;
+        Predicate p = filters.get(0);
+        s.observed.put(observedKey(p.getField(), p.getOp(), p.getOperand()),
+                Math.min(1.0, (double) rows / s.tupleNum));
+    }
+
+    private static String observedKey(int field, Predicate.Op op, Field constant) {
+        return field + " " + op + " " + constant;
+    }
+
+    /**
+     * Starts a background re-analyze of the tables that changed by more than
+     * {@link #setReanalyzeThreshold} of their rows. Called by
+     * {@link BufferPool#transactionComplete} once a transaction commits.
+     */
+    public static void reanalyzeStale() {
+        if (!staleTables)
+            return;
+        staleTables = false;
+        for (TableStats s : statsMap.values()) {
+            synchronized (s) {
+                if (!s.stale || s.analyzing)
+                    continue;
+                s.analyzing = true;
+            }
+            analyzer().execute(s::reanalyze);
+        }
+    }
+
+    /**
+     * Sets the fraction of the rows of a table that must be inserted or
+     * deleted before its statistics are computed again.
+     *
+     * @param fraction the threshold, or 0 to never re-analyze
+     */
+    public static void setReanalyzeThreshold(double fraction) {
+        reanalyzeThreshold = fraction;
+    }
+
+    private static synchronized ExecutorService analyzer() {
+        if (analyzer == null) {
+            analyzer = Executors.newSingleThreadExecutor(r -> {
+                Thread t = new Thread(r, "stats-analyzer");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return analyzer;
+    }
+
+    /** Tables smaller than this are re-analyzed as if they had this many rows. */
+    static final int MIN_REANALYZE_ROWS = 1000;
+    private static volatile double reanalyzeThreshold = 0.2;
+    private static volatile boolean staleTables;
+    private static ExecutorService analyzer;
+    /** The file of the last {@link #loadStatistics}, saved after each re-analyze. */
+    private static volatile File statsFile;
+
+    private static volatile double sampleRate = 0.1;
+    private static volatile int parallelism = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Sets the fraction of the rows of a table that histograms are built
+     * from. Small tables are sampled at a higher rate, so that a sample
+     * holds about {@link StatsCollector#MIN_SAMPLE_ROWS} rows, or the whole
+     * table. The number of tuples and the range of the histograms always
+     * come from every row.
+     *
+     * @param rate the sample rate, in (0, 1]
+     */
+    public static void setSampleRate(double rate) {
+        if (!(rate > 0 && rate <= 1))
+            throw new IllegalArgumentException("sample rate must be in (0, 1]");
+        sampleRate = rate;
+    }
+
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
+    /**
+     * Sets the number of threads that read tables for their statistics.
+     */
+    public static void setParallelism(int threads) {
+        parallelism = Math.max(1, threads);
     }
 
     /**
@@ -74,8 +311,27 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
     private int pageNum, tupleNum, ioCost;
-    private HashMap<Integer, IntHistogram> map;
+    /** The histogram, common values and distinct count of each field. */
+    private HashMap<Integer, ColumnStats> columns;
     private String tableName;
+    /** The per-page min/max of a heap file, or null for other files. */
+    private transient ZoneMap zoneMap;
+    /** The height and number of leaf pages of a B+ tree file, or 0 for other files. */
+    private int indexHeight, leafPages;
+    /** The fraction of the rows counted by the histograms. */
+    private double sampled;
+    /** The rows when the table was analyzed, and the rows inserted or deleted since. */
+    private int analyzedTuples, modified;
+    /** The length and time of last change of the table's file when the stats were saved. */
+    private long fileLength, fileModified;
+    private transient int tableid;
+    private transient Random random;
+    private transient boolean stale, analyzing;
+    /**
+     * The selectivities observed by scans, by predicate. Dropped as soon as
+     * the table changes.
+     */
+    private final ConcurrentHashMap<String, Double> observed = new ConcurrentHashMap<>();
     /**
      * Create a new TableStats object, that keeps track of statistics on each
      * column of a table
@@ -89,6 +345,14 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage)  {
+        this(StatsCollector.run(Collections.singletonList(new StatsCollector(tableid, sampleRate)),
+                parallelism).get(0), ioCostPerPage);
+    }
+
+    /**
+     * Create a TableStats object from a table already read by a collector.
+     */
+    private TableStats(StatsCollector collector, int ioCostPerPage) {
         // For this function, you'll have to get the
         // DbFile for the table in question,
         // then scan through its tuples and calculate
@@ -98,42 +362,120 @@ public class TableStats {
         // in a single scan of the table.
         // some code goes here
         this.ioCost = ioCostPerPage;
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
-        this.tableName = Database.getCatalog().getTableName(tableid);
-        TupleDesc tupleDesc = dbFile.getTupleDesc();
-        this.pageNum = ((HeapFile)dbFile).numPages();
-        this.map = new HashMap<>();
-        this.tupleNum = 0;
-        HashMap<Integer, ArrayList<Integer>> hmap = new HashMap<>();
+        this.tableid = collector.tableid;
+        DbFile dbFile = collector.file;
+        this.tableName = Database.getCatalog().getTableName(collector.tableid);
+        TupleDesc tupleDesc = collector.td;
+        if (dbFile instanceof BTreeFile) {
+            this.pageNum = ((BTreeFile) dbFile).numPages();
+            this.indexHeight = collector.indexHeight();
+            this.leafPages = Math.max(1, collector.leafPages());
+        } else {
+            this.pageNum = ((HeapFile) dbFile).numPages();
+            this.zoneMap = ((HeapFile) dbFile).getZoneMap();
+        }
+        this.tupleNum = collector.tuples();
+        this.analyzedTuples = this.tupleNum;
+        this.sampled = collector.rate;
+        this.columns = new HashMap<>();
+        // the histograms count the sample, the distinct counts every row
         for (int i = 0; i < tupleDesc.numFields(); i++) {
-            hmap.put(i, new ArrayList<>());
+            if (tupleDesc.getFieldType(i) != Type.INT_TYPE)
+                this.columns.put(i, ColumnStats.ofStrings(collector.stringSample(i),
+                        collector.distinct(i), NUM_HIST_BINS));
+            else
+                this.columns.put(i, ColumnStats.ofInts(collector.intSample(i), collector.min(i),
+                        collector.max(i), collector.distinct(i), NUM_HIST_BINS));
         }
-        SeqScan iterator = new SeqScan(new TransactionId(), dbFile.getId());
-//        DbFileIterator iterator = dbFile.iterator(null);
+    }
+
+    /**
+     * Binds statistics read from a file to the table they describe.
+     *
+     * @return false if the table's file changed since the stats were saved
+     */
+    private boolean attach(int tableid) {
+        this.tableid = tableid;
+        File dataFile = dataFile();
+        if (dataFile == null || dataFile.length() != fileLength || dataFile.lastModified() != fileModified)
+            return false;
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableid);
+        if (dbFile instanceof HeapFile)
+            this.zoneMap = ((HeapFile) dbFile).getZoneMap();
+        return true;
+    }
+
+    /**
+     * @return the file storing the table, or null if it is unknown
+     */
+    private File dataFile() {
+        DbFile dbFile;
         try {
-            iterator.open();
-            while (iterator.hasNext()) {
-                Tuple tupleTemp = iterator.next();
-                for (int i = 0; i < tupleDesc.numFields(); i++) {
-                    if (tupleDesc.getFieldType(i) != Type.INT_TYPE) continue;
-                    hmap.get(i).add(((IntField)tupleTemp.getField(i)).getValue());
-                }
-                this.tupleNum++;
-            }
-            iterator.close();
-        } catch (Exception e) {
-            throw new RuntimeException(e);
+            dbFile = Database.getCatalog().getDatabaseFile(tableid);
+        } catch (NoSuchElementException e) {
+            return null;
         }
-        for (int i = 0; i < tupleDesc.numFields(); i++) {
-            if (tupleDesc.getFieldType(i) != Type.INT_TYPE) continue;
-            int min = Collections.min(hmap.get(i)), max =  Collections.max(hmap.get(i));
-            IntHistogram intHistogram = new IntHistogram(NUM_HIST_BINS, min, max);
-            for (Integer integer : hmap.get(i)) {
-                intHistogram.addValue(integer);
+        if (dbFile instanceof HeapFile)
+            return ((HeapFile) dbFile).getFile();
+        if (dbFile instanceof BTreeFile)
+            return ((BTreeFile) dbFile).getFile();
+        return null;
+    }
+
+    /**
+     * Counts an inserted or deleted tuple. The histograms count the tuple with
+     * the probability a row had to be in their sample. Changes of aborted
+     * transactions are counted too, until the next re-analyze.
+     *
+     * @param t     the tuple
+     * @param delta 1 for an insert, -1 for a delete
+     */
+    private synchronized void update(Tuple t, int delta) {
+        this.tupleNum = Math.max(0, this.tupleNum + delta);
+        if (this.random == null)
+            this.random = new Random(this.tableid);
+        // a tuple of a projection cannot be counted in every column
+        if (t.getTupleDesc().numFields() == this.columns.size()) {
+            boolean sample = this.sampled >= 1.0 || this.random.nextDouble() < this.sampled;
+            for (Map.Entry<Integer, ColumnStats> e : this.columns.entrySet()) {
+                if (delta > 0)
+                    e.getValue().addValue(t.getField(e.getKey()), sample);
+                else
+                    e.getValue().removeValue(t.getField(e.getKey()), sample);
             }
-            this.map.put(i, intHistogram);
         }
+        if (!this.observed.isEmpty())
+            this.observed.clear();
+        this.modified++;
+        if (reanalyzeThreshold > 0 && !this.stale
+                && this.modified > reanalyzeThreshold * Math.max(this.analyzedTuples, MIN_REANALYZE_ROWS)) {
+            this.stale = true;
+            staleTables = true;
+        }
+    }
 
+    /**
+     * Computes the statistics of the table again, and replaces these with
+     * them. A re-analyze that cannot read the table, for instance because a
+     * transaction holds locks on it too long, is retried once as many rows
+     * have changed again.
+     */
+    private void reanalyze() {
+        try {
+            TableStats fresh = new TableStats(this.tableid, this.ioCost);
+            if (statsMap.replace(this.tableName, this, fresh))
+                version.incrementAndGet();
+            saveStatistics();
+        } catch (RuntimeException | IOException e) {
+            synchronized (this) {
+                this.stale = false;
+                this.modified = 0;
+            }
+        } finally {
+            synchronized (this) {
+                this.analyzing = false;
+            }
+        }
     }
 
     /**
@@ -159,6 +501,64 @@ public class TableStats {
         return this.pageNum * this.ioCost;
     }
 
+    /**
+     * Estimates the cost of a range scan of a B+ tree file: reading one page
+     * of each internal level of the tree to find the first leaf page of the
+     * range, and then the leaf pages of the range.
+     *
+     * @param selectivityFactor
+     *            The fraction of the tuples whose key is in the range
+     * @return The estimated cost of the range scan, or the cost of a
+     *         sequential scan if the table is not a B+ tree file
+     */
+    public double estimateIndexScanCost(double selectivityFactor) {
+        if (this.indexHeight == 0)
+            return estimateScanCost();
+        int leaves = (int) Math.ceil(Math.min(1.0, selectivityFactor) * this.leafPages);
+        return (this.indexHeight - 1 + Math.max(1, leaves)) * (double) this.ioCost;
+    }
+
+    /**
+     * @return the number of levels of the table's B+ tree, or 0 if the table
+     *         is not a B+ tree file
+     */
+    public int indexHeight() {
+        return this.indexHeight;
+    }
+
+    /**
+     * @return the number of leaf pages of the table's B+ tree, or 0 if the
+     *         table is not a B+ tree file
+     */
+    public int leafPages() {
+        return this.indexHeight == 0 ? 0 : this.leafPages;
+    }
+
+    /**
+     * @return the number of pages of the table
+     */
+    public int numPages() {
+        return this.pageNum;
+    }
+
+    /**
+     * @return the cost of reading one page of the table from disk
+     */
+    public int ioCostPerPage() {
+        return this.ioCost;
+    }
+
+    /**
+     * @return the fraction of the pages of the table currently held in the
+     *         buffer pool
+     */
+    public double residentFraction() {
+        if (this.pageNum == 0)
+            return 1.0;
+        int resident = Database.getBufferPool().residentPages(this.tableid);
+        return Math.min(1.0, (double) resident / this.pageNum);
+    }
+
     /**
      * This method returns the number of tuples in the relation, given that a
      * predicate with selectivity selectivityFactor is applied.
@@ -190,7 +590,16 @@ public class TableStats {
      * */
     public double avgSelectivity(int field, Predicate.Op op) {
         // some code goes here
-        return this.map.get(field).avgSelectivity();
+        return this.columns.get(field).avgSelectivity(this.tupleNum);
+    }
+
+    /**
+     * @param field
+     *        the index of the field
+     * @return the estimated number of distinct values of the field
+     */
+    public int numDistinct(int field) {
+        return this.columns.get(field).numDistinct(this.tupleNum);
     }
 
     /**
@@ -210,7 +619,32 @@ public class TableStats {
      */
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         // some code goes here
-        return this.map.get(field).estimateSelectivity(op, ((IntField)constant).getValue());
+        Double seen = this.observed.get(observedKey(field, op, constant));
+        if (seen != null)
+            return seen;
+        double selectivity = this.columns.get(field).estimateSelectivity(op, constant, this.tupleNum);
+        // on clustered data the zone map bounds the histogram estimate
+        return Math.min(selectivity, estimatePageFraction(field, op, constant));
+    }
+
+    /**
+     * Estimate the fraction of the pages of the table that may hold tuples
+     * satisfying <tt>field op constant</tt>, from the per-page min/max of the
+     * zone map. Scans with the predicate pushed down read only those pages.
+     *
+     * @param field
+     *            The field over which the predicate ranges
+     * @param op
+     *            The logical operation in the predicate
+     * @param constant
+     *            The value against which the field is compared
+     * @return The fraction of pages that may match, or 1.0 if the zone map
+     *         cannot tell
+     */
+    public double estimatePageFraction(int field, Predicate.Op op, Field constant) {
+        if (zoneMap == null || !(constant instanceof IntField))
+            return 1.0;
+        return zoneMap.pageFraction(field, op, ((IntField) constant).getValue());
     }
 
     /**
@@ -3,6 +3,7 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
+import simpledb.optimizer.TableStats;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -43,6 +44,12 @@ public class BufferPool {
 
     public LockManage lockManage = new LockManage();
 
+    /**
+     * Pages requested and pages read from disk by the calling thread, for
+     * EXPLAIN ANALYZE to charge to the operator that asked for them.
+     */
+    private static final ThreadLocal<long[]> pageCounts = ThreadLocal.withInitial(() -> new long[2]);
+
     /**
      * Creates a BufferPool that caches up to numPages pages.
      *
@@ -57,6 +64,38 @@ public class BufferPool {
     public int getMaxPageNum() {
         return this.maxPage;
     }
+
+    /**
+     * Counts the pages of a table held in the buffer pool, for the optimizer
+     * to cost reading them as memory reads.
+     *
+     * @param tableId the id of the table
+     * @return the number of pages of the table in the buffer pool
+     */
+    public int residentPages(int tableId) {
+        int n = 0;
+        for (PageId pid : map.keySet()) {
+            if (pid.getTableId() == tableId)
+                n++;
+        }
+        return n;
+    }
+    /**
+     * @return the number of pages the calling thread has requested with
+     *         {@link #getPage}, whether or not they were cached
+     */
+    public static long pagesRequested() {
+        return pageCounts.get()[0];
+    }
+
+    /**
+     * @return the number of pages the calling thread has requested that were
+     *         not in the buffer pool and had to be read from disk
+     */
+    public static long pagesRead() {
+        return pageCounts.get()[1];
+    }
+
     public static int getPageSize() {
       return pageSize;
     }
@@ -98,8 +137,11 @@ public class BufferPool {
                 throw  new TransactionAbortedException();
             }
         }
+        long[] counts = pageCounts.get();
+        counts[0]++;
         Page temp = map.get(pid);
         if (temp == null) {
+            counts[1]++;
             synchronized (lruManage) {
                 if (map.size() >= this.maxPage) {
                     try {
@@ -203,6 +245,8 @@ public class BufferPool {
         for (PageId pid : hset) {
             this.lockManage.releaseLock(pid, tid);
         }
+        if (commit)
+            TableStats.reanalyzeStale();
     }
 
     /**
@@ -240,6 +284,7 @@ public class BufferPool {
             page.markDirty(true, tid);
             map.put(page.getId(), page);
         }
+        TableStats.tupleInserted(tableId, t);
     }
 
     /**
@@ -275,6 +320,7 @@ public class BufferPool {
             page.markDirty(true, tid);
             map.put(page.getId(), page);
         }
+        TableStats.tupleDeleted(pageId.getTableId(), t);
     }
 
     /**
@@ -0,0 +1,156 @@
+package simpledb.storage;
+
+import java.io.*;
+import java.util.Arrays;
+
+/**
+ * CompressedFile is a HeapFile whose pages are stored compressed on disk (see
+ * {@link PageCompressor}), for cold tables of small integers and repeated
+ * strings. Pages are decompressed when the BufferPool reads them, so the
+ * pages in memory are ordinary HeapPages.
+ * <p>
+ * Compressed pages have different sizes, so the file keeps a page index next
+ * to the data file, in a file named after it with a ".pidx" suffix. For each
+ * page, the index holds the offset of the page in the data file, its
+ * compressed length and the space reserved for it, so reading a page takes a
+ * single seek. A page written back is stored in place if it still fits in its
+ * space and appended to the data file otherwise.
+ * <p>
+ * Row-layout heap files are turned into CompressedFiles with
+ * {@link #compress}. A table is stored as a CompressedFile when its line in
+ * the catalog schema ends with <code>compressed</code>.
+ */
+public class CompressedFile extends HeapFile {
+
+    /** Suffix of the page index of a data file. */
+    public static final String INDEX_SUFFIX = ".pidx";
+    /** Bytes of an index entry: offset, length and reserved space. */
+    private static final int ENTRY_SIZE = 16;
+
+    private final File indexFile;
+    /** The index, loaded on first use. */
+    private long[] offsets;
+    private int[] lengths;
+    private int[] reserved;
+    private int numPages;
+
+    /**
+     * Constructs a compressed heap file backed by the specified file and
+     * its page index.
+     *
+     * @param f  the file that stores the compressed pages
+     * @param td the schema of the tuples
+     */
+    public CompressedFile(File f, TupleDesc td) {
+        super(f, td);
+        this.indexFile = new File(f.getPath() + INDEX_SUFFIX);
+    }
+
+    private synchronized void loadIndex() {
+        if (offsets != null)
+            return;
+        numPages = (int) (indexFile.length() / ENTRY_SIZE);
+        offsets = new long[numPages];
+        lengths = new int[numPages];
+        reserved = new int[numPages];
+        if (numPages == 0)
+            return;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            for (int i = 0; i < numPages; i++) {
+                offsets[i] = in.readLong();
+                lengths[i] = in.readInt();
+                reserved[i] = in.readInt();
+            }
+        } catch (IOException e) {
+            throw new RuntimeException("cannot read page index " + indexFile, e);
+        }
+    }
+
+    @Override
+    public synchronized int numPages() {
+        loadIndex();
+        return numPages;
+    }
+
+    @Override
+    protected byte[] readPageData(int pgNo) throws IOException {
+        long offset;
+        int length;
+        synchronized (this) {
+            loadIndex();
+            offset = offsets[pgNo];
+            length = lengths[pgNo];
+        }
+        byte[] compressed = new byte[length];
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "r")) {
+            raf.seek(offset);
+            raf.readFully(compressed);
+        }
+        return PageCompressor.decompress(compressed, getTupleDesc(), BufferPool.getPageSize());
+    }
+
+    @Override
+    protected synchronized void writePageData(int pgNo, byte[] data) throws IOException {
+        loadIndex();
+        byte[] compressed = PageCompressor.compress(data, getTupleDesc());
+        if (pgNo >= numPages) {
+            if (pgNo > numPages)
+                throw new IOException("page " + pgNo + " is past the end of " + getFile());
+            numPages++;
+            offsets = Arrays.copyOf(offsets, numPages);
+            lengths = Arrays.copyOf(lengths, numPages);
+            reserved = Arrays.copyOf(reserved, numPages);
+        }
+        if (compressed.length > reserved[pgNo]) {
+            // the page grew out of its space, so it moves to the end
+            offsets[pgNo] = getFile().length();
+            reserved[pgNo] = compressed.length;
+        }
+        lengths[pgNo] = compressed.length;
+        try (RandomAccessFile raf = new RandomAccessFile(getFile(), "rw")) {
+            raf.seek(offsets[pgNo]);
+            raf.write(compressed);
+        }
+        // the index entry is written after the page it points to
+        try (RandomAccessFile raf = new RandomAccessFile(indexFile, "rw")) {
+            raf.seek((long) pgNo * ENTRY_SIZE);
+            raf.writeLong(offsets[pgNo]);
+            raf.writeInt(lengths[pgNo]);
+            raf.writeInt(reserved[pgNo]);
+        }
+    }
+
+    /**
+     * Compresses a row-layout heap file, as written by {@link HeapFileEncoder},
+     * into the data file and page index of a CompressedFile.
+     *
+     * @param rowFile the heap file to compress
+     * @param outFile the data file of the CompressedFile; its index is
+     *                written next to it
+     * @param td      the schema of the table
+     */
+    public static void compress(File rowFile, File outFile, TupleDesc td) throws IOException {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j).isVariableLength())
+                throw new IllegalArgumentException("compressed pages cannot store variable-length fields");
+        }
+        int pageSize = BufferPool.getPageSize();
+        byte[] page = new byte[pageSize];
+        long offset = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(rowFile)));
+             OutputStream data = new BufferedOutputStream(new FileOutputStream(outFile));
+             DataOutputStream index = new DataOutputStream(new BufferedOutputStream(
+                     new FileOutputStream(new File(outFile.getPath() + INDEX_SUFFIX))))) {
+            for (long read = 0; read < rowFile.length(); read += pageSize) {
+                Arrays.fill(page, (byte) 0);
+                in.readFully(page, 0, (int) Math.min(pageSize, rowFile.length() - read));
+                byte[] compressed = PageCompressor.compress(page, td);
+                data.write(compressed);
+                index.writeLong(offset);
+                index.writeInt(compressed.length);
+                index.writeInt(compressed.length);
+                offset += compressed.length;
+            }
+        }
+    }
+}
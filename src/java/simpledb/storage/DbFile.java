@@ -3,6 +3,7 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -79,6 +80,23 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples of this DbFile that satisfy every
+     * predicate in filters, made of the given columns only. Files override
+     * this to check the predicates before building Tuples; by default the
+     * tuples of {@link #iterator(TransactionId)} are filtered and projected.
+     *
+     * @param filters the predicates the tuples must satisfy; their field
+     *                numbers refer to {@link #getTupleDesc()}
+     * @param columns the fields of getTupleDesc() to return, in order, or
+     *                null to return every field. Returned tuples keep their
+     *                RecordId.
+     * @return an iterator over the matching tuples
+     */
+    default DbFileIterator iterator(TransactionId tid, List<Predicate> filters, int[] columns) {
+        return new FilteredDbFileIterator(iterator(tid), filters, columns, getTupleDesc());
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -36,6 +36,29 @@ public interface DbFileIterator{
      */
     void rewind() throws DbException, TransactionAbortedException;
 
+    /**
+     * Appends the next tuples to a batch until the batch is full or the
+     * iterator is exhausted. Files that can decode their pages straight into
+     * a batch override this to avoid creating Tuples.
+     *
+     * @param batch the batch to append to; it must not have a selection vector
+     */
+    default void fillBatch(TupleBatch batch)
+        throws DbException, TransactionAbortedException {
+        while (!batch.isFull() && hasNext())
+            batch.addTuple(next());
+    }
+
+    /**
+     * Tells the iterator whether its caller keeps the tuples it returns, as
+     * {@link simpledb.execution.OpIterator#setTupleReuse} does for operators.
+     * The default ignores it.
+     *
+     * @param reuse true if returned tuples may be reused
+     */
+    default void setTupleReuse(boolean reuse) {
+    }
+
     /**
      * Closes the iterator.
      */
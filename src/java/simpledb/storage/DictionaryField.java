@@ -0,0 +1,70 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+/**
+ * Instance of StringField for a value read from a table whose STRING_TYPE
+ * field is encoded by a {@link StringDictionary}. The dictionary creates one
+ * DictionaryField per code, so two fields of the same dictionary are equal
+ * only if they are the same object. Fields of different dictionaries, and
+ * plain StringFields, are compared by value.
+ */
+public class DictionaryField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	private final StringDictionary dictionary;
+	private final int code;
+
+	DictionaryField(StringDictionary dictionary, int code, String value) {
+		super(value, Type.STRING_LEN);
+		this.dictionary = dictionary;
+		this.code = code;
+	}
+
+	/**
+	 * @return the dictionary that encodes this field
+	 */
+	public StringDictionary getDictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * @return the code of the value in its dictionary
+	 */
+	public int getCode() {
+		return code;
+	}
+
+	public boolean equals(Object field) {
+		if (field == this)
+			return true;
+		if (field instanceof DictionaryField && ((DictionaryField) field).dictionary == dictionary)
+			return false;
+		return super.equals(field);
+	}
+
+	public int hashCode() {
+		// the String caches its hash, and is shared by every tuple
+		return super.hashCode();
+	}
+
+	public boolean compare(Predicate.Op op, Field val) {
+		if (val instanceof DictionaryField && ((DictionaryField) val).dictionary == dictionary) {
+			if (op == Predicate.Op.EQUALS)
+				return val == this;
+			if (op == Predicate.Op.NOT_EQUALS)
+				return val != this;
+		}
+		return super.compare(op, val);
+	}
+
+	/**
+	 * Fields are sent between operators as plain StringFields, since codes
+	 * mean nothing without their dictionary.
+	 */
+	private Object writeReplace() {
+		return new StringField(getValue(), Type.STRING_LEN);
+	}
+}
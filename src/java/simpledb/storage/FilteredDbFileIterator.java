@@ -0,0 +1,76 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateEvaluator;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.List;
+
+/**
+ * Applies pushed-down predicates and a column projection to the tuples of
+ * another DbFileIterator. This is the fallback for files that cannot check
+ * predicates against their page bytes (see
+ * {@link DbFile#iterator(simpledb.transaction.TransactionId, List, int[])}).
+ */
+public class FilteredDbFileIterator extends AbstractDbFileIterator {
+
+    private final DbFileIterator child;
+    /** The filters compiled into one evaluator; null if there are none. */
+    private final PredicateEvaluator filter;
+    private final int[] columns;
+    private final TupleDesc projected;
+
+    /**
+     * @param child   the iterator over every tuple of the file
+     * @param filters the predicates a tuple must satisfy, over fields of td
+     * @param columns the fields of td to return, or null for all of them
+     * @param td      the TupleDesc of the tuples of child
+     */
+    public FilteredDbFileIterator(DbFileIterator child, List<Predicate> filters,
+                                  int[] columns, TupleDesc td) {
+        this.child = child;
+        this.filter = PredicateEvaluator.compile(filters);
+        this.columns = columns;
+        this.projected = columns == null ? td : td.project(columns);
+    }
+
+    /**
+     * Copies some fields of a tuple, keeping its RecordId.
+     *
+     * @param t         the tuple to project
+     * @param columns   the fields of t to keep
+     * @param projected the TupleDesc of the kept fields
+     */
+    public static Tuple project(Tuple t, int[] columns, TupleDesc projected) {
+        Tuple out = new Tuple(projected);
+        out.setRecordId(t.getRecordId());
+        for (int i = 0; i < columns.length; i++)
+            out.setField(i, t.getField(columns[i]));
+        return out;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (filter == null || filter.test(t))
+                return columns == null ? t : project(t, columns, projected);
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child.rewind();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+}
@@ -4,6 +4,9 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateEvaluator;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -29,6 +32,10 @@ public class HeapFile implements DbFile {
 
     private File file;
     private TupleDesc tupleDesc;
+    /** The min/max of each page, loaded by the first insert or filtered scan. */
+    private ZoneMap zoneMap;
+    /** The dictionary of each STRING_TYPE field; null for other fields. */
+    private final StringDictionary[] dictionaries;
 
 
     /**
@@ -43,6 +50,11 @@ public class HeapFile implements DbFile {
         // some code goes here
         this.file = f;
         this.tupleDesc = td;
+        this.dictionaries = new StringDictionary[td.numFields()];
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.STRING_TYPE)
+                dictionaries[j] = new StringDictionary();
+        }
     }
 
     /**
@@ -81,6 +93,17 @@ public class HeapFile implements DbFile {
         return this.tupleDesc;
     }
 
+    /**
+     * Returns the dictionary that encodes the values of a STRING_TYPE field
+     * read from this file's pages.
+     *
+     * @param field the index of the field
+     * @return the dictionary, or null if the field is not a STRING_TYPE field
+     */
+    public StringDictionary getDictionary(int field) {
+        return dictionaries[field];
+    }
+
     public Page readPage(int pid) {
         return readPage(new HeapPageId(this.getId(), pid));
     }
@@ -91,39 +114,80 @@ public class HeapFile implements DbFile {
         if (pid.getPageNumber() >= this.numPages()) {
             return null;
         }
-//        System.out.println(pid.getPageNumber());
-        long offset = (long) (pid.getPageNumber()) * BufferPool.getPageSize();
-        byte[] data = new byte[BufferPool.getPageSize()];
         try {
-//            System.out.println("offset " + offset+ ", page " + pid.getPageNumber());
-            RandomAccessFile randomAccessFile =  new RandomAccessFile(file, "rw");
-            randomAccessFile.seek(offset);
-            for (int i = 0; i < BufferPool.getPageSize(); i++) {
-                data[i] = (byte) randomAccessFile.read();
-            }
-            randomAccessFile.close();
-            return new HeapPage((HeapPageId) pid, data);
+            return createPage((HeapPageId) pid, readPageData(pid.getPageNumber()));
         } catch (Exception e) {
             System.out.println("error: \n" + e.getMessage()+  "   \nheapfile read page error on " + pid.getPageNumber());
             return null;
         }
     }
 
+    /**
+     * Reads the bytes of a page from disk. Subclasses that store pages in
+     * another format override this to return the bytes of the page as
+     * {@link #createPage} expects them.
+     */
+    protected byte[] readPageData(int pgNo) throws IOException {
+        long offset = (long) pgNo * BufferPool.getPageSize();
+        byte[] data = new byte[BufferPool.getPageSize()];
+//            System.out.println("offset " + offset+ ", page " + pgNo);
+        RandomAccessFile randomAccessFile =  new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(offset);
+        for (int i = 0; i < BufferPool.getPageSize(); i++) {
+            data[i] = (byte) randomAccessFile.read();
+        }
+        randomAccessFile.close();
+        return data;
+    }
+
+    /**
+     * Creates a page of this file from its bytes. Subclasses that store their
+     * pages in another layout override this.
+     */
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
         // not necessary for lab1
         PageId pid = page.getId();
-        long offset = (long) (pid.getPageNumber()) * BufferPool.getPageSize();
         try {
-//            System.out.println("offset " + offset+ ", page " + pid.getPageNumber());
-            RandomAccessFile randomAccessFile =  new RandomAccessFile(file, "rw");
-            randomAccessFile.seek(offset);
-            randomAccessFile.write(page.getPageData());
-            randomAccessFile.close();
+            writePageData(pid.getPageNumber(), page.getPageData());
         } catch (Exception e) {
             System.out.println("write page  page error on " + pid.getPageNumber());
         }
+        synchronized (this) {
+            if (zoneMap != null) {
+                zoneMap.update((HeapPage) page);
+            } else {
+                ZoneMap.invalidate(file);
+            }
+        }
+    }
+
+    /**
+     * Writes the bytes of a page to disk; the counterpart of
+     * {@link #readPageData}.
+     */
+    protected void writePageData(int pgNo, byte[] data) throws IOException {
+        long offset = (long) pgNo * BufferPool.getPageSize();
+//            System.out.println("offset " + offset+ ", page " + pgNo);
+        RandomAccessFile randomAccessFile =  new RandomAccessFile(file, "rw");
+        randomAccessFile.seek(offset);
+        randomAccessFile.write(data);
+        randomAccessFile.close();
+    }
+
+    /**
+     * Returns the zone map of this file, loading or building it on first use.
+     */
+    public synchronized ZoneMap getZoneMap() {
+        if (zoneMap == null) {
+            zoneMap = ZoneMap.load(this);
+        }
+        return zoneMap;
     }
 
     /**
@@ -143,11 +207,11 @@ public class HeapFile implements DbFile {
             HeapPageId pageId = new HeapPageId(getId(), pgNo);
             try {
                 page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-                if (page.getNumEmptySlots() == 0) {
+                if (!page.hasRoomFor(t)) {
                     continue;
                 }
             } catch (DbException e) {
-                page = new HeapPage(pageId, HeapPage.createEmptyPageData());
+                page = createPage(pageId, HeapPage.createEmptyPageData());
                 writePage(page);
                 page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
             }
@@ -155,6 +219,7 @@ public class HeapFile implements DbFile {
         }
         page.insertTuple(t);
         page.markDirty(true, tid);
+        getZoneMap().widen(page.getId().getPageNumber(), t);
         return Collections.singletonList(page);
         // not necessary for lab1
     }
@@ -180,31 +245,128 @@ public class HeapFile implements DbFile {
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
-        return new HeapFileIterator(tid);
+        return new HeapFileIterator(tid, 0, -1, Collections.emptyList(), null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy every
+     * predicate. Predicates are checked against the page bytes, and only the
+     * requested columns of matching tuples are decoded.
+     *
+     * @see DbFile#iterator(TransactionId, List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> filters, int[] columns) {
+        return new HeapFileIterator(tid, 0, -1, filters, columns);
+    }
+
+    /**
+     * Returns an iterator over the tuples on a range of pages of this file.
+     * Several such iterators over disjoint ranges can be used to scan the file
+     * from different threads.
+     *
+     * @param tid       the transaction the scan runs as a part of
+     * @param startPage the first page to scan
+     * @param endPage   the page after the last page to scan; pages past the
+     *                  end of the file are ignored
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage) {
+        return iterator(tid, startPage, endPage, Collections.emptyList(), null);
+    }
+
+    /**
+     * Returns an iterator over the tuples on a range of pages of this file
+     * that satisfy every predicate, made of the given columns.
+     *
+     * @see #iterator(TransactionId, int, int)
+     * @see DbFile#iterator(TransactionId, List, int[])
+     */
+    public DbFileIterator iterator(TransactionId tid, int startPage, int endPage,
+                                   List<Predicate> filters, int[] columns) {
+        if (startPage < 0 || endPage < startPage)
+            throw new IllegalArgumentException("invalid page range " + startPage + "-" + endPage);
+        return new HeapFileIterator(tid, startPage, endPage, filters, columns);
     }
 
 
     private class HeapFileIterator implements DbFileIterator {
 
+        private final int startPage;
+        private final int endPage;
         private int pageNo;
         private TransactionId transactionId;
-        private Iterator<Tuple> iterator;
+        /** The iterator of the current page, or null past the end of the range. */
+        private HeapPage.TupleIterator iterator;
         private boolean status;
-        public HeapFileIterator(TransactionId tid) {
+        private final List<Predicate> filters;
+        /** The filters compiled into one evaluator; null if there are none. */
+        private final PredicateEvaluator filter;
+        private final int[] columns;
+        private final TupleDesc projected;
+        /** The tuple returned for every slot, if the caller allows it. */
+        private Tuple reused;
+
+        /**
+         * @param endPage the page after the last page to scan, or -1 to scan
+         *                to the end of the file
+         * @param filters the predicates tuples must satisfy
+         * @param columns the fields to return, or null for all of them
+         */
+        public HeapFileIterator(TransactionId tid, int startPage, int endPage,
+                                List<Predicate> filters, int[] columns) {
             this.transactionId = tid;
+            this.startPage = startPage;
+            this.endPage = endPage;
             this.status = false;
+            this.filters = filters;
+            this.filter = PredicateEvaluator.compile(filters);
+            this.columns = columns;
+            this.projected = columns == null ? tupleDesc : tupleDesc.project(columns);
         }
 
+        private int endPage() {
+            return endPage < 0 ? numPages() : Math.min(endPage, numPages());
+        }
 
-        @Override
-        public void open() throws DbException, TransactionAbortedException {
-            HeapPage temp = (HeapPage) Database.getBufferPool().getPage(transactionId, new HeapPageId(getId(), 0), Permissions.READ_ONLY);
-
+        /**
+         * Returns the iterator of the first page from pgNo on that may hold
+         * matching tuples according to the zone map, and moves pageNo there.
+         */
+        private HeapPage.TupleIterator pageIterator(int pgNo) throws DbException, TransactionAbortedException {
+            if (endPage >= 0 && pgNo >= endPage()) {
+                return null;
+            }
+            if (!filters.isEmpty()) {
+                ZoneMap zm = getZoneMap();
+                int end = endPage();
+                while (pgNo < end && !zm.mayMatch(pgNo, filters)) {
+                    pgNo++;
+                }
+                if (pgNo >= end) {
+                    this.pageNo = end;
+                    return null;
+                }
+            }
+            this.pageNo = pgNo;
+            HeapPage temp = (HeapPage) Database.getBufferPool().getPage(transactionId, new HeapPageId(getId(), pgNo), Permissions.READ_ONLY);
             if (temp == null) {
                 throw new DbException("file open error on HeapFile.open()");
             }
-            this.pageNo = 0;
-            this.iterator = temp.iterator();
+            HeapPage.TupleIterator it = temp.tupleIterator(filter, columns, projected);
+            it.reused = this.reused;
+            return it;
+        }
+
+        @Override
+        public void setTupleReuse(boolean reuse) {
+            this.reused = reuse ? new Tuple(projected) : null;
+            if (this.iterator != null)
+                this.iterator.reused = this.reused;
+        }
+
+        @Override
+        public void open() throws DbException, TransactionAbortedException {
+            this.pageNo = startPage;
+            this.iterator = pageIterator(startPage);
             this.status = true;
         }
 
@@ -213,16 +375,19 @@ public class HeapFile implements DbFile {
             if (!this.status) {
                 return false;
             }
-            if (this.iterator.hasNext()) {
-                return true;
-            }
-            if (this.pageNo + 1 >= numPages()) {
+            if (this.iterator == null) {
                 return false;
             }
-            HeapPage temp = (HeapPage) Database.getBufferPool().getPage(transactionId, new HeapPageId(getId(), this.pageNo + 1), Permissions.READ_ONLY);
-            this.iterator = temp.iterator();
-            this.pageNo++;
-            return this.hasNext();
+            while (!this.iterator.hasNext()) {
+                if (this.pageNo + 1 >= endPage()) {
+                    return false;
+                }
+                this.iterator = pageIterator(this.pageNo + 1);
+                if (this.iterator == null) {
+                    return false;
+                }
+            }
+            return true;
         }
 
         @Override
@@ -236,14 +401,24 @@ public class HeapFile implements DbFile {
             throw new NoSuchElementException("No such element in heapfile tuple");
         }
 
+        /**
+         * Reads the slots of each page straight into the batch, so no Tuple
+         * is created for the rows.
+         */
+        @Override
+        public void fillBatch(TupleBatch batch) throws DbException, TransactionAbortedException {
+            while (!batch.isFull() && this.hasNext()) {
+                this.iterator.fill(batch);
+            }
+        }
+
         @Override
         public void rewind() throws DbException, TransactionAbortedException {
             if (!this.status) {
                 throw new DbException("not open");
             }
-            this.pageNo = 0;
-            HeapPage temp = (HeapPage) Database.getBufferPool().getPage(transactionId, new HeapPageId(getId(), 0), Permissions.READ_ONLY);
-            this.iterator = temp.iterator();
+            this.pageNo = startPage;
+            this.iterator = pageIterator(startPage);
         }
 
         @Override
@@ -253,4 +428,3 @@ public class HeapFile implements DbFile {
         }
     }
 }
-
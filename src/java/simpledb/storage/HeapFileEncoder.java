@@ -4,8 +4,10 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.regex.Pattern;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -33,6 +35,18 @@ public class HeapFileEncoder {
    * @throws IOException if the temporary/output file can't be opened
    */
   public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields) throws IOException {
+      convert(tuples, outFile, npagebytes, numFields, false);
+  }
+
+  /** Convert the specified tuple list (with only integer fields) into a binary
+   * page file in either page layout.
+   *
+   * @see #convert(List, File, int, int)
+   * @param pax true to write {@link PaxPage}s (for a {@link PaxFile}) instead
+   *        of row-layout HeapPages
+   */
+  public static void convert(List<List<Integer>> tuples, File outFile, int npagebytes, int numFields,
+                             boolean pax) throws IOException {
       File tempInput = File.createTempFile("tempTable", ".txt");
       tempInput.deleteOnExit();
       BufferedWriter bw = new BufferedWriter(new FileWriter(tempInput));
@@ -52,7 +66,9 @@ public class HeapFileEncoder {
           bw.write('\n');
       }
       bw.close();
-      convert(tempInput, outFile, npagebytes, numFields);
+      Type[] ts = new Type[numFields];
+      Arrays.fill(ts, Type.INT_TYPE);
+      convert(tempInput, outFile, npagebytes, numFields, ts, ',', pax);
   }
 
       public static void convert(File inFile, File outFile, int npagebytes,
@@ -92,6 +108,28 @@ public class HeapFileEncoder {
   public static void convert(File inFile, File outFile, int npagebytes,
                  int numFields, Type[] typeAr, char fieldSeparator)
       throws IOException {
+      convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, false);
+  }
+
+   /** Convert the specified input text file into a binary page file in
+    * either page layout.
+    *
+    * @see #convert(File, File, int, int, Type[], char)
+    * @param pax true to write {@link PaxPage}s (for a {@link PaxFile}) instead
+    *   of row-layout HeapPages
+    */
+  public static void convert(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator, boolean pax)
+      throws IOException {
+
+      for (int i = 0; i < numFields; i++) {
+          if (typeAr[i].isVariableLength()) {
+              if (pax)
+                  throw new IllegalArgumentException("PAX pages cannot store variable-length fields");
+              convertSlotted(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator);
+              return;
+          }
+      }
 
       int nrecbytes = 0;
       for (int i = 0; i < numFields ; i++) {
@@ -207,9 +245,18 @@ public class HeapFileEncoder {
             
             // write header and body to file
             headerStream.flush();
-            headerBAOS.writeTo(os);
             pageStream.flush();
-            pageBAOS.writeTo(os);
+            if (pax) {
+                // the page is built row by row, then its body is
+                // rearranged into column minipages
+                ByteArrayOutputStream rowPage = new ByteArrayOutputStream(npagebytes);
+                headerBAOS.writeTo(rowPage);
+                pageBAOS.writeTo(rowPage);
+                os.write(PaxPage.fromRowLayout(rowPage.toByteArray(), new TupleDesc(typeAr)));
+            } else {
+                headerBAOS.writeTo(os);
+                pageBAOS.writeTo(os);
+            }
             
             // reset header and body for next page
             headerBAOS = new ByteArrayOutputStream(nheaderbytes);
@@ -224,4 +271,63 @@ public class HeapFileEncoder {
     br.close();
     os.close();
   }
+
+   /** Convert the specified input text file into a binary page file of
+    * {@link SlottedPage}s, for a table with variable-length fields (see
+    * {@link SlottedFile}). Each page holds as many records as fit in it.
+    *
+    * @see #convert(File, File, int, int, Type[], char)
+    */
+  private static void convertSlotted(File inFile, File outFile, int npagebytes,
+                 int numFields, Type[] typeAr, char fieldSeparator)
+      throws IOException {
+      TupleDesc td = new TupleDesc(typeAr);
+      int nslots = SlottedPage.numSlots(td, npagebytes);
+      List<byte[]> records = new ArrayList<>();
+      int recordBytes = 0;
+      int npages = 0;
+
+      try (BufferedReader br = new BufferedReader(new FileReader(inFile));
+           FileOutputStream os = new FileOutputStream(outFile)) {
+          String line;
+          while ((line = br.readLine()) != null) {
+              if (line.isEmpty())
+                  continue;
+              String[] values = line.split(Pattern.quote(String.valueOf(fieldSeparator)), -1);
+              if (values.length != numFields) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              Tuple t = new Tuple(td);
+              try {
+                  for (int i = 0; i < numFields; i++) {
+                      String s = values[i].trim();
+                      if (typeAr[i] == Type.INT_TYPE)
+                          t.setField(i, new IntField(Integer.parseInt(s)));
+                      else if (typeAr[i] == Type.VARCHAR_TYPE)
+                          t.setField(i, new VarcharField(s, Type.STRING_LEN));
+                      else
+                          t.setField(i, new StringField(s, Type.STRING_LEN));
+                  }
+              } catch (NumberFormatException e) {
+                  System.out.println ("BAD LINE : " + line);
+                  continue;
+              }
+              byte[] record = SlottedPage.encode(t, td);
+              int entryBytes = (records.size() + 1) * SlottedPage.ENTRY_SIZE;
+              if (records.size() == nslots
+                      || SlottedPage.HEADER_SIZE + entryBytes + recordBytes + record.length > npagebytes) {
+                  os.write(SlottedPage.pack(records.toArray(new byte[0][]), npagebytes));
+                  npages++;
+                  records.clear();
+                  recordBytes = 0;
+              }
+              records.add(record);
+              recordBytes += record.length;
+          }
+          // an empty table still gets an empty page
+          if (!records.isEmpty() || npages == 0)
+              os.write(SlottedPage.pack(records.toArray(new byte[0][]), npagebytes));
+      }
+  }
 }
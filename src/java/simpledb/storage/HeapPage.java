@@ -4,6 +4,8 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.common.Type;
+import simpledb.execution.PredicateEvaluator;
 import simpledb.transaction.TransactionId;
 
 import java.util.*;
@@ -12,6 +14,12 @@ import java.io.*;
 /**
  * Each instance of HeapPage stores data for one page of HeapFiles and 
  * implements the Page interface that is used by BufferPool.
+ * <p>
+ * A page keeps the bytes it was read from and decodes a slot only when it is
+ * accessed: {@link #getInt} and {@link #getField} read single fields at their
+ * offsets, and the page iterator creates a Tuple for each slot it returns.
+ * Tuples inserted after the page was read are kept as objects until the page
+ * is serialized again.
  *
  * HeapPage的每个实例为HeapFiles的一个页面存储数据，并实现了BufferPool所使用的Page接口。
  *
@@ -24,8 +32,17 @@ public class HeapPage implements Page {
     final HeapPageId pid;
     final TupleDesc td;
     final byte[] header;
+    /** Tuples inserted since the page was read; null for slots still in data. */
     final Tuple[] tuples;
     final int numSlots;
+    /** The bytes this page was read from. Never modified. */
+    final byte[] data;
+    /** Offset of each field within a slot. */
+    private final int[] fieldOffsets;
+    /** The dictionaries of the table's STRING_TYPE fields, if it has them. */
+    private final StringDictionary[] dictionaries;
+    /** Whether tuples were inserted or deleted since the page was read. */
+    private boolean modified;
     private boolean dirty;
     private TransactionId transactionId;
     byte[] oldData;
@@ -51,30 +68,34 @@ public class HeapPage implements Page {
         this.pid = id;
         this.td = Database.getCatalog().getTupleDesc(id.getTableId());
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        // a short page is padded with zeros, as if it had been read in full
+        this.data = data.length < BufferPool.getPageSize()
+                ? Arrays.copyOf(data, BufferPool.getPageSize()) : data;
 
-        // allocate and read the header slots of this page
+        // the header is copied since insertions and deletions update it
         header = new byte[getHeaderSize()];
-        for (int i=0; i<header.length; i++)
-            header[i] = dis.readByte();
-        
-        tuples = new Tuple[numSlots];
-        try{
-            // allocate and read the actual records of this page
-            for (int i=0; i<tuples.length; i++)
-                tuples[i] = readNextTuple(dis,i);
-        }catch(NoSuchElementException e){
-            e.printStackTrace();
+        System.arraycopy(data, 0, header, 0, header.length);
+
+        fieldOffsets = new int[td.numFields()];
+        for (int j = 1; j < fieldOffsets.length; j++)
+            fieldOffsets[j] = fieldOffsets[j - 1] + td.getFieldType(j - 1).getLen();
+
+        dictionaries = new StringDictionary[td.numFields()];
+        DbFile file = Database.getCatalog().getDatabaseFile(id.getTableId());
+        if (file instanceof HeapFile) {
+            for (int j = 0; j < dictionaries.length; j++)
+                dictionaries[j] = ((HeapFile) file).getDictionary(j);
         }
-        dis.close();
 
+        tuples = new Tuple[numSlots];
         setBeforeImage();
     }
 
-    /** Retrieve the number of tuples on this page.
+    /** Retrieve the number of tuples on this page. Called by the constructor,
+        so overrides may only use td.
         @return the number of tuples on this page
     */
-    private int getNumTuples() {        
+    int getNumTuples() {        
         // some code goes here
         return (int) Math.floor((BufferPool.getPageSize() * 8.0) / (this.td.getSize() * 8.0 + 1.0));
     }
@@ -98,7 +119,7 @@ public class HeapPage implements Page {
             {
                 oldDataRef = oldData;
             }
-            return new HeapPage(pid,oldDataRef);
+            return copyOf(oldDataRef);
         } catch (IOException e) {
             e.printStackTrace();
             //should never happen -- we parsed it OK before!
@@ -107,10 +128,19 @@ public class HeapPage implements Page {
         return null;
     }
     
+    /**
+     * Creates a page of the same layout as this one from serialized data.
+     */
+    HeapPage copyOf(byte[] data) throws IOException {
+        return new HeapPage(pid, data);
+    }
+
     public void setBeforeImage() {
+        // getPageData returns either the never-modified bytes the page was
+        // read from or a freshly serialized copy, so it need not be cloned
         synchronized(oldDataLock)
         {
-        oldData = getPageData().clone();
+        oldData = getPageData();
         }
     }
 
@@ -123,39 +153,139 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the position of a field of a slot in the page bytes. Tuples are
+     * stored one after the other, each taking td.getSize() bytes.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i=0; i<td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
-            return null;
-        }
+    int fieldOffset(int slot, int field) {
+        return header.length + slot * td.getSize() + fieldOffsets[field];
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
-            }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+    static int readInt(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 24) | ((b[off + 1] & 0xFF) << 16)
+                | ((b[off + 2] & 0xFF) << 8) | (b[off + 3] & 0xFF);
+    }
+
+    static int readUnsignedShort(byte[] b, int off) {
+        return ((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF);
+    }
+
+    /**
+     * Reads an INT field of a used slot without creating a Tuple.
+     *
+     * @param slot  the slot number
+     * @param field the index of an INT_TYPE field
+     */
+    public int getInt(int slot, int field) {
+        Tuple t = tuples[slot];
+        if (t != null)
+            return ((IntField) t.getField(field)).getValue();
+        return readInt(data, fieldOffset(slot, field));
+    }
+
+    /**
+     * Reads one field of a used slot without creating a Tuple.
+     *
+     * @param slot  the slot number
+     * @param field the index of the field
+     */
+    public Field getField(int slot, int field) {
+        Tuple t = tuples[slot];
+        if (t != null)
+            return t.getField(field);
+        int off = fieldOffset(slot, field);
+        if (td.getFieldType(field) == Type.INT_TYPE)
+            return IntField.valueOf(readInt(data, off));
+        if (td.getFieldType(field) == Type.VARCHAR_TYPE) {
+            // same decoding as Type.VARCHAR_TYPE.parse
+            int len = readUnsignedShort(data, off);
+            return new VarcharField(new String(data, off + 2, len), Type.STRING_LEN);
         }
+        int code = getCode(slot, field);
+        if (code >= 0)
+            return dictionaries[field].field(code);
+        // same decoding as Type.STRING_TYPE.parse
+        int len = readInt(data, off);
+        return new StringField(new String(data, off + 4, len), Type.STRING_LEN);
+    }
+
+    /**
+     * Returns the dictionary code of a STRING_TYPE field of a slot that is
+     * still in the page bytes.
+     *
+     * @return the code, or -1 if the field is not encoded
+     */
+    private int getCode(int slot, int field) {
+        StringDictionary dictionary = dictionaries[field];
+        if (dictionary == null)
+            return -1;
+        int off = fieldOffset(slot, field);
+        return dictionary.encode(data, off + 4, readInt(data, off));
+    }
 
+    /**
+     * Returns the tuple in a used slot, decoding it if it was read from disk.
+     * Tuples decoded from the page bytes are not cached by the page.
+     */
+    Tuple getTuple(int slot) {
+        Tuple t = tuples[slot];
+        if (t != null)
+            return t;
+        t = new Tuple(td);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int j = 0; j < td.numFields(); j++)
+            t.setField(j, getField(slot, j));
         return t;
     }
 
+    /**
+     * Returns some fields of the tuple in a used slot, decoding only those.
+     *
+     * @param columns   the fields to decode
+     * @param projected the TupleDesc of those fields
+     */
+    Tuple getTuple(int slot, int[] columns, TupleDesc projected) {
+        Tuple t = new Tuple(projected);
+        t.setRecordId(new RecordId(pid, slot));
+        for (int i = 0; i < columns.length; i++)
+            t.setField(i, getField(slot, columns[i]));
+        return t;
+    }
+
+    /**
+     * Decodes some fields of a used slot into an existing tuple, for scans
+     * whose caller does not keep the tuples. A tuple inserted since the page
+     * was read is returned as it is instead.
+     *
+     * @param columns the fields to decode, or null for all of them
+     * @param into    a tuple with the schema of those fields
+     */
+    Tuple readTuple(int slot, int[] columns, Tuple into) {
+        if (columns == null && tuples[slot] != null)
+            return tuples[slot];
+        into.setRecordId(new RecordId(pid, slot));
+        int n = columns == null ? td.numFields() : columns.length;
+        for (int i = 0; i < n; i++)
+            into.setField(i, getField(slot, columns == null ? i : columns[i]));
+        return into;
+    }
+
+    /**
+     * Appends some fields of a used slot to a batch as a new row.
+     *
+     * @param columns the fields to append, or null for all of them
+     */
+    void readSlotInto(int slot, TupleBatch batch, int[] columns) {
+        int row = batch.appendEmptyRow();
+        int n = columns == null ? td.numFields() : columns.length;
+        for (int i = 0; i < n; i++) {
+            int j = columns == null ? i : columns[i];
+            if (td.getFieldType(j) == Type.INT_TYPE)
+                batch.setInt(i, row, getInt(slot, j));
+            else
+                batch.setField(i, row, getField(slot, j));
+        }
+    }
+
     /**
      * Generates a byte array representing the contents of this page.
      * Used to serialize this page to disk.
@@ -168,64 +298,45 @@ public class HeapPage implements Page {
      * @return A byte array correspond to the bytes of this page.
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i=0; i<tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j=0; j<td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
+        // an unmodified page is exactly the bytes it was read from; callers
+        // must not write to the returned array
+        if (!modified)
+            return data;
+        return serialize();
+    }
 
-                }
+    /**
+     * Serializes the header and the tuples of this page after it was
+     * modified.
+     */
+    byte[] serialize() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, out, 0, header.length);
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(td.getSize());
+        DataOutputStream dos = new DataOutputStream(baos);
+        for (int i=0; i<numSlots; i++) {
+            // empty slots and the padding stay zero
+            if (!isSlotUsed(i))
                 continue;
-            }
-
-            // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                int off = fieldOffset(i, j);
+                int len = td.getFieldType(j).getLen();
+                if (tuples[i] == null) {
+                    System.arraycopy(data, off, out, off, len);
+                    continue;
+                }
+                baos.reset();
                 try {
-                    f.serialize(dos);
-                
+                    tuples[i].getField(j).serialize(dos);
+                    dos.flush();
                 } catch (IOException e) {
+                    // this really shouldn't happen
                     e.printStackTrace();
                 }
+                System.arraycopy(baos.toByteArray(), 0, out, off, len);
             }
         }
-
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
-        return baos.toByteArray();
+        return out;
     }
 
     /**
@@ -265,6 +376,7 @@ public class HeapPage implements Page {
         }
         this.tuples[id] = null;
         this.header[id / 8] &= (1 << 8) - 1 - (1 << (id % 8));
+        this.modified = true;
     }
 
     /**
@@ -285,6 +397,7 @@ public class HeapPage implements Page {
                 t.setRecordId(new RecordId(this.pid, i));
                 this.tuples[i] = t;
                 this.header[i/8] |= 1<< (i%8);
+                this.modified = true;
                 return;
             }
         }
@@ -312,17 +425,23 @@ public class HeapPage implements Page {
         return null;      
     }
 
+    /**
+     * Returns true if the tuple can be inserted into this page.
+     */
+    public boolean hasRoomFor(Tuple t) {
+        return getNumEmptySlots() > 0;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
     public int getNumEmptySlots() {
         // some code goes here
+        // the last header byte may have bits past the last slot
         int cnt = 0;
-        for (int i = 0; i < this.header.length; i++) {
-            for (int j = 0; j < 8; j++) {
-                if (((this.header[i] >> j) & 1) == 0) {
-                    cnt++;
-                }
+        for (int i = 0; i < this.numSlots; i++) {
+            if (!this.isSlotUsed(i)) {
+                cnt++;
             }
         }
         return cnt;
@@ -346,6 +465,7 @@ public class HeapPage implements Page {
         // some code goes here
         // not necessary for lab1
         this.header[i / 8] &= (1 << 8) - 1 -(value? 0: (1 << (i % 8)));
+        this.modified = true;
     }
 
     /**
@@ -354,14 +474,44 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
-        return new TupleIterator(this);
+        return tupleIterator();
+    }
+
+    TupleIterator tupleIterator() {
+        return new TupleIterator(this, null, null, td);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this page that satisfy a
+     * filter, made of the given columns. The filter is checked before the
+     * tuple is decoded.
+     *
+     * @param filter    a compiled conjunction of predicates over fields of
+     *                  this page's TupleDesc, or null to return every tuple
+     * @param columns   the fields to return, or null for all of them
+     * @param projected the TupleDesc of the returned tuples
+     */
+    TupleIterator tupleIterator(PredicateEvaluator filter, int[] columns, TupleDesc projected) {
+        return new TupleIterator(this, filter, columns, projected);
     }
     static class TupleIterator implements Iterator<Tuple> {
         private final HeapPage page;
+        private final PredicateEvaluator filter;
+        private final int[] columns;
+        private final TupleDesc projected;
         private int slotCur = -1;
+        /** The tuple next() decodes slots into, or null to create tuples. */
+        Tuple reused;
 
-        public TupleIterator(HeapPage page) {
+        public TupleIterator(HeapPage page, PredicateEvaluator filter, int[] columns, TupleDesc projected) {
             this.page = page;
+            this.filter = filter;
+            this.columns = columns;
+            this.projected = projected;
+        }
+
+        private boolean matches(int slot) {
+            return page.isSlotUsed(slot) && (filter == null || filter.test(page, slot));
         }
 
         @Override
@@ -371,7 +521,7 @@ public class HeapPage implements Page {
                 if (nextId >= page.numSlots) {
                     return false;
                 }
-                if (page.isSlotUsed(nextId)) {
+                if (matches(nextId)) {
                     return true;
                 }
                 slotCur++;
@@ -380,18 +530,24 @@ public class HeapPage implements Page {
 
         @Override
         public Tuple next() {
-            for (; ; ) {
-                int nextId = slotCur + 1;
-                if (nextId >= page.numSlots) {
-                    throw new NoSuchElementException();
-                }
-                if (page.isSlotUsed(nextId)) {
-                    slotCur = nextId;
-                    return page.tuples[slotCur];
-                }
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            slotCur++;
+            if (reused != null)
+                return page.readTuple(slotCur, columns, reused);
+            return columns == null ? page.getTuple(slotCur) : page.getTuple(slotCur, columns, projected);
+        }
+
+        /**
+         * Appends the remaining tuples of the page to a batch until the batch
+         * is full, without creating Tuples.
+         */
+        void fill(TupleBatch batch) {
+            while (!batch.isFull() && hasNext()) {
                 slotCur++;
+                page.readSlotInto(slotCur, batch, columns);
             }
         }
     }
 }
-
@@ -14,6 +14,15 @@ public class IntField implements Field {
 
     private final int value;
 
+    /** The IntFields of the values from CACHE_LOW to CACHE_HIGH - 1. */
+    private static final int CACHE_LOW = -128, CACHE_HIGH = 1024;
+    private static final IntField[] CACHE = new IntField[CACHE_HIGH - CACHE_LOW];
+
+    static {
+        for (int i = 0; i < CACHE.length; i++)
+            CACHE[i] = new IntField(CACHE_LOW + i);
+    }
+
     public int getValue() {
         return value;
     }
@@ -27,6 +36,19 @@ public class IntField implements Field {
         value = i;
     }
 
+    /**
+     * Returns an IntField of the given value. Small values, such as keys of
+     * small tables, counts and flags, share a cached instance; IntFields are
+     * immutable, so callers cannot tell the difference.
+     *
+     * @param i the value of the field
+     */
+    public static IntField valueOf(int i) {
+        if (i >= CACHE_LOW && i < CACHE_HIGH)
+            return CACHE[i - CACHE_LOW];
+        return new IntField(i);
+    }
+
     public String toString() {
         return Integer.toString(value);
     }
@@ -55,20 +77,28 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(value, op, iVal.value);
+    }
+
+    /**
+     * Compares two int values with the semantics of {@link #compare(Predicate.Op, Field)},
+     * for callers that read ints without creating IntFields.
+     */
+    public static boolean compare(int value, Predicate.Op op, int operand) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != operand;
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > operand;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= operand;
             case LESS_THAN:
-                return value < iVal.value;
+                return value < operand;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= operand;
         }
 
         return false;
@@ -0,0 +1,79 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * JoinedTuple is the concatenation of two tuples, as produced by a join. It
+ * refers to the two tuples instead of copying their fields, and a join whose
+ * consumer does not keep its tuples can point the same JoinedTuple at the
+ * next pair with {@link #set}. Setting a field copies the fields into the
+ * tuple first, so the two tuples are never modified.
+ */
+public class JoinedTuple extends Tuple {
+
+    private static final long serialVersionUID = 1L;
+
+    private Tuple left, right;
+    private int leftFields;
+    /** The fields, once copied by setField; null while they are shared. */
+    private Field[] copied;
+
+    /**
+     * @param td    the schema of the joined tuple: the fields of left, then
+     *              the fields of right
+     * @param left  the tuple whose fields come first
+     * @param right the tuple whose fields come next
+     */
+    public JoinedTuple(TupleDesc td, Tuple left, Tuple right) {
+        super(td, null);
+        set(left, right);
+    }
+
+    /**
+     * Points this tuple at another pair of tuples.
+     */
+    public void set(Tuple left, Tuple right) {
+        this.left = left;
+        this.right = right;
+        this.leftFields = left.getTupleDesc().numFields();
+        this.copied = null;
+    }
+
+    @Override
+    public Field getField(int i) {
+        if (copied != null)
+            return copied[i];
+        return i < leftFields ? left.getField(i) : right.getField(i - leftFields);
+    }
+
+    @Override
+    public void setField(int i, Field f) {
+        if (copied == null) {
+            Field[] all = new Field[getTupleDesc().numFields()];
+            for (int j = 0; j < all.length; j++)
+                all[j] = getField(j);
+            copied = all;
+        }
+        copied[i] = f;
+    }
+
+    @Override
+    public Iterator<Field> fields() {
+        Field[] all = new Field[getTupleDesc().numFields()];
+        for (int j = 0; j < all.length; j++)
+            all[j] = getField(j);
+        return Arrays.asList(all).iterator();
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int j = 0; j < getTupleDesc().numFields(); j++) {
+            if (j > 0)
+                sb.append('\t');
+            sb.append(getField(j));
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,240 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compresses the bytes of a row-layout {@link HeapPage} column by column, for
+ * {@link CompressedFile}s. A compressed page holds
+ * <ul>
+ * <li>the header bitmap of the page, unchanged,
+ * <li>for each INT field, frame-of-reference encoding: the minimum value of
+ * the field on the page (4 bytes), a bit width (1 byte), and for each used
+ * slot its value minus the minimum, bit-packed in that width,
+ * <li>for each STRING field, dictionary encoding: the number of
+ * distinct strings on the page (2 bytes), each string as a 2-byte length and
+ * its bytes, a bit width (1 byte), and for each used slot the number of its
+ * string in the dictionary, bit-packed in that width.
+ * </ul>
+ * Empty slots are not stored and decompress to zeros.
+ */
+public class PageCompressor {
+
+    private PageCompressor() {
+    }
+
+    /** Writes values of a given bit width one after the other. */
+    private static class BitWriter {
+        private final DataOutputStream out;
+        private long buffer;
+        private int bits;
+
+        BitWriter(DataOutputStream out) {
+            this.out = out;
+        }
+
+        void write(long value, int width) throws IOException {
+            for (int i = width - 1; i >= 0; i--) {
+                buffer = (buffer << 1) | ((value >>> i) & 1);
+                if (++bits == 8) {
+                    out.writeByte((int) buffer);
+                    buffer = 0;
+                    bits = 0;
+                }
+            }
+        }
+
+        void flush() throws IOException {
+            if (bits > 0)
+                out.writeByte((int) (buffer << (8 - bits)));
+            buffer = 0;
+            bits = 0;
+        }
+    }
+
+    /** Reads values written by a BitWriter. */
+    private static class BitReader {
+        private final DataInputStream in;
+        private int buffer;
+        private int bits;
+
+        BitReader(DataInputStream in) {
+            this.in = in;
+        }
+
+        long read(int width) throws IOException {
+            long value = 0;
+            for (int i = 0; i < width; i++) {
+                if (bits == 0) {
+                    buffer = in.readUnsignedByte();
+                    bits = 8;
+                }
+                value = (value << 1) | ((buffer >>> --bits) & 1);
+            }
+            return value;
+        }
+
+        void skipToByte() {
+            bits = 0;
+        }
+    }
+
+    /** @return the number of bits needed to store values from 0 to max */
+    private static int width(long max) {
+        return 64 - Long.numberOfLeadingZeros(max);
+    }
+
+    private static int numSlots(TupleDesc td, int pageSize) {
+        return (pageSize * 8) / (td.getSize() * 8 + 1);
+    }
+
+    private static boolean isUsed(byte[] page, int slot) {
+        return (page[slot / 8] >> (slot % 8) & 1) == 1;
+    }
+
+    private static int[] fieldOffsets(TupleDesc td) {
+        int[] offsets = new int[td.numFields()];
+        for (int j = 1; j < offsets.length; j++)
+            offsets[j] = offsets[j - 1] + td.getFieldType(j - 1).getLen();
+        return offsets;
+    }
+
+    /**
+     * Compresses the bytes of a HeapPage. The table must not have
+     * variable-length fields.
+     *
+     * @param page the bytes of a row-layout HeapPage of a table with schema td
+     * @param td   the schema of the table
+     * @return the compressed page
+     */
+    public static byte[] compress(byte[] page, TupleDesc td) throws IOException {
+        int numSlots = numSlots(td, page.length);
+        int headerSize = (numSlots + 7) / 8;
+        int[] offsets = fieldOffsets(td);
+        List<Integer> used = new ArrayList<>();
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (isUsed(page, slot))
+                used.add(slot);
+        }
+
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(page.length / 4);
+        DataOutputStream out = new DataOutputStream(baos);
+        out.write(page, 0, headerSize);
+        BitWriter bits = new BitWriter(out);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE) {
+                int[] values = new int[used.size()];
+                int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = HeapPage.readInt(page, headerSize + used.get(i) * td.getSize() + offsets[j]);
+                    min = Math.min(min, values[i]);
+                    max = Math.max(max, values[i]);
+                }
+                if (values.length == 0)
+                    min = max = 0;
+                int width = width((long) max - min);
+                out.writeInt(min);
+                out.writeByte(width);
+                for (int v : values)
+                    bits.write((long) v - min, width);
+            } else {
+                Map<String, Integer> dictionary = new HashMap<>();
+                List<String> strings = new ArrayList<>();
+                int[] codes = new int[used.size()];
+                for (int i = 0; i < codes.length; i++) {
+                    int off = headerSize + used.get(i) * td.getSize() + offsets[j];
+                    // ISO-8859-1 keeps the bytes of the string unchanged
+                    String s = new String(page, off + 4, HeapPage.readInt(page, off), StandardCharsets.ISO_8859_1);
+                    Integer code = dictionary.get(s);
+                    if (code == null) {
+                        code = strings.size();
+                        dictionary.put(s, code);
+                        strings.add(s);
+                    }
+                    codes[i] = code;
+                }
+                out.writeShort(strings.size());
+                for (String s : strings) {
+                    out.writeShort(s.length());
+                    out.write(s.getBytes(StandardCharsets.ISO_8859_1));
+                }
+                int width = width(Math.max(strings.size() - 1, 0));
+                out.writeByte(width);
+                for (int code : codes)
+                    bits.write(code, width);
+            }
+            bits.flush();
+        }
+        out.flush();
+        return baos.toByteArray();
+    }
+
+    private static void writeInt(byte[] page, int off, int v) {
+        page[off] = (byte) (v >>> 24);
+        page[off + 1] = (byte) (v >>> 16);
+        page[off + 2] = (byte) (v >>> 8);
+        page[off + 3] = (byte) v;
+    }
+
+    /**
+     * Restores the bytes of a HeapPage from a page compressed by
+     * {@link #compress}.
+     *
+     * @param compressed the compressed page
+     * @param td         the schema of the table
+     * @param pageSize   the size of the page
+     * @return the bytes of the row-layout HeapPage
+     */
+    public static byte[] decompress(byte[] compressed, TupleDesc td, int pageSize) throws IOException {
+        int numSlots = numSlots(td, pageSize);
+        int headerSize = (numSlots + 7) / 8;
+        int[] offsets = fieldOffsets(td);
+        byte[] page = new byte[pageSize];
+        System.arraycopy(compressed, 0, page, 0, headerSize);
+        List<Integer> used = new ArrayList<>();
+        for (int slot = 0; slot < numSlots; slot++) {
+            if (isUsed(page, slot))
+                used.add(slot);
+        }
+
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(compressed, headerSize, compressed.length - headerSize));
+        BitReader bits = new BitReader(in);
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            if (type == Type.INT_TYPE) {
+                int min = in.readInt();
+                int width = in.readUnsignedByte();
+                for (int slot : used) {
+                    writeInt(page, headerSize + slot * td.getSize() + offsets[j], (int) (min + bits.read(width)));
+                }
+            } else {
+                byte[][] strings = new byte[in.readUnsignedShort()][];
+                for (int i = 0; i < strings.length; i++) {
+                    strings[i] = new byte[in.readUnsignedShort()];
+                    in.readFully(strings[i]);
+                }
+                int width = in.readUnsignedByte();
+                for (int slot : used) {
+                    int off = headerSize + slot * td.getSize() + offsets[j];
+                    byte[] s = strings[(int) bits.read(width)];
+                    writeInt(page, off, s.length);
+                    System.arraycopy(s, 0, page, off + 4, s.length);
+                }
+            }
+            bits.skipToByte();
+        }
+        return page;
+    }
+}
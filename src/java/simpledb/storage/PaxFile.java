@@ -0,0 +1,31 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * PaxFile is a HeapFile whose pages use the column-wise {@link PaxPage}
+ * layout. It supports everything a HeapFile does; scans that only ask for
+ * some columns (see {@link DbFile#iterator(simpledb.transaction.TransactionId,
+ * java.util.List, int[])}) read values that are stored next to each other.
+ * <p>
+ * A table is stored as a PaxFile when its line in the catalog schema ends
+ * with <code>pax</code>, and {@link HeapFileEncoder} can write the format.
+ */
+public class PaxFile extends HeapFile {
+
+    /**
+     * Constructs a PAX heap file backed by the specified file.
+     *
+     * @param f  the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples
+     */
+    public PaxFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * PaxPage is a HeapPage whose slots are stored column by column (the PAX
+ * layout). The page has the same header and the same number of slots as a
+ * HeapPage of the same table, but the body is split into one minipage per
+ * field: the values of field 0 of every slot, then the values of field 1, and
+ * so on. A scan that reads a few columns of a wide table only touches their
+ * minipages.
+ * <p>
+ * Only the position of the fields in the page bytes differs from HeapPage, so
+ * PaxPages can be used wherever HeapPages are.
+ *
+ * @see PaxFile
+ */
+public class PaxPage extends HeapPage {
+
+    /** Offset of the minipage of each field. */
+    private final int[] minipageOffsets;
+
+    /**
+     * Create a PaxPage from a set of bytes of data read from disk. The format
+     * is the header of a {@link HeapPage}, followed by one minipage per field
+     * holding that field of every slot, each value taking
+     * {@link simpledb.common.Type#getLen()} bytes.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public PaxPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        minipageOffsets = new int[td.numFields()];
+        int off = header.length;
+        for (int j = 0; j < td.numFields(); j++) {
+            minipageOffsets[j] = off;
+            off += numSlots * td.getFieldType(j).getLen();
+        }
+    }
+
+    @Override
+    int fieldOffset(int slot, int field) {
+        return minipageOffsets[field] + slot * td.getFieldType(field).getLen();
+    }
+
+    @Override
+    HeapPage copyOf(byte[] data) throws IOException {
+        return new PaxPage(pid, data);
+    }
+
+    /**
+     * Rearranges the body of a row-layout HeapPage into the PAX layout.
+     *
+     * @param rowPage the bytes of a HeapPage of a table with the given schema
+     * @param td      the schema of the table
+     * @return the bytes of the equivalent PaxPage
+     */
+    public static byte[] fromRowLayout(byte[] rowPage, TupleDesc td) {
+        int numSlots = (rowPage.length * 8) / (td.getSize() * 8 + 1);
+        int headerSize = (numSlots + 7) / 8;
+        byte[] out = new byte[rowPage.length];
+        System.arraycopy(rowPage, 0, out, 0, headerSize);
+        int rowOff = 0;
+        int colOff = headerSize;
+        for (int j = 0; j < td.numFields(); j++) {
+            int len = td.getFieldType(j).getLen();
+            for (int slot = 0; slot < numSlots; slot++)
+                System.arraycopy(rowPage, headerSize + slot * td.getSize() + rowOff,
+                        out, colOff + slot * len, len);
+            rowOff += len;
+            colOff += numSlots * len;
+        }
+        return out;
+    }
+}
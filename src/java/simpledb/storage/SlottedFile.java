@@ -0,0 +1,31 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * SlottedFile is a HeapFile whose pages are {@link SlottedPage}s, which store
+ * {@link simpledb.common.Type#VARCHAR_TYPE} fields in as many bytes as their
+ * strings need instead of padding them. Tables with short strings fit many
+ * more tuples per page than in a HeapFile.
+ * <p>
+ * Tables with a VARCHAR field in the catalog schema are stored as
+ * SlottedFiles, and {@link HeapFileEncoder} writes their format.
+ */
+public class SlottedFile extends HeapFile {
+
+    /**
+     * Constructs a slotted heap file backed by the specified file.
+     *
+     * @param f  the file that stores the on-disk backing store for this file
+     * @param td the schema of the tuples
+     */
+    public SlottedFile(File f, TupleDesc td) {
+        super(f, td);
+    }
+
+    @Override
+    protected HeapPage createPage(HeapPageId pid, byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+}
@@ -0,0 +1,256 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * SlottedPage is a HeapPage whose tuples are stored as variable-length
+ * records, so that {@link Type#VARCHAR_TYPE} fields only take the bytes of
+ * their string. The page starts with
+ * <ul>
+ * <li>the number of entries in the slot directory (2 bytes),
+ * <li>the offset of the first record byte, i.e. the end of the free space
+ * (2 bytes),
+ * <li>the slot directory: for each slot, the offset (2 bytes) and the length
+ * (2 bytes) of its record, or an offset of 0 if the slot is empty.
+ * </ul>
+ * Records are packed at the end of the page and grow towards the directory.
+ * A record holds the fields of a tuple one after the other: INT and STRING
+ * fields take {@link Type#getLen()} bytes, VARCHAR fields a 2-byte length and
+ * the string. Offsets are unsigned shorts, so pages may be up to 64KB.
+ * <p>
+ * A tuple keeps its slot, and thus its RecordId, until it is deleted. Space
+ * freed by deletions can be reused right away: the records are compacted
+ * whenever the page is serialized.
+ *
+ * @see SlottedFile
+ */
+public class SlottedPage extends HeapPage {
+
+    /** Size of the entry count and the free space pointer. */
+    static final int HEADER_SIZE = 4;
+    /** Size of the offset and length of a slot directory entry. */
+    static final int ENTRY_SIZE = 4;
+
+    /** The number of entries of the slot directory. */
+    private int entries;
+    /** Bytes taken by the records of the used slots. */
+    private int recordBytes;
+
+    /**
+     * Create a SlottedPage from a set of bytes of data read from disk, in the
+     * format described above. An all-zero page has no slots in use.
+     *
+     * @see HeapPage#HeapPage
+     */
+    public SlottedPage(HeapPageId id, byte[] data) throws IOException {
+        super(id, data);
+        // the used-slot bitmap of HeapPage is rebuilt from the directory
+        Arrays.fill(header, (byte) 0);
+        entries = Math.min(readUnsignedShort(this.data, 0), numSlots);
+        for (int i = 0; i < entries; i++) {
+            if (readUnsignedShort(this.data, entryOffset(i)) == 0)
+                continue;
+            header[i / 8] |= 1 << (i % 8);
+            recordBytes += readUnsignedShort(this.data, entryOffset(i) + 2);
+        }
+    }
+
+    /**
+     * The number of slots is the number of the shortest possible records that
+     * fit in a page with their directory entries.
+     */
+    @Override
+    int getNumTuples() {
+        return numSlots(td, BufferPool.getPageSize());
+    }
+
+    /**
+     * @return the number of slots of a SlottedPage of pageBytes bytes
+     */
+    static int numSlots(TupleDesc td, int pageBytes) {
+        int minRecordLength = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            minRecordLength += td.getFieldType(j).isVariableLength() ? 2 : td.getFieldType(j).getLen();
+        return (pageBytes - HEADER_SIZE) / (ENTRY_SIZE + minRecordLength);
+    }
+
+    private static int entryOffset(int slot) {
+        return HEADER_SIZE + slot * ENTRY_SIZE;
+    }
+
+    @Override
+    int fieldOffset(int slot, int field) {
+        int off = readUnsignedShort(data, entryOffset(slot));
+        for (int j = 0; j < field; j++) {
+            if (td.getFieldType(j) == Type.VARCHAR_TYPE)
+                off += 2 + readUnsignedShort(data, off);
+            else
+                off += td.getFieldType(j).getLen();
+        }
+        return off;
+    }
+
+    @Override
+    HeapPage copyOf(byte[] data) throws IOException {
+        return new SlottedPage(pid, data);
+    }
+
+    /**
+     * @return the number of bytes the record of a tuple takes
+     */
+    static int recordLength(Tuple t, TupleDesc td) {
+        int len = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) == Type.VARCHAR_TYPE)
+                len += 2 + Math.min(((StringField) t.getField(j)).getValue().length(), Type.STRING_LEN);
+            else
+                len += td.getFieldType(j).getLen();
+        }
+        return len;
+    }
+
+    /**
+     * Encodes a tuple as a record of a SlottedPage.
+     */
+    static byte[] encode(Tuple t, TupleDesc td) {
+        ByteArrayOutputStream baos = new ByteArrayOutputStream(recordLength(t, td));
+        DataOutputStream dos = new DataOutputStream(baos);
+        try {
+            for (int j = 0; j < td.numFields(); j++) {
+                if (td.getFieldType(j) == Type.VARCHAR_TYPE) {
+                    String s = ((StringField) t.getField(j)).getValue();
+                    if (s.length() > Type.STRING_LEN)
+                        s = s.substring(0, Type.STRING_LEN);
+                    dos.writeShort(s.length());
+                    dos.writeBytes(s);
+                } else {
+                    t.getField(j).serialize(dos);
+                }
+            }
+            dos.flush();
+        } catch (IOException e) {
+            // this really shouldn't happen
+            e.printStackTrace();
+        }
+        return baos.toByteArray();
+    }
+
+    private int recordLength(int slot) {
+        if (tuples[slot] != null)
+            return recordLength(tuples[slot], td);
+        return readUnsignedShort(data, entryOffset(slot) + 2);
+    }
+
+    private int freeSpace() {
+        return BufferPool.getPageSize() - HEADER_SIZE - entries * ENTRY_SIZE - recordBytes;
+    }
+
+    private int firstEmptySlot() {
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                return i;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns true if the page has an empty slot and enough free space for
+     * the record of the tuple and the directory entries it needs.
+     */
+    @Override
+    public boolean hasRoomFor(Tuple t) {
+        int slot = firstEmptySlot();
+        if (slot < 0)
+            return false;
+        int needed = recordLength(t, td) + Math.max(0, slot + 1 - entries) * ENTRY_SIZE;
+        return needed <= freeSpace();
+    }
+
+    @Override
+    public void insertTuple(Tuple t) throws DbException {
+        if (t.getTupleDesc().equals(td) && !hasRoomFor(t))
+            throw new DbException("the page is full (no room for the tuple)");
+        super.insertTuple(t);
+        entries = Math.max(entries, t.getRecordId().getTupleNumber() + 1);
+        recordBytes += recordLength(t, td);
+    }
+
+    @Override
+    public void deleteTuple(Tuple t) throws DbException {
+        RecordId rid = t.getRecordId();
+        int len = 0;
+        if (rid != null && pid.equals(rid.getPageId()) && rid.getTupleNumber() < numSlots
+                && isSlotUsed(rid.getTupleNumber()))
+            len = recordLength(rid.getTupleNumber());
+        super.deleteTuple(t);
+        recordBytes -= len;
+    }
+
+    private static void writeShort(byte[] b, int off, int v) {
+        b[off] = (byte) (v >>> 8);
+        b[off + 1] = (byte) v;
+    }
+
+    /**
+     * Writes the directory and packs the records of the used slots at the
+     * end of the page. Trailing empty slots are dropped from the directory.
+     */
+    @Override
+    byte[] serialize() {
+        byte[] out = new byte[BufferPool.getPageSize()];
+        int last = -1;
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i))
+                last = i;
+        }
+        int end = out.length;
+        for (int i = 0; i <= last; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            int len;
+            if (tuples[i] != null) {
+                byte[] record = encode(tuples[i], td);
+                len = record.length;
+                end -= len;
+                System.arraycopy(record, 0, out, end, len);
+            } else {
+                len = readUnsignedShort(data, entryOffset(i) + 2);
+                end -= len;
+                System.arraycopy(data, readUnsignedShort(data, entryOffset(i)), out, end, len);
+            }
+            writeShort(out, entryOffset(i), end);
+            writeShort(out, entryOffset(i) + 2, len);
+        }
+        writeShort(out, 0, last + 1);
+        writeShort(out, 2, end);
+        return out;
+    }
+
+    /**
+     * Packs records into the bytes of a SlottedPage, filling slots 0 to
+     * records.length - 1.
+     *
+     * @param records   records made by {@link #encode}
+     * @param pageBytes the size of the page
+     * @return the bytes of the page
+     */
+    static byte[] pack(byte[][] records, int pageBytes) {
+        byte[] out = new byte[pageBytes];
+        int end = pageBytes;
+        for (int i = 0; i < records.length; i++) {
+            end -= records[i].length;
+            System.arraycopy(records[i], 0, out, end, records[i].length);
+            writeShort(out, entryOffset(i), end);
+            writeShort(out, entryOffset(i) + 2, records[i].length);
+        }
+        writeShort(out, 0, records.length);
+        writeShort(out, 2, end);
+        return out;
+    }
+}
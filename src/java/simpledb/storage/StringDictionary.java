@@ -0,0 +1,146 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * StringDictionary assigns an integer code to each distinct value of a
+ * STRING_TYPE field of a table, in the order the values are first read. Pages
+ * of the table look up the bytes of a field in the dictionary instead of
+ * creating a String for each tuple, and return the single
+ * {@link DictionaryField} of its code. Fields of the same dictionary are thus
+ * equal exactly when they are the same object, and operators can compare,
+ * hash and group them by code; the String itself is created once per value.
+ * <p>
+ * A dictionary holds at most {@link #MAX_SIZE} values. Values read after it
+ * is full are not encoded, and pages return plain StringFields for them.
+ * <p>
+ * Pages of parallel scans decode fields concurrently, so lookups take no
+ * lock; only adding a value does.
+ */
+public class StringDictionary {
+
+    /** The most distinct values a dictionary encodes. */
+    public static final int MAX_SIZE = 1 << 16;
+
+    /**
+     * The bytes of a value, as a key of {@link #codesByBytes}. Keys looked up
+     * refer to the page bytes; keys stored own a copy of them.
+     */
+    private static final class Bytes {
+        private final byte[] b;
+        private final int off, len, hash;
+
+        Bytes(byte[] b, int off, int len) {
+            this.b = b;
+            this.off = off;
+            this.len = len;
+            int h = len;
+            for (int i = 0; i < len; i++)
+                h = 31 * h + b[off + i];
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Bytes))
+                return false;
+            Bytes other = (Bytes) o;
+            if (other.len != len || other.hash != hash)
+                return false;
+            for (int i = 0; i < len; i++) {
+                if (b[off + i] != other.b[other.off + i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    private final Map<Bytes, Integer> codesByBytes = new ConcurrentHashMap<>();
+    private final Map<String, Integer> codesByString = new ConcurrentHashMap<>();
+    /**
+     * The field of each code. A field is stored before its code is published
+     * in the maps, and the array is replaced by a larger copy when full, so
+     * readers of a published code always find its field.
+     */
+    private volatile DictionaryField[] fields = new DictionaryField[64];
+    private volatile int size;
+
+    /**
+     * Returns the code of a value given by its bytes, as stored in a page,
+     * adding it to the dictionary if it is new.
+     *
+     * @param b   the page bytes
+     * @param off the offset of the first byte of the value
+     * @param len the number of bytes of the value
+     * @return the code, or -1 if the value is new and the dictionary is full
+     */
+    public int encode(byte[] b, int off, int len) {
+        Integer code = codesByBytes.get(new Bytes(b, off, len));
+        if (code != null)
+            return code;
+        if (size == MAX_SIZE)
+            return -1;
+        return add(b, off, len);
+    }
+
+    private synchronized int add(byte[] b, int off, int len) {
+        Bytes key = new Bytes(Arrays.copyOfRange(b, off, off + len), 0, len);
+        Integer code = codesByBytes.get(key);
+        if (code != null)
+            return code;
+        if (size == MAX_SIZE)
+            return -1;
+        // the same decoding as Type.STRING_TYPE.parse; bytes that are not
+        // valid in the default charset may decode to a value already known
+        String value = new String(b, off, len);
+        code = codesByString.get(value);
+        if (code == null) {
+            code = size;
+            DictionaryField[] f = fields;
+            if (code == f.length)
+                f = Arrays.copyOf(f, 2 * code);
+            f[code] = new DictionaryField(this, code, value);
+            fields = f;
+            size = code + 1;
+            codesByString.put(value, code);
+        }
+        codesByBytes.put(key, code);
+        return code;
+    }
+
+    /**
+     * @param code a code returned by {@link #encode}
+     * @return the field of the value with that code
+     */
+    public DictionaryField field(int code) {
+        return fields[code];
+    }
+
+    /**
+     * Looks up a field of another table, or a constant, in this dictionary.
+     *
+     * @param f a STRING_TYPE field
+     * @return the field of this dictionary with the same value, or null if
+     *         the dictionary does not hold the value
+     */
+    public DictionaryField lookup(Field f) {
+        if (f instanceof DictionaryField && ((DictionaryField) f).getDictionary() == this)
+            return (DictionaryField) f;
+        Integer code = codesByString.get(((StringField) f).getValue());
+        return code == null ? null : fields[code];
+    }
+
+    /**
+     * @return the number of values in the dictionary
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -28,6 +28,15 @@ public class Tuple implements Serializable {
         this.fields = new Field[td.numFields()];
     }
 
+    /**
+     * Creates a tuple whose fields are kept by a subclass, which overrides
+     * the methods that access them.
+     */
+    Tuple(TupleDesc td, Field[] fields) {
+        this.tupleDesc = td;
+        this.fields = fields;
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -0,0 +1,288 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.Arrays;
+
+/**
+ * TupleBatch holds up to a fixed number of rows in columnar form, for
+ * batch-at-a-time execution (see {@link simpledb.execution.OpIterator#nextBatch}).
+ * INT columns are stored as primitive int arrays so that operators can work on
+ * them without creating {@link IntField}s; other columns hold Field objects.
+ * <p>
+ * A batch has a physical size (the number of rows stored) and an optional
+ * selection vector that lists, in increasing order, the physical rows that are
+ * still part of the batch. A Filter narrows the selection instead of copying
+ * the rows it keeps. Methods that take a "row" argument use physical row
+ * numbers; {@link #size()} and {@link #rowAt(int)} describe the selected rows.
+ */
+public class TupleBatch {
+
+    /** Number of rows in a batch unless the caller asks for another size. */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    private final int[][] ints;
+    private final Field[][] fields;
+    private int rows;
+    private int[] sel;
+    private int selSize;
+
+    /**
+     * Creates an empty batch.
+     *
+     * @param td       the schema of the rows
+     * @param capacity the maximum number of rows
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive");
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, Field[][] fields,
+                       int rows, int[] sel, int selSize) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.fields = fields;
+        this.rows = rows;
+        this.sel = sel;
+        this.selSize = selSize;
+    }
+
+    /**
+     * Collects up to maxRows tuples from an iterator's next() into a new
+     * batch. The iterator is allowed to reuse its tuples, see
+     * {@link OpIterator#setTupleReuse}.
+     *
+     * @return the batch, or null if the iterator has no more tuples
+     */
+    public static TupleBatch fill(OpIterator it, int maxRows)
+            throws DbException, TransactionAbortedException {
+        // the fields are copied out of each tuple, so it need not be kept
+        it.setTupleReuse(true);
+        if (!it.hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(it.getTupleDesc(), maxRows);
+        do {
+            b.addTuple(it.next());
+        } while (!b.isFull() && it.hasNext());
+        return b;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the maximum number of rows this batch can hold
+     */
+    public int capacity() {
+        return capacity;
+    }
+
+    /**
+     * @return true if no more rows can be appended
+     */
+    public boolean isFull() {
+        return rows == capacity;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return sel == null ? rows : selSize;
+    }
+
+    /**
+     * @return the number of rows stored, selected or not
+     */
+    public int physicalSize() {
+        return rows;
+    }
+
+    /**
+     * @param i the index of a selected row, from 0 to size() - 1
+     * @return the physical row number of the i-th selected row
+     */
+    public int rowAt(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * Returns the values of an INT column, indexed by physical row. The array
+     * is the batch's own storage and may be longer than physicalSize().
+     *
+     * @throws IllegalArgumentException if the column is not an INT column
+     */
+    public int[] intColumn(int col) {
+        if (ints[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not an INT column");
+        return ints[col];
+    }
+
+    /**
+     * @return the value of a column at a physical row
+     */
+    public Field getField(int col, int row) {
+        if (ints[col] != null)
+            return IntField.valueOf(ints[col][row]);
+        return fields[col][row];
+    }
+
+    /**
+     * @return the selection vector, or null if every stored row is selected
+     */
+    public int[] selection() {
+        return sel;
+    }
+
+    /**
+     * Replaces the selection vector.
+     *
+     * @param sel  the selected physical rows in increasing order, or null to
+     *             select every stored row
+     * @param size the number of entries of sel that are used
+     */
+    public void setSelection(int[] sel, int size) {
+        this.sel = sel;
+        this.selSize = sel == null ? 0 : size;
+    }
+
+    /**
+     * Appends a row. Only valid while there is no selection vector.
+     */
+    public void addTuple(Tuple t) {
+        checkAppend();
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][rows] = ((IntField) t.getField(i)).getValue();
+            else
+                fields[i][rows] = t.getField(i);
+        }
+        rows++;
+    }
+
+    /**
+     * Appends a physical row of another batch with the same schema.
+     */
+    public void appendRow(TupleBatch src, int row) {
+        checkAppend();
+        copyRow(src, row, 0);
+        rows++;
+    }
+
+    /**
+     * Appends the concatenation of a row of left and a row of right. The
+     * schema of this batch must be the merge of their schemas.
+     */
+    public void appendJoined(TupleBatch left, int leftRow, TupleBatch right, int rightRow) {
+        checkAppend();
+        copyRow(left, leftRow, 0);
+        copyRow(right, rightRow, left.ints.length);
+        rows++;
+    }
+
+    /**
+     * Appends a row whose values are then set with {@link #setInt} and
+     * {@link #setField}.
+     *
+     * @return the physical number of the new row
+     */
+    public int appendEmptyRow() {
+        checkAppend();
+        return rows++;
+    }
+
+    /**
+     * Sets the value of an INT column at a physical row.
+     */
+    public void setInt(int col, int row, int value) {
+        ints[col][row] = value;
+    }
+
+    /**
+     * Sets the value of a column at a physical row.
+     */
+    public void setField(int col, int row, Field f) {
+        if (ints[col] != null)
+            ints[col][row] = ((IntField) f).getValue();
+        else
+            fields[col][row] = f;
+    }
+
+    private void copyRow(TupleBatch src, int row, int offset) {
+        for (int i = 0; i < src.ints.length; i++) {
+            if (src.ints[i] != null)
+                ints[offset + i][rows] = src.ints[i][row];
+            else
+                fields[offset + i][rows] = src.fields[i][row];
+        }
+    }
+
+    private void checkAppend() {
+        if (sel != null)
+            throw new IllegalStateException("cannot append to a batch with a selection vector");
+        if (rows == capacity)
+            throw new IllegalStateException("batch is full");
+    }
+
+    /**
+     * Materializes a selected row as a Tuple.
+     *
+     * @param i the index of a selected row, from 0 to size() - 1
+     */
+    public Tuple getTuple(int i) {
+        int row = rowAt(i);
+        Tuple t = new Tuple(td);
+        for (int c = 0; c < ints.length; c++)
+            t.setField(c, getField(c, row));
+        return t;
+    }
+
+    /**
+     * Returns a batch that shares this batch's column storage and selection
+     * but only exposes some of its columns, in the given order.
+     *
+     * @param cols the columns of this batch to keep
+     * @param td   the schema of the projected batch
+     */
+    public TupleBatch project(int[] cols, TupleDesc td) {
+        int[][] pInts = new int[cols.length][];
+        Field[][] pFields = new Field[cols.length][];
+        for (int i = 0; i < cols.length; i++) {
+            pInts[i] = ints[cols[i]];
+            pFields[i] = fields[cols[i]];
+        }
+        return new TupleBatch(td, capacity, pInts, pFields, rows, sel, selSize);
+    }
+
+    /**
+     * Removes every row and the selection vector so the batch can be reused.
+     */
+    public void clear() {
+        rows = 0;
+        sel = null;
+        selSize = 0;
+        for (Field[] column : fields) {
+            if (column != null)
+                Arrays.fill(column, null);
+        }
+    }
+}
@@ -188,6 +188,21 @@ public class TupleDesc implements Serializable {
         return new TupleDesc(temp);
     }
 
+    /**
+     * Returns the TupleDesc of some of the fields of this one.
+     *
+     * @param fields
+     *            the indexes of the fields to keep, in the order they should
+     *            appear
+     * @return the projected TupleDesc
+     */
+    public TupleDesc project(int[] fields) {
+        TDItem[] items = new TDItem[fields.length];
+        for (int i = 0; i < fields.length; i++)
+            items[i] = new TDItem(getFieldType(fields[i]), getFieldName(fields[i]));
+        return new TupleDesc(items);
+    }
+
     /**
      * Compares the specified object with this TupleDesc for equality. Two
      * TupleDescs are considered equal if they have the same number of items
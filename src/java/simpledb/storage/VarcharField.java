@@ -0,0 +1,54 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * Instance of Field that stores a single String of variable length, the
+ * value of a {@link Type#VARCHAR_TYPE} field. VarcharFields compare, hash and
+ * equal like StringFields of the same value.
+ */
+public class VarcharField extends StringField {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int maxSize;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param s
+	 *            The value of this field.
+	 * @param maxSize
+	 *            The maximum size of this string
+	 */
+	public VarcharField(String s, int maxSize) {
+		super(s, maxSize);
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Write this string to dos. Always writes maxSize + 2 bytes, as pages with
+	 * fixed-size slots store it: a 2-byte length, the string, and zeros up to
+	 * maxSize bytes. {@link SlottedPage}s leave out the padding.
+	 *
+	 * @param dos
+	 *            Where the string is written
+	 */
+	public void serialize(DataOutputStream dos) throws IOException {
+		String s = getValue();
+		dos.writeShort(s.length());
+		dos.writeBytes(s);
+		for (int i = s.length(); i < maxSize; i++)
+			dos.write((byte) 0);
+	}
+
+	/**
+	 * @return the Type for this Field
+	 */
+	public Type getType() {
+		return Type.VARCHAR_TYPE;
+	}
+}
@@ -0,0 +1,272 @@
+package simpledb.storage;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.*;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A ZoneMap keeps the minimum and maximum value of every INT field on every
+ * page of a {@link HeapFile}, so that scans can skip pages that cannot hold a
+ * tuple satisfying their predicates.
+ * <p>
+ * The ranges are conservative: they always cover the tuples of a page, but
+ * may be wider. Inserting a tuple widens the range of its page right away.
+ * Deleting one does not narrow it, since the deletion may still be rolled back
+ * by discarding the page; the range is recomputed from the page whenever the
+ * page is written to disk.
+ * <p>
+ * The map is stored next to the table, in a file named after the data file
+ * with a ".zm" suffix, holding the ranges of each page in turn. The file is
+ * rebuilt by reading the table when it is missing, shorter than the table or
+ * not newer than the data file.
+ */
+public class ZoneMap {
+
+    /** Suffix of the file that stores the zone map of a data file. */
+    public static final String SUFFIX = ".zm";
+
+    private final HeapFile file;
+    private final File zoneFile;
+    /** The INT fields of the table, in order. */
+    private final int[] fields;
+    /** For each INT field, the minimum of each page. Empty pages have min > max. */
+    private int[][] mins;
+    private int[][] maxs;
+    private int numPages;
+
+    private ZoneMap(HeapFile file) {
+        this.file = file;
+        this.zoneFile = new File(file.getFile().getPath() + SUFFIX);
+        TupleDesc td = file.getTupleDesc();
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                n++;
+        }
+        this.fields = new int[n];
+        for (int i = 0, j = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                fields[j++] = i;
+        }
+        this.mins = new int[n][0];
+        this.maxs = new int[n][0];
+    }
+
+    /**
+     * Loads the zone map of a file, rebuilding it from the pages on disk if
+     * the stored one is missing or out of date.
+     */
+    static ZoneMap load(HeapFile file) {
+        ZoneMap zm = new ZoneMap(file);
+        int pages = file.numPages();
+        int stored = 0;
+        if (zm.fields.length > 0 && zm.zoneFile.lastModified() > file.getFile().lastModified())
+            stored = zm.read(pages);
+        zm.grow(pages);
+        if (stored < pages) {
+            for (int p = stored; p < pages; p++)
+                zm.setFromPage(p, (HeapPage) file.readPage(new HeapPageId(file.getId(), p)));
+            zm.writeAll();
+        }
+        return zm;
+    }
+
+    /**
+     * Deletes the stored zone map of a data file, e.g. because the file was
+     * changed while its map was not loaded.
+     */
+    static void invalidate(File dataFile) {
+        new File(dataFile.getPath() + SUFFIX).delete();
+    }
+
+    private int entrySize() {
+        return fields.length * 8;
+    }
+
+    /** Reads the ranges of up to pages pages; returns how many were read. */
+    private int read(int pages) {
+        grow(pages);
+        int stored = (int) Math.min(pages, zoneFile.length() / Math.max(entrySize(), 1));
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(zoneFile)))) {
+            for (int p = 0; p < stored; p++) {
+                for (int f = 0; f < fields.length; f++) {
+                    mins[f][p] = in.readInt();
+                    maxs[f][p] = in.readInt();
+                }
+            }
+            return stored;
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private void writeAll() {
+        if (fields.length == 0)
+            return;
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(zoneFile)))) {
+            for (int p = 0; p < numPages; p++) {
+                for (int f = 0; f < fields.length; f++) {
+                    out.writeInt(mins[f][p]);
+                    out.writeInt(maxs[f][p]);
+                }
+            }
+        } catch (IOException e) {
+            // a missing map is rebuilt on the next load
+            zoneFile.delete();
+        }
+    }
+
+    private void writeEntry(int page) {
+        if (fields.length == 0)
+            return;
+        try (RandomAccessFile raf = new RandomAccessFile(zoneFile, "rw")) {
+            raf.seek((long) page * entrySize());
+            for (int f = 0; f < fields.length; f++) {
+                raf.writeInt(mins[f][page]);
+                raf.writeInt(maxs[f][page]);
+            }
+        } catch (IOException e) {
+            zoneFile.delete();
+        }
+    }
+
+    private void grow(int pages) {
+        if (pages <= numPages)
+            return;
+        for (int f = 0; f < fields.length; f++) {
+            mins[f] = Arrays.copyOf(mins[f], pages);
+            maxs[f] = Arrays.copyOf(maxs[f], pages);
+            Arrays.fill(mins[f], numPages, pages, Integer.MAX_VALUE);
+            Arrays.fill(maxs[f], numPages, pages, Integer.MIN_VALUE);
+        }
+        numPages = pages;
+    }
+
+    private void setFromPage(int pageNo, HeapPage page) {
+        for (int f = 0; f < fields.length; f++) {
+            int min = Integer.MAX_VALUE, max = Integer.MIN_VALUE;
+            if (page == null) {
+                // unreadable pages must never be skipped
+                min = Integer.MIN_VALUE;
+                max = Integer.MAX_VALUE;
+            } else {
+                for (int slot = 0; slot < page.numSlots; slot++) {
+                    if (!page.isSlotUsed(slot))
+                        continue;
+                    int v = page.getInt(slot, fields[f]);
+                    min = Math.min(min, v);
+                    max = Math.max(max, v);
+                }
+            }
+            mins[f][pageNo] = min;
+            maxs[f][pageNo] = max;
+        }
+    }
+
+    /**
+     * Recomputes the ranges of a page from its contents and stores them. Called
+     * when the page is written to disk.
+     */
+    synchronized void update(HeapPage page) {
+        int pageNo = page.getId().getPageNumber();
+        grow(pageNo + 1);
+        setFromPage(pageNo, page);
+        writeEntry(pageNo);
+    }
+
+    /**
+     * Widens the ranges of a page to cover a tuple inserted into it.
+     */
+    synchronized void widen(int pageNo, Tuple t) {
+        grow(pageNo + 1);
+        for (int f = 0; f < fields.length; f++) {
+            int v = ((IntField) t.getField(fields[f])).getValue();
+            mins[f][pageNo] = Math.min(mins[f][pageNo], v);
+            maxs[f][pageNo] = Math.max(maxs[f][pageNo], v);
+        }
+    }
+
+    private int index(int field) {
+        for (int f = 0; f < fields.length; f++) {
+            if (fields[f] == field)
+                return f;
+        }
+        return -1;
+    }
+
+    /**
+     * @return the number of pages the map covers
+     */
+    public synchronized int numPages() {
+        return numPages;
+    }
+
+    /**
+     * Checks whether a page may hold tuples whose INT field satisfies
+     * <tt>field op value</tt>.
+     *
+     * @return false only if no tuple of the page can satisfy the predicate
+     */
+    public synchronized boolean mayMatch(int pageNo, int field, Predicate.Op op, int value) {
+        int f = index(field);
+        if (f < 0 || pageNo >= numPages)
+            return true;
+        int min = mins[f][pageNo], max = maxs[f][pageNo];
+        if (min > max)
+            return false;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return min <= value && value <= max;
+            case NOT_EQUALS:
+                return !(min == value && max == value);
+            case GREATER_THAN:
+                return max > value;
+            case GREATER_THAN_OR_EQ:
+                return max >= value;
+            case LESS_THAN:
+                return min < value;
+            case LESS_THAN_OR_EQ:
+                return min <= value;
+        }
+        return true;
+    }
+
+    /**
+     * Checks whether a page may hold tuples that satisfy every predicate.
+     * Predicates over non-INT fields never rule a page out.
+     */
+    public boolean mayMatch(int pageNo, List<Predicate> filters) {
+        for (Predicate p : filters) {
+            if (p.getOperand() instanceof IntField
+                    && !mayMatch(pageNo, p.getField(), p.getOp(), ((IntField) p.getOperand()).getValue()))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Estimates the fraction of the non-empty pages that may hold tuples
+     * satisfying <tt>field op value</tt>. This is an upper bound of the
+     * selectivity of the predicate that needs no scan of the table.
+     *
+     * @return the fraction, or 1.0 if field is not an INT field
+     */
+    public synchronized double pageFraction(int field, Predicate.Op op, int value) {
+        int f = index(field);
+        if (f < 0)
+            return 1.0;
+        int nonEmpty = 0, matching = 0;
+        for (int p = 0; p < numPages; p++) {
+            if (mins[f][p] > maxs[f][p])
+                continue;
+            nonEmpty++;
+            if (mayMatch(p, field, op, value))
+                matching++;
+        }
+        return nonEmpty == 0 ? 1.0 : (double) matching / nonEmpty;
+    }
+}
@@ -0,0 +1,122 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Broadcast;
+import simpledb.execution.Gather;
+import simpledb.execution.HashRepartition;
+import simpledb.execution.OpIterator;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  final int width = 2;
+
+  /** A two column input of n tuples (i, i % groups) */
+  private OpIterator input(int from, int n, int groups) {
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = from + i;
+      values[2 * i + 1] = (from + i) % groups;
+    }
+    return TestUtil.createTupleList(width, values);
+  }
+
+  private static List<String> drain(OpIterator it) throws Exception {
+    List<String> out = new ArrayList<>();
+    it.open();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    it.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Gather returns the union of its children
+   */
+  @Test public void gather() throws Exception {
+    Gather g = new Gather(input(0, 3000, 7), input(3000, 3000, 7), input(6000, 10, 7));
+    assertEquals(Utility.getTupleDesc(width), g.getTupleDesc());
+    assertEquals(drain(input(0, 6010, 7)), drain(g));
+  }
+
+  /**
+   * Rewinding a Gather runs its children again
+   */
+  @Test public void gatherRewind() throws Exception {
+    Gather g = new Gather(input(0, 2000, 7), input(2000, 2000, 7));
+    g.open();
+    for (int i = 0; i < 10; i++)
+      g.next();
+    g.rewind();
+    int count = 0;
+    while (g.hasNext()) {
+      g.next();
+      count++;
+    }
+    g.close();
+    assertEquals(4000, count);
+  }
+
+  /**
+   * Every broadcast stream sees every tuple of the input
+   */
+  @Test public void broadcast() throws Exception {
+    Broadcast[] streams = Broadcast.create(input(0, 5000, 7), 3);
+    List<String> expected = new ArrayList<>();
+    for (int i = 0; i < 3; i++)
+      expected.addAll(drain(input(0, 5000, 7)));
+    Collections.sort(expected);
+    assertEquals(expected, drain(new Gather(streams)));
+  }
+
+  /**
+   * Grouped aggregates over repartitioned streams match a serial aggregate;
+   * a group split between two partitions would show up twice
+   */
+  @Test public void repartition() throws Exception {
+    HashRepartition[] parts = HashRepartition.create(
+        new OpIterator[] { input(0, 4000, 50), input(4000, 4000, 50) }, 1, 4);
+    OpIterator[] aggs = new OpIterator[parts.length];
+    for (int i = 0; i < parts.length; i++)
+      aggs[i] = new Aggregate(parts[i], 0, 1, Aggregator.Op.COUNT);
+    List<String> parallel = drain(new Gather(aggs));
+    assertEquals(50, parallel.size());
+    assertEquals(drain(new Aggregate(input(0, 8000, 50), 0, 1, Aggregator.Op.COUNT)), parallel);
+  }
+
+  /**
+   * Exchange streams cannot be rewound on their own
+   */
+  @Test public void streamRewind() throws Exception {
+    Broadcast[] streams = Broadcast.create(input(0, 10, 7), 1);
+    streams[0].open();
+    try {
+      streams[0].rewind();
+      fail("expected DbException");
+    } catch (DbException e) {
+      // expected
+    }
+    streams[0].close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
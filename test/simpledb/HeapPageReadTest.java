@@ -15,6 +15,7 @@ import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
@@ -102,6 +103,26 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.getInt() and HeapPage.getField()
+     */
+    @Test public void getFields() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            assertEquals(EXAMPLE_VALUES[row][0], page.getInt(row, 0));
+            assertEquals(EXAMPLE_VALUES[row][1], page.getInt(row, 1));
+            assertEquals(new IntField(EXAMPLE_VALUES[row][1]), page.getField(row, 1));
+        }
+    }
+
+    /**
+     * An unmodified page serializes to the bytes it was read from.
+     */
+    @Test public void getPageDataUnmodified() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        assertSame(EXAMPLE_DATA, page.getPageData());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
@@ -131,6 +131,28 @@ public class HeapPageWriteTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * A modified page serializes the tuples read from disk and the inserted
+     * ones, and can be read back.
+     */
+    @Test public void getPageDataModified() throws Exception {
+        HeapPage page = new HeapPage(pid, HeapPageReadTest.EXAMPLE_DATA);
+        Tuple first = page.iterator().next();
+        page.deleteTuple(first);
+        page.insertTuple(Utility.getHeapTuple(new int[] { 7, 8 }));
+        page.insertTuple(Utility.getHeapTuple(new int[] { 9, 10 }));
+
+        byte[] data = page.getPageData();
+        assertNotSame(HeapPageReadTest.EXAMPLE_DATA, data);
+        HeapPage copy = new HeapPage(pid, data);
+        assertEquals(page.getNumEmptySlots(), copy.getNumEmptySlots());
+        // the freed slot is reused by the first insertion
+        assertEquals(7, copy.getInt(0, 0));
+        assertEquals(HeapPageReadTest.EXAMPLE_VALUES[1][1], copy.getInt(1, 1));
+        assertEquals(10, copy.getInt(20, 1));
+        assertArrayEquals(data, copy.getPageData());
+    }
+
     /**
      * JUnit suite target
      */
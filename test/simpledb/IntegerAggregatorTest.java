@@ -1,7 +1,14 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
 
 import junit.framework.JUnit4TestAdapter;
@@ -13,6 +20,8 @@ import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.IntegerAggregator;
 import simpledb.execution.OpIterator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 
 public class IntegerAggregatorTest extends SimpleDbTestBase {
@@ -182,6 +191,103 @@ public class IntegerAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that an aggregator whose group table spills to disk computes the
+   * same result as one that keeps every group in memory
+   */
+  @Test public void testSpill() throws Exception {
+    List<Integer> data = new ArrayList<>();
+    for (int i = 0; i < 5000; i++) {
+      data.add(i % 1000);
+      data.add(i);
+    }
+    int[] tupdata = new int[data.size()];
+    for (int i = 0; i < tupdata.length; i++)
+      tupdata[i] = data.get(i);
+
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.AVG,
+        Aggregator.Op.MIN, Aggregator.Op.COUNT }) {
+      IntegerAggregator inMemory = new IntegerAggregator(0, Type.INT_TYPE, 1, op);
+      IntegerAggregator spilled = new IntegerAggregator(0, Type.INT_TYPE, 1, op, 7);
+      OpIterator scan = TestUtil.createTupleList(width1, tupdata);
+      while (scan.hasNext()) {
+        Tuple t = scan.next();
+        inMemory.mergeTupleIntoGroup(t);
+        spilled.mergeTupleIntoGroup(t);
+      }
+
+      Map<Integer, Integer> expected = new HashMap<>();
+      OpIterator it = inMemory.iterator();
+      it.open();
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        expected.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+      }
+      assertEquals(1000, expected.size());
+
+      it = spilled.iterator();
+      it.open();
+      for (int pass = 0; pass < 2; pass++) {
+        Map<Integer, Integer> actual = new HashMap<>();
+        while (it.hasNext()) {
+          Tuple t = it.next();
+          actual.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+        }
+        assertEquals(expected, actual);
+        it.rewind();
+      }
+      it.close();
+    }
+  }
+
+  /** @return the aggregate spill files in the temporary directory */
+  private static List<String> spillFiles() {
+    List<String> names = new ArrayList<>();
+    String[] all = new File(System.getProperty("java.io.tmpdir")).list();
+    for (String name : all == null ? new String[0] : all) {
+      if (name.startsWith("agg") && name.endsWith(".spill"))
+        names.add(name);
+    }
+    return names;
+  }
+
+  /**
+   * Test that merging aggregators that spilled, as a parallel aggregate
+   * does, gives the full result and deletes their spill files
+   */
+  @Test public void testMergeSpilled() throws Exception {
+    List<String> before = spillFiles();
+    IntegerAggregator[] partials = new IntegerAggregator[2];
+    Map<Integer, Integer> expected = new HashMap<>();
+    for (int p = 0; p < partials.length; p++) {
+      partials[p] = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM, 7);
+      for (int i = p; i < 5000; i += partials.length) {
+        Tuple t = new Tuple(scan1.getTupleDesc());
+        t.setField(0, new IntField(i % 1000));
+        t.setField(1, new IntField(i));
+        partials[p].mergeTupleIntoGroup(t);
+        expected.merge(i % 1000, i, Integer::sum);
+      }
+    }
+    assertTrue(spillFiles().size() > before.size());
+
+    IntegerAggregator merged = new IntegerAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.SUM);
+    for (IntegerAggregator partial : partials)
+      merged.mergeAggregator(partial);
+    OpIterator it = merged.iterator();
+    it.open();
+    Map<Integer, Integer> actual = new HashMap<>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      actual.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+    }
+    it.close();
+    assertEquals(expected, actual);
+    List<String> after = spillFiles();
+    after.removeAll(before);
+    assertEquals(Collections.emptyList(), after);
+  }
+
   /**
    * JUnit suite target
    */
@@ -274,6 +274,31 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Verify that an equality join on fields that are not primary keys is
+     * estimated from the number of distinct values of the fields
+     */
+    @Test
+    public void estimateJoinCardinalityFromDistinct() {
+        Map<String, Integer> aliases = new HashMap<>();
+        aliases.put("t1", tableId1);
+        aliases.put("t2", tableId2);
+        Assert.assertEquals(20, stats1.numDistinct(3));
+        Assert.assertEquals(20, stats2.numDistinct(4));
+
+        // each of the 20 values matches 1000/20 rows of t1 and 10000/20 of t2
+        int cardinality = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "t1", "t2", "c3", "c4", 1000, 10000, false, false,
+                TableStats.getStatsMap(), aliases);
+        Assert.assertEquals(500000, cardinality);
+
+        // 10 rows left of t1 hold at most 10 of the values
+        cardinality = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS,
+                "t1", "t2", "c3", "c4", 10, 10000, false, false,
+                TableStats.getStatsMap(), aliases);
+        Assert.assertEquals(5000, cardinality);
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
@@ -528,6 +553,65 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertEquals(result.get(result.size() - 1).t2Alias, "bigTable");
     }
 
+    /**
+     * Checks that each join of an order joins two subplans not yet joined,
+     * except joins between tables joined already, which come last
+     */
+    private static void checkOrder(List<LogicalJoinNode> order, List<LogicalJoinNode> nodes,
+                                   int extraJoins) {
+        Assert.assertEquals(nodes.size(), order.size());
+        Map<String, String> component = new HashMap<>();
+        for (int i = 0; i < order.size(); i++) {
+            LogicalJoinNode j = order.get(i);
+            String c1 = component.getOrDefault(j.t1Alias, j.t1Alias);
+            String c2 = component.getOrDefault(j.t2Alias, j.t2Alias);
+            Assert.assertEquals(i >= order.size() - extraJoins, c1.equals(c2));
+            for (Map.Entry<String, String> e : component.entrySet()) {
+                if (e.getValue().equals(c2))
+                    e.setValue(c1);
+            }
+            component.put(j.t1Alias, c1);
+            component.put(j.t2Alias, c1);
+        }
+    }
+
+    /**
+     * Orders the joins of a cycle of tables by dynamic programming and
+     * greedily, and checks that both orders are executable
+     */
+    @Test
+    public void dpAndGreedyOrderJoinsTest() throws IOException, ParsingException {
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        StringBuilder from = new StringBuilder();
+        final int TABLES = 8;
+        for (int i = 0; i < TABLES; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 * (i + 1), 50, null, null, "c");
+            String name = "cycle" + i;
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), 101));
+            filterSelectivities.put(name, 1.0);
+            from.append(i == 0 ? "" : ", ").append(name);
+            if (i > 0)
+                nodes.add(new LogicalJoinNode("cycle" + (i - 1), name, "c0", "c1", Predicate.Op.EQUALS));
+        }
+        // closes the cycle; one of the joins has both tables joined already
+        nodes.add(new LogicalJoinNode("cycle" + (TABLES - 1), "cycle0", "c0", "c1", Predicate.Op.EQUALS));
+        Collections.shuffle(nodes);
+        JoinOptimizer j = new JoinOptimizer(new Parser().generateLogicalPlan(new TransactionId(),
+                "SELECT * FROM " + from + ";"), nodes);
+
+        checkOrder(j.orderJoins(stats, filterSelectivities, false), nodes, 1);
+        int limit = JoinOptimizer.getDpTableLimit();
+        JoinOptimizer.setDpTableLimit(TABLES - 1);
+        try {
+            checkOrder(j.orderJoins(stats, filterSelectivities, false), nodes, 1);
+        } finally {
+            JoinOptimizer.setDpTableLimit(limit);
+        }
+    }
+
     /**
      * Test a join ordering with an inequality, to make sure the inequality gets
      * put as the outermost join
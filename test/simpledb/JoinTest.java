@@ -5,6 +5,10 @@ import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
 import org.junit.Before;
 import org.junit.Test;
 
@@ -112,6 +116,33 @@ public class JoinTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(eqJoin, op);
   }
 
+  /**
+   * Unit test for Join.getNext() when the caller lets the join reuse its
+   * output tuple
+   */
+  @Test public void reusedTuples() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.GREATER_THAN, 0);
+    Join op = new Join(pred, scan1, scan2);
+    op.setTupleReuse(true);
+    op.open();
+    gtJoin.open();
+    Tuple first = null;
+    List<String> actual = new ArrayList<>();
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      if (first == null)
+        first = t;
+      assertTrue(first == t);
+      actual.add(t.toString());
+    }
+    List<String> expected = new ArrayList<>();
+    while (gtJoin.hasNext())
+      expected.add(gtJoin.next().toString());
+    Collections.sort(actual);
+    Collections.sort(expected);
+    assertEquals(expected, actual);
+  }
+
   /**
    * JUnit suite target
    */
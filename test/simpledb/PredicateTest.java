@@ -2,11 +2,22 @@ package simpledb;
 
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
+import simpledb.execution.JoinPredicate;
 import simpledb.execution.Predicate;
+import simpledb.execution.PredicateEvaluator;
+import simpledb.storage.Field;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertFalse;
+
+import java.util.Arrays;
+
 import junit.framework.JUnit4TestAdapter;
 
 public class PredicateTest extends SimpleDbTestBase{
@@ -57,6 +68,59 @@ public class PredicateTest extends SimpleDbTestBase{
     }
   }
 
+  private static Tuple stringTuple(String a, String b) {
+    Tuple t = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE, Type.STRING_TYPE }));
+    t.setField(0, new StringField(a, Type.STRING_LEN));
+    t.setField(1, new StringField(b, Type.STRING_LEN));
+    return t;
+  }
+
+  /**
+   * Unit test for PredicateEvaluator: compiled predicates agree with
+   * Field.compare for every operator
+   */
+  @Test public void compiled() {
+    Tuple[] ints = { Utility.getHeapTuple(new int[] { -1, 5 }), Utility.getHeapTuple(new int[] { 0, 5 }),
+        Utility.getHeapTuple(new int[] { 1, 5 }) };
+    Tuple[] strings = { stringTuple("abc", "b"), stringTuple("b", "b"), stringTuple("bcd", "b") };
+    for (Predicate.Op op : Predicate.Op.values()) {
+      for (int i = 0; i < 3; i++) {
+        Field[] operands = { TestUtil.getField(0), new StringField("b", Type.STRING_LEN) };
+        Tuple[][] tuples = { ints, strings };
+        for (int k = 0; k < 2; k++) {
+          Tuple t = tuples[k][i];
+          Predicate p = new Predicate(0, op, operands[k]);
+          boolean expected = t.getField(0).compare(op, operands[k]);
+          assertEquals(op + " " + t, expected, PredicateEvaluator.compile(p).test(t));
+          assertEquals(op + " " + t, expected, p.filter(t));
+
+          JoinPredicate jp = new JoinPredicate(0, op, 1);
+          assertEquals(op + " " + t, t.getField(0).compare(op, t.getField(1)), jp.filter(t, t));
+        }
+      }
+    }
+  }
+
+  /**
+   * Unit test for PredicateEvaluator: a conjunction holds when all of its
+   * predicates do
+   */
+  @Test public void conjunction() {
+    Predicate gt = new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(0));
+    Predicate lt = new Predicate(0, Predicate.Op.LESS_THAN, TestUtil.getField(3));
+    Predicate ne = new Predicate(1, Predicate.Op.NOT_EQUALS, TestUtil.getField(7));
+    PredicateEvaluator two = PredicateEvaluator.compile(Arrays.asList(gt, lt));
+    PredicateEvaluator three = PredicateEvaluator.compile(Arrays.asList(gt, lt, ne));
+    for (int a = -1; a <= 4; a++) {
+      for (int b = 6; b <= 8; b++) {
+        Tuple t = Utility.getHeapTuple(new int[] { a, b });
+        assertEquals(gt.filter(t) && lt.filter(t), two.test(t));
+        assertEquals(gt.filter(t) && lt.filter(t) && ne.filter(t), three.test(t));
+      }
+    }
+    assertEquals(null, PredicateEvaluator.compile(Arrays.<Predicate>asList()));
+  }
+
   /**
    * JUnit suite target
    */
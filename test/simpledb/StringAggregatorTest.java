@@ -9,6 +9,8 @@ import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
 import simpledb.execution.StringAggregator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
@@ -109,6 +111,32 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test that counts survive spilling the group table to disk
+   */
+  @Test public void testSpill() throws Exception {
+    Object[] tupdata = new Object[2 * 3000];
+    for (int i = 0; i < 3000; i++) {
+      tupdata[2 * i] = i % 500;
+      tupdata[2 * i + 1] = "s" + i;
+    }
+    OpIterator scan = TestUtil.createTupleList(width1, tupdata);
+    StringAggregator agg = new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT, 10);
+    while (scan.hasNext())
+      agg.mergeTupleIntoGroup(scan.next());
+
+    OpIterator it = agg.iterator();
+    it.open();
+    Set<Integer> groups = new HashSet<>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(6, ((IntField) t.getField(1)).getValue());
+      groups.add(((IntField) t.getField(0)).getValue());
+    }
+    assertEquals(500, groups.size());
+    it.close();
+  }
+
   /**
    * JUnit suite target
    */
@@ -1,8 +1,14 @@
 package simpledb;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import org.junit.Before;
 import org.junit.Test;
@@ -15,9 +21,11 @@ import simpledb.optimizer.TableStats;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
 import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class TableStatsTest extends SimpleDbTestBase {
 	public static final int IO_COST = 71;
@@ -160,4 +168,139 @@ public class TableStatsTest extends SimpleDbTestBase {
 			Assert.assertEquals(0.0, s.estimateSelectivity(col, Predicate.Op.LESS_THAN_OR_EQ, belowMin), 0.001);
 		}
 	}
+
+	/**
+	 * Verify that a value held by half the rows of a column is estimated
+	 * from the common values, and the rest from the histogram and the
+	 * number of distinct values.
+	 */
+	@Test public void skewedStatsTest() throws IOException {
+		List<List<Integer>> rows = new ArrayList<>();
+		Random r = new Random(7);
+		for (int i = 0; i < 20000; i++)
+			rows.add(Arrays.asList(i % 2 == 0 ? 0 : 1 + r.nextInt(9999), i));
+		Set<Integer> distinct = new HashSet<>();
+		for (List<Integer> row : rows)
+			distinct.add(row.get(0));
+		HeapFile hf = JoinOptimizerTest.createDuplicateHeapFile(rows, 2, "c");
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		TableStats s = new TableStats(hf.getId(), IO_COST);
+
+		Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(0)), 0.02);
+		Assert.assertEquals(0.5 / (distinct.size() - 1),
+				s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5000)), 0.00002);
+		Assert.assertEquals(0.75, s.estimateSelectivity(0, Predicate.Op.LESS_THAN, new IntField(5000)), 0.03);
+		Assert.assertEquals(0.5, s.estimateSelectivity(0, Predicate.Op.GREATER_THAN, new IntField(0)), 0.02);
+		Assert.assertEquals(0.5, s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(10000)), 0.03);
+
+		// HyperLogLog counts within a few percent
+		Assert.assertEquals(distinct.size(), s.numDistinct(0), distinct.size() * 0.05);
+		Assert.assertEquals(20000, s.numDistinct(1), 20000 * 0.05);
+	}
+
+	/**
+	 * Verify that statistics built from a sample of a large table still
+	 * count every tuple, and estimate selectivities close to the true ones.
+	 */
+	@Test public void sampledStatsTest() throws IOException {
+		List<List<Integer>> rows = new ArrayList<>();
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 200000, 1000, null, rows);
+		Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+		int below = 0;
+		for (List<Integer> row : rows) {
+			if (row.get(1) < 250)
+				below++;
+		}
+		double rate = TableStats.getSampleRate();
+		TableStats.setSampleRate(0.05);
+		try {
+			TableStats s = new TableStats(hf.getId(), IO_COST);
+			Assert.assertEquals(200000, s.totalTuples());
+			Assert.assertEquals((double) below / rows.size(),
+					s.estimateSelectivity(1, Predicate.Op.LESS_THAN, new IntField(250)), 0.02);
+		} finally {
+			TableStats.setSampleRate(rate);
+		}
+	}
+
+	/**
+	 * Verify that the statistics of the whole catalog, read in parallel, are
+	 * those of each table read alone.
+	 */
+	@Test public void computeStatisticsTest() {
+		TableStats.computeStatistics();
+		TableStats parallel = TableStats.getTableStats(this.tableName);
+		TableStats alone = new TableStats(this.tableId, IO_COST);
+		Assert.assertEquals(alone.totalTuples(), parallel.totalTuples());
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(alone.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(16)),
+					parallel.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(16)), 1e-9);
+		}
+	}
+
+	private Tuple tuple(int value) {
+		Tuple t = new Tuple(f.getTupleDesc());
+		for (int i = 0; i < 10; i++)
+			t.setField(i, new IntField(value));
+		return t;
+	}
+
+	/**
+	 * Verify that saved statistics are loaded as they were saved, unless the
+	 * table's file changed since.
+	 */
+	@Test public void persistStatsTest() throws IOException {
+		File file = File.createTempFile("table", ".stats");
+		file.deleteOnExit();
+		TableStats.setTableStats(tableName, new TableStats(tableId, IO_COST));
+		// counted in the saved stats, but not in the file
+		TableStats.tupleInserted(tableId, tuple(5));
+		TableStats.saveStatistics(file);
+
+		TableStats.loadStatistics(file);
+		Assert.assertEquals(10201, TableStats.getTableStats(tableName).totalTuples());
+
+		try (FileOutputStream out = new FileOutputStream(f.getFile(), true)) {
+			out.write(new byte[4096]);
+		}
+		TableStats.loadStatistics(file);
+		Assert.assertEquals(10200, TableStats.getTableStats(tableName).totalTuples());
+	}
+
+	/**
+	 * Verify that inserts update the statistics, and that once
+	 * enough rows changed, the table is analyzed again after the commit.
+	 */
+	@Test public void incrementalStatsTest() throws Exception {
+		HeapFile small = SystemTestUtil.createRandomHeapFile(10, 500, 32, null, null);
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(small, name);
+		TableStats s = new TableStats(small.getId(), IO_COST);
+		TableStats.setTableStats(name, s);
+		TableStats.setReanalyzeThreshold(0.05);
+		try {
+			double before = s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(7));
+			TransactionId tid = new TransactionId();
+			for (int i = 0; i < 30; i++)
+				Database.getBufferPool().insertTuple(tid, small.getId(), tuple(7));
+			Assert.assertEquals(530, s.totalTuples());
+			Assert.assertTrue(s.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(7)) > before);
+			Database.getBufferPool().transactionComplete(tid);
+			// fewer rows changed than the threshold of a table this small
+			Assert.assertSame(s, TableStats.getTableStats(name));
+
+			tid = new TransactionId();
+			for (int i = 0; i < 30; i++)
+				Database.getBufferPool().insertTuple(tid, small.getId(), tuple(8));
+			Database.getBufferPool().transactionComplete(tid);
+			long deadline = System.currentTimeMillis() + 10000;
+			while (TableStats.getTableStats(name) == s && System.currentTimeMillis() < deadline)
+				Thread.sleep(10);
+			TableStats fresh = TableStats.getTableStats(name);
+			Assert.assertNotSame(s, fresh);
+			Assert.assertEquals(560, fresh.totalTuples());
+		} finally {
+			TableStats.setReanalyzeThreshold(0.2);
+		}
+	}
 }
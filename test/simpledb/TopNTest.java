@@ -0,0 +1,123 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TopN;
+import simpledb.systemtest.SimpleDbTestBase;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  final int width = 2;
+  OpIterator scan;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleList() {
+    this.scan = TestUtil.createTupleList(width,
+        new int[] { 5, 0,
+                    3, 1,
+                    9, 2,
+                    3, 3,
+                    1, 4,
+                    7, 5 });
+  }
+
+  /**
+   * Unit test for TopN.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    TopN op = new TopN(0, true, 3, scan);
+    assertEquals(Utility.getTupleDesc(width), op.getTupleDesc());
+  }
+
+  /**
+   * TopN ascending keeps the smallest tuples, in order; ties keep input order
+   */
+  @Test public void topAscending() throws Exception {
+    TopN op = new TopN(0, true, 3, scan);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 1, 4,
+                    3, 1,
+                    3, 3 }), op);
+    op.close();
+  }
+
+  /**
+   * TopN descending keeps the largest tuples, in order
+   */
+  @Test public void topDescending() throws Exception {
+    TopN op = new TopN(0, false, 2, scan);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 9, 2,
+                    7, 5 }), op);
+    op.close();
+  }
+
+  /**
+   * TopN with a limit larger than the input returns the same as OrderBy
+   */
+  @Test public void limitAboveInputSize() throws Exception {
+    TopN op = new TopN(0, true, 100, scan);
+    op.open();
+    OrderBy expected = new OrderBy(0, true, TestUtil.createTupleList(width,
+        new int[] { 5, 0, 3, 1, 9, 2, 3, 3, 1, 4, 7, 5 }));
+    expected.open();
+    TestUtil.compareDbIterators(expected, op);
+    op.close();
+  }
+
+  /**
+   * TopN with a limit of zero returns nothing
+   */
+  @Test public void limitZero() throws Exception {
+    TopN op = new TopN(0, true, 0, scan);
+    op.open();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.close();
+  }
+
+  /**
+   * Unit test for TopN.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    TopN op = new TopN(0, true, 2, scan);
+    op.open();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { 1, 4 }), op.next()));
+    op.next();
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    assertTrue(TestUtil.compareTuples(Utility.getHeapTuple(new int[] { 1, 4 }), op.next()));
+    op.close();
+  }
+
+  /**
+   * Limit stops after the first n tuples of its child
+   */
+  @Test public void limit() throws Exception {
+    Limit op = new Limit(2, scan);
+    op.open();
+    TestUtil.compareDbIterators(TestUtil.createTupleList(width,
+        new int[] { 5, 0,
+                    3, 1 }), op);
+    op.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
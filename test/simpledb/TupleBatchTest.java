@@ -0,0 +1,201 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IntegerAggregator;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleBatch;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  /** A two column input of n tuples (i % mod, i) */
+  private static OpIterator input(int n, int mod) {
+    int[] values = new int[2 * n];
+    for (int i = 0; i < n; i++) {
+      values[2 * i] = i % mod;
+      values[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, values);
+  }
+
+  /** Reads every selected row of every batch, as sorted strings */
+  private static List<String> drainBatches(OpIterator it, int maxRows) throws Exception {
+    List<String> out = new ArrayList<>();
+    it.open();
+    TupleBatch b;
+    while ((b = it.nextBatch(maxRows)) != null) {
+      for (int i = 0; i < b.size(); i++)
+        out.add(b.getTuple(i).toString());
+    }
+    it.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  private static List<String> drainTuples(OpIterator it) throws Exception {
+    List<String> out = new ArrayList<>();
+    it.open();
+    while (it.hasNext())
+      out.add(it.next().toString());
+    it.close();
+    Collections.sort(out);
+    return out;
+  }
+
+  /**
+   * Rows added to a batch come back unchanged, for INT and STRING columns
+   */
+  @Test public void addAndGet() throws Exception {
+    TupleBatch b = TupleBatch.fill(TestUtil.createTupleList(2,
+        new Object[] { 1, "one", 2, "two", 3, "three" }), 2);
+    assertEquals(2, b.size());
+    assertEquals(1, b.intColumn(0)[0]);
+    assertEquals(new StringField("two", Type.STRING_LEN), b.getField(1, 1));
+    b.setSelection(new int[] { 1 }, 1);
+    assertEquals(1, b.size());
+    assertEquals(new IntField(2), b.getTuple(0).getField(0));
+  }
+
+  /**
+   * The batch path of Filter selects the same rows as the tuple path
+   */
+  @Test public void filter() throws Exception {
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(0, op, new IntField(3));
+      assertEquals(op.toString(), drainTuples(new Filter(p, input(1000, 7))),
+          drainBatches(new Filter(p, input(1000, 7)), 100));
+    }
+  }
+
+  /**
+   * Stacked filters narrow the same batch twice
+   */
+  @Test public void stackedFilters() throws Exception {
+    Predicate p1 = new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2));
+    Predicate p2 = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+    assertEquals(drainTuples(new Filter(p2, new Filter(p1, input(1000, 7)))),
+        drainBatches(new Filter(p2, new Filter(p1, input(1000, 7))), 64));
+  }
+
+  /**
+   * The batch path of Project keeps the selection of its child
+   */
+  @Test public void project() throws Exception {
+    List<Integer> fields = new ArrayList<>();
+    fields.add(1);
+    Predicate p = new Predicate(0, Predicate.Op.EQUALS, new IntField(0));
+    Type[] types = new Type[] { Type.INT_TYPE };
+    assertEquals(drainTuples(new Project(fields, types, new Filter(p, input(1000, 7)))),
+        drainBatches(new Project(fields, types, new Filter(p, input(1000, 7))), 128));
+  }
+
+  /**
+   * The batch path of HashEquiJoin returns the same rows as the tuple path
+   */
+  @Test public void hashEquiJoin() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    List<String> expected = drainTuples(new HashEquiJoin(p, input(300, 20), input(500, 30)));
+    assertEquals(20 * 15 * 17, expected.size());
+    assertEquals(expected, drainBatches(new HashEquiJoin(p, input(300, 20), input(500, 30)), 77));
+  }
+
+  /**
+   * The batch path of HashEquiJoin reads a build side larger than MAP_SIZE in
+   * chunks, holding at most one chunk at a time
+   */
+  @Test public void hashEquiJoinChunks() throws Exception {
+    JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    int n = 2 * HashEquiJoin.MAP_SIZE + 300;
+    List<String> expected = drainTuples(new HashEquiJoin(p, input(n, 1000), input(500, 30)));
+    assertEquals(41 * 500, expected.size());
+    // child2 would fit in a table: keep the sides to check the chunks
+    HashEquiJoin.setAdaptive(false);
+    try {
+      HashEquiJoin j = new HashEquiJoin(p, input(n, 1000), input(500, 30));
+      assertEquals(expected, drainBatches(j, 100));
+      int width = j.getChildren()[0].getTupleDesc().getSize();
+      assertTrue(j.getPeakMemory() < (long) (HashEquiJoin.MAP_SIZE + 1) * (width + 12));
+    } finally {
+      HashEquiJoin.setAdaptive(true);
+    }
+  }
+
+  /**
+   * IntegerAggregator gives the same groups from batches as from tuples
+   */
+  @Test public void aggregateBatches() throws Exception {
+    for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.MIN, Aggregator.Op.MAX,
+        Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT }) {
+      for (int gb : new int[] { Aggregator.NO_GROUPING, 0 }) {
+        Type gbType = gb == Aggregator.NO_GROUPING ? null : Type.INT_TYPE;
+        IntegerAggregator byTuple = new IntegerAggregator(gb, gbType, 1, op);
+        IntegerAggregator byBatch = new IntegerAggregator(gb, gbType, 1, op);
+        OpIterator it = input(1000, 13);
+        it.open();
+        while (it.hasNext())
+          byTuple.mergeTupleIntoGroup(it.next());
+        it.rewind();
+        TupleBatch b;
+        while ((b = it.nextBatch(100)) != null)
+          byBatch.mergeBatchIntoGroup(b);
+        assertEquals(op + " " + gb, drainTuples(byTuple.iterator()), drainTuples(byBatch.iterator()));
+      }
+    }
+  }
+
+  /**
+   * SeqScan returns every tuple of the table in batches
+   */
+  @Test public void seqScan() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(3, 5000, null, tuples);
+    TransactionId tid = new TransactionId();
+    SeqScan scan = new SeqScan(tid, f.getId(), "t");
+    List<String> expected = new ArrayList<>();
+    for (List<Integer> t : tuples) {
+      int[] values = new int[t.size()];
+      for (int i = 0; i < values.length; i++)
+        values[i] = t.get(i);
+      expected.add(Utility.getHeapTuple(values).toString());
+    }
+    Collections.sort(expected);
+    assertEquals(expected, drainBatches(scan, TupleBatch.DEFAULT_CAPACITY));
+    scan.open();
+    while (scan.nextBatch(1000) != null) { }
+    assertNull(scan.nextBatch(1000));
+    scan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
@@ -1,6 +1,7 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
@@ -59,6 +60,38 @@ public class TupleTest extends SimpleDbTestBase {
 	}
     }
 
+    /**
+     * Unit test for JoinedTuple, which reads the fields of two tuples
+     */
+    @Test public void joinedTuple() {
+        Tuple left = Utility.getHeapTuple(new int[] { 1, 2 });
+        Tuple right = Utility.getHeapTuple(new int[] { 3, 4, 5 });
+        JoinedTuple joined = new JoinedTuple(Utility.getTupleDesc(5), left, right);
+        for (int i = 0; i < 5; i++)
+            assertEquals(new IntField(i + 1), joined.getField(i));
+        assertEquals("1\t2\t3\t4\t5", joined.toString());
+
+        // setting a field leaves the joined tuples unchanged
+        joined.setField(3, new IntField(40));
+        assertEquals(new IntField(40), joined.getField(3));
+        assertEquals(new IntField(4), right.getField(1));
+        assertEquals(new IntField(5), joined.getField(4));
+
+        joined.set(right, left);
+        assertEquals(new IntField(3), joined.getField(0));
+        assertEquals(new IntField(2), joined.getField(4));
+    }
+
+    /**
+     * Unit test for IntField.valueOf()
+     */
+    @Test public void intFieldValueOf() {
+        assertSame(IntField.valueOf(7), IntField.valueOf(7));
+        assertSame(IntField.valueOf(-128), IntField.valueOf(-128));
+        for (int v : new int[] { -129, -1, 0, 1023, 1024, Integer.MAX_VALUE, Integer.MIN_VALUE })
+            assertEquals(new IntField(v), IntField.valueOf(v));
+    }
+
     /**
      * JUnit suite target
      */
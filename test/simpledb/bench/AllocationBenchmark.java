@@ -0,0 +1,102 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.function.Supplier;
+
+/**
+ * Measures the bytes allocated per output row by a projection and by hash
+ * and nested loops joins, with and without tuple reuse (see
+ * {@link OpIterator#setTupleReuse}). The tables fit in the buffer pool, so
+ * page reads do not count. Allocation is read from the JVM's per-thread
+ * counter, like JMH's gc profiler does.
+ * <p>
+ * Run with <code>ant runbench -Dbench=AllocationBenchmark</code>.
+ */
+public class AllocationBenchmark {
+    private static final int ROWS = 100000;
+    private static final int RUNS = 6;
+
+    public static void main(String[] args) throws Exception {
+        HeapFile big = create(ROWS, 1000, 7);
+        HeapFile small = create(1000, 1000, 8);
+        Database.resetBufferPool(big.numPages() + small.numPages() + 16);
+        System.out.println(ROWS + " x 1000 rows, 4 INT columns, join keys below 1000");
+
+        measure("project", () -> new Project(Arrays.asList(0, 2), new simpledb.common.Type[] {
+                simpledb.common.Type.INT_TYPE, simpledb.common.Type.INT_TYPE }, scan(big)));
+        measure("hash join", () -> new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                scan(small), scan(big)));
+        measure("nested loops join", () -> new Join(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                scan(small), scan(big)));
+    }
+
+    private static HeapFile create(int rows, int keys, long seed) throws Exception {
+        Random r = new Random(seed);
+        List<List<Integer>> tuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++)
+            tuples.add(Arrays.asList(r.nextInt(keys), r.nextInt(), i, r.nextInt(100)));
+        File f = File.createTempFile("alloc", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 4);
+        HeapFile file = new HeapFile(f, Utility.getTupleDesc(4));
+        Database.getCatalog().addTable(file, f.getName());
+        return file;
+    }
+
+    private static SeqScan scan(HeapFile f) {
+        return new SeqScan(new TransactionId(), f.getId());
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private static void measure(String name, Supplier<OpIterator> plan) throws Exception {
+        for (int run = 0; run < RUNS; run++) {
+            double[] bytesPerRow = new double[2];
+            long[] nanos = new long[2];
+            for (int reuse = 0; reuse < 2; reuse++) {
+                OpIterator it = plan.get();
+                it.setTupleReuse(reuse == 1);
+                long bytes = allocatedBytes();
+                long start = System.nanoTime();
+                long rows = 0, sum = 0;
+                it.open();
+                while (it.hasNext()) {
+                    sum += ((IntField) it.next().getField(1)).getValue();
+                    rows++;
+                }
+                it.close();
+                nanos[reuse] = System.nanoTime() - start;
+                bytesPerRow[reuse] = (double) (allocatedBytes() - bytes) / rows;
+                if (sum == 42)
+                    System.out.print("");
+            }
+            // the first runs warm up the buffer pool and the JIT
+            if (run >= RUNS / 2)
+                System.out.printf("%-18s copied %6.1f B/row %7.1f ms    reused %6.1f B/row %7.1f ms%n",
+                        name, bytesPerRow[0], nanos[0] / 1e6, bytesPerRow[1], nanos[1] / 1e6);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb.bench;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.JoinOptimizer;
+import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Times the ordering of 4, 8, 12 and 16 joins over chain, cycle and star
+ * shaped join graphs, by dynamic programming (DPccp) and greedily, and
+ * reports the estimated cost of the greedy plan relative to the optimal one.
+ * <p>
+ * Run with <code>ant runbench -Dbench=JoinOrderBenchmark</code>.
+ */
+public class JoinOrderBenchmark {
+    private static final int[] JOINS = { 4, 8, 12, 16 };
+    private static final int TABLES = 17;
+    private static final int RUNS = 10;
+
+    private static final Map<String, TableStats> stats = new HashMap<>();
+    private static final Map<String, Double> selectivities = new HashMap<>();
+
+    public static void main(String[] args) throws Exception {
+        Random r = new Random(42);
+        StringBuilder from = new StringBuilder();
+        for (int i = 0; i < TABLES; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 + r.nextInt(5000), 1000, null, null, "c");
+            String name = "t" + i;
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), 100));
+            selectivities.put(name, 0.1 + 0.9 * r.nextDouble());
+            from.append(i == 0 ? "" : ", ").append(name);
+        }
+        LogicalPlan lp = new Parser().generateLogicalPlan(new TransactionId(), "SELECT * FROM " + from + ";");
+
+        for (String shape : new String[] { "chain", "cycle", "star" }) {
+            for (int joins : JOINS) {
+                List<LogicalJoinNode> nodes = graph(shape, joins);
+                JoinOptimizer.setDpTableLimit(Long.SIZE);
+                long dp = time(lp, nodes);
+                double dpCost = cost(lp, nodes);
+                JoinOptimizer.setDpTableLimit(2);
+                long greedy = time(lp, nodes);
+                double greedyCost = cost(lp, nodes);
+                System.out.printf("%-5s %2d joins: DPccp %9.3f ms  greedy %7.3f ms  greedy/optimal cost %.2f%n",
+                        shape, joins, dp / 1e6, greedy / 1e6, greedyCost / dpCost);
+            }
+        }
+    }
+
+    /** @return the joins of a graph of the given shape */
+    private static List<LogicalJoinNode> graph(String shape, int joins) {
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        int tables = shape.equals("cycle") ? joins : joins + 1;
+        for (int i = 1; i < tables; i++) {
+            String other = shape.equals("star") ? "t0" : "t" + (i - 1);
+            nodes.add(new LogicalJoinNode(other, "t" + i, "c0", "c1", Predicate.Op.EQUALS));
+        }
+        if (shape.equals("cycle"))
+            nodes.add(new LogicalJoinNode("t" + (tables - 1), "t0", "c0", "c1", Predicate.Op.EQUALS));
+        return nodes;
+    }
+
+    /** @return the median time to order the joins, in nanoseconds */
+    private static long time(LogicalPlan lp, List<LogicalJoinNode> nodes) throws Exception {
+        long[] times = new long[RUNS];
+        for (int run = 0; run < RUNS; run++) {
+            long start = System.nanoTime();
+            new JoinOptimizer(lp, nodes).orderJoins(stats, selectivities, false);
+            times[run] = System.nanoTime() - start;
+        }
+        Arrays.sort(times);
+        return times[RUNS / 2];
+    }
+
+    /** @return the estimated cost of the chosen left-to-right join order */
+    private static double cost(LogicalPlan lp, List<LogicalJoinNode> nodes) throws Exception {
+        JoinOptimizer jo = new JoinOptimizer(lp, nodes);
+        Map<String, double[]> plans = new HashMap<>();
+        double[] last = null;
+        for (LogicalJoinNode j : jo.orderJoins(stats, selectivities, false)) {
+            double[] p1 = plan(plans, j.t1Alias), p2 = plan(plans, j.t2Alias);
+            if (p1 == p2)
+                continue;
+            int card = jo.estimateJoinCardinality(j, (int) p1[1], (int) p2[1], false, false, stats);
+            last = new double[] { jo.estimateJoinCost(j, (int) p1[1], (int) p2[1], p1[0], p2[0]), card };
+            for (Map.Entry<String, double[]> e : plans.entrySet()) {
+                if (e.getValue() == p1 || e.getValue() == p2)
+                    e.setValue(last);
+            }
+        }
+        return last[0];
+    }
+
+    private static double[] plan(Map<String, double[]> plans, String alias) {
+        return plans.computeIfAbsent(alias, a -> new double[] { stats.get(a).estimateScanCost(),
+                stats.get(a).estimateTableCardinality(selectivities.get(a)) });
+    }
+}
@@ -0,0 +1,109 @@
+package simpledb.bench;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxFile;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares scans of 2 out of 20 INT columns over the same table stored with
+ * the row layout (HeapFile) and the column layout (PaxFile). Both tables fit
+ * in the buffer pool, so the timings cover decoding and not I/O.
+ * <p>
+ * Run with <code>ant runbench -Dbench=PaxScanBenchmark</code>.
+ */
+public class PaxScanBenchmark {
+    private static final int COLUMNS = 20;
+    private static final int ROWS = 200000;
+    private static final int[] SCANNED = { 3, 17 };
+    private static final int RUNS = 10;
+
+    public static void main(String[] args) throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>(ROWS);
+        Random r = new Random(42);
+        for (int i = 0; i < ROWS; i++) {
+            List<Integer> t = new ArrayList<>(COLUMNS);
+            for (int j = 0; j < COLUMNS; j++)
+                t.add(r.nextInt(1 << 20));
+            tuples.add(t);
+        }
+
+        HeapFile row = create(tuples, false);
+        HeapFile pax = create(tuples, true);
+        Database.resetBufferPool(2 * row.numPages() + 16);
+        System.out.println(ROWS + " rows, " + COLUMNS + " INT columns, " + row.numPages() + " pages per table");
+
+        for (int run = 0; run < RUNS; run++) {
+            long rowTuples = scanTuples(row), paxTuples = scanTuples(pax);
+            long rowBatches = scanBatches(row), paxBatches = scanBatches(pax);
+            // the first runs warm up the buffer pool and the JIT
+            if (run >= RUNS / 2)
+                System.out.printf("tuples: row %6.1f ms  pax %6.1f ms    batches: row %6.1f ms  pax %6.1f ms%n",
+                        rowTuples / 1e6, paxTuples / 1e6, rowBatches / 1e6, paxBatches / 1e6);
+        }
+    }
+
+    private static HeapFile create(List<List<Integer>> tuples, boolean pax) throws Exception {
+        File f = File.createTempFile(pax ? "pax" : "row", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS, pax);
+        HeapFile file = pax ? new PaxFile(f, Utility.getTupleDesc(COLUMNS))
+                : new HeapFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(file, f.getName());
+        return file;
+    }
+
+    private static SeqScan scan(HeapFile f) {
+        SeqScan s = new SeqScan(new TransactionId(), f.getId());
+        s.setColumns(SCANNED);
+        return s;
+    }
+
+    private static long scanTuples(HeapFile f) throws Exception {
+        long start = System.nanoTime();
+        SeqScan s = scan(f);
+        long sum = 0;
+        s.open();
+        while (s.hasNext())
+            sum += ((IntField) s.next().getField(1)).getValue();
+        s.close();
+        check(sum);
+        return System.nanoTime() - start;
+    }
+
+    private static long scanBatches(HeapFile f) throws Exception {
+        long start = System.nanoTime();
+        SeqScan s = scan(f);
+        long sum = 0;
+        s.open();
+        TupleBatch b;
+        while ((b = s.nextBatch(TupleBatch.DEFAULT_CAPACITY)) != null) {
+            int[] c = b.intColumn(1);
+            for (int i = 0; i < b.size(); i++)
+                sum += c[b.rowAt(i)];
+        }
+        s.close();
+        check(sum);
+        return System.nanoTime() - start;
+    }
+
+    private static long expected = -1;
+
+    private static void check(long sum) {
+        if (expected < 0)
+            expected = sum;
+        else if (expected != sum)
+            throw new IllegalStateException("scans disagree: " + sum + " != " + expected);
+    }
+}
@@ -0,0 +1,166 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.AccessPath;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.AccessPathOptimizer;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that the optimizer reads a B+ tree file by range when predicates on
+ * its key are selective, and that every access path returns the tuples of a
+ * full scan.
+ */
+public class AccessPathTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 10000;
+
+    private static Predicate pred(int field, Predicate.Op op, int value) {
+        return new Predicate(field, op, new IntField(value));
+    }
+
+    /**
+     * Chooses the access path of a scan of f with the given predicates, and
+     * checks the tuples it returns.
+     */
+    private static AccessPath validate(BTreeFile f, List<List<Integer>> tuples, int[] columns,
+                                       Predicate... filters) throws Exception {
+        TableStats stats = new TableStats(f.getId(), 1000);
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        for (Predicate p : filters)
+            scan.addFilter(p);
+        scan.setColumns(columns);
+        AccessPath path = AccessPathOptimizer.chooseAccessPath(scan, stats, false);
+        assertSame(path, scan.getAccessPath());
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            boolean ok = true;
+            for (Predicate p : filters)
+                ok &= new IntField(t.get(p.getField())).compare(p.getOp(), p.getOperand());
+            if (!ok)
+                continue;
+            List<Integer> row = new ArrayList<>();
+            for (int c : columns)
+                row.add(t.get(c));
+            expected.add(row);
+        }
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+        return path;
+    }
+
+    @Test public void testBTreePaths() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(3, ROWS, MAX_VALUE, null, tuples, 0);
+        TableStats stats = new TableStats(f.getId(), 1000);
+        assertTrue(stats.indexHeight() >= 2);
+        int[] all = { 0, 1, 2 };
+
+        AccessPath path = validate(f, tuples, all, pred(0, Predicate.Op.EQUALS, MAX_VALUE / 3));
+        assertEquals(AccessPath.Kind.INDEX_RANGE_SCAN, path.getKind());
+        assertSame(path.getLower(), path.getUpper());
+
+        // both bounds of the range are used
+        Predicate lower = pred(0, Predicate.Op.GREATER_THAN_OR_EQ, MAX_VALUE / 2);
+        Predicate upper = pred(0, Predicate.Op.LESS_THAN, MAX_VALUE / 2 + MAX_VALUE / 20);
+        path = validate(f, tuples, all, pred(1, Predicate.Op.GREATER_THAN, MAX_VALUE / 4), lower, upper);
+        assertEquals(AccessPath.Kind.INDEX_RANGE_SCAN, path.getKind());
+        assertSame(lower, path.getLower());
+        assertSame(upper, path.getUpper());
+        assertTrue(path.getCost() < stats.estimateIndexScanCost(0.2));
+
+        // the most selective of two lower bounds
+        Predicate loose = pred(0, Predicate.Op.GREATER_THAN, MAX_VALUE / 10);
+        Predicate tight = pred(0, Predicate.Op.GREATER_THAN, MAX_VALUE - MAX_VALUE / 10);
+        path = validate(f, tuples, all, loose, tight);
+        assertSame(tight, path.getLower());
+        assertNull(path.getUpper());
+
+        // a range that holds every key costs as much as a full scan
+        path = validate(f, tuples, all, pred(0, Predicate.Op.GREATER_THAN_OR_EQ, -1));
+        assertEquals(AccessPath.Kind.TABLE_SCAN, path.getKind());
+        path = validate(f, tuples, all, pred(1, Predicate.Op.EQUALS, 5));
+        assertEquals(AccessPath.Kind.TABLE_SCAN, path.getKind());
+
+        path = validate(f, tuples, new int[] { 0 }, pred(0, Predicate.Op.LESS_THAN_OR_EQ, MAX_VALUE / 100));
+        assertEquals(AccessPath.Kind.INDEX_ONLY_SCAN, path.getKind());
+        assertNull(path.getLower());
+    }
+
+    @Test public void testHeapFileScan() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 1000, MAX_VALUE, null, new ArrayList<>());
+        SeqScan scan = new SeqScan(new TransactionId(), f.getId());
+        scan.addFilter(pred(0, Predicate.Op.EQUALS, 3));
+        List<AccessPath> paths = AccessPathOptimizer.accessPaths(scan, new TableStats(f.getId(), 1000));
+        assertEquals(1, paths.size());
+        assertEquals(AccessPath.Kind.TABLE_SCAN, paths.get(0).getKind());
+    }
+
+    private static SeqScan findScan(OpIterator plan) {
+        if (plan instanceof SeqScan)
+            return (SeqScan) plan;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            SeqScan s = findScan(child);
+            if (s != null)
+                return s;
+        }
+        return null;
+    }
+
+    @Test public void testPlanner() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile random = BTreeUtility.createRandomBTreeFile(3, ROWS, MAX_VALUE, null, tuples, 1);
+        // reopen the file with named fields
+        BTreeFile f = new BTreeFile(random.getFile(), 1, Utility.getTupleDesc(3, "c"));
+        Database.getCatalog().addTable(f, "t");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("t", new TableStats(f.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(f.getId(), "t");
+        lp.addFilter("t.c1", Predicate.Op.GREATER_THAN, String.valueOf(MAX_VALUE - 200));
+        lp.addFilter("t.c2", Predicate.Op.LESS_THAN, String.valueOf(MAX_VALUE / 2));
+        lp.addProjectField("t.c0", null);
+        lp.setParallelism(1);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) > MAX_VALUE - 200 && t.get(2) < MAX_VALUE / 2)
+                expected.add(Arrays.asList(t.get(0)));
+        }
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        AccessPath path = findScan(plan).getAccessPath();
+        assertEquals(AccessPath.Kind.INDEX_RANGE_SCAN, path.getKind());
+        assertEquals(1, path.getLower().getField());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(AccessPathTest.class);
+    }
+}
@@ -0,0 +1,226 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleBatch;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks the feedback of query execution: the rows operators report, the
+ * hash join that builds on its smaller input once it sees the sizes, and
+ * the selectivities observed by scans that later estimates use.
+ */
+public class AdaptiveExecutionTest extends SimpleDbTestBase {
+    private static final int MAX_VALUE = 5000;
+
+    @After public void restore() {
+        HashEquiJoin.setAdaptive(true);
+    }
+
+    private static int count(OpIterator plan) throws Exception {
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        return n;
+    }
+
+    private static int joinCount(List<List<Integer>> a, List<List<Integer>> b) {
+        Map<Integer, Integer> keys = new HashMap<>();
+        for (List<Integer> t : b)
+            keys.merge(t.get(0), 1, Integer::sum);
+        int n = 0;
+        for (List<Integer> t : a)
+            n += keys.getOrDefault(t.get(0), 0);
+        return n;
+    }
+
+    @Test public void testActualCardinality() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, MAX_VALUE, null, tuples, "c");
+        int bound = MAX_VALUE / 4;
+        int expected = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < bound)
+                expected++;
+        }
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId());
+        Filter filter = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(bound)), scan);
+        assertEquals(expected, count(filter));
+        assertEquals(expected, filter.getActualCardinality());
+        assertEquals(tuples.size(), scan.getActualCardinality());
+
+        // the rows of every pass are counted
+        filter.rewind();
+        assertTrue(filter.hasNext());
+        filter.next();
+        assertEquals(expected + 1, filter.getActualCardinality());
+        filter.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSwapSides() throws Exception {
+        // the build side (child1) is larger than a hash table, the probe side small
+        List<List<Integer>> aTuples = new ArrayList<>(), bTuples = new ArrayList<>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 2 * HashEquiJoin.MAP_SIZE + 500, MAX_VALUE, null,
+                aTuples, "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 300, MAX_VALUE, null, bTuples, "c");
+        int expected = joinCount(aTuples, bTuples);
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()));
+        assertEquals(expected, count(join));
+        assertTrue(join.isSidesSwapped());
+        assertEquals(expected, join.getActualCardinality());
+        // the fields of child1 still come first
+        join.rewind();
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(t.getField(0), t.getField(2));
+        }
+        join.close();
+
+        HashEquiJoin.setAdaptive(false);
+        join = new HashEquiJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()));
+        assertEquals(expected, count(join));
+        assertFalse(join.isSidesSwapped());
+        join.close();
+
+        // neither side fits in a table: the join reads ahead and keeps its sides
+        HashEquiJoin.setAdaptive(true);
+        join = new HashEquiJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, a.getId()));
+        assertEquals(joinCount(aTuples, aTuples), count(join));
+        assertFalse(join.isSidesSwapped());
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int countBatches(HashEquiJoin join) throws Exception {
+        int n = 0;
+        join.open();
+        TupleBatch b;
+        while ((b = join.nextBatch(TupleBatch.DEFAULT_CAPACITY)) != null) {
+            for (int i = 0; i < b.size(); i++) {
+                // the fields of child1 still come first
+                Tuple t = b.getTuple(i);
+                assertEquals(t.getField(0), t.getField(2));
+            }
+            n += b.size();
+        }
+        return n;
+    }
+
+    @Test public void testSwapSidesBatches() throws Exception {
+        List<List<Integer>> aTuples = new ArrayList<>(), bTuples = new ArrayList<>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 2 * HashEquiJoin.MAP_SIZE + 500, MAX_VALUE, null,
+                aTuples, "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 300, MAX_VALUE, null, bTuples, "c");
+        JoinPredicate p = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()));
+        assertEquals(joinCount(aTuples, bTuples), countBatches(join));
+        assertTrue(join.isSidesSwapped());
+        join.close();
+        // the join starts over after being reopened
+        assertEquals(joinCount(aTuples, bTuples), countBatches(join));
+        assertTrue(join.isSidesSwapped());
+        join.close();
+
+        HashEquiJoin.setAdaptive(false);
+        join = new HashEquiJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()));
+        assertEquals(joinCount(aTuples, bTuples), countBatches(join));
+        assertFalse(join.isSidesSwapped());
+        join.close();
+
+        // neither side fits in a table
+        HashEquiJoin.setAdaptive(true);
+        join = new HashEquiJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, a.getId()));
+        assertEquals(joinCount(aTuples, aTuples), countBatches(join));
+        assertFalse(join.isSidesSwapped());
+        join.close();
+
+        // an aggregate reads its child in batches
+        join = new HashEquiJoin(p, new SeqScan(tid, a.getId()), new SeqScan(tid, b.getId()));
+        Aggregate agg = new Aggregate(join, 1, 0, Aggregator.Op.COUNT);
+        Map<Integer, Integer> groups = new HashMap<>();
+        agg.open();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            groups.put(((IntField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+        }
+        assertTrue(join.isSidesSwapped());
+        agg.close();
+        int total = 0;
+        for (int n : groups.values())
+            total += n;
+        assertEquals(joinCount(aTuples, bTuples), total);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSelectivityFeedback() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, 5000, MAX_VALUE, null, tuples, "c");
+        Database.getCatalog().addTable(f, "t");
+        TableStats stats = new TableStats(f.getId(), 1000);
+        TableStats.setTableStats("t", stats);
+        // a value inside the range of the histogram that no row has
+        Set<Integer> values = new HashSet<>();
+        for (List<Integer> t : tuples)
+            values.add(t.get(1));
+        int value = MAX_VALUE / 2;
+        while (values.contains(value))
+            value++;
+        IntField constant = new IntField(value);
+        assertTrue(stats.estimateSelectivity(1, Predicate.Op.EQUALS, constant) > 0);
+
+        TransactionId tid = new TransactionId();
+        SeqScan scan = new SeqScan(tid, f.getId());
+        scan.addFilter(new Predicate(1, Predicate.Op.EQUALS, constant));
+        assertEquals(0, count(scan));
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(0.0, stats.estimateSelectivity(1, Predicate.Op.EQUALS, constant), 0.0);
+        // other predicates are still estimated from the histograms
+        assertTrue(stats.estimateSelectivity(1, Predicate.Op.EQUALS, new IntField(value + 1)) > 0);
+
+        // a change to the table drops what was observed
+        Tuple t = new Tuple(f.getTupleDesc());
+        t.setField(0, new IntField(0));
+        t.setField(1, new IntField(value + 1));
+        TableStats.tupleInserted(f.getId(), t);
+        assertTrue(stats.estimateSelectivity(1, Predicate.Op.EQUALS, constant) > 0);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(AdaptiveExecutionTest.class);
+    }
+}
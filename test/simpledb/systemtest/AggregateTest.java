@@ -1,12 +1,19 @@
 package simpledb.systemtest;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
@@ -121,6 +128,65 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    @Test public void testParallelMatchesSerial()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 40 * ROWS, MAX_VALUE, null, createdTuples);
+        assertTrue(table.numPages() >= 4 * Aggregate.MIN_PAGES_PER_WORKER);
+
+        for (Aggregator.Op op : new Aggregator.Op[] { Aggregator.Op.COUNT,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.MAX }) {
+            List<List<Integer>> expected = aggregate(createdTuples, op, 0);
+            TransactionId tid = new TransactionId();
+            Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, op);
+            ag.setParallelism(4);
+            SystemTestUtil.matchTuples(ag, expected);
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    /** @return the aggregate spill files in the temporary directory */
+    private static List<String> spillFiles() {
+        List<String> names = new ArrayList<>();
+        String[] all = new File(System.getProperty("java.io.tmpdir")).list();
+        for (String name : all == null ? new String[0] : all) {
+            if (name.startsWith("agg") && name.endsWith(".spill"))
+                names.add(name);
+        }
+        return names;
+    }
+
+    @Test public void testSpilledCloseDeletesFiles()
+            throws IOException, DbException, TransactionAbortedException {
+        // more groups than an aggregator keeps in memory
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                2, Aggregator.DEFAULT_MAX_GROUPS + 5000, Integer.MAX_VALUE, null, createdTuples);
+        Set<Integer> groups = new HashSet<>();
+        for (List<Integer> t : createdTuples)
+            groups.add(t.get(0));
+        assertTrue(groups.size() > Aggregator.DEFAULT_MAX_GROUPS);
+
+        List<String> before = spillFiles();
+        TransactionId tid = new TransactionId();
+        Aggregate ag = new Aggregate(new SeqScan(tid, table.getId(), ""), 1, 0, Aggregator.Op.COUNT);
+        ag.setParallelism(1);
+        ag.open();
+        assertTrue(spillFiles().size() > before.size());
+        int rows = 0;
+        while (ag.hasNext()) {
+            ag.next();
+            rows++;
+        }
+        assertEquals(groups.size(), rows);
+        ag.close();
+        Database.getBufferPool().transactionComplete(tid);
+        List<String> after = spillFiles();
+        after.removeAll(before);
+        assertEquals(Collections.emptyList(), after);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);
@@ -0,0 +1,163 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.CompressedFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that tables stored with compressed pages behave like row-layout
+ * heap files and take less space.
+ */
+public class CompressedFileTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final String[] CITIES = { "boston", "cambridge", "somerville", "medford" };
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.INT_TYPE, Type.STRING_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "v", "city" });
+
+    private static List<String> randomRows() {
+        Random r = new Random(11);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < ROWS; i++)
+            lines.add((1000000 + i) + "," + (r.nextInt(50) - 25) + "," + CITIES[r.nextInt(CITIES.length)]);
+        return lines;
+    }
+
+    private static File createRowFile(List<String> lines) throws IOException {
+        File txt = File.createTempFile("compressed", ".txt");
+        txt.deleteOnExit();
+        try (FileWriter w = new FileWriter(txt)) {
+            for (String line : lines)
+                w.write(line + "\n");
+        }
+        File row = File.createTempFile("compressed", ".row");
+        row.deleteOnExit();
+        HeapFileEncoder.convert(txt, row, BufferPool.getPageSize(), 3, TYPES, ',');
+        return row;
+    }
+
+    private static CompressedFile createCompressedFile(List<String> lines) throws IOException {
+        File row = createRowFile(lines);
+        File dat = File.createTempFile("compressed", ".dat");
+        dat.deleteOnExit();
+        new File(dat.getPath() + CompressedFile.INDEX_SUFFIX).deleteOnExit();
+        CompressedFile.compress(row, dat, TD);
+        CompressedFile f = new CompressedFile(dat, TD);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private static String toLine(Tuple t) {
+        return ((IntField) t.getField(0)).getValue() + "," + ((IntField) t.getField(1)).getValue()
+                + "," + ((StringField) t.getField(2)).getValue();
+    }
+
+    private static List<String> readAll(CompressedFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        List<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            rows.add(toLine(it.next()));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    @Test public void testScan() throws Exception {
+        List<String> lines = randomRows();
+        File row = createRowFile(lines);
+        CompressedFile f = createCompressedFile(lines);
+        assertEquals(lines, readAll(f));
+        // small integers and four distinct strings take a few bits each
+        assertEquals(row.length() / BufferPool.getPageSize(), f.numPages());
+        assertTrue(f.getFile().length() * 10 < row.length());
+    }
+
+    @Test public void testReadPage() throws Exception {
+        List<String> lines = randomRows();
+        CompressedFile f = createCompressedFile(lines);
+        // pages are found through the index, in any order
+        int slots = (BufferPool.getPageSize() * 8) / (TD.getSize() * 8 + 1);
+        for (int pgNo = f.numPages() - 1; pgNo >= 0; pgNo -= 3) {
+            HeapPage page = (HeapPage) f.readPage(new HeapPageId(f.getId(), pgNo));
+            assertEquals(1000000 + pgNo * slots, page.getInt(0, 0));
+        }
+    }
+
+    @Test public void testInsertAndDelete() throws Exception {
+        List<String> lines = randomRows();
+        CompressedFile f = createCompressedFile(lines);
+        int pages = f.numPages();
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        List<String> expected = new ArrayList<>(lines);
+        expected.remove(toLine(first));
+        // values out of the page's range make it grow out of its space
+        for (int i = 0; i < 300; i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(-i));
+            t.setField(1, new IntField(Integer.MAX_VALUE - i));
+            t.setField(2, new StringField("new" + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            expected.add(toLine(t));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(f.numPages() > pages);
+
+        // the pages and the index survive being written to and read back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        CompressedFile reopened = new CompressedFile(f.getFile(), TD);
+        Database.getCatalog().addTable(reopened, SystemTestUtil.getUUID());
+        List<String> actual = readAll(reopened);
+        Collections.sort(actual);
+        Collections.sort(expected);
+        assertEquals(expected, actual);
+    }
+
+    @Test public void testCatalogSchema() throws IOException {
+        File dir = File.createTempFile("catalog", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("cold (a int, b string) compressed\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int cold = Database.getCatalog().getTableId("cold");
+        assertTrue(Database.getCatalog().getDatabaseFile(cold) instanceof CompressedFile);
+        assertEquals(0, ((CompressedFile) Database.getCatalog().getDatabaseFile(cold)).numPages());
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(CompressedFileTest.class);
+    }
+}
@@ -0,0 +1,262 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.PredicateEvaluator;
+import simpledb.execution.SeqScan;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.DictionaryField;
+import simpledb.storage.Field;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.StringDictionary;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that STRING fields read from heap files are encoded by their
+ * table's dictionary, and that filters, joins and aggregates over them give
+ * the same results as over plain strings.
+ */
+public class DictionaryEncodingTest extends SimpleDbTestBase {
+    private static final int ROWS = 3000;
+    private static final String[] COLORS = { "red", "green", "blue", "cyan", "magenta", "yellow", "black" };
+    private static final Type[] TYPES = { Type.INT_TYPE, Type.STRING_TYPE };
+    private static final TupleDesc TD = new TupleDesc(TYPES, new String[] { "id", "color" });
+
+    /** Creates a table of (i, random color) and counts the rows per color. */
+    private static HeapFile createTable(long seed, String[] colors, Map<String, Integer> counts) throws IOException {
+        Random r = new Random(seed);
+        File txt = File.createTempFile("dictionary", ".txt");
+        txt.deleteOnExit();
+        try (FileWriter w = new FileWriter(txt)) {
+            for (int i = 0; i < ROWS; i++) {
+                String color = colors[r.nextInt(colors.length)];
+                counts.merge(color, 1, Integer::sum);
+                w.write(i + "," + color + "\n");
+            }
+        }
+        File dat = File.createTempFile("dictionary", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(txt, dat, BufferPool.getPageSize(), 2, TYPES, ',');
+        HeapFile f = new HeapFile(dat, TD);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private static int count(OpIterator it) throws Exception {
+        int n = 0;
+        it.open();
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    @Test public void testScanSharesFields() throws Exception {
+        Map<String, Integer> counts = new HashMap<>();
+        HeapFile f = createTable(1, COLORS, counts);
+        Map<String, Field> seen = new HashMap<>();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext()) {
+            Field color = it.next().getField(1);
+            assertTrue(color instanceof DictionaryField);
+            // one field object per distinct value
+            Field first = seen.putIfAbsent(((StringField) color).getValue(), color);
+            assertTrue(first == null || first == color);
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(counts.keySet(), seen.keySet());
+        assertEquals(counts.size(), f.getDictionary(1).size());
+        assertNull(f.getDictionary(0));
+    }
+
+    @Test public void testFilter() throws Exception {
+        Map<String, Integer> counts = new HashMap<>();
+        HeapFile f = createTable(2, COLORS, counts);
+        for (String color : new String[] { "blue", "purple" }) {
+            StringField operand = new StringField(color, Type.STRING_LEN);
+            int expected = counts.getOrDefault(color, 0);
+
+            // checked on the page bytes
+            TransactionId tid = new TransactionId();
+            DbFileIterator it = f.iterator(tid,
+                    Collections.singletonList(new Predicate(1, Predicate.Op.EQUALS, operand)), null);
+            int n = 0;
+            it.open();
+            while (it.hasNext()) {
+                assertEquals(color, ((StringField) it.next().getField(1)).getValue());
+                n++;
+            }
+            it.close();
+            assertEquals(expected, n);
+
+            // checked on tuples
+            assertEquals(expected, count(new Filter(new Predicate(1, Predicate.Op.EQUALS, operand),
+                    new SeqScan(tid, f.getId()))));
+            assertEquals(ROWS - expected, count(new Filter(new Predicate(1, Predicate.Op.NOT_EQUALS, operand),
+                    new SeqScan(tid, f.getId()))));
+            Database.getBufferPool().transactionComplete(tid);
+        }
+    }
+
+    @Test public void testJoinAcrossDictionaries() throws Exception {
+        Map<String, Integer> left = new HashMap<>();
+        Map<String, Integer> right = new HashMap<>();
+        HeapFile f1 = createTable(3, COLORS, left);
+        // the second table has a value the first lacks, and its values are
+        // first read in another order, so the codes differ
+        String[] reversed = { "white", "black", "yellow", "magenta", "cyan", "blue" };
+        HeapFile f2 = createTable(4, reversed, right);
+        int expected = 0;
+        for (Map.Entry<String, Integer> e : left.entrySet())
+            expected += e.getValue() * right.getOrDefault(e.getKey(), 0);
+
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 1),
+                new SeqScan(tid, f1.getId()), new SeqScan(tid, f2.getId()));
+        int n = 0;
+        join.open();
+        while (join.hasNext()) {
+            Tuple t = join.next();
+            assertEquals(((StringField) t.getField(1)).getValue(), ((StringField) t.getField(3)).getValue());
+            n++;
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, n);
+    }
+
+    @Test public void testGroupBy() throws Exception {
+        Map<String, Integer> counts = new HashMap<>();
+        HeapFile f = createTable(5, COLORS, counts);
+        TransactionId tid = new TransactionId();
+        Aggregate agg = new Aggregate(new SeqScan(tid, f.getId()), 1, 1, Aggregator.Op.COUNT);
+        Map<String, Integer> actual = new HashMap<>();
+        agg.open();
+        while (agg.hasNext()) {
+            Tuple t = agg.next();
+            actual.put(((StringField) t.getField(0)).getValue(), ((IntField) t.getField(1)).getValue());
+        }
+        agg.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(counts, actual);
+    }
+
+    @Test public void testSerializedAsString() throws Exception {
+        HeapFile f = createTable(6, COLORS, new HashMap<>());
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        Field color = it.next().getField(1);
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(color);
+        }
+        Object copy = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+        assertEquals(StringField.class, copy.getClass());
+        assertEquals(color, copy);
+        assertEquals(copy, color);
+        assertEquals(color.hashCode(), copy.hashCode());
+    }
+
+    @Test public void testConcurrentEncode() throws Exception {
+        final int values = 2000;
+        StringDictionary d = new StringDictionary();
+        int[][] codes = new int[4][values];
+        Thread[] threads = new Thread[codes.length];
+        for (int t = 0; t < threads.length; t++) {
+            final int[] mine = codes[t];
+            final long seed = t;
+            threads[t] = new Thread(() -> {
+                // each thread adds the values in its own order
+                int[] order = new int[values];
+                for (int i = 0; i < values; i++)
+                    order[i] = i;
+                Random r = new Random(seed);
+                for (int i = values - 1; i > 0; i--) {
+                    int j = r.nextInt(i + 1);
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                }
+                for (int v : order) {
+                    byte[] b = ("value" + v).getBytes();
+                    mine[v] = d.encode(b, 0, b.length);
+                }
+            });
+            threads[t].start();
+        }
+        for (Thread t : threads)
+            t.join();
+        assertEquals(values, d.size());
+        for (int v = 0; v < values; v++) {
+            for (int[] c : codes)
+                assertEquals(codes[0][v], c[v]);
+            DictionaryField f = d.field(codes[0][v]);
+            assertEquals("value" + v, f.getValue());
+            assertSame(f, d.lookup(new StringField("value" + v, Type.STRING_LEN)));
+        }
+    }
+
+    /** @return a tuple of TD whose color is encoded by a dictionary */
+    private static Tuple encoded(StringDictionary d, String color) {
+        byte[] b = color.getBytes();
+        Tuple t = new Tuple(TD);
+        t.setField(0, new IntField(0));
+        t.setField(1, d.field(d.encode(b, 0, b.length)));
+        return t;
+    }
+
+    @Test public void testEqualsValueAddedLater() throws Exception {
+        StringDictionary d = new StringDictionary();
+        PredicateEvaluator eq = PredicateEvaluator.compile(
+                new Predicate(1, Predicate.Op.EQUALS, new StringField("purple", Type.STRING_LEN)));
+        for (int i = 0; i < 3; i++)
+            assertFalse(eq.test(encoded(d, "red")));
+        // the operand is found once the dictionary holds it
+        assertTrue(eq.test(encoded(d, "purple")));
+        assertFalse(eq.test(encoded(d, "red")));
+        assertTrue(eq.test(encoded(d, "purple")));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(DictionaryEncodingTest.class);
+    }
+}
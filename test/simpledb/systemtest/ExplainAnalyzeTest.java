@@ -0,0 +1,209 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.execution.Aggregate;
+import simpledb.execution.InstrumentedIterator;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.ExplainAnalyze;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that EXPLAIN ANALYZE measures the rows, time, pages and memory of
+ * each operator of a plan without changing its result.
+ */
+public class ExplainAnalyzeTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+    private static final int MAX_VALUE = 100;
+    private static final String QUERY =
+            "SELECT a.c0, b.c1 FROM a, b WHERE a.c0 = b.c0 AND a.c1 < 50 ORDER BY a.c0;";
+
+    private HeapFile a;
+    private Parser parser;
+
+    @Before public void createTables() throws Exception {
+        a = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, new ArrayList<>(), "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, ROWS / 4, MAX_VALUE, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        TableStats.setTableStats("a", new TableStats(a.getId(), 1000));
+        TableStats.setTableStats("b", new TableStats(b.getId(), 1000));
+        parser = new Parser();
+    }
+
+    private OpIterator plan(TransactionId tid, String sql) throws Exception {
+        return plan(tid, sql, 1);
+    }
+
+    private OpIterator plan(TransactionId tid, String sql, int parallelism) throws Exception {
+        LogicalPlan lp = parser.generateLogicalPlan(tid, sql);
+        lp.setParallelism(parallelism);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        OperatorCardinality.updateOperatorCardinality((Operator) plan,
+                lp.getTableAliasToIdMapping(), TableStats.getStatsMap());
+        return plan;
+    }
+
+    private static List<List<Integer>> run(OpIterator plan) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            rows.add(SystemTestUtil.tupleToList(plan.next()));
+        plan.close();
+        return rows;
+    }
+
+    /** Checks the measures of every node of a tree, and adds the nodes to a list. */
+    private static void check(InstrumentedIterator node, List<InstrumentedIterator> nodes) {
+        nodes.add(node);
+        assertTrue(node.getSelfTime() >= 0);
+        assertTrue(node.getTime() >= node.getSelfTime());
+        assertTrue(node.getSelfPagesRequested() >= 0);
+        assertTrue(node.getSelfPagesRead() >= 0);
+        assertTrue(node.getSelfPagesRead() <= node.getSelfPagesRequested());
+        OpIterator op = node.getIterator();
+        if (op instanceof Operator)
+            assertEquals(((Operator) op).getActualCardinality(), node.getRows());
+        else if (op instanceof SeqScan)
+            assertEquals(((SeqScan) op).getActualCardinality(), node.getRows());
+        for (InstrumentedIterator child : node.getChildren())
+            check(child, nodes);
+    }
+
+    @Test public void testInstrumentedPlan() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<Integer>> expected = run(plan(tid, QUERY));
+
+        InstrumentedIterator root = InstrumentedIterator.instrument(plan(tid, QUERY));
+        // the result is unchanged, in the same order
+        assertEquals(expected, run(root));
+        assertEquals(expected.size(), root.getRows());
+
+        List<InstrumentedIterator> nodes = new ArrayList<>();
+        check(root, nodes);
+        long scanPages = 0;
+        InstrumentedIterator orderBy = null;
+        for (InstrumentedIterator node : nodes) {
+            if (node.getIterator() instanceof SeqScan) {
+                assertTrue(node.getPagesRequested() > 0);
+                scanPages += node.getPagesRequested();
+            }
+            if (node.getIterator() instanceof OrderBy)
+                orderBy = node;
+        }
+        // only the scans read pages
+        assertEquals(root.getPagesRequested(), scanPages);
+        // the sort holds every row it returns
+        assertNotNull(orderBy);
+        assertEquals(orderBy.getRows() * orderBy.getIterator().getTupleDesc().getSize(), orderBy.getPeakMemory());
+
+        String report = ExplainAnalyze.report(root, TableStats.getStatsMap());
+        String[] lines = report.split("\\R");
+        assertEquals(nodes.size() + 1, lines.length);
+        assertTrue(lines[0].startsWith(expected.size() + " rows in "));
+        for (int i = 1; i < lines.length; i++) {
+            assertTrue(lines[i], lines[i].contains("rows=" + nodes.get(i - 1).getRows()));
+            assertFalse(lines[i], lines[i].contains("est=?"));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testAggregate() throws Exception {
+        String sql = "SELECT a.c1, COUNT(b.c1) FROM a, b WHERE a.c0 = b.c0 GROUP BY a.c1;";
+        TransactionId tid = new TransactionId();
+        // several threads are allowed, but the join below the aggregate
+        // cannot be split, so it runs serially and every operator is shown
+        OpIterator plan = plan(tid, sql, 4);
+        OpIterator op = plan;
+        while (!(op instanceof Aggregate))
+            op = ((Operator) op).getChildren()[0];
+        Aggregate agg = (Aggregate) op;
+        assertEquals(4, agg.getParallelism());
+        assertFalse(agg.runsInParallel());
+        List<List<Integer>> expected = run(plan(tid, sql, 4));
+
+        InstrumentedIterator root = InstrumentedIterator.instrument(plan);
+        List<List<Integer>> actual = run(root);
+        Collections.sort(actual, Comparator.comparing(Object::toString));
+        Collections.sort(expected, Comparator.comparing(Object::toString));
+        assertEquals(expected, actual);
+
+        List<InstrumentedIterator> nodes = new ArrayList<>();
+        check(root, nodes);
+        int scans = 0;
+        for (InstrumentedIterator node : nodes) {
+            if (node.getIterator() instanceof SeqScan)
+                scans++;
+        }
+        assertEquals(2, scans);
+        // the pages are read by the scans under the aggregate
+        for (InstrumentedIterator node : nodes) {
+            if (node.getIterator() == agg) {
+                assertEquals(1, node.getChildren().size());
+                assertEquals(node.getPagesRequested(), node.getChildren().get(0).getPagesRequested());
+            }
+        }
+        String report = ExplainAnalyze.report(root, TableStats.getStatsMap());
+        assertEquals(nodes.size() + 1, report.split("\\R").length);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testHitsAndMisses() throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        TransactionId tid = new TransactionId();
+        InstrumentedIterator cold = InstrumentedIterator.instrument(new SeqScan(tid, a.getId(), "a"));
+        run(cold);
+        assertEquals(a.numPages(), cold.getPagesRequested());
+        assertEquals(a.numPages(), cold.getPagesRead());
+
+        // the pages are now in the buffer pool
+        InstrumentedIterator warm = InstrumentedIterator.instrument(new SeqScan(tid, a.getId(), "a"));
+        run(warm);
+        assertEquals(a.numPages(), warm.getPagesRequested());
+        assertEquals(0, warm.getPagesRead());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParser() throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(bytes, true));
+        try {
+            parser.processNextStatement("EXPLAIN ANALYZE " + QUERY);
+        } finally {
+            System.setOut(out);
+        }
+        String printed = bytes.toString();
+        assertTrue(printed, printed.contains("EXPLAIN ANALYZE:"));
+        assertTrue(printed, printed.contains("rows in "));
+        assertTrue(printed, printed.contains("scan(a)"));
+        assertTrue(printed, printed.contains("memory="));
+        // the rows of the query are not printed
+        assertFalse(printed, printed.contains(" rows.\n"));
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ExplainAnalyzeTest.class);
+    }
+}
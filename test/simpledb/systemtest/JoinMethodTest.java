@@ -0,0 +1,175 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.CostModel;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that the optimizer costs each join as the operator that runs it:
+ * a merge of two B+ tree files keyed on the join field, lookups in a B+ tree
+ * for a few outer rows, and that it counts the pages of a table held in the
+ * buffer pool as memory reads.
+ */
+public class JoinMethodTest extends SimpleDbTestBase {
+    private static final int ROWS = 20000;
+    private static final int MAX_VALUE = 5000;
+
+    /** Creates a B+ tree file keyed on c0, with named fields. */
+    private static BTreeFile createTable(String name, int rows, List<List<Integer>> tuples) throws Exception {
+        BTreeFile random = BTreeUtility.createRandomBTreeFile(2, rows, MAX_VALUE, null, tuples, 0);
+        BTreeFile f = new BTreeFile(random.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(f, name);
+        return f;
+    }
+
+    /** @return the first operator of a class in the plan, or null */
+    private static <T> T find(OpIterator plan, Class<T> c) {
+        if (c.isInstance(plan))
+            return c.cast(plan);
+        if (!(plan instanceof Operator) || ((Operator) plan).getChildren() == null)
+            return null;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            T found = find(child, c);
+            if (found != null)
+                return found;
+        }
+        return null;
+    }
+
+    private static int count(OpIterator plan) throws Exception {
+        int n = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        return n;
+    }
+
+    private static int joinCount(List<List<Integer>> a, List<List<Integer>> b, int bound) {
+        Map<Integer, Integer> keys = new HashMap<>();
+        for (List<Integer> t : b)
+            keys.merge(t.get(0), 1, Integer::sum);
+        int n = 0;
+        for (List<Integer> t : a) {
+            if (t.get(1) < bound)
+                n += keys.getOrDefault(t.get(0), 0);
+        }
+        return n;
+    }
+
+    @Test public void testSortMerge() throws Exception {
+        List<List<Integer>> aTuples = new ArrayList<>(), bTuples = new ArrayList<>();
+        BTreeFile a = createTable("a", ROWS, aTuples);
+        BTreeFile b = createTable("b", ROWS, bTuples);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("a", new TableStats(a.getId(), 1000));
+        stats.put("b", new TableStats(b.getId(), 1000));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("a.c1", null);
+        lp.setParallelism(1);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        // both sides are read in key order: neither is sorted nor hashed
+        assertNotNull(find(plan, SortMergeJoin.class));
+        assertEquals(joinCount(aTuples, bTuples, Integer.MAX_VALUE), count(plan));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testIndexNestedLoop() throws Exception {
+        List<List<Integer>> aTuples = new ArrayList<>(), bTuples = new ArrayList<>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 200, MAX_VALUE, null, aTuples, "c");
+        Database.getCatalog().addTable(a, "a");
+        BTreeFile b = createTable("b", ROWS, bTuples);
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("a", new TableStats(a.getId(), 1000));
+        stats.put("b", new TableStats(b.getId(), 1000));
+        Database.resetBufferPool(20);
+
+        // a few rows of a, each looked up in b
+        int bound = MAX_VALUE / 100;
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addFilter("a.c1", Predicate.Op.LESS_THAN, String.valueOf(bound));
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addProjectField("b.c1", null);
+        lp.setParallelism(1);
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertNotNull(find(plan, IndexNestedLoopJoin.class));
+        assertNull(find(plan, HashEquiJoin.class));
+        assertEquals(joinCount(aTuples, bTuples, bound), count(plan));
+        Database.getBufferPool().transactionComplete(tid);
+
+        // on an inequality only the nested-loop join applies
+        lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addFilter("a.c1", Predicate.Op.LESS_THAN, String.valueOf(bound));
+        lp.addFilter("b.c1", Predicate.Op.LESS_THAN, String.valueOf(bound));
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.LESS_THAN);
+        lp.addProjectField("b.c1", null);
+        lp.setParallelism(1);
+        tid = new TransactionId();
+        plan = lp.physicalPlan(tid, stats, false);
+        assertNotNull(find(plan, Join.class));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testResidentPages() throws Exception {
+        HeapFile f = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, new ArrayList<>(), "c");
+        Database.getCatalog().addTable(f, "t");
+        TableStats stats = new TableStats(f.getId(), 1000);
+        Database.resetBufferPool(f.numPages() + 10);
+        assertEquals(0.0, stats.residentFraction(), 0.0);
+        assertEquals(stats.estimateScanCost(), CostModel.scanCost(stats), 1e-6);
+
+        // read every page into the pool
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        it.open();
+        while (it.hasNext())
+            it.next();
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(f.numPages(), Database.getBufferPool().residentPages(f.getId()));
+        assertEquals(1.0, stats.residentFraction(), 0.0);
+        assertEquals(stats.estimateScanCost() * CostModel.RESIDENT_PAGE_COST, CostModel.scanCost(stats), 1e-6);
+        // the cold cost does not change
+        assertEquals((double) f.numPages() * 1000, stats.estimateScanCost(), 1e-6);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(JoinMethodTest.class);
+    }
+}
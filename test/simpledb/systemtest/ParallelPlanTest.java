@@ -0,0 +1,158 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Gather;
+import simpledb.execution.HashRepartition;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that LogicalPlan runs large hash joins and grouped aggregations
+ * through exchanges, and that the parallel plans return the same tuples as
+ * the serial ones.
+ */
+public class ParallelPlanTest extends SimpleDbTestBase {
+    private static final int IO_COST = 71;
+    private static final int BIG_ROWS = 30000;
+    private static final int SMALL_ROWS = 20000;
+
+    private final List<List<Integer>> bigTuples = new ArrayList<>();
+    private final List<List<Integer>> smallTuples = new ArrayList<>();
+    private final Map<String, TableStats> stats = new HashMap<>();
+    private int bigId, smallId;
+
+    @Before public void createTables() throws IOException {
+        HeapFile big = SystemTestUtil.createRandomHeapFile(2, BIG_ROWS, 100000, null, bigTuples, "c");
+        HeapFile small = SystemTestUtil.createRandomHeapFile(2, SMALL_ROWS, 100000, null, smallTuples, "c");
+        Database.getCatalog().addTable(big, "big");
+        Database.getCatalog().addTable(small, "small");
+        bigId = big.getId();
+        smallId = small.getId();
+        stats.put("big", new TableStats(bigId, IO_COST));
+        stats.put("small", new TableStats(smallId, IO_COST));
+    }
+
+    private static boolean contains(OpIterator plan, Class<?> c) {
+        if (c.isInstance(plan))
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (contains(child, c))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private LogicalPlan joinPlan() throws ParsingException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bigId, "big");
+        lp.addScan(smallId, "small");
+        lp.addJoin("big.c0", "small.c0", Predicate.Op.EQUALS);
+        return lp;
+    }
+
+    @Test public void testParallelHashJoin()
+            throws ParsingException, DbException, TransactionAbortedException {
+        LogicalPlan lp = joinPlan();
+        lp.addProjectField("*", null);
+        lp.setParallelism(4);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        Map<Integer, List<List<Integer>>> byKey = new HashMap<>();
+        for (List<Integer> t : smallTuples)
+            byKey.computeIfAbsent(t.get(0), k -> new ArrayList<>()).add(t);
+        for (List<Integer> b : bigTuples) {
+            for (List<Integer> s : byKey.getOrDefault(b.get(0), new ArrayList<>())) {
+                List<Integer> row = new ArrayList<>(b);
+                row.addAll(s);
+                expected.add(row);
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, Gather.class));
+        // the optimizer may put either table on the probe side
+        List<List<Integer>> actual = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            actual.add(SystemTestUtil.tupleToList(plan.next()));
+        plan.close();
+        boolean bigFirst = plan.getTupleDesc().getFieldName(0).startsWith("big.");
+        List<List<Integer>> normalized = new ArrayList<>();
+        for (List<Integer> row : actual) {
+            normalized.add(bigFirst ? row : Arrays.asList(row.get(2), row.get(3), row.get(0), row.get(1)));
+        }
+        normalized.sort(ParallelPlanTest::compareRows);
+        expected.sort(ParallelPlanTest::compareRows);
+        assertEquals(expected, normalized);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testParallelGroupedAggregate()
+            throws ParsingException, DbException, TransactionAbortedException {
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(bigId, "big");
+        lp.addProjectField("big.c1", null);
+        lp.addProjectField("big.c0", "count");
+        lp.addAggregate("count", "big.c0", "big.c1");
+        lp.setParallelism(4);
+
+        Map<Integer, Integer> counts = new HashMap<>();
+        for (List<Integer> t : bigTuples)
+            counts.merge(t.get(1), 1, Integer::sum);
+        List<List<Integer>> expected = new ArrayList<>();
+        for (Map.Entry<Integer, Integer> e : counts.entrySet())
+            expected.add(Arrays.asList(e.getKey(), e.getValue()));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertTrue(contains(plan, HashRepartition.class));
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testSerialWhenParallelismIsOne()
+            throws ParsingException {
+        LogicalPlan lp = joinPlan();
+        lp.addProjectField("*", null);
+        lp.setParallelism(1);
+        TransactionId tid = new TransactionId();
+        assertFalse(contains(lp.physicalPlan(tid, stats, false), Gather.class));
+    }
+
+    private static int compareRows(List<Integer> a, List<Integer> b) {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelPlanTest.class);
+    }
+}
@@ -0,0 +1,89 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.ParallelSeqScan;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+public class ParallelSeqScanTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 3;
+    private static final int ROWS = 15000;
+
+    /** A parallel scan without a pipeline returns every tuple exactly once. */
+    @Test public void testScanAll()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+        assertTrue(table.numPages() > 4 * ParallelSeqScan.MORSEL_PAGES);
+
+        TransactionId tid = new TransactionId();
+        SystemTestUtil.matchTuples(new ParallelSeqScan(tid, table.getId(), "", 4), tuples);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Each worker runs Filter and Project over its morsels. */
+    @Test public void testFilterProjectPipeline()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, 1000, null, tuples);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 300)
+                expected.add(Arrays.asList(t.get(2), t.get(0)));
+        }
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "",
+                morsel -> new Project(Arrays.asList(2, 0), new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+                        new Filter(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(300)), morsel)),
+                4);
+        assertEquals(2, scan.getTupleDesc().numFields());
+        SystemTestUtil.matchTuples(scan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Rewinding restarts the workers and returns the same tuples again. */
+    @Test public void testRewind()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(COLUMNS, ROWS, null, tuples);
+
+        TransactionId tid = new TransactionId();
+        ParallelSeqScan scan = new ParallelSeqScan(tid, table.getId(), "", 3);
+        scan.open();
+        // stop part way through so that workers are still blocked on the queue
+        for (int i = 0; i < 10; i++)
+            scan.next();
+        scan.rewind();
+        int count = 0;
+        while (scan.hasNext()) {
+            scan.next();
+            count++;
+        }
+        scan.close();
+        assertEquals(ROWS, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ParallelSeqScanTest.class);
+    }
+}
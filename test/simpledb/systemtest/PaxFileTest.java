@@ -0,0 +1,143 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PaxFile;
+import simpledb.storage.PaxPage;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that tables stored with the column-wise PAX page layout behave like
+ * row-layout heap files.
+ */
+public class PaxFileTest extends SimpleDbTestBase {
+    private static final int COLUMNS = 4;
+    private static final int ROWS = 3000;
+
+    private static List<List<Integer>> randomTuples(int rows) {
+        Random r = new Random(7);
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            List<Integer> t = new ArrayList<>();
+            for (int j = 0; j < COLUMNS; j++)
+                t.add(r.nextInt(1000));
+            tuples.add(t);
+        }
+        return tuples;
+    }
+
+    private static PaxFile createPaxFile(List<List<Integer>> tuples) throws IOException {
+        File f = File.createTempFile("pax", ".dat");
+        f.deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), COLUMNS, true);
+        PaxFile pax = new PaxFile(f, Utility.getTupleDesc(COLUMNS));
+        Database.getCatalog().addTable(pax, SystemTestUtil.getUUID());
+        return pax;
+    }
+
+    @Test public void testScan() throws Exception {
+        List<List<Integer>> tuples = randomTuples(ROWS);
+        PaxFile pax = createPaxFile(tuples);
+        SystemTestUtil.matchTuples(pax, tuples);
+
+        // pushed-down predicates and projections read single minipages
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 500)
+                expected.add(Arrays.asList(t.get(3), t.get(1)));
+        }
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = pax.iterator(tid,
+                Arrays.asList(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(500))),
+                new int[] { 3, 1 });
+        List<List<Integer>> actual = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            actual.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, actual);
+    }
+
+    @Test public void testPageLayout() throws Exception {
+        List<List<Integer>> tuples = randomTuples(10);
+        PaxFile pax = createPaxFile(tuples);
+        HeapPage page = (HeapPage) pax.readPage(new HeapPageId(pax.getId(), 0));
+        assertTrue(page instanceof PaxPage);
+        // field 1 of slot 2 sits in the second minipage
+        int slots = (BufferPool.getPageSize() * 8) / (COLUMNS * 4 * 8 + 1);
+        int offset = (slots + 7) / 8 + slots * 4 + 2 * 4;
+        byte[] data = page.getPageData();
+        int value = ((data[offset] & 0xFF) << 24) | ((data[offset + 1] & 0xFF) << 16)
+                | ((data[offset + 2] & 0xFF) << 8) | (data[offset + 3] & 0xFF);
+        assertEquals((int) tuples.get(2).get(1), value);
+        assertEquals(value, page.getInt(2, 1));
+    }
+
+    @Test public void testInsertAndDelete()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = randomTuples(ROWS);
+        PaxFile pax = createPaxFile(tuples);
+
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = pax.iterator(tid);
+        it.open();
+        Tuple first = it.next();
+        it.close();
+        Database.getBufferPool().deleteTuple(tid, first);
+        tuples.remove(SystemTestUtil.tupleToList(first));
+        for (int i = 0; i < 100; i++) {
+            Database.getBufferPool().insertTuple(tid, pax.getId(), Utility.getHeapTuple(new int[] { i, -i, i, -i }));
+            tuples.add(Arrays.asList(i, -i, i, -i));
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the tuples must survive being written to and read back from disk
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        SystemTestUtil.matchTuples(pax, tuples);
+    }
+
+    @Test public void testCatalogSchema() throws IOException {
+        File dir = File.createTempFile("catalog", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("rows (a int, b int)\n");
+            w.write("cols (a int, b int) pax\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int rows = Database.getCatalog().getTableId("rows");
+        int cols = Database.getCatalog().getTableId("cols");
+        assertFalse(Database.getCatalog().getDatabaseFile(rows) instanceof PaxFile);
+        assertTrue(Database.getCatalog().getDatabaseFile(cols) instanceof PaxFile);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PaxFileTest.class);
+    }
+}
@@ -0,0 +1,217 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.PreparedStatement;
+import simpledb.StatementCache;
+import simpledb.common.Database;
+import simpledb.execution.Query;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that prepared statements return the tuples of the statements with
+ * their parameters written out, and that the StatementCache reuses, evicts
+ * and invalidates their templates.
+ */
+public class PreparedStatementTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+    private static final int MAX_VALUE = 100;
+
+    private final List<List<Integer>> aTuples = new ArrayList<>();
+    private final List<List<Integer>> bTuples = new ArrayList<>();
+    private int aId;
+    private Parser parser;
+
+    @Before public void createTables() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, aTuples, "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, ROWS / 4, MAX_VALUE, null, bTuples, "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        aId = a.getId();
+        TableStats.setTableStats("a", new TableStats(aId, 1000));
+        TableStats.setTableStats("b", new TableStats(b.getId(), 1000));
+        Parser.setStatementCacheSize(StatementCache.DEFAULT_CAPACITY);
+        parser = new Parser();
+    }
+
+    @After public void resetCache() {
+        Parser.setStatementCacheSize(StatementCache.DEFAULT_CAPACITY);
+    }
+
+    /** Runs a prepared statement in a transaction of its own. */
+    private static List<List<Integer>> run(PreparedStatement ps, Object... params) throws Exception {
+        TransactionId tid = new TransactionId();
+        Query q = ps.query(tid, params);
+        List<List<Integer>> rows = new ArrayList<>();
+        q.start();
+        while (q.hasNext())
+            rows.add(SystemTestUtil.tupleToList(q.next()));
+        q.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        List<List<Integer>> copy = new ArrayList<>(rows);
+        copy.sort((x, y) -> x.get(0).equals(y.get(0)) ? x.get(1) - y.get(1) : x.get(0) - y.get(0));
+        return copy;
+    }
+
+    @Test public void testNormalize() throws Exception {
+        PreparedStatement ps = parser.prepare("SELECT  *\n  FROM a\tWHERE a.c0 = 12 AND a.c1 > ?;");
+        assertEquals("SELECT * FROM a WHERE a.c0 = ? AND a.c1 > ?;", ps.getSql());
+        assertEquals(1, ps.getParameterCount());
+        // literals of the same shape share the template
+        PreparedStatement other = parser.prepare("SELECT * FROM a WHERE a.c0 = 7 AND a.c1 > 3;");
+        assertEquals(ps.getSql(), other.getSql());
+        assertEquals(0, other.getParameterCount());
+        assertEquals(1, Parser.getStatementCache().size());
+    }
+
+    @Test public void testSelect() throws Exception {
+        PreparedStatement ps = parser.prepare("SELECT a.c0, a.c1 FROM a WHERE a.c0 = ? AND a.c1 < ?;");
+        assertEquals(2, ps.getParameterCount());
+        StatementCache cache = Parser.getStatementCache();
+        long misses = cache.getMisses();
+        for (int v = 0; v < 10; v++) {
+            List<List<Integer>> expected = new ArrayList<>();
+            for (List<Integer> t : aTuples) {
+                if (t.get(0) == v && t.get(1) < 50)
+                    expected.add(t);
+            }
+            assertEquals(sorted(expected), sorted(run(ps, v, 50)));
+        }
+        assertEquals(misses, cache.getMisses());
+        assertEquals(1, cache.size());
+    }
+
+    @Test public void testJoin() throws Exception {
+        PreparedStatement ps = parser.prepare(
+                "SELECT COUNT(a.c0) FROM a, b WHERE a.c0 = b.c0 AND b.c1 < ?;");
+        for (int bound : new int[] { 10, 50, 90 }) {
+            int count = 0;
+            for (List<Integer> t : aTuples) {
+                for (List<Integer> u : bTuples) {
+                    if (t.get(0).equals(u.get(0)) && u.get(1) < bound)
+                        count++;
+                }
+            }
+            assertEquals(Collections.singletonList(Collections.singletonList(count)), run(ps, bound));
+        }
+    }
+
+    @Test public void testLimit() throws Exception {
+        String sql = "SELECT a.c0, b.c1 FROM a, b WHERE a.c0 = b.c0 AND b.c1 < ?";
+        int count = 0;
+        for (List<Integer> t : aTuples) {
+            for (List<Integer> u : bTuples) {
+                if (t.get(0).equals(u.get(0)) && u.get(1) < 50)
+                    count++;
+            }
+        }
+        assertTrue(count > 50);
+        PreparedStatement two = parser.prepare(sql + " LIMIT 2;");
+        PreparedStatement fifty = parser.prepare(sql + " LIMIT 50;");
+        PreparedStatement all = parser.prepare(sql + ";");
+        // the statements share a template, but not their LIMIT; the second
+        // runs use the join order kept by the template
+        for (int i = 0; i < 2; i++) {
+            assertEquals(2, run(two, 50).size());
+            assertEquals(50, run(fifty, 50).size());
+            assertEquals(count, run(all, 50).size());
+        }
+        assertEquals(1, Parser.getStatementCache().size());
+    }
+
+    @Test public void testInsertAndDelete() throws Exception {
+        PreparedStatement insert = parser.prepare("INSERT INTO a VALUES (?, ?);");
+        PreparedStatement select = parser.prepare("SELECT a.c0, a.c1 FROM a WHERE a.c0 = ?;");
+        PreparedStatement delete = parser.prepare("DELETE FROM a WHERE a.c0 = ?;");
+        for (int i = 0; i < 3; i++)
+            insert.execute(1000, i);
+        assertEquals(Arrays.asList(Arrays.asList(1000, 0), Arrays.asList(1000, 1), Arrays.asList(1000, 2)),
+                sorted(run(select, 1000)));
+        delete.execute(1000);
+        assertTrue(run(select, 1000).isEmpty());
+    }
+
+    @Test public void testProcessNextStatement() throws Exception {
+        StatementCache cache = Parser.getStatementCache();
+        parser.processNextStatement("INSERT INTO a VALUES (2000, 1);");
+        long hits = cache.getHits();
+        parser.processNextStatement("INSERT INTO a VALUES (2000, 2);");
+        assertEquals(hits + 1, cache.getHits());
+        PreparedStatement select = parser.prepare("SELECT a.c0, a.c1 FROM a WHERE a.c0 = ?;");
+        assertEquals(2, run(select, 2000).size());
+    }
+
+    @Test public void testInvalidation() throws Exception {
+        PreparedStatement ps = parser.prepare("SELECT a.c0 FROM a WHERE a.c1 = ?;");
+        StatementCache cache = Parser.getStatementCache();
+        run(ps, 1);
+        long misses = cache.getMisses();
+        run(ps, 2);
+        assertEquals(misses, cache.getMisses());
+
+        // new statistics: the statement is planned again
+        TableStats.setTableStats("a", new TableStats(aId, 1000));
+        run(ps, 3);
+        assertEquals(misses + 1, cache.getMisses());
+
+        // a new table in the catalog too
+        Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(1, 10, null, null), "c");
+        run(ps, 4);
+        assertEquals(misses + 2, cache.getMisses());
+        run(ps, 5);
+        assertEquals(misses + 2, cache.getMisses());
+    }
+
+    @Test public void testEviction() throws Exception {
+        Parser.setStatementCacheSize(2);
+        StatementCache cache = Parser.getStatementCache();
+        PreparedStatement p0 = parser.prepare("SELECT a.c0 FROM a WHERE a.c0 = ?;");
+        parser.prepare("SELECT a.c1 FROM a WHERE a.c0 = ?;");
+        parser.prepare("SELECT a.c0 FROM a WHERE a.c1 = ?;");
+        assertEquals(2, cache.size());
+        // the least recently used statement was dropped, and is planned again
+        long misses = cache.getMisses();
+        run(p0, 1);
+        assertEquals(misses + 1, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    @Test public void testWrongParameters() throws Exception {
+        PreparedStatement ps = parser.prepare("SELECT a.c0 FROM a WHERE a.c0 = ?;");
+        try {
+            run(ps);
+            fail("expected a ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+        try {
+            // parameters of subqueries are not supported
+            parser.prepare("SELECT a.c0 FROM a WHERE a.c0 = (SELECT b.c0 FROM b WHERE b.c1 = ?);");
+            fail("expected a ParsingException");
+        } catch (ParsingException e) {
+            // expected
+        }
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PreparedStatementTest.class);
+    }
+}
@@ -0,0 +1,189 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that predicates and projections pushed into DbFile iterators return
+ * the same tuples as filtering and projecting above the scan, and that the
+ * planner pushes WHERE predicates and the needed columns into its scans.
+ */
+public class PushdownTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final int MAX_VALUE = 100;
+
+    private static List<List<Integer>> expected(List<List<Integer>> tuples,
+                                                List<Predicate> filters, int[] columns) {
+        List<List<Integer>> result = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            boolean ok = true;
+            for (Predicate p : filters)
+                ok &= new IntField(t.get(p.getField())).compare(p.getOp(), p.getOperand());
+            if (!ok)
+                continue;
+            List<Integer> row = new ArrayList<>();
+            for (int c : columns)
+                row.add(t.get(c));
+            result.add(row);
+        }
+        return result;
+    }
+
+    private static void validateIterator(DbFile f, List<List<Integer>> tuples,
+                                         List<Predicate> filters, int[] columns)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid, filters, columns);
+        List<List<Integer>> actual = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            assertEquals(columns.length, t.getTupleDesc().numFields());
+            assertNotNull(t.getRecordId());
+            actual.add(SystemTestUtil.tupleToList(t));
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+
+        List<List<Integer>> want = expected(tuples, filters, columns);
+        actual.sort(PushdownTest::compareRows);
+        want.sort(PushdownTest::compareRows);
+        assertEquals(want, actual);
+    }
+
+    @Test public void testHeapFileIterator()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, tuples);
+        validateIterator(f, tuples, Arrays.asList(
+                new Predicate(0, Predicate.Op.LESS_THAN, new IntField(MAX_VALUE / 2)),
+                new Predicate(2, Predicate.Op.NOT_EQUALS, new IntField(7))),
+                new int[] { 2, 1 });
+        validateIterator(f, tuples, new ArrayList<>(), new int[] { 1 });
+    }
+
+    @Test public void testBTreeFileIterator()
+            throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        BTreeFile f = BTreeUtility.createRandomBTreeFile(3, ROWS, MAX_VALUE, null, tuples, 0);
+        // the key predicate selects the leaf pages, the other one is checked per tuple
+        validateIterator(f, tuples, Arrays.asList(
+                new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(MAX_VALUE / 3)),
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(MAX_VALUE / 2))),
+                new int[] { 0, 2 });
+        validateIterator(f, tuples, Arrays.asList(
+                new Predicate(0, Predicate.Op.EQUALS, new IntField(MAX_VALUE / 4))),
+                new int[] { 1 });
+    }
+
+    private static boolean containsFilter(OpIterator plan) {
+        if (plan instanceof Filter)
+            return true;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                if (containsFilter(child))
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private static SeqScan findScan(OpIterator plan, String alias) {
+        if (plan instanceof SeqScan)
+            return ((SeqScan) plan).getAlias().equals(alias) ? (SeqScan) plan : null;
+        if (plan instanceof Operator) {
+            for (OpIterator child : ((Operator) plan).getChildren()) {
+                SeqScan s = findScan(child, alias);
+                if (s != null)
+                    return s;
+            }
+        }
+        return null;
+    }
+
+    @Test public void testPlannerPushdown()
+            throws IOException, ParsingException, DbException, TransactionAbortedException {
+        List<List<Integer>> aTuples = new ArrayList<>();
+        List<List<Integer>> bTuples = new ArrayList<>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(3, ROWS, MAX_VALUE, null, aTuples, "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(3, 200, MAX_VALUE, null, bTuples, "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("a", new TableStats(a.getId(), 71));
+        stats.put("b", new TableStats(b.getId(), 71));
+
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(a.getId(), "a");
+        lp.addScan(b.getId(), "b");
+        lp.addJoin("a.c0", "b.c0", Predicate.Op.EQUALS);
+        lp.addFilter("a.c1", Predicate.Op.LESS_THAN, "30");
+        lp.addFilter("b.c2", Predicate.Op.GREATER_THAN, "60");
+        lp.addProjectField("a.c2", null);
+        lp.addProjectField("b.c1", null);
+        lp.setParallelism(1);
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> ta : aTuples) {
+            if (ta.get(1) >= 30)
+                continue;
+            for (List<Integer> tb : bTuples) {
+                if (tb.get(2) > 60 && ta.get(0).equals(tb.get(0)))
+                    expected.add(Arrays.asList(ta.get(2), tb.get(1)));
+            }
+        }
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = lp.physicalPlan(tid, stats, false);
+        assertFalse(containsFilter(plan));
+        SeqScan sa = findScan(plan, "a");
+        assertEquals(1, sa.getFilters().size());
+        // c1 is only filtered on, so only the join and select list columns are read
+        assertArrayEquals(new int[] { 0, 2 }, sa.getColumns());
+        assertArrayEquals(new int[] { 0, 1 }, findScan(plan, "b").getColumns());
+        SystemTestUtil.matchTuples(plan, expected);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    private static int compareRows(List<Integer> a, List<Integer> b) {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(PushdownTest.class);
+    }
+}
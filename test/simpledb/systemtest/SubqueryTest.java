@@ -0,0 +1,180 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.AntiJoin;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexSemiJoin;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.SemiJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that IN and EXISTS subqueries run as semi-joins and anti-joins,
+ * which return each outer row at most once, and that a subquery over a
+ * B+ tree file keyed on its field can be probed by key.
+ */
+public class SubqueryTest extends SimpleDbTestBase {
+    private static final int ROWS = 2000;
+    private static final int MAX_VALUE = 100;
+
+    private final List<List<Integer>> aTuples = new ArrayList<>();
+    private final List<List<Integer>> bTuples = new ArrayList<>();
+    private Parser parser;
+
+    @Before public void createTables() throws Exception {
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, ROWS, MAX_VALUE, null, aTuples, "c");
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, ROWS / 4, MAX_VALUE, null, bTuples, "c");
+        Database.getCatalog().addTable(a, "a");
+        Database.getCatalog().addTable(b, "b");
+        TableStats.setTableStats("a", new TableStats(a.getId(), 1000));
+        TableStats.setTableStats("b", new TableStats(b.getId(), 1000));
+        parser = new Parser();
+    }
+
+    /** @return the first operator of a class in the plan, or null */
+    private static <T> T find(OpIterator plan, Class<T> c) {
+        if (c.isInstance(plan))
+            return c.cast(plan);
+        if (!(plan instanceof Operator) || ((Operator) plan).getChildren() == null)
+            return null;
+        for (OpIterator child : ((Operator) plan).getChildren()) {
+            T found = find(child, c);
+            if (found != null)
+                return found;
+        }
+        return null;
+    }
+
+    private OpIterator plan(TransactionId tid, String sql) throws Exception {
+        LogicalPlan lp = parser.generateLogicalPlan(tid, sql);
+        return lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+    }
+
+    private static List<List<Integer>> run(OpIterator plan) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        plan.open();
+        while (plan.hasNext())
+            rows.add(SystemTestUtil.tupleToList(plan.next()));
+        plan.close();
+        return rows;
+    }
+
+    private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+        List<List<Integer>> copy = new ArrayList<>(rows);
+        copy.sort((x, y) -> x.get(0).equals(y.get(0)) ? x.get(1) - y.get(1) : x.get(0) - y.get(0));
+        return copy;
+    }
+
+    /** @return the rows of a whose c0 is the c0 of a row of b with c1 below bound */
+    private List<List<Integer>> inRows(int bound, boolean in) {
+        Set<Integer> keys = new HashSet<>();
+        for (List<Integer> t : bTuples) {
+            if (t.get(1) < bound)
+                keys.add(t.get(0));
+        }
+        List<List<Integer>> rows = new ArrayList<>();
+        for (List<Integer> t : aTuples) {
+            if (keys.contains(t.get(0)) == in)
+                rows.add(t);
+        }
+        return rows;
+    }
+
+    @Test public void testIn() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT a.c0, a.c1 FROM a WHERE a.c0 IN (SELECT b.c0 FROM b WHERE b.c1 < 50);");
+        assertNotNull(find(plan, SemiJoin.class));
+        assertNull(find(plan, HashEquiJoin.class));
+        // every row of a once, however many rows of b it matches
+        assertEquals(sorted(inRows(50, true)), sorted(run(plan)));
+
+        plan = plan(tid, "SELECT a.c0, a.c1 FROM a WHERE a.c0 = (SELECT b.c0 FROM b WHERE b.c1 < 50);");
+        assertEquals(sorted(inRows(50, true)), sorted(run(plan)));
+
+        plan = plan(tid, "SELECT a.c0, a.c1 FROM a WHERE a.c0 NOT IN (SELECT b.c0 FROM b WHERE b.c1 < 50);");
+        assertNotNull(find(plan, AntiJoin.class));
+        assertEquals(sorted(inRows(50, false)), sorted(run(plan)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testExists() throws Exception {
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid,
+                "SELECT a.c0, a.c1 FROM a WHERE EXISTS (SELECT * FROM b WHERE b.c0 = a.c0 AND b.c1 < 50);");
+        assertNotNull(find(plan, SemiJoin.class));
+        assertEquals(sorted(inRows(50, true)), sorted(run(plan)));
+
+        plan = plan(tid,
+                "SELECT a.c0, a.c1 FROM a WHERE NOT EXISTS (SELECT * FROM b WHERE a.c0 = b.c0 AND b.c1 < 50);");
+        assertNotNull(find(plan, AntiJoin.class));
+        assertEquals(sorted(inRows(50, false)), sorted(run(plan)));
+
+        // an inequality with the outer field on the right: rows of a with
+        // c1 at least the largest c1 of b
+        int max = 0;
+        for (List<Integer> t : bTuples)
+            max = Math.max(max, t.get(1));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : aTuples) {
+            if (t.get(1) >= max)
+                expected.add(t);
+        }
+        plan = plan(tid, "SELECT a.c0, a.c1 FROM a WHERE NOT EXISTS (SELECT * FROM b WHERE b.c1 > a.c1);");
+        assertEquals(sorted(expected), sorted(run(plan)));
+        Database.getBufferPool().transactionComplete(tid);
+
+        try {
+            plan(tid, "SELECT a.c0 FROM a WHERE EXISTS (SELECT * FROM b WHERE b.c1 < 50);");
+            fail("expected a ParsingException");
+        } catch (ParsingException e) {
+            // an uncorrelated EXISTS is not supported
+        }
+    }
+
+    @Test public void testIndexSemiJoin() throws Exception {
+        List<List<Integer>> cTuples = new ArrayList<>();
+        BTreeFile random = BTreeUtility.createRandomBTreeFile(2, 20000, 5000, null, cTuples, 0);
+        BTreeFile c = new BTreeFile(random.getFile(), 0, Utility.getTupleDesc(2, "c"));
+        Database.getCatalog().addTable(c, "c");
+        TableStats.setTableStats("c", new TableStats(c.getId(), 1000));
+        Set<Integer> keys = new HashSet<>();
+        for (List<Integer> t : cTuples)
+            keys.add(t.get(0));
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : aTuples) {
+            if (t.get(1) < 5 && keys.contains(t.get(0)))
+                expected.add(t);
+        }
+
+        // a few rows of a, each looked up in c
+        TransactionId tid = new TransactionId();
+        OpIterator plan = plan(tid, "SELECT a.c0, a.c1 FROM a WHERE a.c1 < 5 AND a.c0 IN (SELECT c.c0 FROM c);");
+        assertNotNull(find(plan, IndexSemiJoin.class));
+        assertEquals(sorted(expected), sorted(run(plan)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(SubqueryTest.class);
+    }
+}
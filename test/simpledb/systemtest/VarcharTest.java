@@ -0,0 +1,238 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.IndexPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.index.BTreeFile;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.SlottedFile;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.VarcharField;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that VARCHAR fields are stored in as many bytes as their strings
+ * need in SlottedFiles, and that they work as B+ tree keys and in queries.
+ */
+public class VarcharTest extends SimpleDbTestBase {
+    private static final int ROWS = 5000;
+    private static final TupleDesc TD = new TupleDesc(
+            new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, new String[] { "id", "name" });
+
+    private static String randomString(Random r) {
+        char[] cs = new char[1 + r.nextInt(12)];
+        for (int i = 0; i < cs.length; i++)
+            cs[i] = (char) ('a' + r.nextInt(26));
+        return new String(cs);
+    }
+
+    private static List<String> randomRows(int rows) {
+        Random r = new Random(3);
+        List<String> lines = new ArrayList<>();
+        for (int i = 0; i < rows; i++)
+            lines.add(i + "," + randomString(r));
+        return lines;
+    }
+
+    private static File writeText(List<String> lines) throws IOException {
+        File txt = File.createTempFile("varchar", ".txt");
+        txt.deleteOnExit();
+        try (FileWriter w = new FileWriter(txt)) {
+            for (String line : lines)
+                w.write(line + "\n");
+        }
+        return txt;
+    }
+
+    private static HeapFile encode(List<String> lines, Type[] types, boolean slotted) throws IOException {
+        File dat = File.createTempFile("varchar", ".dat");
+        dat.deleteOnExit();
+        HeapFileEncoder.convert(writeText(lines), dat, BufferPool.getPageSize(), 2, types, ',');
+        TupleDesc td = new TupleDesc(types, new String[] { "id", "name" });
+        HeapFile f = slotted ? new SlottedFile(dat, td) : new HeapFile(dat, td);
+        Database.getCatalog().addTable(f, SystemTestUtil.getUUID());
+        return f;
+    }
+
+    private static List<String> readAll(DbFile f) throws Exception {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        List<String> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            rows.add(((IntField) t.getField(0)).getValue() + "," + ((StringField) t.getField(1)).getValue());
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return rows;
+    }
+
+    @Test public void testScanAndDensity() throws Exception {
+        List<String> lines = randomRows(ROWS);
+        HeapFile slotted = encode(lines, new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, true);
+        HeapFile fixed = encode(lines, new Type[] { Type.INT_TYPE, Type.STRING_TYPE }, false);
+        assertEquals(lines, readAll(slotted));
+        assertEquals(lines, readAll(fixed));
+        // short strings take a few bytes instead of 132
+        assertTrue(slotted.numPages() * 5 < fixed.numPages());
+
+        // predicates on VARCHAR fields are checked against the page bytes
+        String name = lines.get(42).split(",")[1];
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = slotted.iterator(tid, Collections.singletonList(
+                new Predicate(1, Predicate.Op.EQUALS, new StringField(name, Type.STRING_LEN))), new int[] { 0 });
+        it.open();
+        boolean found = false;
+        while (it.hasNext())
+            found |= ((IntField) it.next().getField(0)).getValue() == 42;
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertTrue(found);
+    }
+
+    @Test public void testInsertAndDelete() throws Exception {
+        List<String> lines = randomRows(ROWS);
+        HeapFile f = encode(lines, new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, true);
+        int pages = f.numPages();
+
+        // delete every other tuple, then insert as many with longer strings
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid);
+        List<Tuple> deleted = new ArrayList<>();
+        it.open();
+        for (int i = 0; it.hasNext(); i++) {
+            Tuple t = it.next();
+            if (i % 2 == 0)
+                deleted.add(t);
+        }
+        it.close();
+        List<String> expected = new ArrayList<>(lines);
+        for (Tuple t : deleted) {
+            Database.getBufferPool().deleteTuple(tid, t);
+            expected.remove(((IntField) t.getField(0)).getValue() + "," + ((StringField) t.getField(1)).getValue());
+        }
+        for (int i = 0; i < deleted.size(); i++) {
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(ROWS + i));
+            t.setField(1, new VarcharField("inserted-" + i, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, f.getId(), t);
+            expected.add((ROWS + i) + ",inserted-" + i);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+
+        // the freed space is reused, and the tuples survive a trip to disk
+        assertTrue(f.numPages() < 2 * pages);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        List<String> actual = readAll(f);
+        Collections.sort(actual);
+        Collections.sort(expected);
+        assertEquals(expected, actual);
+    }
+
+    @Test public void testBTreeKey() throws Exception {
+        File f = File.createTempFile("varchar", ".btree");
+        f.deleteOnExit();
+        BTreeFile bf = new BTreeFile(f, 1, TD);
+        Database.resetBufferPool(500);
+        Database.getCatalog().addTable(bf, SystemTestUtil.getUUID());
+        Random r = new Random(5);
+        List<String> names = new ArrayList<>();
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < 2000; i++) {
+            String name = randomString(r);
+            names.add(name);
+            Tuple t = new Tuple(TD);
+            t.setField(0, new IntField(i));
+            t.setField(1, new VarcharField(name, Type.STRING_LEN));
+            Database.getBufferPool().insertTuple(tid, bf.getId(), t);
+        }
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        String key = names.get(1234);
+        tid = new TransactionId();
+        DbFileIterator it = bf.indexIterator(tid,
+                new IndexPredicate(Predicate.Op.EQUALS, new VarcharField(key, Type.STRING_LEN)));
+        it.open();
+        int matches = 0;
+        while (it.hasNext()) {
+            assertEquals(key, ((StringField) it.next().getField(1)).getValue());
+            matches++;
+        }
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(Collections.frequency(names, key), matches);
+
+        // the leaves return the keys in order
+        List<String> sorted = new ArrayList<>(names);
+        Collections.sort(sorted);
+        tid = new TransactionId();
+        it = bf.iterator(tid);
+        List<String> scanned = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            scanned.add(((StringField) it.next().getField(1)).getValue());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(sorted, scanned);
+    }
+
+    @Test public void testParser() throws Exception {
+        File dir = File.createTempFile("catalog", "");
+        assertTrue(dir.delete() && dir.mkdir());
+        dir.deleteOnExit();
+        File schema = new File(dir, "schema.txt");
+        schema.deleteOnExit();
+        try (FileWriter w = new FileWriter(schema)) {
+            w.write("people (id int, name varchar)\n");
+        }
+        File data = new File(dir, "people.dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(writeText(Arrays.asList("1,ann", "2,bob")), data, BufferPool.getPageSize(), 2,
+                new Type[] { Type.INT_TYPE, Type.VARCHAR_TYPE }, ',');
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+        int tableId = Database.getCatalog().getTableId("people");
+        assertTrue(Database.getCatalog().getDatabaseFile(tableId) instanceof SlottedFile);
+
+        Parser p = new Parser();
+        TableStats.setTableStats("people", new TableStats(tableId, 1000));
+        p.processNextStatement("insert into people values (3, 'carol');");
+
+        TransactionId tid = new TransactionId();
+        LogicalPlan lp = p.generateLogicalPlan(tid, "select people.id from people where people.name = 'carol';");
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        SystemTestUtil.matchTuples(plan, Collections.singletonList(Collections.singletonList(3)));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(VarcharTest.class);
+    }
+}
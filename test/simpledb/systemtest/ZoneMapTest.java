@@ -0,0 +1,154 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.IntField;
+import simpledb.storage.Page;
+import simpledb.storage.PageId;
+import simpledb.storage.ZoneMap;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+/**
+ * Checks that scans with pushed-down predicates skip the pages the zone map
+ * rules out, and that the map follows inserts and is stored next to the table.
+ */
+public class ZoneMapTest extends SimpleDbTestBase {
+    private static final int ROWS = 10000;
+
+    /** A heap file that counts the pages it reads from disk. */
+    private static class CountingHeapFile extends HeapFile {
+        int reads;
+
+        CountingHeapFile(File f) {
+            super(f, Utility.getTupleDesc(2));
+        }
+
+        @Override
+        public Page readPage(PageId pid) {
+            reads++;
+            return super.readPage(pid);
+        }
+    }
+
+    /** Creates a table whose first column is sorted, so each page holds a narrow range. */
+    private static CountingHeapFile createSortedFile(List<List<Integer>> tuples) throws IOException {
+        for (int i = 0; i < ROWS; i++)
+            tuples.add(Arrays.asList(i, ROWS - i));
+        File f = File.createTempFile("zonemap", ".dat");
+        f.deleteOnExit();
+        new File(f.getPath() + ZoneMap.SUFFIX).deleteOnExit();
+        HeapFileEncoder.convert(tuples, f, BufferPool.getPageSize(), 2);
+        CountingHeapFile file = new CountingHeapFile(f);
+        Database.getCatalog().addTable(file, SystemTestUtil.getUUID());
+        return file;
+    }
+
+    private static List<List<Integer>> scan(HeapFile f, Predicate p)
+            throws DbException, TransactionAbortedException {
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = f.iterator(tid, Collections.singletonList(p), null);
+        List<List<Integer>> result = new ArrayList<>();
+        it.open();
+        while (it.hasNext())
+            result.add(SystemTestUtil.tupleToList(it.next()));
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return result;
+    }
+
+    @Test public void testSkipPages() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CountingHeapFile f = createSortedFile(tuples);
+        f.getZoneMap();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        f.reads = 0;
+
+        List<List<Integer>> result = scan(f, new Predicate(0, Predicate.Op.EQUALS, new IntField(ROWS / 2)));
+        assertEquals(Collections.singletonList(tuples.get(ROWS / 2)), result);
+        assertEquals(1, f.reads);
+
+        // a predicate on the descending column also selects a single page
+        f.reads = 0;
+        result = scan(f, new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(3)));
+        assertEquals(3, result.size());
+        assertEquals(1, f.reads);
+
+        // nothing matches, so no page is read
+        f.reads = 0;
+        assertTrue(scan(f, new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(ROWS))).isEmpty());
+        assertEquals(0, f.reads);
+    }
+
+    @Test public void testInsertWidens() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CountingHeapFile f = createSortedFile(tuples);
+        TransactionId tid = new TransactionId();
+        Database.getBufferPool().insertTuple(tid, f.getId(), Utility.getHeapTuple(new int[] { -5, 0 }));
+        DbFileIterator it = f.iterator(tid,
+                Collections.singletonList(new Predicate(0, Predicate.Op.LESS_THAN, new IntField(0))), null);
+        it.open();
+        assertTrue(it.hasNext());
+        assertEquals(Arrays.asList(-5, 0), SystemTestUtil.tupleToList(it.next()));
+        assertFalse(it.hasNext());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    @Test public void testPersisted() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CountingHeapFile f = createSortedFile(tuples);
+        int pages = f.numPages();
+        f.getZoneMap();
+        File zm = new File(f.getFile().getPath() + ZoneMap.SUFFIX);
+        assertTrue(zm.exists());
+        assertTrue(zm.setLastModified(f.getFile().lastModified() + 1000));
+
+        // a fresh file loads the stored map instead of reading the table
+        CountingHeapFile reopened = new CountingHeapFile(f.getFile());
+        assertEquals(pages, reopened.getZoneMap().numPages());
+        assertEquals(0, reopened.reads);
+
+        // a map older than the table is rebuilt
+        assertTrue(zm.setLastModified(f.getFile().lastModified() - 1000));
+        reopened = new CountingHeapFile(f.getFile());
+        reopened.getZoneMap();
+        assertEquals(pages, reopened.reads);
+    }
+
+    @Test public void testTableStats() throws Exception {
+        List<List<Integer>> tuples = new ArrayList<>();
+        CountingHeapFile f = createSortedFile(tuples);
+        TableStats stats = new TableStats(f.getId(), 1000);
+        int pages = f.numPages();
+        assertEquals(1.0 / pages, stats.estimatePageFraction(0, Predicate.Op.EQUALS, new IntField(42)), 1e-9);
+        assertEquals(0.0, stats.estimatePageFraction(0, Predicate.Op.LESS_THAN, new IntField(0)), 1e-9);
+        assertEquals(1.0, stats.estimatePageFraction(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(0)), 1e-9);
+        double half = stats.estimatePageFraction(0, Predicate.Op.LESS_THAN, new IntField(ROWS / 2));
+        assertTrue(half > 0.4 && half < 0.6);
+        assertTrue(stats.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(42)) <= 1.0 / pages);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ZoneMapTest.class);
+    }
+}